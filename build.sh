@@ -76,7 +76,10 @@ echo ""
 echo "Checking source files..."
 REQUIRED_FILES=(
     "src/IString.java"
+    "src/ParseStats.java"
+    "src/IChildVisitor.java"
     "src/ShallowString.java"
+    "src/MemoryBudget.java"
     "src/IXMLElement.java"
     "src/ShallowXMLElement.java"
     "src/IXMLParser.java"
@@ -84,14 +87,42 @@ REQUIRED_FILES=(
     "src/IHardware.java"
     "src/ISensor.java"
     "src/IMotor.java"
+    "src/IMotionAbortCondition.java"
     "src/NXTHardware.java"
     "src/ConfigurationException.java"
     "src/RobotConfiguration.java"
     "src/ConfigurationBlockExecutor.java"
+    "src/ValueNode.java"
+    "src/VariableStore.java"
+    "src/CoreNodes.java"
+    "src/CompiledBlock.java"
+    "src/CompiledProgram.java"
+    "src/ProgramCompiler.java"
+    "src/CompiledProcedure.java"
+    "src/CallStack.java"
+    "src/TrigTables.java"
+    "src/MathNodes.java"
+    "src/FixedPoint.java"
+    "src/FixedNodes.java"
+    "src/SensorTypes.java"
+    "src/SensorFilter.java"
+    "src/BlockProfiler.java"
+    "src/LatencyHistogram.java"
+    "src/ExecutionTrace.java"
+    "src/TracingHardware.java"
+    "src/RecentEvents.java"
+    "src/RotatingLog.java"
+    "src/SensorSamples.java"
+    "src/SensorNodes.java"
+    "src/SensorTrigger.java"
+    "src/SensorSampler.java"
+    "src/NepoTask.java"
+    "src/TaskScheduler.java"
     "src/NepoBlockExecutor.java"
     "src/CrashLogger.java"
     "src/FilePicker.java"
     "src/AdvancedFilePicker.java"
+    "src/PerformanceHud.java"
     "src/DynamicNepoRunner.java"
 )
 
@@ -110,8 +141,12 @@ echo "Compiling core components in dependency order..."
 echo "  → IString.java"
 nxjc -cp .:build -d build src/IString.java || { echo "ERROR: Failed to compile IString.java"; exit 1; }
 
-echo "  → IXMLElement.java"
-nxjc -cp .:build -d build src/IXMLElement.java || { echo "ERROR: Failed to compile IXMLElement.java"; exit 1; }
+echo "  → ParseStats.java"
+nxjc -cp .:build -d build src/ParseStats.java || { echo "ERROR: Failed to compile ParseStats.java"; exit 1; }
+
+# IXMLElement and its child visitor refer to each other
+echo "  → IXMLElement.java, IChildVisitor.java"
+nxjc -cp .:build -d build src/IXMLElement.java src/IChildVisitor.java || { echo "ERROR: Failed to compile IXMLElement.java"; exit 1; }
 
 echo "  → IXMLParser.java"
 nxjc -cp .:build -d build src/IXMLParser.java || { echo "ERROR: Failed to compile IXMLParser.java"; exit 1; }
@@ -122,6 +157,9 @@ nxjc -cp .:build -d build src/ISensor.java || { echo "ERROR: Failed to compile I
 echo "  → IMotor.java"
 nxjc -cp .:build -d build src/IMotor.java || { echo "ERROR: Failed to compile IMotor.java"; exit 1; }
 
+echo "  → IMotionAbortCondition.java"
+nxjc -cp .:build -d build src/IMotionAbortCondition.java || { echo "ERROR: Failed to compile IMotionAbortCondition.java"; exit 1; }
+
 echo "  → IHardware.java"
 nxjc -cp .:build -d build src/IHardware.java || { echo "ERROR: Failed to compile IHardware.java"; exit 1; }
 
@@ -129,6 +167,9 @@ nxjc -cp .:build -d build src/IHardware.java || { echo "ERROR: Failed to compile
 echo "  → ShallowString.java"
 nxjc -cp .:build -d build src/ShallowString.java || { echo "ERROR: Failed to compile ShallowString.java"; exit 1; }
 
+echo "  → MemoryBudget.java"
+nxjc -cp .:build -d build src/MemoryBudget.java || { echo "ERROR: Failed to compile MemoryBudget.java"; exit 1; }
+
 echo "  → ShallowXMLElement.java"
 nxjc -cp .:build -d build src/ShallowXMLElement.java || { echo "ERROR: Failed to compile ShallowXMLElement.java"; exit 1; }
 
@@ -144,6 +185,84 @@ nxjc -cp .:build -d build src/RobotConfiguration.java || { echo "ERROR: Failed t
 echo "  → ConfigurationBlockExecutor.java"
 nxjc -cp .:build -d build src/ConfigurationBlockExecutor.java || { echo "ERROR: Failed to compile ConfigurationBlockExecutor.java"; exit 1; }
 
+echo "  → ValueNode.java"
+nxjc -cp .:build -d build src/ValueNode.java || { echo "ERROR: Failed to compile ValueNode.java"; exit 1; }
+
+echo "  → VariableStore.java"
+nxjc -cp .:build -d build src/VariableStore.java || { echo "ERROR: Failed to compile VariableStore.java"; exit 1; }
+
+echo "  → CoreNodes.java"
+nxjc -cp .:build -d build src/CoreNodes.java || { echo "ERROR: Failed to compile CoreNodes.java"; exit 1; }
+
+echo "  → CompiledBlock.java"
+nxjc -cp .:build -d build src/CompiledBlock.java || { echo "ERROR: Failed to compile CompiledBlock.java"; exit 1; }
+
+echo "  → CompiledProgram.java"
+nxjc -cp .:build -d build src/CompiledProgram.java || { echo "ERROR: Failed to compile CompiledProgram.java"; exit 1; }
+
+echo "  → ProgramCompiler.java"
+nxjc -cp .:build -d build src/ProgramCompiler.java || { echo "ERROR: Failed to compile ProgramCompiler.java"; exit 1; }
+
+echo "  → CompiledProcedure.java"
+nxjc -cp .:build -d build src/CompiledProcedure.java || { echo "ERROR: Failed to compile CompiledProcedure.java"; exit 1; }
+
+echo "  → CallStack.java"
+nxjc -cp .:build -d build src/CallStack.java || { echo "ERROR: Failed to compile CallStack.java"; exit 1; }
+
+echo "  → TrigTables.java"
+nxjc -cp .:build -d build src/TrigTables.java || { echo "ERROR: Failed to compile TrigTables.java"; exit 1; }
+
+echo "  → MathNodes.java"
+nxjc -cp .:build -d build src/MathNodes.java || { echo "ERROR: Failed to compile MathNodes.java"; exit 1; }
+
+echo "  → FixedPoint.java"
+nxjc -cp .:build -d build src/FixedPoint.java || { echo "ERROR: Failed to compile FixedPoint.java"; exit 1; }
+
+echo "  → FixedNodes.java"
+nxjc -cp .:build -d build src/FixedNodes.java || { echo "ERROR: Failed to compile FixedNodes.java"; exit 1; }
+
+echo "  → SensorTypes.java"
+nxjc -cp .:build -d build src/SensorTypes.java || { echo "ERROR: Failed to compile SensorTypes.java"; exit 1; }
+
+echo "  → SensorFilter.java"
+nxjc -cp .:build -d build src/SensorFilter.java || { echo "ERROR: Failed to compile SensorFilter.java"; exit 1; }
+
+echo "  → BlockProfiler.java"
+nxjc -cp .:build -d build src/BlockProfiler.java || { echo "ERROR: Failed to compile BlockProfiler.java"; exit 1; }
+
+echo "  → LatencyHistogram.java"
+nxjc -cp .:build -d build src/LatencyHistogram.java || { echo "ERROR: Failed to compile LatencyHistogram.java"; exit 1; }
+
+echo "  → ExecutionTrace.java"
+nxjc -cp .:build -d build src/ExecutionTrace.java || { echo "ERROR: Failed to compile ExecutionTrace.java"; exit 1; }
+
+echo "  → TracingHardware.java"
+nxjc -cp .:build -d build src/TracingHardware.java || { echo "ERROR: Failed to compile TracingHardware.java"; exit 1; }
+
+echo "  → RecentEvents.java"
+nxjc -cp .:build -d build src/RecentEvents.java || { echo "ERROR: Failed to compile RecentEvents.java"; exit 1; }
+
+echo "  → RotatingLog.java"
+nxjc -cp .:build -d build src/RotatingLog.java || { echo "ERROR: Failed to compile RotatingLog.java"; exit 1; }
+
+echo "  → SensorSamples.java"
+nxjc -cp .:build -d build src/SensorSamples.java || { echo "ERROR: Failed to compile SensorSamples.java"; exit 1; }
+
+echo "  → SensorNodes.java"
+nxjc -cp .:build -d build src/SensorNodes.java || { echo "ERROR: Failed to compile SensorNodes.java"; exit 1; }
+
+echo "  → SensorTrigger.java"
+nxjc -cp .:build -d build src/SensorTrigger.java || { echo "ERROR: Failed to compile SensorTrigger.java"; exit 1; }
+
+echo "  → SensorSampler.java"
+nxjc -cp .:build -d build src/SensorSampler.java || { echo "ERROR: Failed to compile SensorSampler.java"; exit 1; }
+
+echo "  → NepoTask.java"
+nxjc -cp .:build -d build src/NepoTask.java || { echo "ERROR: Failed to compile NepoTask.java"; exit 1; }
+
+echo "  → TaskScheduler.java"
+nxjc -cp .:build -d build src/TaskScheduler.java || { echo "ERROR: Failed to compile TaskScheduler.java"; exit 1; }
+
 echo "  → NXTHardware.java"
 nxjc -cp .:build -d build src/NXTHardware.java || { echo "ERROR: Failed to compile NXTHardware.java"; exit 1; }
 
@@ -162,6 +281,9 @@ nxjc -cp .:build -d build src/FilePicker.java || { echo "ERROR: Failed to compil
 echo "  → AdvancedFilePicker.java"
 nxjc -cp .:build -d build src/AdvancedFilePicker.java || { echo "ERROR: Failed to compile AdvancedFilePicker.java"; exit 1; }
 
+echo "  → PerformanceHud.java"
+nxjc -cp .:build -d build src/PerformanceHud.java || { echo "ERROR: Failed to compile PerformanceHud.java"; exit 1; }
+
 
 echo ""
 echo "Compiling main program..."
@@ -19,12 +19,14 @@ show_usage() {
     echo "  -v, --verbose  Verbose output"
     echo "  -u, --unit     Run unit tests only"
     echo "  -i, --integration  Run integration tests only"
+    echo "  -b, --benchmark  Run benchmarks instead of tests"
     echo "  --clean        Clean build artifacts before running"
     echo ""
     echo "Test Organization:"
     echo "  • All test classes are named Test..."
     echo "  • Unit tests are in test/unit/"
     echo "  • Integration tests are in test/integration/"
+    echo "  • Benchmarks (Benchmark...) are in test/benchmark/"
     echo "  • Test build artifacts go to test/build/"
     echo ""
 }
@@ -34,6 +36,7 @@ VERBOSE=false
 UNIT_ONLY=false
 INTEGRATION_ONLY=false
 CLEAN=false
+BENCHMARK=false
 
 while [[ $# -gt 0 ]]; do
     case $1 in
@@ -53,6 +56,10 @@ while [[ $# -gt 0 ]]; do
             INTEGRATION_ONLY=true
             shift
             ;;
+        -b|--benchmark)
+            BENCHMARK=true
+            shift
+            ;;
         --clean)
             CLEAN=true
             shift
@@ -81,7 +88,7 @@ mkdir -p test/build
 
 # Compile core source files (XML, configuration, and executor files needed for tests)
 echo "📦 Compiling core source files..."
-CORE_FILES="src/IString.java src/ShallowString.java src/IXMLElement.java src/ShallowXMLElement.java src/IXMLParser.java src/ShallowXMLParser.java src/ConfigurationBlockExecutor.java src/ConfigurationException.java src/RobotConfiguration.java src/NepoBlockExecutor.java src/IHardware.java src/IMotor.java src/ISensor.java"
+CORE_FILES="src/IString.java src/ShallowString.java src/IXMLElement.java src/ShallowXMLElement.java src/IXMLParser.java src/ShallowXMLParser.java src/ConfigurationBlockExecutor.java src/ConfigurationException.java src/RobotConfiguration.java src/NepoBlockExecutor.java src/IHardware.java src/IMotor.java src/IMotionAbortCondition.java src/ISensor.java src/TaskScheduler.java src/NepoTask.java src/ValueNode.java src/VariableStore.java src/CoreNodes.java src/CompiledBlock.java src/CompiledProgram.java src/ProgramCompiler.java src/CompiledProcedure.java src/CallStack.java src/TrigTables.java src/MathNodes.java src/FixedPoint.java src/FixedNodes.java src/SensorTypes.java src/SensorSamples.java src/SensorNodes.java src/SensorSampler.java src/SensorTrigger.java src/SensorFilter.java src/BlockProfiler.java src/LatencyHistogram.java src/ExecutionTrace.java src/TracingHardware.java src/TraceDecoder.java src/RecentEvents.java src/RotatingLog.java src/MemoryBudget.java src/ParseStats.java src/IChildVisitor.java"
 
 if [ "$VERBOSE" = true ]; then
     javac -cp src -d test/build $CORE_FILES
@@ -94,6 +101,18 @@ fi
 echo "✅ Core source files compiled"
 echo ""
 
+# Benchmarks only report numbers - they are not part of the test run
+if [ "$BENCHMARK" = true ]; then
+    for benchmark_file in $(find test/benchmark -name "Benchmark*.java" 2>/dev/null); do
+        class_name=$(basename "$benchmark_file" .java)
+        echo "⏱️  Running $class_name..."
+        javac -cp "src:test:test/build" -d test/build "$benchmark_file" || exit 1
+        java -cp "src:test:test/build" "$class_name" || exit 1
+        echo ""
+    done
+    exit 0
+fi
+
 # Function to compile and run tests in a directory
 run_tests_in_dir() {
     local test_dir=$1
@@ -183,9 +202,9 @@ run_tests_in_dir() {
             
             # Compile the test file
             if [ "$VERBOSE" = true ]; then
-                javac -cp "src:test:test/build" -d test/build "$test_file"
+                javac -cp "src:test:test/integration:test/build" -d test/build "$test_file"
             else
-                javac -cp "src:test:test/build" -d test/build "$test_file" 2>/dev/null || {
+                javac -cp "src:test:test/integration:test/build" -d test/build "$test_file" 2>/dev/null || {
                     echo "❌ Failed to compile $class_name"
                     failed=$((failed + 1))
                     total=$((total + 1))
@@ -196,10 +215,10 @@ run_tests_in_dir() {
             # Run the test
             echo "   Running $class_name..."
             if [ "$VERBOSE" = true ]; then
-                java -cp "src:test:test/build" "$class_name"
+                java -cp "src:test:test/integration:test/build" "$class_name"
                 local exit_code=$?
             else
-                java -cp "src:test:test/build" "$class_name" >/dev/null 2>&1
+                java -cp "src:test:test/integration:test/build" "$class_name" >/dev/null 2>&1
                 local exit_code=$?
             fi
             
@@ -0,0 +1,298 @@
+import java.io.*;
+
+/**
+ * Opt-in wall-clock profiler for NEPO programs
+ *
+ * Accumulates call count, total and maximum time of every executed
+ * statement, per block type and per block id. Times are self times:
+ * control blocks are compiled to jumps, so the statements in a loop body
+ * are counted separately from the loop itself. A wait block is counted
+ * once per check of its condition.
+ *
+ * Usage:
+ *   executor.setProfiler(new BlockProfiler("profile.log"));
+ * The summary is written to the file when the program ends.
+ *
+ * Summary format, one line per type and per block id, slowest first:
+ *   # type calls total_us max_us
+ *   robControls_wait 1200 5400 31
+ *   # id type calls total_us max_us
+ *   a7 robControls_wait 1200 5400 31
+ *
+ * Memory strategy for NXT:
+ * - All tables are preallocated primitive arrays
+ * - A block gets its slot on its first execution (CompiledBlock.profileSlot),
+ *   so recording is a few array updates and allocates nothing
+ * - Blocks beyond the table size are still counted per type
+ * - Disabled (no profiler set), the executor pays one null check per statement
+ */
+public class BlockProfiler {
+
+    public static final int DEFAULT_MAX_TYPES = 48;
+    public static final int DEFAULT_MAX_BLOCKS = 256;
+
+    // Types beyond the table size share the last row
+    private static final String OTHER_TYPES = "(other)";
+
+    private final String fileName;
+
+    // Per block type
+    private final String[] typeNames;
+    private final long[] typeCalls;
+    private final long[] typeTotals;   // ns
+    private final long[] typeMax;      // ns
+    private int typeCount = 0;
+
+    // Per block id
+    private final String[] blockIds;
+    private final int[] blockTypes;
+    private final long[] blockCalls;
+    private final long[] blockTotals;  // ns
+    private final long[] blockMax;     // ns
+    private int blockCount = 0;
+
+    private long startTime = System.currentTimeMillis();
+
+    /**
+     * Create a profiler with the default table sizes
+     *
+     * @param fileName File the summary is written to when the program ends,
+     *                 or null to only collect
+     */
+    public BlockProfiler(String fileName) {
+        this(fileName, DEFAULT_MAX_TYPES, DEFAULT_MAX_BLOCKS);
+    }
+
+    public BlockProfiler(String fileName, int maxTypes, int maxBlocks) {
+        if (maxTypes < 2 || maxBlocks < 0) {
+            throw new IllegalArgumentException("Profiler needs at least two type rows");
+        }
+        this.fileName = fileName;
+        typeNames = new String[maxTypes];
+        typeCalls = new long[maxTypes];
+        typeTotals = new long[maxTypes];
+        typeMax = new long[maxTypes];
+        blockIds = new String[maxBlocks];
+        blockTypes = new int[maxBlocks];
+        blockCalls = new long[maxBlocks];
+        blockTotals = new long[maxBlocks];
+        blockMax = new long[maxBlocks];
+    }
+
+    /**
+     * Record one execution of a statement
+     *
+     * @param nanos Execution time in nanoseconds
+     */
+    public void record(CompiledBlock block, long nanos) {
+        int slot = block.profileSlot;
+        if (slot == -1 || slot >= blockCount) {
+            slot = register(block);
+        }
+
+        int type;
+        if (slot >= 0) {
+            type = blockTypes[slot];
+            blockCalls[slot]++;
+            blockTotals[slot] += nanos;
+            if (nanos > blockMax[slot]) {
+                blockMax[slot] = nanos;
+            }
+        } else {
+            type = -slot - 2;
+        }
+
+        typeCalls[type]++;
+        typeTotals[type] += nanos;
+        if (nanos > typeMax[type]) {
+            typeMax[type] = nanos;
+        }
+    }
+
+    /**
+     * Clear all counters and restart the run time
+     */
+    public void reset() {
+        for (int i = 0; i < typeCount; i++) {
+            typeCalls[i] = 0;
+            typeTotals[i] = 0;
+            typeMax[i] = 0;
+        }
+        for (int i = 0; i < blockCount; i++) {
+            blockCalls[i] = 0;
+            blockTotals[i] = 0;
+            blockMax[i] = 0;
+        }
+        startTime = System.currentTimeMillis();
+    }
+
+    public int getTypeCount() {
+        return typeCount;
+    }
+
+    /**
+     * Find the row of a block type
+     *
+     * @return The row, or -1 if no block of the type was executed
+     */
+    public int findType(String type) {
+        for (int i = 0; i < typeCount; i++) {
+            if (typeNames[i].equals(type)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public String getTypeName(int row) {
+        return typeNames[row];
+    }
+
+    public long getTypeCalls(int row) {
+        return typeCalls[row];
+    }
+
+    /**
+     * Total time in nanoseconds
+     */
+    public long getTypeTotal(int row) {
+        return typeTotals[row];
+    }
+
+    /**
+     * Longest single execution in nanoseconds
+     */
+    public long getTypeMax(int row) {
+        return typeMax[row];
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Find the row of a block id
+     *
+     * @return The row, or -1 if the block was not executed or did not fit
+     */
+    public int findBlock(String id) {
+        for (int i = 0; i < blockCount; i++) {
+            if (id.equals(blockIds[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public String getBlockId(int row) {
+        return blockIds[row];
+    }
+
+    public String getBlockType(int row) {
+        return typeNames[blockTypes[row]];
+    }
+
+    public long getBlockCalls(int row) {
+        return blockCalls[row];
+    }
+
+    public long getBlockTotal(int row) {
+        return blockTotals[row];
+    }
+
+    public long getBlockMax(int row) {
+        return blockMax[row];
+    }
+
+    /**
+     * Write the summary to the file given to the constructor
+     *
+     * @return false if there is no file or writing failed
+     */
+    public boolean writeFile() {
+        if (fileName == null) {
+            return false;
+        }
+        try (FileOutputStream fos = new FileOutputStream(new File(fileName)); PrintStream ps = new PrintStream(fos)) {
+            writeSummary(ps);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Write the summary, slowest types and blocks first
+     */
+    public void writeSummary(PrintStream ps) {
+        ps.println("# profile " + (System.currentTimeMillis() - startTime) + " ms");
+        ps.println("# type calls total_us max_us");
+        boolean[] written = new boolean[Math.max(typeCount, blockCount)];
+        for (int n = 0; n < typeCount; n++) {
+            int row = slowest(typeTotals, typeCount, written);
+            ps.println(typeNames[row] + " " + typeCalls[row] + " " + typeTotals[row] / 1000
+                + " " + typeMax[row] / 1000);
+        }
+
+        ps.println("# id type calls total_us max_us");
+        for (int i = 0; i < written.length; i++) {
+            written[i] = false;
+        }
+        for (int n = 0; n < blockCount; n++) {
+            int row = slowest(blockTotals, blockCount, written);
+            ps.println(blockIds[row] + " " + typeNames[blockTypes[row]] + " " + blockCalls[row]
+                + " " + blockTotals[row] / 1000 + " " + blockMax[row] / 1000);
+        }
+    }
+
+    /**
+     * Selection step for the summary - the summary is written once,
+     * so no sorted copy is kept
+     */
+    private static int slowest(long[] totals, int count, boolean[] written) {
+        int best = -1;
+        for (int i = 0; i < count; i++) {
+            if (!written[i] && (best < 0 || totals[i] > totals[best])) {
+                best = i;
+            }
+        }
+        written[best] = true;
+        return best;
+    }
+
+    /**
+     * Assign a block its slot on its first execution.
+     * Blocks without id or beyond the table are counted by type only.
+     *
+     * @return The block slot, or -(type + 2) for a type-only block
+     */
+    private int register(CompiledBlock block) {
+        int type = findType(block.type);
+        if (type < 0) {
+            if (typeCount < typeNames.length - 1) {
+                type = typeCount++;
+                typeNames[type] = block.type;
+            } else {
+                type = typeNames.length - 1;
+                if (typeCount < typeNames.length) {
+                    typeNames[type] = OTHER_TYPES;
+                    typeCount++;
+                }
+            }
+        }
+
+        // Control blocks compile to several statements with the same id
+        int slot = block.id != null ? findBlock(block.id) : -1;
+        if (slot < 0) {
+            if (block.id != null && blockCount < blockIds.length) {
+                slot = blockCount++;
+                blockIds[slot] = block.id;
+                blockTypes[slot] = type;
+            } else {
+                slot = -type - 2;
+            }
+        }
+        block.profileSlot = slot;
+        return slot;
+    }
+}
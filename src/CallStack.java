@@ -0,0 +1,116 @@
+/**
+ * CallStack - preallocated procedure frames of one task
+ * 
+ * Parameters of every active procedure call live in one primitive array per
+ * datatype; frame n uses the slots [n * frameSize, (n + 1) * frameSize).
+ * Frame 0 belongs to the task itself. All arrays are allocated when the task
+ * is created, so calling a procedure allocates nothing.
+ * 
+ * A frame is reserved before the arguments are evaluated and entered
+ * afterwards. Arguments are still evaluated in the caller's frame, and a
+ * function call inside an argument reserves the next frame up, so it cannot
+ * overwrite arguments that were already passed.
+ */
+public class CallStack {
+    
+    public final double[] numbers;
+    public final boolean[] booleans;
+    public final Object[] objects;
+    
+    public final int numberFrameSize;
+    public final int booleanFrameSize;
+    public final int objectFrameSize;
+    
+    private final int limit;
+    private final int[] callerFrame;
+    private final CompiledProcedure[] procedures;
+    
+    private int frame = 0;   // Frame used by local variable reads
+    private int top = 0;     // Highest reserved frame
+    
+    // Return value of the last completed function call
+    public double returnNumber;
+    public boolean returnBoolean;
+    public Object returnObject;
+    
+    /**
+     * Create a call stack.
+     * 
+     * @param limit Maximum number of nested procedure calls
+     */
+    public CallStack(int numberFrameSize, int booleanFrameSize, int objectFrameSize, int limit) {
+        this.numberFrameSize = numberFrameSize;
+        this.booleanFrameSize = booleanFrameSize;
+        this.objectFrameSize = objectFrameSize;
+        this.limit = limit;
+        
+        numbers = new double[(limit + 1) * numberFrameSize];
+        booleans = new boolean[(limit + 1) * booleanFrameSize];
+        objects = new Object[(limit + 1) * objectFrameSize];
+        callerFrame = new int[limit + 1];
+        procedures = new CompiledProcedure[limit + 1];
+    }
+    
+    /**
+     * Reserve the frame for a new call.
+     * 
+     * @return The frame index, or -1 if the recursion limit is reached
+     */
+    public int reserve() {
+        if (top >= limit) {
+            return -1;
+        }
+        return ++top;
+    }
+    
+    /**
+     * Make a reserved frame the current frame
+     */
+    public void enter(int newFrame, CompiledProcedure procedure) {
+        callerFrame[newFrame] = frame;
+        procedures[newFrame] = procedure;
+        frame = newFrame;
+    }
+    
+    /**
+     * Leave the current frame and return to the caller's frame
+     */
+    public void exit() {
+        int exited = frame;
+        for (int i = exited * objectFrameSize; i < (exited + 1) * objectFrameSize; i++) {
+            objects[i] = null; // Release for GC
+        }
+        procedures[exited] = null;
+        frame = callerFrame[exited];
+        top = exited - 1;
+    }
+    
+    /**
+     * Release a reserved frame that was never entered
+     */
+    public void release(int reserved) {
+        top = reserved - 1;
+    }
+    
+    /**
+     * Get the procedure of the current frame (null for the task itself)
+     */
+    public CompiledProcedure getProcedure() {
+        return procedures[frame];
+    }
+    
+    public int getFrame() {
+        return frame;
+    }
+    
+    /**
+     * Get the number of active and reserved calls
+     */
+    public int getDepth() {
+        return top;
+    }
+    
+    public int getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * CompiledBlock - load-time translation of a NEPO statement block
+ * 
+ * The block type string is resolved to an opcode, fields to int arguments
+ * and value inputs to ValueNode trees, so executing a statement needs no
+ * XML access at all.
+ * 
+ * Statements of a task or procedure form one flat array. Control blocks
+ * are compiled to jumps whose target index is linked at load time, so
+ * nesting costs no frames and break/continue are a single jump.
+ */
+public class CompiledBlock {
+    
+    // Opcodes
+    public static final int OP_NOP = 0;                 // Start blocks and unsupported blocks
+    public static final int OP_LOOP = 1;                // Jump back to the loop start - iteration boundary
+    public static final int OP_WAIT = 2;
+    public static final int OP_MOTOR_DIFF_ON = 3;
+    public static final int OP_MOTOR_DIFF_TURN_FOR = 4;
+    public static final int OP_SET_NUMBER = 5;
+    public static final int OP_SET_BOOLEAN = 6;
+    public static final int OP_SET_OBJECT = 7;
+    public static final int OP_CALL = 8;
+    public static final int OP_RETURN_IF = 9;
+    public static final int OP_SET_LOCAL_NUMBER = 10;
+    public static final int OP_SET_LOCAL_BOOLEAN = 11;
+    public static final int OP_SET_LOCAL_OBJECT = 12;
+    public static final int OP_JUMP = 13;
+    public static final int OP_JUMP_IF_FALSE = 14;      // Jump if value0 is false
+    public static final int OP_RESET_SENSOR = 15;       // Reset the sensor read by value0
+    
+    // Direction arguments
+    public static final int DIRECTION_NONE = 0;
+    public static final int DIRECTION_FORWARD = 1;
+    public static final int DIRECTION_BACKWARD = 2;
+    public static final int DIRECTION_LEFT = 3;
+    public static final int DIRECTION_RIGHT = 4;
+    
+    public final int opcode;
+    public final String type;          // NEPO block type, for diagnostics
+    public String id = null;           // NEPO block id attribute, for diagnostics
+    public int profileSlot = -1;       // Slot in the BlockProfiler, -1 until first profiled
+    public int traceStrings = -1;      // Type and id string index in the ExecutionTrace, -1 until first traced
+    
+    public int arg = 0;                // Direction or variable slot
+    public ValueNode value0 = null;    // POWER, WAIT0, VALUE or CONDITION/jump condition
+    public ValueNode value1 = null;    // DEGREE or return VALUE
+    public int target = -1;            // Jump target index
+    public SensorTrigger trigger = null; // Wait condition on a single sensor, or null
+    
+    public CompiledProcedure procedure = null; // Linked procedure of a call
+    public ValueNode[] args = null;            // Call arguments, one per parameter
+    
+    public CompiledBlock(int opcode, String type) {
+        this.opcode = opcode;
+        this.type = type;
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * CompiledProcedure - load-time translation of a NEPO procedure definition
+ * 
+ * Created for robProcedures_defnoreturn and robProcedures_defreturn. Call
+ * sites reference this object directly, so a call needs no name lookup.
+ * Parameters live in the CallStack frame of the call; paramSlots gives the
+ * slot of each parameter within the frame array of its datatype.
+ */
+public class CompiledProcedure {
+    
+    public static final int NO_RETURN = -1;
+    
+    public final String name;
+    public final int[] paramTypes;     // ValueNode.TYPE_* per parameter
+    public final int[] paramSlots;     // Slot within the frame per parameter
+    public final int returnType;       // ValueNode.TYPE_* or NO_RETURN
+    
+    public CompiledBlock[] body = null;  // Filled in after all signatures are known
+    public ValueNode returnValue = null; // RETURN input of robProcedures_defreturn
+    
+    public CompiledProcedure(String name, int[] paramTypes, int[] paramSlots, int returnType) {
+        this.name = name;
+        this.paramTypes = paramTypes;
+        this.paramSlots = paramSlots;
+        this.returnType = returnType;
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * CompiledProgram - runtime representation of a NEPO program
+ * 
+ * Holds the compiled statements of every task, the number of variable
+ * slots per datatype and the procedure frame layout. Nothing in here
+ * references the XML tree.
+ */
+public class CompiledProgram {
+    
+    private final CompiledBlock[][] tasks;
+    private final int numberSlots;
+    private final int booleanSlots;
+    private final int objectSlots;
+    
+    // Procedure parameters per frame and datatype
+    private int procedureCount = 0;
+    private int numberParams = 0;
+    private int booleanParams = 0;
+    private int objectParams = 0;
+    
+    public CompiledProgram(CompiledBlock[][] tasks, int numberSlots, int booleanSlots, int objectSlots) {
+        this.tasks = tasks;
+        this.numberSlots = numberSlots;
+        this.booleanSlots = booleanSlots;
+        this.objectSlots = objectSlots;
+    }
+    
+    public int getTaskCount() {
+        return tasks.length;
+    }
+    
+    /**
+     * Get the top-level statements of a task
+     */
+    public CompiledBlock[] getTask(int index) {
+        return tasks[index];
+    }
+    
+    /**
+     * Create zero-initialised variable storage for one run of the program
+     */
+    public VariableStore createVariableStore() {
+        return new VariableStore(numberSlots, booleanSlots, objectSlots);
+    }
+    
+    /**
+     * Set the procedure frame layout - the largest parameter count per datatype
+     */
+    public void setProcedureFrames(int procedureCount, int numberParams, int booleanParams, int objectParams) {
+        this.procedureCount = procedureCount;
+        this.numberParams = numberParams;
+        this.booleanParams = booleanParams;
+        this.objectParams = objectParams;
+    }
+    
+    public int getProcedureCount() {
+        return procedureCount;
+    }
+    
+    /**
+     * Create the procedure call stack for one task
+     * 
+     * @param limit Maximum number of nested procedure calls
+     * @return The call stack, or null if the program has no procedures
+     */
+    public CallStack createCallStack(int limit) {
+        if (procedureCount == 0) {
+            return null;
+        }
+        return new CallStack(numberParams, booleanParams, objectParams, limit);
+    }
+}
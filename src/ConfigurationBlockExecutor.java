@@ -7,6 +7,22 @@ import java.util.*;
  * the robot hardware configuration.
  */
 public class ConfigurationBlockExecutor {
+    
+    /**
+     * Adds the motor or sensor of each port value element to the
+     * configuration being parsed
+     */
+    private class PortVisitor implements IChildVisitor {
+        RobotConfiguration config;
+        
+        public boolean visitChild(IXMLElement value) {
+            parsePortConfiguration(value, config);
+            return true;
+        }
+    }
+    
+    // Reused for every configuration parsed by this executor
+    private final PortVisitor portVisitor = new PortVisitor();
 
     public static RobotConfiguration parseConfigFromProgram(IXMLElement program) throws ConfigurationException {
         IXMLElement config = program.findElement("config");
@@ -76,10 +92,11 @@ public class ConfigurationBlockExecutor {
         }
         
         // Process value elements for motors and sensors
-        Vector<IXMLElement> values = brickBlock.getChildren("value");
-        for (int i = 0; i < values.size(); i++) {
-            IXMLElement value = values.elementAt(i);
-            parsePortConfiguration(value, config);
+        portVisitor.config = config;
+        try {
+            brickBlock.forEachChild("value", portVisitor);
+        } finally {
+            portVisitor.config = null;
         }
         
         return config;
@@ -149,6 +166,8 @@ public class ConfigurationBlockExecutor {
     
     /**
      * Parse sensor configuration from a sensor block.
+     * Optional fields FILTER_MEDIAN, FILTER_AVERAGE and FILTER_DEBOUNCE
+     * configure the filter stage; invalid values leave the stage off.
      * 
      * @param sensorBlock The sensor block element
      * @param port The port identifier (1, 4, etc.)
@@ -156,7 +175,45 @@ public class ConfigurationBlockExecutor {
      * @return Sensor configuration
      */
     private RobotConfiguration.SensorConfig parseSensorBlock(IXMLElement sensorBlock, String port, String sensorType) {
-        return new RobotConfiguration.SensorConfig(port, sensorType);
+        RobotConfiguration.SensorConfig sensorConfig = new RobotConfiguration.SensorConfig(port, sensorType);
+        
+        String median = getFieldValue(sensorBlock, "FILTER_MEDIAN");
+        if (median != null) {
+            try {
+                int window = Integer.parseInt(median.trim());
+                if (window >= 0 && window <= SensorFilter.MAX_MEDIAN_WINDOW) {
+                    sensorConfig.medianWindow = window;
+                }
+            } catch (NumberFormatException e) {
+                // Filter stays off
+            }
+        }
+        
+        String average = getFieldValue(sensorBlock, "FILTER_AVERAGE");
+        if (average != null) {
+            try {
+                double weight = Double.parseDouble(average.trim());
+                if (weight >= 0 && weight <= 1) {
+                    sensorConfig.averageWeight = weight;
+                }
+            } catch (NumberFormatException e) {
+                // Filter stays off
+            }
+        }
+        
+        String debounce = getFieldValue(sensorBlock, "FILTER_DEBOUNCE");
+        if (debounce != null) {
+            try {
+                int window = Integer.parseInt(debounce.trim());
+                if (window >= 0) {
+                    sensorConfig.debounce = window;
+                }
+            } catch (NumberFormatException e) {
+                // Filter stays off
+            }
+        }
+        
+        return sensorConfig;
     }
     
     /**
@@ -202,12 +259,14 @@ public class ConfigurationBlockExecutor {
      * Get field value from a block
      */
     private String getFieldValue(IXMLElement block, String fieldName) {
-        Vector<IXMLElement> fields = block.getChildren("field");
-        for (int i = 0; i < fields.size(); i++) {
-            IXMLElement field = fields.elementAt(i);
-            IString nameAttr = field.getAttribute("name");
-            if (nameAttr != null && fieldName.equals(nameAttr.toString())) {
-                return field.getTextContent();
+        int count = block.getChildCount();
+        for (int i = 0; i < count; i++) {
+            IXMLElement field = block.getChildAt(i);
+            if ("field".equals(field.getTagName())) {
+                IString nameAttr = field.getAttribute("name");
+                if (nameAttr != null && nameAttr.equals(fieldName)) {
+                    return field.getTextContent();
+                }
             }
         }
         return null;
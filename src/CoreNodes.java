@@ -0,0 +1,342 @@
+/**
+ * Core value nodes: constants, variables, logic and procedure calls
+ * 
+ * Created by ProgramCompiler; see ValueNode for the evaluation contract.
+ */
+public class CoreNodes {
+    
+    // Comparison operators for Compare
+    public static final int OP_EQ = 0;
+    public static final int OP_NEQ = 1;
+    public static final int OP_LT = 2;
+    public static final int OP_LTE = 3;
+    public static final int OP_GT = 4;
+    public static final int OP_GTE = 5;
+    
+    /**
+     * math_number
+     */
+    public static class NumberConstant extends ValueNode {
+        private final double value;
+        private final int fixedValue;
+        private final boolean fitsFixed;
+        
+        public NumberConstant(double value) {
+            this.value = value;
+            this.fitsFixed = FixedPoint.fits(value);
+            this.fixedValue = fitsFixed ? FixedPoint.fromDouble(value) : 0;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public boolean isFixedPoint() { return true; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            return value;
+        }
+        
+        public int evalFixed(NepoBlockExecutor executor) {
+            if (!fitsFixed) {
+                throw FixedPoint.OVERFLOW;
+            }
+            return fixedValue;
+        }
+    }
+    
+    /**
+     * logic_boolean
+     */
+    public static class BooleanConstant extends ValueNode {
+        private final boolean value;
+        
+        public BooleanConstant(boolean value) {
+            this.value = value;
+        }
+        
+        public int getType() { return TYPE_BOOLEAN; }
+        
+        public boolean evalBoolean(NepoBlockExecutor executor) {
+            return value;
+        }
+    }
+    
+    /**
+     * text
+     */
+    public static class TextConstant extends ValueNode {
+        private final String value;
+        
+        public TextConstant(String value) {
+            this.value = value;
+        }
+        
+        public int getType() { return TYPE_OBJECT; }
+        
+        public Object evalObject(NepoBlockExecutor executor) {
+            return value;
+        }
+    }
+    
+    /**
+     * variables_get for a Number variable
+     */
+    public static class NumberVariable extends ValueNode {
+        private final int slot;
+        
+        public NumberVariable(int slot) {
+            this.slot = slot;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            return executor.variables.numbers[slot];
+        }
+    }
+    
+    /**
+     * variables_get for a Boolean variable
+     */
+    public static class BooleanVariable extends ValueNode {
+        private final int slot;
+        
+        public BooleanVariable(int slot) {
+            this.slot = slot;
+        }
+        
+        public int getType() { return TYPE_BOOLEAN; }
+        
+        public boolean evalBoolean(NepoBlockExecutor executor) {
+            return executor.variables.booleans[slot];
+        }
+    }
+    
+    /**
+     * variables_get for any other datatype
+     */
+    public static class ObjectVariable extends ValueNode {
+        private final int slot;
+        
+        public ObjectVariable(int slot) {
+            this.slot = slot;
+        }
+        
+        public int getType() { return TYPE_OBJECT; }
+        
+        public Object evalObject(NepoBlockExecutor executor) {
+            return executor.variables.objects[slot];
+        }
+    }
+    
+    /**
+     * variables_get for a Number parameter of the enclosing procedure
+     */
+    public static class LocalNumberVariable extends ValueNode {
+        private final int slot;
+        
+        public LocalNumberVariable(int slot) {
+            this.slot = slot;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            CallStack stack = executor.currentTask.getCallStack();
+            return stack.numbers[stack.getFrame() * stack.numberFrameSize + slot];
+        }
+    }
+    
+    /**
+     * variables_get for a Boolean parameter of the enclosing procedure
+     */
+    public static class LocalBooleanVariable extends ValueNode {
+        private final int slot;
+        
+        public LocalBooleanVariable(int slot) {
+            this.slot = slot;
+        }
+        
+        public int getType() { return TYPE_BOOLEAN; }
+        
+        public boolean evalBoolean(NepoBlockExecutor executor) {
+            CallStack stack = executor.currentTask.getCallStack();
+            return stack.booleans[stack.getFrame() * stack.booleanFrameSize + slot];
+        }
+    }
+    
+    /**
+     * variables_get for a parameter of any other datatype
+     */
+    public static class LocalObjectVariable extends ValueNode {
+        private final int slot;
+        
+        public LocalObjectVariable(int slot) {
+            this.slot = slot;
+        }
+        
+        public int getType() { return TYPE_OBJECT; }
+        
+        public Object evalObject(NepoBlockExecutor executor) {
+            CallStack stack = executor.currentTask.getCallStack();
+            return stack.objects[stack.getFrame() * stack.objectFrameSize + slot];
+        }
+    }
+    
+    /**
+     * robProcedures_callreturn - runs the linked procedure to completion
+     */
+    public static class ProcedureCall extends ValueNode {
+        private final CompiledProcedure procedure;
+        private final ValueNode[] args;
+        
+        public ProcedureCall(CompiledProcedure procedure, ValueNode[] args) {
+            this.procedure = procedure;
+            this.args = args;
+        }
+        
+        public int getType() { return procedure.returnType; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            CallStack stack = executor.callFunction(procedure, args);
+            return stack != null ? stack.returnNumber : 0;
+        }
+        
+        public boolean evalBoolean(NepoBlockExecutor executor) {
+            CallStack stack = executor.callFunction(procedure, args);
+            return stack != null && stack.returnBoolean;
+        }
+        
+        public Object evalObject(NepoBlockExecutor executor) {
+            if (procedure.returnType != TYPE_OBJECT) {
+                return super.evalObject(executor);
+            }
+            CallStack stack = executor.callFunction(procedure, args);
+            return stack != null ? stack.returnObject : null;
+        }
+    }
+    
+    /**
+     * logic_compare on two numbers
+     */
+    public static class Compare extends ValueNode {
+        private final int op;
+        private final ValueNode a;
+        private final ValueNode b;
+        
+        public Compare(int op, ValueNode a, ValueNode b) {
+            this.op = op;
+            this.a = a;
+            this.b = b;
+        }
+        
+        public int getType() { return TYPE_BOOLEAN; }
+        
+        public boolean evalBoolean(NepoBlockExecutor executor) {
+            double valueA = a.evalNumber(executor);
+            double valueB = b.evalNumber(executor);
+            switch (op) {
+                case OP_EQ: return valueA == valueB;
+                case OP_NEQ: return valueA != valueB;
+                case OP_LT: return valueA < valueB;
+                case OP_LTE: return valueA <= valueB;
+                case OP_GT: return valueA > valueB;
+                case OP_GTE: return valueA >= valueB;
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * controls_for loop condition - counts up for a step >= 0, down otherwise
+     */
+    public static class ForCondition extends ValueNode {
+        private final ValueNode value;
+        private final ValueNode limit;
+        private final ValueNode step;
+        
+        public ForCondition(ValueNode value, ValueNode limit, ValueNode step) {
+            this.value = value;
+            this.limit = limit;
+            this.step = step;
+        }
+        
+        public int getType() { return TYPE_BOOLEAN; }
+        
+        public boolean evalBoolean(NepoBlockExecutor executor) {
+            if (step.evalNumber(executor) >= 0) {
+                return value.evalNumber(executor) <= limit.evalNumber(executor);
+            }
+            return value.evalNumber(executor) >= limit.evalNumber(executor);
+        }
+    }
+    
+    /**
+     * logic_compare EQ/NEQ on booleans or objects
+     */
+    public static class EqualityCompare extends ValueNode {
+        private final boolean negate;
+        private final ValueNode a;
+        private final ValueNode b;
+        
+        public EqualityCompare(boolean negate, ValueNode a, ValueNode b) {
+            this.negate = negate;
+            this.a = a;
+            this.b = b;
+        }
+        
+        public int getType() { return TYPE_BOOLEAN; }
+        
+        public boolean evalBoolean(NepoBlockExecutor executor) {
+            boolean equal;
+            if (a.getType() == TYPE_BOOLEAN && b.getType() == TYPE_BOOLEAN) {
+                equal = a.evalBoolean(executor) == b.evalBoolean(executor);
+            } else {
+                Object valueA = a.evalObject(executor);
+                Object valueB = b.evalObject(executor);
+                equal = valueA == null ? valueB == null : valueA.equals(valueB);
+            }
+            return equal != negate;
+        }
+    }
+    
+    /**
+     * logic_operation (AND/OR) - short-circuit like the generated NEPO code
+     */
+    public static class LogicOperation extends ValueNode {
+        private final boolean isAnd;
+        private final ValueNode a;
+        private final ValueNode b;
+        
+        public LogicOperation(boolean isAnd, ValueNode a, ValueNode b) {
+            this.isAnd = isAnd;
+            this.a = a;
+            this.b = b;
+        }
+        
+        public int getType() { return TYPE_BOOLEAN; }
+        
+        public boolean evalBoolean(NepoBlockExecutor executor) {
+            if (isAnd) {
+                return a.evalBoolean(executor) && b.evalBoolean(executor);
+            }
+            return a.evalBoolean(executor) || b.evalBoolean(executor);
+        }
+    }
+    
+    /**
+     * logic_negate
+     */
+    public static class LogicNegate extends ValueNode {
+        private final ValueNode value;
+        
+        public LogicNegate(ValueNode value) {
+            this.value = value;
+        }
+        
+        public int getType() { return TYPE_BOOLEAN; }
+        
+        public boolean evalBoolean(NepoBlockExecutor executor) {
+            return !value.evalBoolean(executor);
+        }
+    }
+}
@@ -8,13 +8,28 @@ import java.util.Date;
  * Provides:
  * 1. Useful error messages on NXT screen (context, exception type, message)
  * 2. Complete stack traces written to crash.log file
+ * 3. The most recent statements and sensor values before the crash,
+ *    if a RecentEvents ring is registered
+ * 
+ * crash.log is written through a RotatingLog: in whole flash blocks, and
+ * moved to crash.1.log once it reaches CRASH_LOG_MAX_SIZE.
  * 
  * Use nxjcontrol to easily transfer crash.log to PC for analysis.
  */
 public class CrashLogger {
     
     private static final String CRASH_LOG_FILE = "crash.log";
+    private static final int CRASH_LOG_MAX_SIZE = 16384;
+    private static final RotatingLog crashLog = new RotatingLog(CRASH_LOG_FILE, CRASH_LOG_MAX_SIZE);
     private static int crashCount = 0;
+    private static RecentEvents recentEvents = null;
+    
+    /**
+     * Register the ring of recent execution events written with every crash
+     */
+    public static void setRecentEvents(RecentEvents events) {
+        recentEvents = events;
+    }
     
     /**
      * Handle exception with useful screen display and complete file logging
@@ -33,7 +48,8 @@ public class CrashLogger {
      * Write complete crash details to file
      */
     private static boolean writeToFile(Exception e) {
-        try (FileOutputStream fos = new FileOutputStream(new File(CRASH_LOG_FILE), true); PrintStream ps = new PrintStream(fos)) {
+        try {
+            PrintStream ps = new PrintStream(crashLog);
             // Write crash header
             ps.println("=====================================");
             ps.println("CRASH #" + crashCount + " - " + getCurrentTimeString());
@@ -51,12 +67,21 @@ public class CrashLogger {
             e.printStackTrace(ps);
             ps.println();
             
+            // Write what the program did last
+            if (recentEvents != null && recentEvents.getCount() > 0) {
+                ps.println("Recent Events (oldest first):");
+                recentEvents.dump(ps);
+                ps.println();
+            }
+            
             // Write system information
             writeSystemInfo(ps);
             
             ps.println("=====================================");
             ps.println();
-
+            ps.flush();
+            
+            crashLog.close();
             return true;
         } catch (IOException ioException) {
             // If file writing fails, we'll show this in the screen display
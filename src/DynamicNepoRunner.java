@@ -1,3 +1,6 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.Vector;
 import lejos.nxt.*;
 import lejos.util.Delay;
@@ -11,7 +14,39 @@ import lejos.util.Delay;
  */
 public class DynamicNepoRunner {
     
+    // Read sensors on a background thread, so sensor blocks and waits do not
+    // block the interpreter on the hardware (see SensorSampler)
+    private static final boolean BACKGROUND_SAMPLING = true;
+    
+    // Cancel a running turn as soon as this NEPO boolean block holds, e.g. a
+    // robSensors_touch_getSample on the bumper port; null to let motions complete
+    private static final String MOTION_ABORT_CONDITION = null;
+    
+    // Write per-block timings of every run to profile.log (see BlockProfiler)
+    private static final boolean PROFILE = false;
+    private static final String PROFILE_LOG_FILE = "profile.log";
+    
+    // Show loop and wait latency (p50/p99/max in ms) after every run (see LatencyHistogram)
+    private static final boolean SHOW_LATENCY = false;
+    
+    // Record every run to trace.bin, decoded on the PC with TraceDecoder (see ExecutionTrace)
+    private static final boolean TRACE = false;
+    private static final String TRACE_FILE = "trace.bin";
+    private static final int TRACE_RECORDS = 256;
+    
+    // Show live performance figures instead of the running screen (see PerformanceHud)
+    private static final boolean SHOW_HUD = false;
+    
+    // Last statements and sensor values, written to crash.log with every crash
+    private static final RecentEvents recentEvents = new RecentEvents();
+    
+    // One line per program start, end and crash (see RotatingLog)
+    private static final String EVENT_LOG_FILE = "nepo.log";
+    private static final int EVENT_LOG_MAX_SIZE = 4096;
+    private static final RotatingLog eventLog = new RotatingLog(EVENT_LOG_FILE, EVENT_LOG_MAX_SIZE);
+    
     public static void main(String[] args) {
+        CrashLogger.setRecentEvents(recentEvents);
         try {
             showWelcomeScreen();
             
@@ -85,34 +120,87 @@ public class DynamicNepoRunner {
         LCD.drawString("Loading...", 0, 3);
         LCD.refresh();
         
-        // Parse the XML program using ShallowXMLParser
-        IXMLElement program = new ShallowXMLParser().parseFile(filename);
-        if (program == null) {
-            showError("Failed to parse XML file");
-            return;
+        // Create executor
+        IHardware hardware = new NXTHardware();
+        ExecutionTrace trace = null;
+        if (TRACE) {
+            try {
+                trace = new ExecutionTrace(TRACE_RECORDS, new FileOutputStream(new File(TRACE_FILE)));
+                hardware = new TracingHardware(hardware, trace);
+            } catch (IOException e) {
+                // Run without trace
+            }
+        }
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware);
+        executor.setTrace(trace);
+        recentEvents.clear();
+        executor.setRecentEvents(recentEvents);
+        executor.setBackgroundSampling(BACKGROUND_SAMPLING);
+        if (MOTION_ABORT_CONDITION != null) {
+            executor.setMotionAbortCondition(new ShallowXMLParser().parseXML(MOTION_ABORT_CONDITION));
+        }
+        if (PROFILE) {
+            executor.setProfiler(new BlockProfiler(PROFILE_LOG_FILE));
+        }
+        if (SHOW_LATENCY) {
+            executor.setLatencyHistograms(true);
         }
         
-        LCD.drawString("XML parsed OK", 0, 4);
-        LCD.refresh();
-        Delay.msDelay(1000);
-
-        LCD.drawString("Starting...", 0, 5);
-        LCD.refresh();
-        Delay.msDelay(1000);
-        
-        // Create executor and run program
-        NepoBlockExecutor executor = new NepoBlockExecutor(new NXTHardware());
-        
-        LCD.clear();
-        LCD.drawString("Running:", 0, 0);
-        LCD.drawString(filename, 0, 1);
-        LCD.drawString("", 0, 2);
-        LCD.drawString("Press ESCAPE", 0, 6);
-        LCD.drawString("to stop", 0, 7);
-        LCD.refresh();
-        
+        PerformanceHud hud = null;
         try {
-            executor.runProgram(program);
+            // Parse and compile the program, refusing programs that would not
+            // fit into the free heap. Only the compiled program is kept; the
+            // XML tree and text are free for the run.
+            MemoryBudget budget = new MemoryBudget();
+            ShallowXMLParser parser = new ShallowXMLParser();
+            parser.setMemoryBudget(budget);
+            // The compiler reads the whole program; build it in one pass
+            parser.setParsePolicy(ShallowXMLParser.EAGER_FOR_PROGRAM_SUBTREE);
+            CompiledProgram program = executor.loadFile(filename, parser);
+            if (program == null) {
+                if (budget.getVerdict() == MemoryBudget.REFUSE) {
+                    logEvent("refused " + filename + " " + budget.getEstimate() + "/" + budget.getLimit() + " bytes");
+                    showError("Program too big " + budget.toShortString());
+                } else {
+                    showError("Failed to parse XML file");
+                }
+                return;
+            }
+            if (budget.isExceeded()) {
+                logEvent("over memory budget " + filename + " " + budget.getUsed() + "/" + budget.getLimit() + " bytes");
+            }
+            
+            LCD.drawString("XML parsed OK", 0, 4);
+            LCD.refresh();
+            Delay.msDelay(1000);
+            
+            if (budget.getVerdict() == MemoryBudget.WARN) {
+                showMemoryWarning(budget);
+            }
+            
+            LCD.drawString("Starting...", 0, 5);
+            LCD.refresh();
+            Delay.msDelay(1000);
+            
+            LCD.clear();
+            LCD.drawString("Running:", 0, 0);
+            LCD.drawString(filename, 0, 1);
+            LCD.drawString("", 0, 2);
+            LCD.drawString("Press ESCAPE", 0, 6);
+            LCD.drawString("to stop", 0, 7);
+            LCD.refresh();
+            
+            if (SHOW_HUD) {
+                hud = new PerformanceHud(executor);
+                hud.start();
+            }
+            long start = System.currentTimeMillis();
+            logEvent("start " + filename);
+            executor.runCompiled(program);
+            logEvent("end " + filename + " " + (System.currentTimeMillis() - start) + " ms");
+            if (hud != null) {
+                hud.shutdown();
+            }
             
             LCD.clear();
             LCD.drawString("Program", 0, 2);
@@ -120,11 +208,69 @@ public class DynamicNepoRunner {
             LCD.drawString("successfully", 0, 4);
             LCD.refresh();
             Delay.msDelay(2000);
+            
+            if (SHOW_LATENCY) {
+                showLatency(executor);
+            }
         } catch (Exception e) {
-            showError("Execution error: " + e.getMessage());
+            if (hud != null) {
+                hud.shutdown();
+            }
+            logEvent("crash " + filename + " " + e.getClass().toString());
+            CrashLogger.handleException(e);
+        } finally {
+            if (trace != null) {
+                trace.close();
+            }
         }
     }
+    
+    /**
+     * Warn that the program leaves little free heap; it may still run out
+     * of memory, e.g. with many variables or lists
+     */
+    private static void showMemoryWarning(MemoryBudget budget) {
+        LCD.clear();
+        LCD.drawString("Low memory:", 0, 0);
+        LCD.drawString(budget.toShortString(), 0, 1);
+        LCD.drawString("Program may run", 0, 3);
+        LCD.drawString("out of memory", 0, 4);
+        LCD.drawString("Press any key", 0, 7);
+        LCD.refresh();
+        Button.waitForAnyPress();
+    }
+    
+    /**
+     * Show loop iteration and wait reaction times of the last run
+     */
+    private static void showLatency(NepoBlockExecutor executor) {
+        LatencyHistogram loop = executor.getLoopHistogram();
+        LatencyHistogram wait = executor.getWaitHistogram();
+        
+        LCD.clear();
+        LCD.drawString("p50/p99/max ms", 0, 0);
+        LCD.drawString("Loop n=" + loop.getCount(), 0, 1);
+        LCD.drawString(loop.toShortString(), 0, 2);
+        LCD.drawString("Wait n=" + wait.getCount(), 0, 4);
+        LCD.drawString(wait.toShortString(), 0, 5);
+        LCD.drawString("Press any key", 0, 7);
+        LCD.refresh();
+        Button.waitForAnyPress();
+    }
 
+    /**
+     * Append a line to the event log. Events are rare, so each one is
+     * flushed at once and survives a crash.
+     */
+    private static void logEvent(String line) {
+        try {
+            eventLog.println(line);
+            eventLog.flush();
+        } catch (IOException e) {
+            // The event log is best effort
+        }
+    }
+    
     /**
      * Ask if user wants to run another program
      */
@@ -0,0 +1,321 @@
+import java.io.*;
+
+/**
+ * Binary execution trace recorder
+ *
+ * Records hardware calls (sensor samples, motor commands, display and
+ * sound) and block enter/exit as fixed-width binary records. TracingHardware
+ * records the hardware calls, the executor the blocks (setTrace). The
+ * PC-side TraceDecoder renders a trace file in the text format of the
+ * integration test golden files.
+ *
+ * Record layout, RECORD_SIZE bytes, big-endian:
+ *   0   kind   (KIND_*)
+ *   1   op     (OP_*, per kind)
+ *   2   a      short, usually a string index (port, block type)
+ *   4   b      int, second string index or int argument
+ *   8   time   int, ms since the trace started
+ *   12  value  long, double bits or int/boolean result
+ *
+ * Strings (ports, sensor types, block types and ids) are written once as
+ * KIND_STRING records the first time they are used and referenced by
+ * index afterwards. A string record carries up to 16 Latin-1 characters
+ * in bytes 4..19; op holds the character count, with STRING_MORE set when
+ * the next record continues the string. The first record of a trace is a
+ * KIND_HEADER record with MAGIC as value and VERSION as b.
+ *
+ * Usage:
+ *   ExecutionTrace trace = new ExecutionTrace(256, new FileOutputStream("trace.bin"));
+ *   executor = new NepoBlockExecutor(new TracingHardware(hardware, trace));
+ *   executor.setTrace(trace);
+ *   ...
+ *   trace.close();
+ *
+ * Memory strategy for NXT:
+ * - One preallocated ring buffer, record() allocates nothing
+ * - With an output stream, each half of the ring is written in one
+ *   sequential write as soon as it is full, while the other half fills
+ * - Without one, the ring keeps the most recent records (getRecordCount)
+ * - String table of MAX_STRINGS entries; further strings are recorded as
+ *   STRING_UNKNOWN
+ */
+public class ExecutionTrace {
+
+    public static final int RECORD_SIZE = 20;
+    public static final long MAGIC = 0x4E45504F54524331L; // "NEPOTRC1"
+    public static final int VERSION = 1;
+
+    public static final int MAX_STRINGS = 128;
+    public static final int STRING_UNKNOWN = 0xFFFF;
+    public static final int STRING_CHARS = 16;
+    public static final int STRING_MORE = 0x80;
+
+    // Record kinds
+    public static final int KIND_HEADER = 0;
+    public static final int KIND_STRING = 1;
+    public static final int KIND_HARDWARE = 2;
+    public static final int KIND_MOTOR = 3;
+    public static final int KIND_SENSOR = 4;
+    public static final int KIND_BLOCK_ENTER = 5;
+    public static final int KIND_BLOCK_EXIT = 6;
+
+    // KIND_HARDWARE ops - a: port or text, b: type, x, frequency or ms, value: y, duration or result
+    public static final int OP_CLEAR_DISPLAY = 0;
+    public static final int OP_DISPLAY_TEXT = 1;
+    public static final int OP_REFRESH_DISPLAY = 2;
+    public static final int OP_GET_MOTOR = 3;
+    public static final int OP_GET_SENSOR = 4;
+    public static final int OP_PLAY_TONE = 5;
+    public static final int OP_WAIT_FOR_BUTTON = 6;
+    public static final int OP_GET_BUTTON = 7;
+    public static final int OP_DELAY = 8;
+
+    // KIND_MOTOR ops - a: port, b: int argument, value: result or immediateReturn
+    public static final int OP_SET_SPEED = 0;
+    public static final int OP_ROTATE = 1;
+    public static final int OP_ROTATE_IMMEDIATE = 2;
+    public static final int OP_IS_MOVING = 3;
+    public static final int OP_WAIT_COMPLETE = 4;
+    public static final int OP_FORWARD = 5;
+    public static final int OP_BACKWARD = 6;
+    public static final int OP_STOP = 7;
+    public static final int OP_STOP_IMMEDIATE = 8;
+    public static final int OP_FLT = 9;
+    public static final int OP_GET_SPEED = 10;
+    public static final int OP_GET_TACHO_COUNT = 11;
+
+    // KIND_SENSOR ops - a: port, b: type, value: result (double bits for distances and values)
+    public static final int OP_GET_TYPE = 0;
+    public static final int OP_IS_PRESSED = 1;
+    public static final int OP_GET_DISTANCE = 2;
+    public static final int OP_GET_VALUE = 3;
+    public static final int OP_RESET = 4;
+
+    // KIND_BLOCK_ENTER / KIND_BLOCK_EXIT - a: block type, b: block id (STRING_UNKNOWN if none),
+    // value: ns spent in the block (exit only)
+
+    private final byte[] buffer;
+    private final int capacity;          // Records
+    private int next = 0;                // Ring index of the next record
+    private long written = 0;            // Records recorded in total
+    private int flushed = 0;             // Ring index up to which records were written out
+
+    private final OutputStream out;
+    private IOException error = null;
+
+    private final String[] strings = new String[MAX_STRINGS];
+    private int stringCount = 0;
+
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * @param capacity Ring size in records, rounded up to an even number
+     * @param out Stream the trace is written to, or null to keep the most
+     *            recent records in memory only
+     */
+    public ExecutionTrace(int capacity, OutputStream out) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Trace needs at least two records");
+        }
+        this.capacity = (capacity + 1) & ~1;
+        this.buffer = new byte[this.capacity * RECORD_SIZE];
+        this.out = out;
+        record(KIND_HEADER, 0, 0, VERSION, MAGIC);
+    }
+
+    /**
+     * Record one event, timestamped with the time since the trace started
+     */
+    public synchronized void record(int kind, int op, int a, int b, long value) {
+        int time = (int) (System.currentTimeMillis() - startTime);
+        int pos = next * RECORD_SIZE;
+        buffer[pos] = (byte) kind;
+        buffer[pos + 1] = (byte) op;
+        putShort(buffer, pos + 2, a);
+        putInt(buffer, pos + 4, b);
+        putInt(buffer, pos + 8, time);
+        putInt(buffer, pos + 12, (int) (value >>> 32));
+        putInt(buffer, pos + 16, (int) value);
+        advance();
+    }
+
+    public void record(int kind, int op, int a, int b, double value) {
+        record(kind, op, a, b, Double.doubleToLongBits(value));
+    }
+
+    public void record(int kind, int op, int a, int b, boolean value) {
+        record(kind, op, a, b, value ? 1L : 0L);
+    }
+
+    /**
+     * Get the index of a string, writing its definition on first use.
+     * Strings are compared by identity first, so constant ports and types
+     * cost one pass over the table.
+     *
+     * @return The index, or STRING_UNKNOWN for null or a full table
+     */
+    public synchronized int intern(String s) {
+        if (s == null) {
+            return STRING_UNKNOWN;
+        }
+        for (int i = 0; i < stringCount; i++) {
+            if (strings[i] == s) {
+                return i;
+            }
+        }
+        for (int i = 0; i < stringCount; i++) {
+            if (strings[i].equals(s)) {
+                return i;
+            }
+        }
+        if (stringCount == MAX_STRINGS) {
+            return STRING_UNKNOWN;
+        }
+
+        int index = stringCount++;
+        strings[index] = s;
+        int start = 0;
+        do {
+            start = putString(buffer, next * RECORD_SIZE, index, start);
+            advance();
+        } while (start < s.length());
+        return index;
+    }
+
+    /**
+     * Number of records recorded in total, including string definitions
+     */
+    public synchronized long getRecordCount() {
+        return written;
+    }
+
+    /**
+     * Write all records not yet written out, without waiting for a full half
+     */
+    public synchronized void flush() {
+        if (out == null) {
+            return;
+        }
+        if (next < flushed) {
+            write(flushed, capacity);
+            flushed = 0;
+        }
+        write(flushed, next);
+        flushed = next;
+        try {
+            out.flush();
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    /**
+     * Flush and close the output stream
+     */
+    public synchronized void close() {
+        flush();
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * First write error, or null. Recording continues after an error,
+     * but records are no longer written out.
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * Write the records still held in memory to a stream, oldest first -
+     * for a trace without output stream. The header and all string
+     * definitions are written first, since the ring may have overwritten them.
+     */
+    public synchronized void writeRecent(OutputStream target) throws IOException {
+        byte[] record = new byte[RECORD_SIZE];
+        putInt(record, 4, VERSION);
+        putInt(record, 12, (int) (MAGIC >>> 32));
+        putInt(record, 16, (int) MAGIC);
+        target.write(record);
+        for (int i = 0; i < stringCount; i++) {
+            int start = 0;
+            do {
+                start = putString(record, 0, i, start);
+                target.write(record);
+            } while (start < strings[i].length());
+        }
+
+        int count = (int) Math.min(written, capacity);
+        int first = (next - count + capacity) % capacity;
+        if (first + count > capacity) {
+            target.write(buffer, first * RECORD_SIZE, (capacity - first) * RECORD_SIZE);
+            target.write(buffer, 0, next * RECORD_SIZE);
+        } else {
+            target.write(buffer, first * RECORD_SIZE, count * RECORD_SIZE);
+        }
+    }
+
+    private void advance() {
+        written++;
+        next++;
+        if (next == capacity) {
+            next = 0;
+        }
+        if (out != null && (next == 0 || next == capacity / 2)) {
+            // A half is full - write it in one piece
+            int start = next == 0 ? capacity / 2 : 0;
+            if (flushed > start && flushed <= start + capacity / 2) {
+                start = flushed;
+            }
+            write(start, start < capacity / 2 ? capacity / 2 : capacity);
+            flushed = next;
+        }
+    }
+
+    private void write(int from, int to) {
+        if (error != null || to <= from) {
+            return;
+        }
+        try {
+            out.write(buffer, from * RECORD_SIZE, (to - from) * RECORD_SIZE);
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    /**
+     * Encode the part of a string starting at a character as one string record
+     *
+     * @return Start of the part that did not fit
+     */
+    private int putString(byte[] record, int pos, int index, int start) {
+        String s = strings[index];
+        int length = s.length();
+        int chunk = Math.min(length - start, STRING_CHARS);
+        record[pos] = (byte) KIND_STRING;
+        record[pos + 1] = (byte) (chunk | (start + chunk < length ? STRING_MORE : 0));
+        putShort(record, pos + 2, index);
+        for (int i = 0; i < STRING_CHARS; i++) {
+            char c = i < chunk ? s.charAt(start + i) : 0;
+            record[pos + 4 + i] = (byte) (c < 256 ? c : '?');
+        }
+        return start + chunk;
+    }
+
+    private static void putShort(byte[] record, int pos, int value) {
+        record[pos] = (byte) (value >>> 8);
+        record[pos + 1] = (byte) value;
+    }
+
+    private static void putInt(byte[] record, int pos, int value) {
+        record[pos] = (byte) (value >>> 24);
+        record[pos + 1] = (byte) (value >>> 16);
+        record[pos + 2] = (byte) (value >>> 8);
+        record[pos + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Value nodes for the fixed-point execution mode
+ * 
+ * In fixed-point mode ProgramCompiler wraps numeric expressions whose nodes
+ * support Q16.16 evaluation (see ValueNode.evalFixed) in these nodes. They
+ * run the expression in integer arithmetic and fall back to double when it
+ * overflows; after the first overflow the expression stays in double, so a
+ * program that needs the range does not pay for failing attempts.
+ */
+public class FixedNodes {
+    
+    /**
+     * Root of a numeric expression evaluated in fixed point
+     */
+    public static class FixedExpression extends ValueNode {
+        final ValueNode node;
+        private boolean useDouble = false;
+        
+        public FixedExpression(ValueNode node) {
+            this.node = node;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public boolean isFixedPoint() { return true; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            if (!useDouble) {
+                try {
+                    return FixedPoint.toDouble(node.evalFixed(executor));
+                } catch (ArithmeticException e) {
+                    useDouble = true;
+                    executor.fixedPointFallbacks++;
+                }
+            }
+            return node.evalNumber(executor);
+        }
+        
+        public int evalFixed(NepoBlockExecutor executor) {
+            if (useDouble) {
+                return FixedPoint.fromDouble(node.evalNumber(executor));
+            }
+            return node.evalFixed(executor);
+        }
+    }
+    
+    /**
+     * logic_compare on numbers evaluated in fixed point
+     */
+    public static class Compare extends ValueNode {
+        private final int op;
+        private final ValueNode a;
+        private final ValueNode b;
+        private boolean useDouble = false;
+        
+        public Compare(int op, ValueNode a, ValueNode b) {
+            this.op = op;
+            this.a = a;
+            this.b = b;
+        }
+        
+        public int getType() { return TYPE_BOOLEAN; }
+        
+        public boolean evalBoolean(NepoBlockExecutor executor) {
+            if (!useDouble) {
+                try {
+                    int valueA = a.evalFixed(executor);
+                    int valueB = b.evalFixed(executor);
+                    switch (op) {
+                        case CoreNodes.OP_EQ: return valueA == valueB;
+                        case CoreNodes.OP_NEQ: return valueA != valueB;
+                        case CoreNodes.OP_LT: return valueA < valueB;
+                        case CoreNodes.OP_LTE: return valueA <= valueB;
+                        case CoreNodes.OP_GT: return valueA > valueB;
+                        case CoreNodes.OP_GTE: return valueA >= valueB;
+                    }
+                    return false;
+                } catch (ArithmeticException e) {
+                    useDouble = true;
+                    executor.fixedPointFallbacks++;
+                }
+            }
+            double valueA = a.evalNumber(executor);
+            double valueB = b.evalNumber(executor);
+            switch (op) {
+                case CoreNodes.OP_EQ: return valueA == valueB;
+                case CoreNodes.OP_NEQ: return valueA != valueB;
+                case CoreNodes.OP_LT: return valueA < valueB;
+                case CoreNodes.OP_LTE: return valueA <= valueB;
+                case CoreNodes.OP_GT: return valueA > valueB;
+                case CoreNodes.OP_GTE: return valueA >= valueB;
+            }
+            return false;
+        }
+    }
+}
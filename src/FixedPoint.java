@@ -0,0 +1,102 @@
+/**
+ * Q16.16 fixed-point arithmetic
+ * 
+ * A value is an int holding the number times 65536: 16 integer bits
+ * (-32768..32767) and 16 fraction bits (resolution 1.5e-5). On the NXT,
+ * which has no FPU, this runs as plain integer instructions instead of
+ * soft-float library calls.
+ * 
+ * Every operation checks for overflow and throws the shared OVERFLOW
+ * exception instead of wrapping around; callers catch it and redo the
+ * computation in double. Division by zero surfaces the same way.
+ */
+public class FixedPoint {
+    
+    public static final int FRACTION_BITS = 16;
+    public static final int ONE = 1 << FRACTION_BITS;
+    
+    // Thrown on overflow - preallocated, so throwing allocates nothing
+    public static final ArithmeticException OVERFLOW = new ArithmeticException("Fixed-point overflow");
+    
+    private static final double MAX_DOUBLE = (double) Integer.MAX_VALUE / ONE;
+    private static final double MIN_DOUBLE = (double) Integer.MIN_VALUE / ONE;
+    
+    public static int fromInt(int value) {
+        if (value > Short.MAX_VALUE || value < Short.MIN_VALUE) {
+            throw OVERFLOW;
+        }
+        return value << FRACTION_BITS;
+    }
+    
+    /**
+     * Whether a double is within the fixed-point range (false for NaN)
+     */
+    public static boolean fits(double value) {
+        return value <= MAX_DOUBLE && value >= MIN_DOUBLE;
+    }
+    
+    /**
+     * Convert a double, rounding to the nearest fixed-point value
+     */
+    public static int fromDouble(double value) {
+        if (!fits(value)) {
+            throw OVERFLOW;
+        }
+        return (int) Math.floor(value * ONE + 0.5);
+    }
+    
+    public static double toDouble(int value) {
+        return (double) value / ONE;
+    }
+    
+    /**
+     * Integer part, truncated towards zero like a (int) cast of a double
+     */
+    public static int toInt(int value) {
+        return value >= 0 ? value >> FRACTION_BITS : -(-value >> FRACTION_BITS);
+    }
+    
+    public static int add(int a, int b) {
+        int result = a + b;
+        // Overflow iff both operands have the same sign and the result has the other
+        if (((a ^ result) & (b ^ result)) < 0) {
+            throw OVERFLOW;
+        }
+        return result;
+    }
+    
+    public static int subtract(int a, int b) {
+        int result = a - b;
+        if (((a ^ b) & (a ^ result)) < 0) {
+            throw OVERFLOW;
+        }
+        return result;
+    }
+    
+    public static int multiply(int a, int b) {
+        return narrow(((long) a * b) >> FRACTION_BITS);
+    }
+    
+    public static int divide(int a, int b) {
+        // b == 0 throws ArithmeticException from the long division
+        return narrow(((long) a << FRACTION_BITS) / b);
+    }
+    
+    public static int negate(int value) {
+        if (value == Integer.MIN_VALUE) {
+            throw OVERFLOW;
+        }
+        return -value;
+    }
+    
+    public static int abs(int value) {
+        return value < 0 ? negate(value) : value;
+    }
+    
+    private static int narrow(long value) {
+        if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+            throw OVERFLOW;
+        }
+        return (int) value;
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * Callback for IXMLElement.forEachChild
+ * 
+ * Lets callers walk the children of an element without a Vector copy.
+ * Keep a visitor in a field and reuse it, so iterating allocates nothing.
+ */
+public interface IChildVisitor {
+    
+    /**
+     * Called for each matching child in document order.
+     * 
+     * @return false to stop the iteration
+     */
+    boolean visitChild(IXMLElement child);
+}
@@ -20,6 +20,9 @@ public interface IHardware {
     
     /**
      * Sensor operations
+     * 
+     * @param type One of the SensorTypes constants
+     * @return The sensor, or null if the type is not available on the port
      */
     ISensor getSensor(String port, String type);
     
@@ -38,4 +41,5 @@ public interface IHardware {
      * Timing operations
      */
     void delay(int milliseconds);
+    long currentTimeMillis();
 }
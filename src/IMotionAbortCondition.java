@@ -0,0 +1,14 @@
+/**
+ * Condition checked while a non-blocking motion is in progress
+ * 
+ * Lets callers cancel a motor movement (e.g. a turn) as soon as something
+ * happens, such as a bumper being pressed mid-turn.
+ */
+public interface IMotionAbortCondition {
+    
+    /**
+     * Check if the running motion should be aborted.
+     * Called on every poll while the motors are moving, so it should be cheap.
+     */
+    boolean shouldAbort(NepoBlockExecutor executor);
+}
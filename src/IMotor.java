@@ -15,6 +15,23 @@ public interface IMotor {
      */
     void rotate(int degrees);
     
+    /**
+     * Rotate motor by specified degrees.
+     * With immediateReturn the call returns as soon as the motion is started;
+     * use isMoving() or waitComplete() to find out when it has finished.
+     */
+    void rotate(int degrees, boolean immediateReturn);
+    
+    /**
+     * Check if the motor is still executing a motion
+     */
+    boolean isMoving();
+    
+    /**
+     * Block until the current motion has finished
+     */
+    void waitComplete();
+    
     /**
      * Start motor forward
      */
@@ -2,16 +2,19 @@
  * Sensor abstraction interface
  * 
  * Abstracts sensor operations for different robot platforms and sensor types.
+ * All sensor types share one sampling contract: getValue() takes a sample
+ * and returns it as a primitive; see SensorTypes for types, units and
+ * minimum sample intervals.
  */
 public interface ISensor {
     
     /**
-     * Get sensor type
+     * Get sensor type (one of the SensorTypes constants)
      */
     String getType();
     
     /**
-     * Check if touch sensor is pressed (for touch sensors)
+     * Check if touch sensor is pressed (for touch sensors and keys)
      */
     boolean isPressed();
     
@@ -21,7 +24,18 @@ public interface ISensor {
     double getDistance();
     
     /**
-     * Get generic numeric value from sensor
+     * Get generic numeric value from sensor - takes one sample
      */
     double getValue();
+    
+    /**
+     * Reset the sensor's reference point: encoder count and timer to 0.
+     * No effect on sensors that measure an absolute value.
+     */
+    void reset();
+    
+    /**
+     * Get how long the last sample took, in milliseconds
+     */
+    int getLastSampleLatency();
 }
@@ -2,6 +2,10 @@ import java.util.*;
 
 /**
  * Interface for lazy-materialized XML elements with memory optimization
+ * 
+ * getChildren and getAllChildren return new Vectors; code that runs often
+ * should iterate with getChildCount/getChildAt or forEachChild, which
+ * allocate nothing.
  */
 public interface IXMLElement {
     String getTagName();
@@ -10,6 +14,26 @@ public interface IXMLElement {
     IXMLElement getChild(String tagName);
     Vector<IXMLElement> getChildren(String tagName);
     Vector<IXMLElement> getAllChildren();
+    
+    /**
+     * Number of child elements, regardless of tag name
+     */
+    int getChildCount();
+    
+    /**
+     * Child element by position, 0 <= index < getChildCount()
+     */
+    IXMLElement getChildAt(int index);
+    
+    /**
+     * Visit the children with the tag name in document order, until the
+     * visitor returns false.
+     * 
+     * @param tagName Tag name of the children to visit, null for all
+     * @return Number of children visited
+     */
+    int forEachChild(String tagName, IChildVisitor visitor);
+    
     String getTextContent();
     int getMemoryFootprint();
     
@@ -50,9 +74,9 @@ public interface IXMLElement {
             }
             
             // Add all children to the queue for next level processing
-            Vector<IXMLElement> children = current.getAllChildren();
-            for (int i = 0; i < children.size(); i++) {
-                queue.addElement(children.elementAt(i));
+            int count = current.getChildCount();
+            for (int i = 0; i < count; i++) {
+                queue.addElement(current.getChildAt(i));
             }
         }
         
@@ -82,9 +106,9 @@ public interface IXMLElement {
             }
             
             // Add all children to the queue for next level processing
-            Vector<IXMLElement> children = current.getAllChildren();
-            for (int i = 0; i < children.size(); i++) {
-                queue.addElement(children.elementAt(i));
+            int count = current.getChildCount();
+            for (int i = 0; i < count; i++) {
+                queue.addElement(current.getChildAt(i));
             }
         }
         
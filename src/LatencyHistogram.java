@@ -0,0 +1,150 @@
+/**
+ * Fixed-memory latency histogram in the style of HdrHistogram
+ *
+ * Records durations in microseconds into log-linear buckets: values below
+ * 32 us are counted exactly, above that every power of two is split into
+ * 16 buckets, so a percentile is accurate to 1/16 (6.25%) of its value.
+ * Values from 0 to MAX_VALUE (about 67 s) take 384 int counters; larger
+ * values are counted in the top bucket. Count, minimum, maximum and mean
+ * are tracked exactly.
+ *
+ * Memory strategy for NXT:
+ * - One int array allocated in the constructor, record() allocates nothing
+ * - Bucket index from the leading-zero count, no floating point
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;        // Buckets per power of two
+    private static final int MAX_BITS = 26;
+
+    public static final long MAX_VALUE = (1L << MAX_BITS) - 1;  // us
+    private static final int BUCKETS = (MAX_BITS - SUB_BITS + 1) * SUB_COUNT;
+
+    private final int[] counts = new int[BUCKETS];
+    private long count = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    /**
+     * Record one duration
+     *
+     * @param micros Duration in microseconds, negative values count as 0
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        counts[indexOf(micros)]++;
+        count++;
+        sum += micros;
+        if (micros < min) min = micros;
+        if (micros > max) max = micros;
+    }
+
+    /**
+     * Record a duration measured with System.nanoTime
+     */
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = 0;
+        }
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Smallest recorded value in us, 0 if empty
+     */
+    public long getMin() {
+        return count > 0 ? min : 0;
+    }
+
+    /**
+     * Largest recorded value in us, 0 if empty
+     */
+    public long getMax() {
+        return max;
+    }
+
+    public long getMean() {
+        return count > 0 ? sum / count : 0;
+    }
+
+    /**
+     * Value at a percentile: the upper end of the bucket holding it, but
+     * never above the maximum
+     *
+     * @param percentile 0..100
+     * @return Value in us, 0 if empty
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * count);
+        if (rank < 1) rank = 1;
+
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Short summary for the LCD (16 characters): "p50/p99/max" in ms
+     * with one decimal below 10 ms
+     */
+    public String toShortString() {
+        return formatMillis(getPercentile(50)) + "/" + formatMillis(getPercentile(99))
+            + "/" + formatMillis(getMax());
+    }
+
+    public String toString() {
+        return "n=" + count + " p50=" + getPercentile(50) + "us p99=" + getPercentile(99)
+            + "us max=" + getMax() + "us";
+    }
+
+    private static int indexOf(long value) {
+        if (value < 2 * SUB_COUNT) {
+            return (int) value;
+        }
+        if (value > MAX_VALUE) {
+            return BUCKETS - 1;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int) (value >>> shift) - SUB_COUNT;
+    }
+
+    private static long upperBound(int index) {
+        if (index < 2 * SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long mantissa = index % SUB_COUNT + SUB_COUNT;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    private static String formatMillis(long micros) {
+        if (micros < 10000) {
+            long tenths = micros / 100;
+            return (tenths / 10) + "." + (tenths % 10);
+        }
+        return String.valueOf(micros / 1000);
+    }
+}
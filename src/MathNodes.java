@@ -0,0 +1,572 @@
+/**
+ * Math value nodes: arithmetic, functions, trig, constrain, modulo, random and lists
+ * 
+ * ProgramCompiler picks one specialized node per operation when the program
+ * is loaded, so evaluation is a direct primitive double computation without
+ * operator dispatch. Nodes whose inputs are all constants are folded into a
+ * NumberConstant at load time. Trig uses TrigTables instead of Math.sin.
+ * Nodes with an isFixedPoint override also evaluate in Q16.16 fixed point
+ * (see FixedNodes); all others fall back to double in that mode.
+ */
+public class MathNodes {
+    
+    // math_single / math_trig functions evaluated by MathFunction
+    public static final int FN_ROOT = 0;
+    public static final int FN_LN = 1;
+    public static final int FN_LOG10 = 2;
+    public static final int FN_EXP = 3;
+    public static final int FN_POW10 = 4;
+    public static final int FN_ASIN = 5;
+    public static final int FN_ACOS = 6;
+    public static final int FN_ATAN = 7;
+    public static final int FN_ROUND = 8;
+    public static final int FN_ROUNDUP = 9;
+    public static final int FN_ROUNDDOWN = 10;
+    
+    // math_on_list operations
+    public static final int LIST_SUM = 0;
+    public static final int LIST_MIN = 1;
+    public static final int LIST_MAX = 2;
+    public static final int LIST_AVERAGE = 3;
+    public static final int LIST_MEDIAN = 4;
+    public static final int LIST_STD_DEV = 5;
+    public static final int LIST_RANDOM = 6;
+    
+    private static final double LN10 = 2.302585092994046;
+    
+    /**
+     * math_arithmetic ADD
+     */
+    public static class Add extends ValueNode {
+        private final ValueNode a;
+        private final ValueNode b;
+        
+        public Add(ValueNode a, ValueNode b) {
+            this.a = a;
+            this.b = b;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public boolean isFixedPoint() { return true; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            return a.evalNumber(executor) + b.evalNumber(executor);
+        }
+        
+        public int evalFixed(NepoBlockExecutor executor) {
+            return FixedPoint.add(a.evalFixed(executor), b.evalFixed(executor));
+        }
+    }
+    
+    /**
+     * math_arithmetic MINUS
+     */
+    public static class Subtract extends ValueNode {
+        private final ValueNode a;
+        private final ValueNode b;
+        
+        public Subtract(ValueNode a, ValueNode b) {
+            this.a = a;
+            this.b = b;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public boolean isFixedPoint() { return true; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            return a.evalNumber(executor) - b.evalNumber(executor);
+        }
+        
+        public int evalFixed(NepoBlockExecutor executor) {
+            return FixedPoint.subtract(a.evalFixed(executor), b.evalFixed(executor));
+        }
+    }
+    
+    /**
+     * math_arithmetic MULTIPLY
+     */
+    public static class Multiply extends ValueNode {
+        private final ValueNode a;
+        private final ValueNode b;
+        
+        public Multiply(ValueNode a, ValueNode b) {
+            this.a = a;
+            this.b = b;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public boolean isFixedPoint() { return true; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            return a.evalNumber(executor) * b.evalNumber(executor);
+        }
+        
+        public int evalFixed(NepoBlockExecutor executor) {
+            return FixedPoint.multiply(a.evalFixed(executor), b.evalFixed(executor));
+        }
+    }
+    
+    /**
+     * math_arithmetic DIVIDE
+     */
+    public static class Divide extends ValueNode {
+        private final ValueNode a;
+        private final ValueNode b;
+        
+        public Divide(ValueNode a, ValueNode b) {
+            this.a = a;
+            this.b = b;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public boolean isFixedPoint() { return true; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            return a.evalNumber(executor) / b.evalNumber(executor);
+        }
+        
+        public int evalFixed(NepoBlockExecutor executor) {
+            return FixedPoint.divide(a.evalFixed(executor), b.evalFixed(executor));
+        }
+    }
+    
+    /**
+     * math_arithmetic POWER with a non-integer or non-constant exponent
+     */
+    public static class Power extends ValueNode {
+        private final ValueNode base;
+        private final ValueNode exponent;
+        
+        public Power(ValueNode base, ValueNode exponent) {
+            this.base = base;
+            this.exponent = exponent;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            return Math.pow(base.evalNumber(executor), exponent.evalNumber(executor));
+        }
+    }
+    
+    /**
+     * math_arithmetic POWER with a constant integer exponent - repeated
+     * multiplication instead of Math.pow
+     */
+    public static class IntPower extends ValueNode {
+        private final ValueNode base;
+        private final int exponent;
+        
+        public IntPower(ValueNode base, int exponent) {
+            this.base = base;
+            this.exponent = exponent;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public boolean isFixedPoint() { return true; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            double value = base.evalNumber(executor);
+            double result = 1;
+            for (int i = exponent < 0 ? -exponent : exponent; i > 0; i--) {
+                result *= value;
+            }
+            return exponent < 0 ? 1 / result : result;
+        }
+        
+        public int evalFixed(NepoBlockExecutor executor) {
+            int value = base.evalFixed(executor);
+            int result = FixedPoint.ONE;
+            for (int i = exponent < 0 ? -exponent : exponent; i > 0; i--) {
+                result = FixedPoint.multiply(result, value);
+            }
+            return exponent < 0 ? FixedPoint.divide(FixedPoint.ONE, result) : result;
+        }
+    }
+    
+    /**
+     * math_single NEG
+     */
+    public static class Negate extends ValueNode {
+        private final ValueNode value;
+        
+        public Negate(ValueNode value) {
+            this.value = value;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public boolean isFixedPoint() { return true; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            return -value.evalNumber(executor);
+        }
+        
+        public int evalFixed(NepoBlockExecutor executor) {
+            return FixedPoint.negate(value.evalFixed(executor));
+        }
+    }
+    
+    /**
+     * math_single ABS
+     */
+    public static class Abs extends ValueNode {
+        private final ValueNode value;
+        
+        public Abs(ValueNode value) {
+            this.value = value;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public boolean isFixedPoint() { return true; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            return Math.abs(value.evalNumber(executor));
+        }
+        
+        public int evalFixed(NepoBlockExecutor executor) {
+            return FixedPoint.abs(value.evalFixed(executor));
+        }
+    }
+    
+    /**
+     * math_trig SIN (degrees)
+     */
+    public static class Sin extends ValueNode {
+        private final ValueNode value;
+        
+        public Sin(ValueNode value) {
+            this.value = value;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            return TrigTables.sin(value.evalNumber(executor));
+        }
+    }
+    
+    /**
+     * math_trig COS (degrees)
+     */
+    public static class Cos extends ValueNode {
+        private final ValueNode value;
+        
+        public Cos(ValueNode value) {
+            this.value = value;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            return TrigTables.cos(value.evalNumber(executor));
+        }
+    }
+    
+    /**
+     * math_trig TAN (degrees)
+     */
+    public static class Tan extends ValueNode {
+        private final ValueNode value;
+        
+        public Tan(ValueNode value) {
+            this.value = value;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            return TrigTables.tan(value.evalNumber(executor));
+        }
+    }
+    
+    /**
+     * Less frequent math_single, math_trig and math_round functions.
+     * These are expensive anyway, so one switch does not matter.
+     */
+    public static class MathFunction extends ValueNode {
+        private final int function;
+        private final ValueNode value;
+        
+        public MathFunction(int function, ValueNode value) {
+            this.function = function;
+            this.value = value;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            double x = value.evalNumber(executor);
+            switch (function) {
+                case FN_ROOT: return Math.sqrt(x);
+                case FN_LN: return Math.log(x);
+                case FN_LOG10: return Math.log(x) / LN10;
+                case FN_EXP: return Math.exp(x);
+                case FN_POW10: return Math.pow(10, x);
+                case FN_ASIN: return TrigTables.asin(x);
+                case FN_ACOS: return TrigTables.acos(x);
+                case FN_ATAN: return TrigTables.atan(x);
+                case FN_ROUND: return Math.floor(x + 0.5);
+                case FN_ROUNDUP: return Math.ceil(x);
+                case FN_ROUNDDOWN: return Math.floor(x);
+            }
+            return 0;
+        }
+    }
+    
+    /**
+     * math_modulo - remainder with the sign of the dividend
+     */
+    public static class Modulo extends ValueNode {
+        private final ValueNode dividend;
+        private final ValueNode divisor;
+        
+        public Modulo(ValueNode dividend, ValueNode divisor) {
+            this.dividend = dividend;
+            this.divisor = divisor;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public boolean isFixedPoint() { return true; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            return dividend.evalNumber(executor) % divisor.evalNumber(executor);
+        }
+        
+        public int evalFixed(NepoBlockExecutor executor) {
+            // Both operands have the same scale, so the int remainder is exact
+            return dividend.evalFixed(executor) % divisor.evalFixed(executor);
+        }
+    }
+    
+    /**
+     * math_constrain
+     */
+    public static class Constrain extends ValueNode {
+        private final ValueNode value;
+        private final ValueNode low;
+        private final ValueNode high;
+        
+        public Constrain(ValueNode value, ValueNode low, ValueNode high) {
+            this.value = value;
+            this.low = low;
+            this.high = high;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public boolean isFixedPoint() { return true; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            double x = value.evalNumber(executor);
+            double lowValue = low.evalNumber(executor);
+            double highValue = high.evalNumber(executor);
+            if (x < lowValue) return lowValue;
+            if (x > highValue) return highValue;
+            return x;
+        }
+        
+        public int evalFixed(NepoBlockExecutor executor) {
+            int x = value.evalFixed(executor);
+            int lowValue = low.evalFixed(executor);
+            int highValue = high.evalFixed(executor);
+            if (x < lowValue) return lowValue;
+            if (x > highValue) return highValue;
+            return x;
+        }
+    }
+    
+    /**
+     * math_random_int - integer in [FROM, TO], bounds swapped if needed
+     */
+    public static class RandomInt extends ValueNode {
+        private final ValueNode from;
+        private final ValueNode to;
+        
+        public RandomInt(ValueNode from, ValueNode to) {
+            this.from = from;
+            this.to = to;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            double a = from.evalNumber(executor);
+            double b = to.evalNumber(executor);
+            if (a > b) {
+                double swap = a;
+                a = b;
+                b = swap;
+            }
+            return Math.floor(executor.random.nextDouble() * (b - a + 1) + a);
+        }
+    }
+    
+    /**
+     * math_random_float - number in [0, 1)
+     */
+    public static class RandomFloat extends ValueNode {
+        public int getType() { return TYPE_NUMBER; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            return executor.random.nextDouble();
+        }
+    }
+    
+    /**
+     * lists_create_with for Number items - creates a new double[] when evaluated
+     */
+    public static class NumberList extends ValueNode {
+        private final ValueNode[] items;
+        
+        public NumberList(ValueNode[] items) {
+            this.items = items;
+        }
+        
+        public int getType() { return TYPE_OBJECT; }
+        
+        public Object evalObject(NepoBlockExecutor executor) {
+            double[] values = new double[items.length];
+            for (int i = 0; i < items.length; i++) {
+                values[i] = items[i].evalNumber(executor);
+            }
+            return values;
+        }
+    }
+    
+    /**
+     * math_on_list over a list literal - items are evaluated into a
+     * preallocated scratch array, so no list is created
+     */
+    public static class ItemsOnList extends ValueNode {
+        private final int op;
+        private final ValueNode[] items;
+        private final double[] scratch;
+        
+        public ItemsOnList(int op, ValueNode[] items) {
+            this.op = op;
+            this.items = items;
+            this.scratch = new double[items.length];
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            for (int i = 0; i < items.length; i++) {
+                scratch[i] = items[i].evalNumber(executor);
+            }
+            return aggregate(op, scratch, items.length, executor);
+        }
+    }
+    
+    /**
+     * math_on_list over a list value (e.g. a variable holding a Number list)
+     */
+    public static class ValueOnList extends ValueNode {
+        private final int op;
+        private final ValueNode list;
+        private double[] scratch = new double[0];
+        
+        public ValueOnList(int op, ValueNode list) {
+            this.op = op;
+            this.list = list;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            Object value = list.evalObject(executor);
+            if (!(value instanceof double[])) {
+                return 0;
+            }
+            double[] values = (double[]) value;
+            if (op == LIST_MEDIAN) {
+                // Sort a copy - the list itself must not change
+                if (scratch.length < values.length) {
+                    scratch = new double[values.length];
+                }
+                System.arraycopy(values, 0, scratch, 0, values.length);
+                values = scratch;
+            }
+            return aggregate(op, values, ((double[]) value).length, executor);
+        }
+    }
+    
+    /**
+     * Aggregate the first count values. MEDIAN sorts the array in place.
+     */
+    static double aggregate(int op, double[] values, int count, NepoBlockExecutor executor) {
+        if (count == 0) {
+            return 0;
+        }
+        
+        switch (op) {
+            case LIST_SUM:
+                return sum(values, count);
+            case LIST_MIN: {
+                double min = values[0];
+                for (int i = 1; i < count; i++) {
+                    if (values[i] < min) min = values[i];
+                }
+                return min;
+            }
+            case LIST_MAX: {
+                double max = values[0];
+                for (int i = 1; i < count; i++) {
+                    if (values[i] > max) max = values[i];
+                }
+                return max;
+            }
+            case LIST_AVERAGE:
+                return sum(values, count) / count;
+            case LIST_MEDIAN:
+                sort(values, count);
+                if (count % 2 == 1) {
+                    return values[count / 2];
+                }
+                return (values[count / 2 - 1] + values[count / 2]) / 2;
+            case LIST_STD_DEV: {
+                double mean = sum(values, count) / count;
+                double squares = 0;
+                for (int i = 0; i < count; i++) {
+                    double diff = values[i] - mean;
+                    squares += diff * diff;
+                }
+                return Math.sqrt(squares / count);
+            }
+            case LIST_RANDOM:
+                return values[executor.random.nextInt(count)];
+        }
+        return 0;
+    }
+    
+    private static double sum(double[] values, int count) {
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+    
+    /**
+     * Insertion sort - lists on the brick are short
+     */
+    private static void sort(double[] values, int count) {
+        for (int i = 1; i < count; i++) {
+            double value = values[i];
+            int j = i - 1;
+            while (j >= 0 && values[j] > value) {
+                values[j + 1] = values[j];
+                j--;
+            }
+            values[j + 1] = value;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+import java.io.*;
+
+/**
+ * Heap accounting for loading and running a program
+ *
+ * Before a program is loaded, a quick pre-scan of the file counts its
+ * elements without keeping any of it. From the file size and the element
+ * count the budget estimates the peak heap of loading, parsing and
+ * compiling the program and compares it with the free heap:
+ *
+ *   OK     - fits with room to spare
+ *   WARN   - fits, but uses more than WARN_PERCENT of the free heap
+ *   REFUSE - would not fit; the program is not loaded at all
+ *
+ * so a program that is too large is rejected up front instead of failing
+ * with an OutOfMemoryError in the middle of a run. ShallowXMLParser checks
+ * the budget before reading the file (setMemoryBudget) and every element
+ * it creates reports what it materializes, so getUsed() follows the real
+ * element memory while the program is compiled and run.
+ *
+ * Usage:
+ *   MemoryBudget budget = new MemoryBudget();   // Measures the free heap
+ *   parser.setMemoryBudget(budget);
+ *   IXMLElement root = parser.parseFile("program.xml");
+ *   if (root == null && budget.getVerdict() == MemoryBudget.REFUSE) ...
+ *
+ * Memory strategy for NXT:
+ * - The pre-scan reads the file through one small buffer
+ * - Element sizes are the same constants ShallowXMLElement.getMemoryFootprint
+ *   uses, so estimate and tracking count the same way
+ * - Counters only; nothing is allocated per element
+ */
+public class MemoryBudget {
+
+    public static final int OK = 0;
+    public static final int WARN = 1;
+    public static final int REFUSE = 2;
+
+    // Footprint estimates of ShallowXMLElement.getMemoryFootprint
+    public static final int ELEMENT_BASE_BYTES = 48;   // Object, buffer references and slice handles
+    public static final int ATTRIBUTES_BYTES = 48;     // Attribute table
+    public static final int CHILD_BYTES = 32;          // Per entry of the parent's child vector
+    public static final int ELEMENT_BYTES =            // Fully materialized element
+        ELEMENT_BASE_BYTES + ATTRIBUTES_BYTES + CHILD_BYTES;
+
+    public static final int BYTES_PER_CHAR = 2;        // leJOS strings hold 16-bit chars
+    public static final int COMPILED_BYTES = 32;       // Compiled blocks and value nodes, per element
+    public static final int RUN_RESERVE = 4096;        // Variables, tasks, hardware and stack
+    public static final int WARN_PERCENT = 80;
+
+    private static final int SCAN_BUFFER_SIZE = 64;
+
+    private final long limit;
+
+    private int fileSize = 0;
+    private int elementCount = 0;
+    private long estimate = 0;
+    private int verdict = OK;
+    private long materialized = 0;
+
+    /**
+     * Budget of the heap that is free now
+     */
+    public MemoryBudget() {
+        this(availableHeap());
+    }
+
+    /**
+     * @param limit Heap in bytes the program may use
+     */
+    public MemoryBudget(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Free heap after a garbage collection
+     */
+    public static long availableHeap() {
+        System.gc();
+        return Runtime.getRuntime().freeMemory();
+    }
+
+    /**
+     * Estimated peak heap of a program: loading holds the file bytes and
+     * the XML text at once, parsing and compiling the text and the elements
+     */
+    public static long estimate(int fileSize, int elementCount) {
+        long text = (long) fileSize * BYTES_PER_CHAR;
+        long loading = fileSize + text;
+        long parsed = text + (long) elementCount * (ELEMENT_BYTES + COMPILED_BYTES);
+        return Math.max(loading, parsed) + RUN_RESERVE;
+    }
+
+    /**
+     * Pre-scan a program file and check its estimate against the budget
+     *
+     * @return OK, WARN or REFUSE
+     */
+    public int checkFile(String filename) throws IOException {
+        FileInputStream in = new FileInputStream(new File(filename));
+        try {
+            scan(in);
+        } finally {
+            in.close();
+        }
+        return check();
+    }
+
+    /**
+     * Count the bytes and elements of a program. An element is a '<'
+     * followed by a letter, so closing tags, declarations and comments
+     * are not counted.
+     */
+    public void scan(InputStream in) throws IOException {
+        byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+        int size = 0;
+        int elements = 0;
+        boolean tagStart = false;
+        int count;
+        while ((count = in.read(buffer, 0, SCAN_BUFFER_SIZE)) > 0) {
+            for (int i = 0; i < count; i++) {
+                byte b = buffer[i];
+                if (tagStart && ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z'))) {
+                    elements++;
+                }
+                tagStart = b == '<';
+            }
+            size += count;
+        }
+        fileSize = size;
+        elementCount = elements;
+    }
+
+    /**
+     * Check the estimate of the scanned program against the budget
+     *
+     * @return OK, WARN or REFUSE
+     */
+    public int check() {
+        estimate = estimate(fileSize, elementCount);
+        if (estimate > limit) {
+            verdict = REFUSE;
+        } else if (estimate * 100 > limit * WARN_PERCENT) {
+            verdict = WARN;
+        } else {
+            verdict = OK;
+        }
+        return verdict;
+    }
+
+    /**
+     * Account for element memory as it is materialized
+     */
+    public void materialize(int bytes) {
+        materialized += bytes;
+    }
+
+    /**
+     * Element memory materialized so far
+     */
+    public long getMaterialized() {
+        return materialized;
+    }
+
+    /**
+     * Heap in use for the program: the XML text and the materialized elements
+     */
+    public long getUsed() {
+        return (long) fileSize * BYTES_PER_CHAR + materialized;
+    }
+
+    /**
+     * Whether the program has materialized more than the budget allows
+     */
+    public boolean isExceeded() {
+        return getUsed() + RUN_RESERVE > limit;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public int getFileSize() {
+        return fileSize;
+    }
+
+    public int getElementCount() {
+        return elementCount;
+    }
+
+    public long getEstimate() {
+        return estimate;
+    }
+
+    /**
+     * Result of the last check
+     */
+    public int getVerdict() {
+        return verdict;
+    }
+
+    /**
+     * Estimate and limit in KB for the 16 character display, e.g. "Need 23K of 40K"
+     */
+    public String toShortString() {
+        return "Need " + ((estimate + 1023) / 1024) + "K of " + (limit / 1024) + "K";
+    }
+
+    public String toString() {
+        return "MemoryBudget[" + fileSize + " bytes, " + elementCount + " elements, estimate "
+            + estimate + ", used " + getUsed() + ", limit " + limit + "]";
+    }
+}
@@ -1,13 +1,31 @@
 import lejos.nxt.*;
+import lejos.nxt.addon.GyroSensor;
 import lejos.util.Delay;
 
 /**
  * NXT hardware implementation of IHardware interface
  * 
  * Provides concrete implementation for NXT robot hardware.
+ * Sensor adapters are created on first use and cached, so reading a
+ * sensor in a loop allocates nothing.
  */
 public class NXTHardware implements IHardware {
     
+    private static final int TIMER_COUNT = 5;
+    private static final String[] KEYS = { "ENTER", "LEFT", "RIGHT", "ESCAPE" };
+    
+    private final NXTSensorAdapter[] portSensors = new NXTSensorAdapter[4];        // Ports 1-4
+    private final NXTSensorAdapter[] encoders = new NXTSensorAdapter[3];           // Motors A-C
+    private final NXTSensorAdapter[] timers = new NXTSensorAdapter[TIMER_COUNT];   // Timers 1-5
+    private final NXTSensorAdapter[] keys = new NXTSensorAdapter[KEYS.length];
+    
+    public NXTHardware() {
+        // Timers run from the start, not from their first read
+        for (int i = 0; i < TIMER_COUNT; i++) {
+            timers[i] = new NXTTimerAdapter();
+        }
+    }
+    
     @Override
     public void clearDisplay() {
         LCD.clear();
@@ -35,15 +53,58 @@ public class NXTHardware implements IHardware {
     
     @Override
     public ISensor getSensor(String port, String type) {
+        if (SensorTypes.ENCODER.equals(type)) {
+            int index = getMotorIndex(port);
+            if (index < 0) return null;
+            if (encoders[index] == null) {
+                encoders[index] = new NXTEncoderAdapter(index == 0 ? Motor.A : index == 1 ? Motor.B : Motor.C);
+            }
+            return encoders[index];
+        } else if (SensorTypes.TIMER.equals(type)) {
+            int index = getNumber(port) - 1;
+            if (index < 0 || index >= TIMER_COUNT) return null;
+            return timers[index];
+        } else if (SensorTypes.KEY.equals(type)) {
+            for (int i = 0; i < KEYS.length; i++) {
+                if (KEYS[i].equals(port)) {
+                    if (keys[i] == null) {
+                        keys[i] = new NXTKeyAdapter(i == 0 ? Button.ENTER : i == 1 ? Button.LEFT
+                            : i == 2 ? Button.RIGHT : Button.ESCAPE);
+                    }
+                    return keys[i];
+                }
+            }
+            return null;
+        }
+        
         SensorPort sensorPort = getSensorPort(port);
         if (sensorPort == null) return null;
         
-        if ("TOUCH".equals(type)) {
+        // One sensor per port; a different type replaces the cached adapter
+        int index = getNumber(port) - 1;
+        NXTSensorAdapter sensor = portSensors[index];
+        if (sensor == null || !sensor.getType().equals(type)) {
+            sensor = createPortSensor(sensorPort, type);
+            portSensors[index] = sensor;
+        }
+        return sensor;
+    }
+    
+    private NXTSensorAdapter createPortSensor(SensorPort sensorPort, String type) {
+        if (SensorTypes.TOUCH.equals(type)) {
             return new NXTTouchSensorAdapter(new TouchSensor(sensorPort));
-        } else if ("ULTRASONIC".equals(type)) {
+        } else if (SensorTypes.ULTRASONIC.equals(type)) {
             return new NXTUltrasonicSensorAdapter(new UltrasonicSensor(sensorPort));
+        } else if (SensorTypes.LIGHT.equals(type) || SensorTypes.AMBIENTLIGHT.equals(type)) {
+            return new NXTLightSensorAdapter(new LightSensor(sensorPort, SensorTypes.LIGHT.equals(type)), type);
+        } else if (SensorTypes.SOUND.equals(type)) {
+            return new NXTSoundSensorAdapter(new SoundSensor(sensorPort));
+        } else if (SensorTypes.COLOR.equals(type) || SensorTypes.COLOR_LIGHT.equals(type)
+                || SensorTypes.COLOR_AMBIENTLIGHT.equals(type)) {
+            return new NXTColorSensorAdapter(new ColorSensor(sensorPort), type);
+        } else if (SensorTypes.GYRO.equals(type)) {
+            return new NXTGyroSensorAdapter(new GyroSensor(sensorPort));
         }
-        
         return null;
     }
     
@@ -67,6 +128,11 @@ public class NXTHardware implements IHardware {
         Delay.msDelay(milliseconds);
     }
     
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+    
     private SensorPort getSensorPort(String port) {
         if ("1".equals(port)) return SensorPort.S1;
         if ("2".equals(port)) return SensorPort.S2;
@@ -75,6 +141,20 @@ public class NXTHardware implements IHardware {
         return null;
     }
     
+    private int getMotorIndex(String port) {
+        if ("A".equals(port)) return 0;
+        if ("B".equals(port)) return 1;
+        if ("C".equals(port)) return 2;
+        return -1;
+    }
+    
+    private int getNumber(String port) {
+        if (port != null && port.length() == 1 && port.charAt(0) >= '1' && port.charAt(0) <= '9') {
+            return port.charAt(0) - '0';
+        }
+        return -1;
+    }
+    
     /**
      * Adapter class for NXT motors
      */
@@ -95,6 +175,21 @@ public class NXTHardware implements IHardware {
             motor.rotate(degrees);
         }
         
+        @Override
+        public void rotate(int degrees, boolean immediateReturn) {
+            motor.rotate(degrees, immediateReturn);
+        }
+        
+        @Override
+        public boolean isMoving() {
+            return motor.isMoving();
+        }
+        
+        @Override
+        public void waitComplete() {
+            motor.waitComplete();
+        }
+        
         @Override
         public void forward() {
             motor.forward();
@@ -132,64 +227,230 @@ public class NXTHardware implements IHardware {
     }
     
     /**
-     * Adapter class for NXT touch sensors
+     * Base class of all sensor adapters - implements the sampling contract
+     * on top of read() and measures the latency of each sample
      */
-    private static class NXTTouchSensorAdapter implements ISensor {
-        private final TouchSensor sensor;
+    private abstract static class NXTSensorAdapter implements ISensor {
+        private final String type;
+        private int latency = 0;
         
-        public NXTTouchSensorAdapter(TouchSensor sensor) {
-            this.sensor = sensor;
+        protected NXTSensorAdapter(String type) {
+            this.type = type;
         }
         
+        /**
+         * Read one sample from the hardware
+         */
+        protected abstract double read();
+        
         @Override
         public String getType() {
-            return "TOUCH";
+            return type;
+        }
+        
+        @Override
+        public double getValue() {
+            long start = System.currentTimeMillis();
+            double value = read();
+            latency = (int) (System.currentTimeMillis() - start);
+            return value;
         }
         
         @Override
         public boolean isPressed() {
-            return sensor.isPressed();
+            return getValue() != 0;
         }
         
         @Override
         public double getDistance() {
-            return 0; // Not applicable for touch sensor
+            return 0; // Only for ultrasonic sensors
         }
         
         @Override
-        public double getValue() {
-            return isPressed() ? 1.0 : 0.0;
+        public void reset() {
+            // Absolute sensors have nothing to reset
+        }
+        
+        @Override
+        public int getLastSampleLatency() {
+            return latency;
+        }
+    }
+    
+    /**
+     * Adapter class for NXT touch sensors
+     */
+    private static class NXTTouchSensorAdapter extends NXTSensorAdapter {
+        private final TouchSensor sensor;
+        
+        public NXTTouchSensorAdapter(TouchSensor sensor) {
+            super(SensorTypes.TOUCH);
+            this.sensor = sensor;
+        }
+        
+        @Override
+        protected double read() {
+            return sensor.isPressed() ? 1.0 : 0.0;
         }
     }
     
     /**
      * Adapter class for NXT ultrasonic sensors
      */
-    private static class NXTUltrasonicSensorAdapter implements ISensor {
+    private static class NXTUltrasonicSensorAdapter extends NXTSensorAdapter {
         private final UltrasonicSensor sensor;
         
         public NXTUltrasonicSensorAdapter(UltrasonicSensor sensor) {
+            super(SensorTypes.ULTRASONIC);
             this.sensor = sensor;
         }
         
         @Override
-        public String getType() {
-            return "ULTRASONIC";
+        protected double read() {
+            return sensor.getDistance();
         }
         
         @Override
-        public boolean isPressed() {
-            return false; // Not applicable for ultrasonic sensor
+        public double getDistance() {
+            return getValue();
+        }
+    }
+    
+    /**
+     * Adapter class for NXT light sensors - floodlight on for LIGHT, off for AMBIENTLIGHT
+     */
+    private static class NXTLightSensorAdapter extends NXTSensorAdapter {
+        private final LightSensor sensor;
+        
+        public NXTLightSensorAdapter(LightSensor sensor, String type) {
+            super(type);
+            this.sensor = sensor;
         }
         
         @Override
-        public double getDistance() {
-            return sensor.getDistance();
+        protected double read() {
+            return sensor.readValue();
+        }
+    }
+    
+    /**
+     * Adapter class for NXT sound sensors
+     */
+    private static class NXTSoundSensorAdapter extends NXTSensorAdapter {
+        private final SoundSensor sensor;
+        
+        public NXTSoundSensorAdapter(SoundSensor sensor) {
+            super(SensorTypes.SOUND);
+            this.sensor = sensor;
         }
         
         @Override
-        public double getValue() {
-            return getDistance();
+        protected double read() {
+            return sensor.readValue();
+        }
+    }
+    
+    /**
+     * Adapter class for the NXT 2.0 color sensor - color id, reflected or ambient light
+     */
+    private static class NXTColorSensorAdapter extends NXTSensorAdapter {
+        private final ColorSensor sensor;
+        private final boolean colorId;
+        
+        public NXTColorSensorAdapter(ColorSensor sensor, String type) {
+            super(type);
+            this.sensor = sensor;
+            this.colorId = SensorTypes.COLOR.equals(type);
+            if (!colorId) {
+                sensor.setFloodlight(SensorTypes.COLOR_LIGHT.equals(type));
+            }
+        }
+        
+        @Override
+        protected double read() {
+            return colorId ? sensor.getColorID() : sensor.getLightValue();
+        }
+    }
+    
+    /**
+     * Adapter class for the HiTechnic gyro sensor - rotation rate
+     */
+    private static class NXTGyroSensorAdapter extends NXTSensorAdapter {
+        private final GyroSensor sensor;
+        
+        public NXTGyroSensorAdapter(GyroSensor sensor) {
+            super(SensorTypes.GYRO);
+            this.sensor = sensor;
+        }
+        
+        @Override
+        protected double read() {
+            return sensor.getAngularVelocity();
+        }
+        
+        @Override
+        public void reset() {
+            sensor.recalibrateOffset();
+        }
+    }
+    
+    /**
+     * Adapter class for motor encoders
+     */
+    private static class NXTEncoderAdapter extends NXTSensorAdapter {
+        private final NXTRegulatedMotor motor;
+        
+        public NXTEncoderAdapter(NXTRegulatedMotor motor) {
+            super(SensorTypes.ENCODER);
+            this.motor = motor;
+        }
+        
+        @Override
+        protected double read() {
+            return motor.getTachoCount();
+        }
+        
+        @Override
+        public void reset() {
+            motor.resetTachoCount();
+        }
+    }
+    
+    /**
+     * Software timer - milliseconds since creation or the last reset
+     */
+    private static class NXTTimerAdapter extends NXTSensorAdapter {
+        private long start = System.currentTimeMillis();
+        
+        public NXTTimerAdapter() {
+            super(SensorTypes.TIMER);
+        }
+        
+        @Override
+        protected double read() {
+            return System.currentTimeMillis() - start;
+        }
+        
+        @Override
+        public void reset() {
+            start = System.currentTimeMillis();
+        }
+    }
+    
+    /**
+     * Adapter class for the brick keys
+     */
+    private static class NXTKeyAdapter extends NXTSensorAdapter {
+        private final Button button;
+        
+        public NXTKeyAdapter(Button button) {
+            super(SensorTypes.KEY);
+            this.button = button;
+        }
+        
+        @Override
+        protected double read() {
+            return button.isDown() ? 1.0 : 0.0;
         }
     }
 }
@@ -1,19 +1,48 @@
 import java.util.*;
 
 /**
- * NEPO Block Executor - Minimal implementation for programm1.xml
+ * NEPO Block Executor - runs compiled NEPO programs
  * 
- * Only implements blocks that actually exist in programm1.xml:
- * - robControls_start
- * - robControls_loopForever  
- * - robActions_motorDiff_on
- * - robControls_wait
- * - robActions_motorDiff_turn_for
- * - robSensors_light_getSample
- * - robSensors_touch_getSample
- * - logic_compare
- * - logic_operation
- * - math_number
+ * A program is loaded in two steps: the configuration section is applied
+ * (ConfigurationBlockExecutor) and the program section is compiled by
+ * ProgramCompiler into CompiledBlock statements and ValueNode expressions,
+ * with variables, procedures and sensors resolved to slots. The XML is not
+ * needed while the program runs.
+ * 
+ * Every task instance (robControls_start plus any robControls_activity)
+ * becomes a NepoTask continuation; a round-robin TaskScheduler runs all of
+ * them on the calling thread. Statements run in runFrames: control flow is
+ * compiled to jumps and procedure statements (robProcedures_callnoreturn)
+ * push frames onto the task, so they do not recurse on the Java stack.
+ * Tasks yield at loop boundaries, waits and motions.
+ * 
+ * Functions called from an expression (robProcedures_callreturn) are the
+ * exception: the expression needs the return value before it can continue,
+ * so callFunction runs the function's frames in a nested runFrames on the
+ * Java stack. Recursive functions nest Java frames up to the recursion
+ * limit, and a wait or motion inside a function holds up all other tasks
+ * until the function returns.
+ * 
+ * Supported blocks:
+ * - robControls_start, robControls_start_activity, robControls_activity
+ * - robControls_loopForever, controls_repeat, controls_repeat_ext,
+ *   controls_whileUntil, controls_for, robControls_for, controls_flow_statements
+ * - controls_if, robControls_if, robControls_ifElse
+ * - robControls_wait, robControls_wait_for
+ * - robActions_motorDiff_on, robActions_motorDiff_turn_for
+ * - robSensors_touch/light/sound/ultrasonic/color/gyro/encoder/timer/key_getSample,
+ *   robSensors_encoder_reset, robSensors_timer_reset
+ * - logic_compare, logic_operation, logic_negate, logic_boolean
+ * - math_number, math_arithmetic, math_single, math_trig, math_round, math_constant,
+ *   math_constrain, math_modulo, math_random_int, math_random_float, math_on_list
+ * - robLists_create_with, lists_create_with (number lists)
+ * - robGlobalVariables_declare, variables_set, variables_get
+ * - robProcedures_defnoreturn, robProcedures_defreturn, robProcedures_callnoreturn,
+ *   robProcedures_callreturn, robProcedures_ifreturn
+ * 
+ * Opt-in features, all off by default: fixed-point arithmetic, background
+ * sensor sampling, wait debounce, profiling, execution trace, recent events
+ * and latency histograms.
  */
 public class NepoBlockExecutor {
     private boolean running = true;
@@ -35,6 +64,61 @@ public class NepoBlockExecutor {
     private RobotConfiguration robotConfig;
     private ConfigurationBlockExecutor configExecutor;
     private IHardware hardware;
+    
+    // Motion handling - motors are polled instead of blocking the interpreter
+    private static final int MOTION_POLL_INTERVAL = 10; // ms
+    private IMotionAbortCondition motionAbortCondition = null;
+    
+    // Sensor samples of the running program, shared per round with several task instances
+    SensorSamples sensorSamples = new SensorSamples(false);
+    
+    // Variable slots of the running program, resolved by ProgramCompiler
+    VariableStore variables = new VariableStore(0, 0, 0);
+    
+    // Procedure calls - frames are preallocated per task up to the recursion limit
+    public static final int DEFAULT_RECURSION_LIMIT = 16;
+    private int recursionLimit = DEFAULT_RECURSION_LIMIT;
+    
+    // Task whose statements are being executed
+    NepoTask currentTask = null;
+    
+    // Progress for monitors on other threads (see PerformanceHud) - plain
+    // fields, so a reader may see them a little late
+    private CompiledBlock currentBlock = null;
+    private int loopIterations = 0;
+    
+    // Fixed-point mode - numeric expressions run in Q16.16 integer arithmetic
+    private boolean fixedPoint = false;
+    int fixedPointFallbacks = 0;
+    
+    // Background sensor sampling - sampler of the running program, null if synchronous
+    private boolean backgroundSampling = false;
+    private Hashtable<String, Integer> samplePeriods = new Hashtable<String, Integer>();
+    private SensorSampler sampler = null;
+    
+    // Debounce window of wait blocks on a single sensor (see SensorTrigger)
+    private int waitDebounce = 0;
+    private boolean edgeWaits = false;
+    
+    // Opt-in statement timing, null if disabled
+    private BlockProfiler profiler = null;
+    
+    // Most recent statements and sensor values for crash reports, null if disabled
+    private RecentEvents recentEvents = null;
+    
+    // Opt-in binary trace of executed blocks, null if disabled
+    private ExecutionTrace trace = null;
+    
+    // Opt-in latency histograms, null if disabled
+    private LatencyHistogram loopHistogram = null;
+    private LatencyHistogram waitHistogram = null;
+    
+    // Motor speed in degrees/second per percent of power (7.2), rounded up in
+    // Q16.16 so whole percentages truncate to the same speed as in double
+    private static final int FIXED_SPEED_FACTOR = 471860;
+    
+    // Source of math_random_int, math_random_float and math_on_list RANDOM
+    Random random = new Random();
 
     public NepoBlockExecutor(IHardware hardware) {
         this.hardware = hardware;
@@ -50,14 +134,250 @@ public class NepoBlockExecutor {
         return robotConfig;
     }
     
+    /**
+     * Set a condition that aborts running motions (e.g. turns) when it becomes true.
+     * Pass null to let motions always run to completion.
+     */
+    public void setMotionAbortCondition(IMotionAbortCondition condition) {
+        this.motionAbortCondition = condition;
+    }
+    
+    /**
+     * Abort running motions when a NEPO boolean block holds, e.g. a
+     * robSensors_touch_getSample used as a bumper. Pass null to let motions
+     * always run to completion.
+     */
+    public void setMotionAbortCondition(IXMLElement condition) {
+        if (condition == null) {
+            motionAbortCondition = null;
+            return;
+        }
+        ValueNode node = createCompiler().compileValue(condition);
+        if (node.getType() != ValueNode.TYPE_BOOLEAN) {
+            throw new IllegalArgumentException("Motion abort condition must be a boolean block");
+        }
+        motionAbortCondition = new CompiledAbortCondition(node);
+    }
+    
+    /**
+     * Set the maximum nesting depth of procedure calls.
+     * Each task preallocates this many parameter frames when the program starts.
+     */
+    public void setRecursionLimit(int recursionLimit) {
+        if (recursionLimit <= 0) {
+            throw new IllegalArgumentException("Recursion limit must be positive");
+        }
+        this.recursionLimit = recursionLimit;
+    }
+    
+    public int getRecursionLimit() {
+        return recursionLimit;
+    }
+    
+    /**
+     * Evaluate numeric expressions in Q16.16 fixed point instead of double.
+     * 
+     * Intended for the NXT, which has no FPU. Applies to programs started
+     * afterwards. Arithmetic, comparisons, constrain, modulo and the motor
+     * speed conversion run as integer operations; other math blocks and
+     * variable storage stay in double. An expression that overflows the
+     * fixed-point range (+-32767) continues in double.
+     */
+    public void setFixedPointMode(boolean fixedPoint) {
+        this.fixedPoint = fixedPoint;
+    }
+    
+    public boolean isFixedPointMode() {
+        return fixedPoint;
+    }
+    
+    /**
+     * Number of expressions that overflowed in fixed point and switched to double
+     */
+    public int getFixedPointFallbacks() {
+        return fixedPointFallbacks;
+    }
+    
+    /**
+     * Read sensors on a background SensorSampler thread instead of the
+     * interpreter thread. Sensor blocks then return the latest sample
+     * without waiting for the hardware. Timers are always read directly.
+     * Applies to programs started afterwards.
+     */
+    public void setBackgroundSampling(boolean backgroundSampling) {
+        this.backgroundSampling = backgroundSampling;
+    }
+    
+    public boolean isBackgroundSampling() {
+        return backgroundSampling;
+    }
+    
+    /**
+     * Override the background sampling period of a port.
+     * Never goes below the minimum sample interval of the sensor type.
+     */
+    public void setSensorSamplePeriod(String port, int period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Sample period must be positive");
+        }
+        samplePeriods.put(port, Integer.valueOf(period));
+    }
+    
+    /**
+     * Let a wait on a single sensor ("touch pressed", "light < 50") end only
+     * once its condition has held for the given time, so single-sample
+     * glitches do not end the wait. Applies to programs compiled afterwards.
+     */
+    public void setWaitDebounce(int waitDebounce) {
+        if (waitDebounce < 0) {
+            throw new IllegalArgumentException("Debounce must not be negative");
+        }
+        this.waitDebounce = waitDebounce;
+    }
+    
+    /**
+     * Let a wait on a single sensor end on a change of its condition
+     * rather than while it holds, e.g. only on a new press of a button that
+     * is already held when the wait starts. Applies to programs compiled
+     * afterwards.
+     */
+    public void setEdgeWaits(boolean edgeWaits) {
+        this.edgeWaits = edgeWaits;
+    }
+    
+    /**
+     * Time every executed statement per block type and block id.
+     * The profiler writes its summary when a program ends.
+     * 
+     * @param profiler The profiler, or null to disable profiling
+     */
+    public void setProfiler(BlockProfiler profiler) {
+        this.profiler = profiler;
+    }
+    
+    public BlockProfiler getProfiler() {
+        return profiler;
+    }
+    
+    /**
+     * Keep the most recent statements and sensor reads in a ring, e.g. for
+     * CrashLogger. Recording allocates nothing.
+     * 
+     * @param recentEvents The ring, or null to disable recording
+     */
+    public void setRecentEvents(RecentEvents recentEvents) {
+        this.recentEvents = recentEvents;
+    }
+    
+    public RecentEvents getRecentEvents() {
+        return recentEvents;
+    }
+    
+    /**
+     * Record block enter and exit in a binary trace. Hardware calls are
+     * recorded by running on a TracingHardware with the same trace.
+     * The trace is flushed when a program ends.
+     * 
+     * @param trace The trace, or null to disable tracing
+     */
+    public void setTrace(ExecutionTrace trace) {
+        this.trace = trace;
+    }
+    
+    public ExecutionTrace getTrace() {
+        return trace;
+    }
+    
+    /**
+     * Measure loop jitter and wait reaction time in two LatencyHistograms.
+     *
+     * Loop iteration time is the time between two loop boundaries of a task.
+     * Wait reaction time is the time between the last check of a wait that
+     * found its condition false and the check that ended the wait - the
+     * longest the program can have taken to notice the change. Waits whose
+     * condition already holds are not counted.
+     *
+     * Enabling clears both histograms; they keep their values after the
+     * program ends.
+     */
+    public void setLatencyHistograms(boolean enabled) {
+        if (enabled) {
+            if (loopHistogram == null) {
+                loopHistogram = new LatencyHistogram();
+                waitHistogram = new LatencyHistogram();
+            } else {
+                loopHistogram.reset();
+                waitHistogram.reset();
+            }
+        } else {
+            loopHistogram = null;
+            waitHistogram = null;
+        }
+    }
+    
+    /**
+     * Loop iteration times, null if latency histograms are disabled
+     */
+    public LatencyHistogram getLoopHistogram() {
+        return loopHistogram;
+    }
+    
+    /**
+     * Wait reaction times, null if latency histograms are disabled
+     */
+    public LatencyHistogram getWaitHistogram() {
+        return waitHistogram;
+    }
+    
+    /**
+     * Number of loop iterations since the executor was created.
+     * May be read from another thread; wraps around after 2^31.
+     */
+    public int getLoopIterations() {
+        return loopIterations;
+    }
+    
+    /**
+     * Type of the statement executed last, or null before the first one.
+     * May be read from another thread.
+     */
+    public String getCurrentBlockType() {
+        CompiledBlock block = currentBlock;
+        return block != null ? block.type : null;
+    }
+    
+    /**
+     * Seed the random blocks, e.g. for reproducible test runs
+     */
+    public void setRandomSeed(long seed) {
+        random = new Random(seed);
+    }
+    
     /**
      * Run a complete NEPO program from XML root element.
      * Handles configuration parsing and program execution.
      * 
+     * The caller's reference keeps the XML alive during the run; on the NXT
+     * use loadFile and runCompiled instead, so it can be collected.
+     * 
      * @param xmlRoot The root XML element containing config and program sections
      * @throws Exception if no program section is found
      */
     public void runProgram(IXMLElement xmlRoot) throws Exception {
+        runCompiled(loadProgram(xmlRoot));
+    }
+    
+    /**
+     * Apply the configuration of a program and compile it.
+     * 
+     * The compiled program holds no reference to the XML elements or the
+     * XML text; once the caller drops xmlRoot, both can be collected.
+     * 
+     * @param xmlRoot The root XML element containing config and program sections
+     * @return The compiled program, to be run with runCompiled
+     * @throws Exception if no program section is found
+     */
+    public CompiledProgram loadProgram(IXMLElement xmlRoot) throws Exception {
         // Find and set configuration if present
         IXMLElement config = xmlRoot.findElement("config");
         if (config != null) {
@@ -70,23 +390,108 @@ public class NepoBlockExecutor {
             throw new Exception("No program section found in XML");
         }
         
-        executeProgram(program);
+        return createCompiler().compile(program);
+    }
+    
+    /**
+     * Parse, configure and compile a program file. Nothing of the XML is
+     * reachable when this returns, so the heap it used is free for the run.
+     * 
+     * @param filename The program file
+     * @param parser Parser to use, e.g. with a MemoryBudget
+     * @return The compiled program, or null if the file could not be parsed
+     * @throws Exception if no program section is found
+     */
+    public CompiledProgram loadFile(String filename, IXMLParser parser) throws Exception {
+        IXMLElement xmlRoot = parser.parseFile(filename);
+        if (xmlRoot == null) {
+            return null;
+        }
+        return loadProgram(xmlRoot);
+    }
+    
+    /**
+     * Run a program compiled by loadProgram or loadFile
+     */
+    public void runCompiled(CompiledProgram compiled) {
+        executeCompiled(compiled);
     }
 
     /**
-     * Execute a complete program - finds instance and executes all blocks in sequence
+     * Execute a complete program - runs every task instance.
+     * 
+     * The program is first compiled by ProgramCompiler; each task instance
+     * (robControls_start plus any robControls_activity) becomes a NepoTask
+     * continuation. All tasks are multiplexed on the calling thread by a
+     * round-robin TaskScheduler; tasks yield at waits and loop boundaries.
+     * With several tasks, each sensor is read at most once per scheduling round.
      */
     private void executeProgram(IXMLElement program) {
-        // Find instance
-        IXMLElement instance = program.findElement("instance");
-        if (instance == null) return;
+        executeCompiled(createCompiler().compile(program));
+    }
+    
+    private ProgramCompiler createCompiler() {
+        ProgramCompiler compiler = new ProgramCompiler();
+        compiler.setFixedPoint(fixedPoint);
+        compiler.setWaitDebounce(waitDebounce);
+        compiler.setEdgeWaits(edgeWaits);
+        return compiler;
+    }
+    
+    /**
+     * Execute a compiled program
+     */
+    private void executeCompiled(CompiledProgram compiled) {
+        if (compiled.getTaskCount() == 0) return;
         
-        // Execute all blocks in the instance in order
-        Vector blocks = instance.getChildren("block");
-        for (int i = 0; i < blocks.size(); i++) {
-            IXMLElement block = (IXMLElement) blocks.elementAt(i);
-            executeBlock(block);
+        variables = compiled.createVariableStore();
+        sensorSamples = new SensorSamples(compiled.getTaskCount() > 1);
+        sensorSamples.setConfiguration(robotConfig);
+        TaskScheduler scheduler = new TaskScheduler(sensorSamples);
+        for (int i = 0; i < compiled.getTaskCount(); i++) {
+            NepoTask task = new NepoTask("task" + i, compiled.getTask(i));
+            task.setCallStack(compiled.createCallStack(recursionLimit));
+            scheduler.addTask(task);
         }
+        
+        if (backgroundSampling) {
+            startSampler();
+        }
+        try {
+            scheduler.run(this);
+        } finally {
+            stopMotions(scheduler);
+            if (sampler != null) {
+                sampler.shutdown();
+                sampler = null;
+            }
+            if (profiler != null) {
+                profiler.writeFile();
+            }
+            if (trace != null) {
+                trace.flush();
+            }
+        }
+    }
+    
+    /**
+     * Start the background sampler with all sensors of the robot configuration,
+     * so their first reads do not wait for registration
+     */
+    private void startSampler() {
+        sampler = new SensorSampler(hardware);
+        sensorSamples.setSampler(sampler, samplePeriods);
+        if (robotConfig != null) {
+            Enumeration<String> ports = robotConfig.getSensorPorts();
+            while (ports.hasMoreElements()) {
+                String port = ports.nextElement();
+                String type = SensorTypes.fromConfigType(robotConfig.getSensorType(port));
+                if (type != null) {
+                    sensorSamples.slotFor(port, type);
+                }
+            }
+        }
+        sampler.start();
     }
     
     /**
@@ -105,59 +510,322 @@ public class NepoBlockExecutor {
             return;
         }
         
-        IString blockTypeAttr = block.getAttribute("type");
-        if (blockTypeAttr == null) {
-            return;
-        }
-        String blockType = blockTypeAttr.toString();
-        try {
+        executeCompiled(createCompiler().compileBlock(block));
+    }
+    
+    /**
+     * Run a task until it yields, finishes or has executed maxSteps statements.
+     * 
+     * Control flow is compiled to jumps and procedure statements push frames
+     * onto the task instead of recursing, so the Java stack depth is
+     * independent of the program's nesting depth. Only function calls inside
+     * expressions re-enter runFrames (see callFunction).
+     */
+    void runSlice(NepoTask task, int maxSteps) {
+        currentTask = task;
+        runFrames(task, maxSteps, 0);
+    }
+    
+    /**
+     * Execute statements of a task until it yields, has executed maxSteps
+     * statements or its frame stack is back at stopDepth.
+     */
+    private void runFrames(NepoTask task, int maxSteps, int stopDepth) {
+        int steps = 0;
+        
+        while (running) {
+            if (task.isWaitingForMotion() && !pollMotion(task)) {
+                return; // Motors still moving - let other tasks run
+            }
             
-            if ("robControls_start".equals(blockType)) {
-                executeStartBlock(block);
-            } else if ("robControls_loopForever".equals(blockType)) {
-                executeLoopForeverBlock(block);
-            } else if ("robActions_motorDiff_on".equals(blockType)) {
-                executeMotorDiffOnBlock(block);
-            } else if ("robControls_wait".equals(blockType)) {
-                executeWaitBlock(block);
-            } else if ("robActions_motorDiff_turn_for".equals(blockType)) {
-                executeMotorDiffTurnForBlock(block);
+            if (task.isParked()) {
+                boolean fired;
+                if (profiler == null && trace == null) {
+                    fired = pollTrigger(task);
+                } else {
+                    CompiledBlock wait = task.getCurrentStatement();
+                    long start = enterBlock(wait);
+                    fired = pollTrigger(task);
+                    exitBlock(wait, start);
+                }
+                if (!fired) {
+                    return; // Sensor trigger has not fired yet
+                }
+            }
+            
+            if (task.isFinished() || task.getDepth() <= stopDepth) {
+                return;
+            }
+            
+            if (!task.hasCurrentStatement()) {
+                if (task.getCurrentFrameKind() == NepoTask.FRAME_PROCEDURE) {
+                    returnFromProcedure(task, task.getCallStack().getProcedure().returnValue);
+                    continue;
+                }
+                task.popFrame();
+                continue;
+            }
+            
+            CompiledBlock statement = task.getCurrentStatement();
+            currentBlock = statement;
+            if (recentEvents != null) {
+                recentEvents.recordBlock(statement, hardware.currentTimeMillis());
+            }
+            boolean completed;
+            if (profiler == null && trace == null) {
+                completed = executeStatement(task, statement);
             } else {
-                System.out.println("Unknown block type: " + blockType);
+                long start = enterBlock(statement);
+                completed = executeStatement(task, statement);
+                exitBlock(statement, start);
+            }
+            if (!completed) {
+                return; // Statement is blocked (e.g. waiting) - yield
+            }
+            
+            if (++steps >= maxSteps) {
+                return; // Time slice used up
+            }
+        }
+    }
+    
+    /**
+     * Start measuring a statement for the profiler and the trace
+     * 
+     * @return Start time for exitBlock
+     */
+    private long enterBlock(CompiledBlock block) {
+        if (trace != null) {
+            traceBlock(ExecutionTrace.KIND_BLOCK_ENTER, block, 0);
+        }
+        return System.nanoTime();
+    }
+    
+    private void exitBlock(CompiledBlock block, long start) {
+        long nanos = System.nanoTime() - start;
+        if (profiler != null) {
+            profiler.record(block, nanos);
+        }
+        if (trace != null) {
+            traceBlock(ExecutionTrace.KIND_BLOCK_EXIT, block, nanos);
+        }
+    }
+    
+    /**
+     * Record a block in the trace. The string indices of its type and id
+     * are interned on first use and kept in the block.
+     */
+    private void traceBlock(int kind, CompiledBlock block, long nanos) {
+        int strings = block.traceStrings;
+        if (strings == -1) {
+            strings = (trace.intern(block.type) << 16) | trace.intern(block.id);
+            block.traceStrings = strings;
+        }
+        trace.record(kind, 0, strings >>> 16, strings & 0xFFFF, nanos);
+    }
+    
+    /**
+     * Execute a single statement of a task.
+     * 
+     * @return true if the statement completed and the task moved on,
+     *         false if the statement is blocked or ended a loop iteration
+     *         and the task should yield
+     */
+    private boolean executeStatement(NepoTask task, CompiledBlock block) {
+        try {
+            switch (block.opcode) {
+                case CompiledBlock.OP_LOOP:
+                    // Call hook after each loop iteration, then yield at the loop boundary
+                    task.jump(block.target);
+                    loopIterations++;
+                    if (loopHistogram != null) {
+                        long now = System.nanoTime();
+                        if (task.loopTime != 0) {
+                            loopHistogram.recordNanos(now - task.loopTime);
+                        }
+                        task.loopTime = now;
+                    }
+                    this.onIteration();
+                    return false;
+                case CompiledBlock.OP_JUMP:
+                    task.jump(block.target);
+                    return true;
+                case CompiledBlock.OP_JUMP_IF_FALSE:
+                    if (!block.value0.evalBoolean(this)) {
+                        task.jump(block.target);
+                        return true;
+                    }
+                    break;
+                case CompiledBlock.OP_WAIT:
+                    if (block.trigger != null) {
+                        if (!block.trigger.arm(task, this)) {
+                            if (waitHistogram != null) {
+                                task.waitCheckTime = System.nanoTime();
+                            }
+                            task.park(block.trigger);
+                            this.onIteration();
+                            return false;
+                        }
+                    } else if (!executeWaitBlock(task, block)) {
+                        return false;
+                    }
+                    break;
+                case CompiledBlock.OP_MOTOR_DIFF_ON:
+                    executeMotorDiffOnBlock(block);
+                    break;
+                case CompiledBlock.OP_MOTOR_DIFF_TURN_FOR:
+                    executeMotorDiffTurnForBlock(task, block);
+                    break;
+                case CompiledBlock.OP_RESET_SENSOR:
+                    ((SensorNodes.Sample) block.value0).reset(this);
+                    break;
+                case CompiledBlock.OP_SET_NUMBER:
+                    variables.numbers[block.arg] = block.value0 != null ? block.value0.evalNumber(this) : 0;
+                    break;
+                case CompiledBlock.OP_SET_BOOLEAN:
+                    variables.booleans[block.arg] = block.value0 != null && block.value0.evalBoolean(this);
+                    break;
+                case CompiledBlock.OP_SET_OBJECT:
+                    variables.objects[block.arg] = block.value0 != null ? block.value0.evalObject(this) : null;
+                    break;
+                case CompiledBlock.OP_SET_LOCAL_NUMBER: {
+                    CallStack stack = task.getCallStack();
+                    stack.numbers[stack.getFrame() * stack.numberFrameSize + block.arg] =
+                        block.value0 != null ? block.value0.evalNumber(this) : 0;
+                    break;
+                }
+                case CompiledBlock.OP_SET_LOCAL_BOOLEAN: {
+                    CallStack stack = task.getCallStack();
+                    stack.booleans[stack.getFrame() * stack.booleanFrameSize + block.arg] =
+                        block.value0 != null && block.value0.evalBoolean(this);
+                    break;
+                }
+                case CompiledBlock.OP_SET_LOCAL_OBJECT: {
+                    CallStack stack = task.getCallStack();
+                    stack.objects[stack.getFrame() * stack.objectFrameSize + block.arg] =
+                        block.value0 != null ? block.value0.evalObject(this) : null;
+                    break;
+                }
+                case CompiledBlock.OP_CALL:
+                    task.advance();
+                    return enterProcedure(task, block.procedure, block.args);
+                case CompiledBlock.OP_RETURN_IF:
+                    if (block.value0 != null && block.value0.evalBoolean(this)) {
+                        returnFromProcedure(task, block.value1);
+                        return true;
+                    }
+                    break;
+                default:
+                    // OP_NOP - start blocks and unsupported blocks
+                    break;
             }
-
         } catch (Exception e) {
-            System.err.println("Error executing block " + blockType + ": " + e.getMessage());
+            System.err.println("Error executing block " + block.type + ": " + e.getMessage());
             e.printStackTrace();
         }
+        
+        task.advance();
+        return true;
     }
     
     /**
-     * Execute start block - triggers program execution
+     * Start a procedure call: pass the arguments through the task's
+     * preallocated call stack and push the procedure body as a frame.
+     * 
+     * @return false if the recursion limit was exceeded; the task is stopped
      */
-    private void executeStartBlock(IXMLElement block) {
-        // Start block just marks the beginning - actual execution continues with next blocks
+    private boolean enterProcedure(NepoTask task, CompiledProcedure procedure, ValueNode[] args) {
+        CallStack stack = task.getCallStack();
+        int frame = stack.reserve();
+        if (frame < 0) {
+            System.err.println("Recursion limit " + stack.getLimit() + " exceeded calling " + procedure.name);
+            task.markFinished();
+            return false;
+        }
+        
+        // Arguments are evaluated in the caller's frame
+        for (int i = 0; i < args.length; i++) {
+            ValueNode arg = args[i];
+            int slot = procedure.paramSlots[i];
+            switch (procedure.paramTypes[i]) {
+                case ValueNode.TYPE_NUMBER:
+                    stack.numbers[frame * stack.numberFrameSize + slot] = arg != null ? arg.evalNumber(this) : 0;
+                    break;
+                case ValueNode.TYPE_BOOLEAN:
+                    stack.booleans[frame * stack.booleanFrameSize + slot] = arg != null && arg.evalBoolean(this);
+                    break;
+                default:
+                    stack.objects[frame * stack.objectFrameSize + slot] = arg != null ? arg.evalObject(this) : null;
+                    break;
+            }
+        }
+        if (task.isFinished()) {
+            stack.release(frame); // A call inside an argument hit the recursion limit
+            return false;
+        }
+        
+        stack.enter(frame, procedure);
+        task.pushFrame(procedure.body, NepoTask.FRAME_PROCEDURE);
+        return true;
     }
-
+    
     /**
-     * Execute loop forever block
+     * Return from the current procedure: store the return value, drop all
+     * frames up to and including the procedure frame and leave the call frame.
+     * 
+     * @param value Return value, evaluated in the procedure's frame (may be null)
+     */
+    private void returnFromProcedure(NepoTask task, ValueNode value) {
+        CallStack stack = task.getCallStack();
+        if (value != null && stack.getProcedure().returnType != CompiledProcedure.NO_RETURN) {
+            switch (value.getType()) {
+                case ValueNode.TYPE_NUMBER:
+                    stack.returnNumber = value.evalNumber(this);
+                    break;
+                case ValueNode.TYPE_BOOLEAN:
+                    stack.returnBoolean = value.evalBoolean(this);
+                    break;
+                default:
+                    stack.returnObject = value.evalObject(this);
+                    break;
+            }
+        }
+        
+        while (task.getCurrentFrameKind() != NepoTask.FRAME_PROCEDURE) {
+            task.popFrame();
+        }
+        task.popFrame();
+        stack.exit();
+    }
+    
+    /**
+     * Call a procedure with return value from inside an expression.
+     * 
+     * The call runs to completion on the current task before the expression
+     * continues, so waits inside such a procedure do not yield to other tasks.
+     * Each time the procedure would yield, a new scheduling round starts, so
+     * its waits and loops see fresh sensor samples instead of the values the
+     * tasks share for the current round.
+     * 
+     * @return The call stack holding the return value, or null if the call failed
      */
-    protected void executeLoopForeverBlock(IXMLElement loop) {
-        IXMLElement doStatement = loop.getChild("statement");
-        if (!doStatement.getAttribute("name").equals("DO")) {
-            throw new RuntimeException("only DO statements supported in loops");
+    CallStack callFunction(CompiledProcedure procedure, ValueNode[] args) {
+        NepoTask task = currentTask;
+        int depth = task.getDepth();
+        if (!enterProcedure(task, procedure, args)) {
+            return null;
         }
-        Vector<IXMLElement> blocks = doStatement.getChildren("block");
         
-        while (this.running) {
-            for (int i = 0; i < blocks.size(); i++) {
-                IXMLElement block = blocks.elementAt(i);
-                executeBlock(block);
+        while (running && !task.isFinished() && task.getDepth() > depth) {
+            runFrames(task, Integer.MAX_VALUE, depth);
+            if (task.getDepth() > depth) {
+                if (task.isParked() || task.isWaitingForMotion()) {
+                    idle(getPollInterval(task));
+                }
+                sensorSamples.nextRound();
             }
-            
-            // Call hook after block execution
-            this.onIteration();
         }
+        return task.isFinished() ? null : task.getCallStack();
     }
     
     /**
@@ -171,13 +839,9 @@ public class NepoBlockExecutor {
     /**
      * Execute motor differential on block
      */
-    private void executeMotorDiffOnBlock(IXMLElement block) {
-        String direction = getFieldValue(block, "DIRECTION");
-        Object powerValue = getValue(block, "POWER");
-        
-        if (powerValue instanceof Double) {
-            double power = ((Double) powerValue).doubleValue();
-            int speed = (int) (Math.abs(power) * 7.2); // Convert percentage to degrees/second
+    private void executeMotorDiffOnBlock(CompiledBlock block) {
+        if (block.value0 != null) {
+            int speed = toSpeed(block.value0);
             
             // Control both motors for differential drive
             IMotor motorA = getMotor("A");
@@ -187,10 +851,10 @@ public class NepoBlockExecutor {
                 motorA.setSpeed(speed);
                 motorC.setSpeed(speed);
                 
-                if ("FOREWARD".equals(direction)) {
+                if (block.arg == CompiledBlock.DIRECTION_FORWARD) {
                     motorA.forward();
                     motorC.forward();
-                } else if ("BACKWARD".equals(direction)) {
+                } else if (block.arg == CompiledBlock.DIRECTION_BACKWARD) {
                     motorA.backward();
                     motorC.backward();
                 }
@@ -199,38 +863,94 @@ public class NepoBlockExecutor {
     }
     
     /**
-     * Execute wait block (wait for condition)
+     * Convert a power percentage to degrees/second
      */
-    private void executeWaitBlock(IXMLElement block) {
-        Object conditionValue = getValue(block, "WAIT0");
-        
-        while (this.running) {
-            conditionValue = getValue(block, "WAIT0");
-            if (conditionValue instanceof Boolean && ((Boolean) conditionValue).booleanValue()) {
-                break;
+    private int toSpeed(ValueNode power) {
+        if (fixedPoint) {
+            try {
+                int fixedPower = FixedPoint.abs(power.evalFixed(this));
+                return FixedPoint.toInt(FixedPoint.multiply(fixedPower, FIXED_SPEED_FACTOR));
+            } catch (ArithmeticException e) {
+                fixedPointFallbacks++;
             }
-            // try {
-            //     Thread.sleep(50); // Check every 50ms
-            // } catch (InterruptedException e) {
-            //     break;
-            // }
+        }
+        return (int) (Math.abs(power.evalNumber(this)) * 7.2);
+    }
+    
+    /**
+     * Evaluate a number truncated to int
+     */
+    private int toInt(ValueNode value) {
+        if (fixedPoint) {
+            try {
+                return FixedPoint.toInt(value.evalFixed(this));
+            } catch (ArithmeticException e) {
+                fixedPointFallbacks++;
+            }
+        }
+        return (int) value.evalNumber(this);
+    }
+    
+    /**
+     * Execute wait block (wait for condition).
+     * Checks the condition once; the task yields and retries until it holds.
+     * 
+     * @return true if the condition is met and execution can continue
+     */
+    private boolean executeWaitBlock(NepoTask task, CompiledBlock block) {
+        if (block.value0 != null && block.value0.getType() == ValueNode.TYPE_BOOLEAN
+                && block.value0.evalBoolean(this)) {
+            recordWaitReaction(task);
+            return true;
+        }
+        
+        if (waitHistogram != null) {
+            task.waitCheckTime = System.nanoTime();
+        }
+        this.onIteration();
+        return false;
+    }
 
+    /**
+     * Check the sensor trigger a task is parked on.
+     * 
+     * Only the trigger's sensor is sampled, not the whole wait condition.
+     * When it fires, the task continues after its wait block.
+     * 
+     * @return true if the trigger fired, false if the task stays parked
+     */
+    private boolean pollTrigger(NepoTask task) {
+        if (!task.getTrigger().poll(task, this)) {
+            if (waitHistogram != null) {
+                task.waitCheckTime = System.nanoTime();
+            }
             this.onIteration();
+            return false;
         }
+        recordWaitReaction(task);
+        task.unpark();
+        task.advance();
+        return true;
     }
-
+    
     /**
-     * Execute motor differential turn for block
+     * Record the reaction time of a wait that ended, if it had to wait
      */
-    private void executeMotorDiffTurnForBlock(IXMLElement block) {
-        String direction = getFieldValue(block, "DIRECTION");
-        Object powerValue = getValue(block, "POWER");
-        Object degreeValue = getValue(block, "DEGREE");
-        
-        if (powerValue instanceof Double && degreeValue instanceof Double) {
-            double power = ((Double) powerValue).doubleValue();
-            double degrees = ((Double) degreeValue).doubleValue();
-            int speed = (int) (Math.abs(power) * 7.2);
+    private void recordWaitReaction(NepoTask task) {
+        if (waitHistogram != null && task.waitCheckTime != 0) {
+            waitHistogram.recordNanos(System.nanoTime() - task.waitCheckTime);
+            task.waitCheckTime = 0;
+        }
+    }
+    
+    /**
+     * Execute motor differential turn for block.
+     * Starts the turn without blocking; the task waits for the motion to complete.
+     */
+    private void executeMotorDiffTurnForBlock(NepoTask task, CompiledBlock block) {
+        if (block.value0 != null && block.value1 != null) {
+            int speed = toSpeed(block.value0);
+            int degrees = toInt(block.value1);
             
             IMotor motorA = getMotor("A");
             IMotor motorC = getMotor("C");
@@ -239,154 +959,136 @@ public class NepoBlockExecutor {
                 motorA.setSpeed(speed);
                 motorC.setSpeed(speed);
                 
-                if ("RIGHT".equals(direction)) {
+                if (block.arg == CompiledBlock.DIRECTION_RIGHT) {
                     // Turn right: left motor forward, right motor backward
-                    motorA.rotate((int) degrees);
-                    motorC.rotate(-(int) degrees);
-                } else if ("LEFT".equals(direction)) {
+                    motorA.rotate(degrees, true);
+                    motorC.rotate(-degrees, true);
+                    task.setMotion(motorA, motorC);
+                } else if (block.arg == CompiledBlock.DIRECTION_LEFT) {
                     // Turn left: right motor forward, left motor backward
-                    motorA.rotate(-(int) degrees);
-                    motorC.rotate((int) degrees);
+                    motorA.rotate(-degrees, true);
+                    motorC.rotate(degrees, true);
+                    task.setMotion(motorA, motorC);
                 }
             }
         }
     }
-
+    
     /**
-     * Get value from a value block
-     */
-    private Object getValue(IXMLElement parentBlock, String valueName) {
-        Vector values = parentBlock.getChildren("value");
-        for (int i = 0; i < values.size(); i++) {
-            IXMLElement value = (IXMLElement) values.elementAt(i);
-            IString nameAttr = value.getAttribute("name");
-            if (nameAttr != null && valueName.equals(nameAttr.toString())) {
-                IXMLElement valueBlock = value.getChild("block");
-                if (valueBlock != null) {
-                    return evaluateValueBlock(valueBlock);
-                }
+     * Check the motion a task is waiting for.
+     * 
+     * Polls instead of blocking in rotate(), so other tasks keep running
+     * while the motors move, a stopped program does not wait for them and
+     * the motion abort condition is checked during the whole movement.
+     * A moving task counts as parked: the thread only sleeps in idle(),
+     * once no task can run.
+     * 
+     * @return true if the motion completed or was aborted, false if still moving
+     */
+    private boolean pollMotion(NepoTask task) {
+        IMotor motorA = task.getMotionMotorA();
+        IMotor motorC = task.getMotionMotorC();
+        
+        if (motorA.isMoving() || motorC.isMoving()) {
+            if (motionAbortCondition == null || !motionAbortCondition.shouldAbort(this)) {
+                return false;
             }
+            motorA.stop(true);
+            motorC.stop(true);
         }
-        return null;
+        
+        task.clearMotion();
+        return true;
     }
     
     /**
-     * Evaluate a value block and return its result
+     * How long a parked task can go without a poll, in ms: the sampling
+     * period of its trigger's sensor, or the motion poll interval
      */
-    private Object evaluateValueBlock(IXMLElement block) {
-        IString blockTypeAttr = block.getAttribute("type");
-        if (blockTypeAttr == null) return null;
-        
-        String blockType = blockTypeAttr.toString();
-
-        if ("math_number".equals(blockType)) {
-            String numText = getFieldValue(block, "NUM");
-            if (numText != null) {
-                try {
-                    Double result = Double.valueOf(Double.parseDouble(numText));
-
-                    return result;
-                } catch (NumberFormatException e) {
-                    System.err.println("Invalid number format: " + numText);
-                    return Double.valueOf(0);
-                }
-            }
-            return Double.valueOf(0);
-        } else if ("logic_compare".equals(blockType)) {
-            String op = getFieldValue(block, "OP");
-            Object valueA = getValue(block, "A");
-            Object valueB = getValue(block, "B");
-            
-            if (op != null && valueA != null && valueB != null) {
-                if (valueA instanceof Double && valueB instanceof Double) {
-                    double a = ((Double) valueA).doubleValue();
-                    double b = ((Double) valueB).doubleValue();
-                    
-                    if ("LT".equals(op)) {
-                        return Boolean.valueOf(a < b);
-                    } else if ("GT".equals(op)) {
-                        return Boolean.valueOf(a > b);
-                    } else if ("EQ".equals(op)) {
-                        return Boolean.valueOf(a == b);
-                    } else if ("NEQ".equals(op)) {
-                        return Boolean.valueOf(a != b);
-                    } else if ("LTE".equals(op)) {
-                        return Boolean.valueOf(a <= b);
-                    } else if ("GTE".equals(op)) {
-                        return Boolean.valueOf(a >= b);
-                    }
-                }
-            }
-            return Boolean.valueOf(false);
-        } else if ("logic_operation".equals(blockType)) {
-            String op = getFieldValue(block, "OP");
-            Object valueA = getValue(block, "A");
-            Object valueB = getValue(block, "B");
-            
-            if (op != null && valueA != null && valueB != null) {
-                if (valueA instanceof Boolean && valueB instanceof Boolean) {
-                    boolean a = ((Boolean) valueA).booleanValue();
-                    boolean b = ((Boolean) valueB).booleanValue();
-                    
-                    if ("AND".equals(op)) {
-                        return Boolean.valueOf(a && b);
-                    } else if ("OR".equals(op)) {
-                        return Boolean.valueOf(a || b);
-                    }
-                }
-            }
-            return Boolean.valueOf(false);
-        } else if ("robSensors_light_getSample".equals(blockType)) {
-            String sensorPort = getFieldValue(block, "SENSORPORT");
-            if (sensorPort != null) {
-                ISensor sensor = hardware.getSensor(sensorPort, "LIGHT");
-                if (sensor != null) {
-                    return Double.valueOf(sensor.getValue());
-                }
-            }
-            return Double.valueOf(50); // Default value
-        } else if ("robSensors_touch_getSample".equals(blockType)) {
-            String sensorPort = getFieldValue(block, "SENSORPORT");
-            if (sensorPort != null) {
-                ISensor sensor = hardware.getSensor(sensorPort, "TOUCH");
-                if (sensor != null) {
-                    return Boolean.valueOf(sensor.isPressed());
-                }
+    int getPollInterval(NepoTask task) {
+        if (task.isWaitingForMotion()) {
+            return MOTION_POLL_INTERVAL;
+        }
+        return task.getTrigger().getSamplePeriod(this);
+    }
+    
+    /**
+     * Wait for something to change because every task is parked on a sensor
+     * trigger or waiting for a motion. Called by the TaskScheduler.
+     * 
+     * With a background sampler this sleeps until its next pass; without one
+     * the interpreter thread reads the sensors itself and sleeps for the
+     * given interval instead of polling in a tight loop.
+     * 
+     * @param interval Shortest poll interval of the parked tasks in ms
+     */
+    void idle(int interval) {
+        if (sampler != null) {
+            sensorSamples.awaitSamples();
+        } else {
+            hardware.delay(interval);
+        }
+    }
+    
+    /**
+     * Stop the motors of every task still waiting for a motion, so a
+     * program stopped in the middle of a turn leaves no motor running
+     */
+    private void stopMotions(TaskScheduler scheduler) {
+        for (int i = 0; i < scheduler.getTaskCount(); i++) {
+            NepoTask task = scheduler.getTask(i);
+            if (task.isWaitingForMotion()) {
+                task.getMotionMotorA().stop(true);
+                task.getMotionMotorC().stop(true);
+                task.clearMotion();
             }
-            return Boolean.valueOf(false); // Default value
         }
-        
-        return null;
     }
 
     /**
-     * Get field value from block
+     * Motion abort condition compiled from a NEPO block
      */
-    private String getFieldValue(IXMLElement block, String fieldName) {
-        Vector fields = block.getChildren("field");
-        for (int i = 0; i < fields.size(); i++) {
-            IXMLElement field = (IXMLElement) fields.elementAt(i);
-            IString nameAttr = field.getAttribute("name");
-            if (nameAttr != null && fieldName.equals(nameAttr.toString())) {
-                return field.getTextContent();
-            }
+    private static class CompiledAbortCondition implements IMotionAbortCondition {
+        private final ValueNode condition;
+        
+        CompiledAbortCondition(ValueNode condition) {
+            this.condition = condition;
+        }
+        
+        public boolean shouldAbort(NepoBlockExecutor executor) {
+            return condition.evalBoolean(executor);
         }
-        return null;
     }
 
     /**
-     * Get statement block by name
+     * Time of the hardware clock in milliseconds, for debounce windows
      */
-    protected IXMLElement getStatementBlock(IXMLElement parentBlock, String statementName) {
-        Vector statements = parentBlock.getChildren("statement");
-        for (int i = 0; i < statements.size(); i++) {
-            IXMLElement statement = (IXMLElement) statements.elementAt(i);
-            IString nameAttr = statement.getAttribute("name");
-            if (nameAttr != null && statementName.equals(nameAttr.toString())) {
-                return statement.getChild("block");
-            }
+    long currentTimeMillis() {
+        return hardware.currentTimeMillis();
+    }
+    
+    /**
+     * Read a sensor slot of the running program (see SensorSamples)
+     */
+    double readSensor(int slot) {
+        double value = sensorSamples.sample(slot, hardware);
+        if (recentEvents != null) {
+            recentEvents.recordSensor(sensorSamples.getPort(slot), sensorSamples.getType(slot), value,
+                hardware.currentTimeMillis());
         }
-        return null;
+        return value;
+    }
+    
+    void resetSensor(int slot) {
+        sensorSamples.reset(slot, hardware);
+    }
+    
+    /**
+     * Get the sensor samples of the current or last program run,
+     * e.g. to report sample latencies
+     */
+    public SensorSamples getSensorSamples() {
+        return sensorSamples;
     }
 
     /**
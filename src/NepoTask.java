@@ -0,0 +1,196 @@
+/**
+ * NepoTask - explicit continuation of one running NEPO task
+ * 
+ * Instead of recursing through executeBlock() on the Java stack, the executor
+ * keeps the position of each task in a heap-allocated frame stack. A frame is
+ * the flat code of the task or of a called procedure, the frame kind and the
+ * index of the next statement to run. Loops and ifs are jumps within a frame,
+ * so only procedure calls push frames. A task can be suspended between any
+ * two statements and resumed later.
+ * 
+ * Memory strategy for NXT:
+ * - Parallel arrays instead of one object per frame
+ * - Arrays grow by doubling, so a steady-state loop allocates nothing
+ */
+public class NepoTask {
+    
+    // Frame kinds - what happens when the end of the statement list is reached
+    public static final int FRAME_SEQUENCE = 0;      // Pop and continue with the parent
+    public static final int FRAME_PROCEDURE = 1;     // Return from the procedure call
+    
+    private static final int INITIAL_DEPTH = 4;
+    
+    private final String name;
+    
+    // Frame stack
+    private CompiledBlock[][] frameStatements = new CompiledBlock[INITIAL_DEPTH][];
+    private int[] frameKind = new int[INITIAL_DEPTH];
+    private int[] frameIndex = new int[INITIAL_DEPTH];
+    private int depth = 0;
+    
+    // Motion the task is waiting for (null if none)
+    private IMotor motionMotorA = null;
+    private IMotor motionMotorC = null;
+    
+    // Sensor trigger the task is parked on (null if none) and its
+    // subscription state, maintained by SensorTrigger
+    private SensorTrigger trigger = null;
+    boolean triggerPrevious = false;
+    long triggerSince = -1;
+
+    // Latency measurement (System.nanoTime, 0 if none), maintained by the executor:
+    // last loop boundary and last wait check that found its condition false
+    long loopTime = 0;
+    long waitCheckTime = 0;
+    
+    // Procedure frames, null if the program has no procedures
+    private CallStack callStack = null;
+    
+    private boolean finished = false;
+    
+    /**
+     * Create a task that executes the given statements in order.
+     * 
+     * @param name Task name for debugging
+     * @param statements Top-level statements of the task
+     */
+    public NepoTask(String name, CompiledBlock[] statements) {
+        this.name = name;
+        pushFrame(statements, FRAME_SEQUENCE);
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Push a new frame; execution continues with its first statement
+     */
+    public void pushFrame(CompiledBlock[] statements, int kind) {
+        if (depth == frameStatements.length) {
+            growFrames();
+        }
+        frameStatements[depth] = statements;
+        frameKind[depth] = kind;
+        frameIndex[depth] = 0;
+        depth++;
+    }
+    
+    /**
+     * Pop the current frame
+     */
+    public void popFrame() {
+        depth--;
+        frameStatements[depth] = null; // Release for GC
+    }
+    
+    public int getDepth() {
+        return depth;
+    }
+    
+    public boolean isFinished() {
+        return finished || depth == 0;
+    }
+    
+    public void markFinished() {
+        finished = true;
+    }
+    
+    /**
+     * Check if the current frame has statements left
+     */
+    public boolean hasCurrentStatement() {
+        return frameIndex[depth - 1] < frameStatements[depth - 1].length;
+    }
+    
+    public CompiledBlock getCurrentStatement() {
+        return frameStatements[depth - 1][frameIndex[depth - 1]];
+    }
+    
+    public int getCurrentFrameKind() {
+        return frameKind[depth - 1];
+    }
+    
+    /**
+     * Move on to the next statement of the current frame
+     */
+    public void advance() {
+        frameIndex[depth - 1]++;
+    }
+    
+    /**
+     * Continue the current frame at the given statement index
+     */
+    public void jump(int index) {
+        frameIndex[depth - 1] = index;
+    }
+    
+    public CallStack getCallStack() {
+        return callStack;
+    }
+    
+    public void setCallStack(CallStack callStack) {
+        this.callStack = callStack;
+    }
+    
+    /**
+     * Remember a started motion - the task does not continue until it completes
+     */
+    public void setMotion(IMotor motorA, IMotor motorC) {
+        this.motionMotorA = motorA;
+        this.motionMotorC = motorC;
+    }
+    
+    public boolean isWaitingForMotion() {
+        return motionMotorA != null;
+    }
+    
+    public IMotor getMotionMotorA() {
+        return motionMotorA;
+    }
+    
+    public IMotor getMotionMotorC() {
+        return motionMotorC;
+    }
+    
+    public void clearMotion() {
+        motionMotorA = null;
+        motionMotorC = null;
+    }
+    
+    /**
+     * Park the task on an armed sensor trigger - it does not continue until
+     * the trigger fires
+     */
+    public void park(SensorTrigger trigger) {
+        this.trigger = trigger;
+    }
+    
+    public boolean isParked() {
+        return trigger != null;
+    }
+    
+    public SensorTrigger getTrigger() {
+        return trigger;
+    }
+    
+    public void unpark() {
+        trigger = null;
+    }
+    
+    private void growFrames() {
+        int newSize = frameStatements.length * 2;
+        
+        CompiledBlock[][] newStatements = new CompiledBlock[newSize][];
+        System.arraycopy(frameStatements, 0, newStatements, 0, depth);
+        frameStatements = newStatements;
+        
+        int[] newKind = new int[newSize];
+        System.arraycopy(frameKind, 0, newKind, 0, depth);
+        frameKind = newKind;
+        
+        int[] newIndex = new int[newSize];
+        System.arraycopy(frameIndex, 0, newIndex, 0, depth);
+        frameIndex = newIndex;
+    }
+}
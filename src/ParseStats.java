@@ -0,0 +1,68 @@
+/**
+ * Counters of the work ShallowXMLParser and its elements do
+ *
+ * Shows how much of a document was materialized and how often its text
+ * was scanned, to choose the parse policy per program size
+ * (ShallowXMLParser.setParsePolicy):
+ *
+ * - elements: elements created
+ * - attributeTables: elements whose attributes were parsed
+ * - rescans: elements whose content was scanned again to find their
+ *   children, after the scan of the parent already passed over it
+ * - scannedChars: characters passed over by all scans; divided by the
+ *   document length, how often each character was scanned on average
+ *
+ * A parser keeps counting over all documents it parses until reset().
+ *
+ * Memory strategy for NXT:
+ * - Plain counters, incremented by the elements that do the work
+ */
+public class ParseStats {
+
+    int documentLength = 0;
+    int elements = 0;
+    int attributeTables = 0;
+    int rescans = 0;
+    long scannedChars = 0;
+
+    public int getDocumentLength() {
+        return documentLength;
+    }
+
+    public int getElements() {
+        return elements;
+    }
+
+    public int getAttributeTables() {
+        return attributeTables;
+    }
+
+    public int getRescans() {
+        return rescans;
+    }
+
+    public long getScannedChars() {
+        return scannedChars;
+    }
+
+    /**
+     * Average number of scans per document character, in hundredths
+     */
+    public int getScansPerChar100() {
+        return documentLength > 0 ? (int) (scannedChars * 100 / documentLength) : 0;
+    }
+
+    public void reset() {
+        documentLength = 0;
+        elements = 0;
+        attributeTables = 0;
+        rescans = 0;
+        scannedChars = 0;
+    }
+
+    public String toString() {
+        int scans = getScansPerChar100();
+        return elements + " elements, " + attributeTables + " attribute tables, " + rescans + " rescans, "
+            + (scans / 100) + "." + (scans % 100 < 10 ? "0" : "") + (scans % 100) + " scans/char";
+    }
+}
@@ -0,0 +1,195 @@
+import lejos.nxt.LCD;
+
+/**
+ * Live performance display on the NXT LCD while a program runs
+ *
+ * Shows loop iterations per second, free heap, garbage collections, the
+ * block type executed last and the last values of up to three sensors:
+ *
+ *   it/s        1234
+ *   free B     23456
+ *   gc             3
+ *   block:
+ *   robControls_wait
+ *   S1 TOUCH       1
+ *   S3 LIGHT      42
+ *   S4 ULTRASONI  50
+ *
+ * Runs on its own thread at normal priority: the leJOS scheduler never
+ * runs a lower-priority thread while the interpreter thread is ready, so
+ * the display would freeze. It sleeps REFRESH_PERIOD ms between refreshes,
+ * so the interpreter still keeps the CPU. leJOS has no collection counter:
+ * a collection is counted whenever the free heap has grown since the last
+ * refresh.
+ *
+ * Memory strategy for NXT:
+ * - Lines are formatted into preallocated char arrays, no string building
+ * - Only characters that changed are drawn, so the LCD cost per refresh
+ *   is bounded by what actually changes
+ */
+public class PerformanceHud extends Thread {
+
+    public static final int REFRESH_PERIOD = 500; // ms
+
+    private static final int WIDTH = 16;
+    private static final int LINES = 8;
+    private static final int SENSOR_LINES = 3;
+
+    private final NepoBlockExecutor executor;
+
+    // Text being formatted and text on the LCD, per line
+    private final char[][] next = new char[LINES][WIDTH];
+    private final char[][] shown = new char[LINES][WIDTH];
+
+    private volatile boolean running = true;
+
+    // Previous refresh
+    private long lastTime;
+    private int lastIterations;
+    private long lastFree;
+    private int collections = 0;
+
+    public PerformanceHud(NepoBlockExecutor executor) {
+        super("PerformanceHud");
+        this.executor = executor;
+        setDaemon(true);
+        setPriority(Thread.NORM_PRIORITY);
+    }
+
+    /**
+     * Stop the display and wait for its thread to end
+     */
+    public void shutdown() {
+        running = false;
+        interrupt();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            // Stopped anyway
+        }
+    }
+
+    public void run() {
+        LCD.clear();
+        for (int y = 0; y < LINES; y++) {
+            clear(shown[y]);
+        }
+        lastTime = System.currentTimeMillis();
+        lastIterations = executor.getLoopIterations();
+        lastFree = Runtime.getRuntime().freeMemory();
+
+        while (running) {
+            try {
+                Thread.sleep(REFRESH_PERIOD);
+            } catch (InterruptedException e) {
+                // Woken by shutdown()
+            }
+            if (running) {
+                refresh();
+            }
+        }
+    }
+
+    private void refresh() {
+        long now = System.currentTimeMillis();
+        int iterations = executor.getLoopIterations();
+        long free = Runtime.getRuntime().freeMemory();
+        long elapsed = now - lastTime;
+        if (free > lastFree) {
+            collections++;
+        }
+
+        label(next[0], "it/s");
+        number(next[0], elapsed > 0 ? (iterations - lastIterations) * 1000L / elapsed : 0);
+        label(next[1], "free B");
+        number(next[1], free);
+        label(next[2], "gc");
+        number(next[2], collections);
+        label(next[3], "block:");
+        String type = executor.getCurrentBlockType();
+        label(next[4], type != null ? type : "-");
+
+        SensorSamples samples = executor.getSensorSamples();
+        int count = samples.getSlotCount();
+        for (int i = 0; i < SENSOR_LINES; i++) {
+            char[] line = next[5 + i];
+            if (i < count) {
+                clear(line);
+                line[0] = 'S';
+                int x = text(line, 1, samples.getPort(i));
+                text(line, x + 1, samples.getType(i));
+                number(line, Math.round(samples.getLastValue(i)));
+            } else {
+                clear(line);
+            }
+        }
+
+        lastTime = now;
+        lastIterations = iterations;
+        lastFree = free;
+
+        boolean dirty = false;
+        for (int y = 0; y < LINES; y++) {
+            char[] line = next[y];
+            char[] old = shown[y];
+            for (int x = 0; x < WIDTH; x++) {
+                if (line[x] != old[x]) {
+                    old[x] = line[x];
+                    LCD.drawChar(line[x], x, y);
+                    dirty = true;
+                }
+            }
+        }
+        if (dirty) {
+            LCD.refresh();
+        }
+    }
+
+    /**
+     * Clear a line and write text at its start
+     */
+    private static void label(char[] line, String text) {
+        clear(line);
+        text(line, 0, text);
+    }
+
+    /**
+     * Write text at a position, cut at the end of the line
+     *
+     * @return Position after the text
+     */
+    private static int text(char[] line, int x, String text) {
+        int length = Math.min(text.length(), WIDTH - x);
+        for (int i = 0; i < length; i++) {
+            line[x + i] = text.charAt(i);
+        }
+        return x + Math.max(length, 0);
+    }
+
+    /**
+     * Write a number right-aligned, over whatever text it reaches
+     */
+    private static void number(char[] line, long value) {
+        boolean negative = value < 0;
+        if (negative) {
+            value = -value;
+        }
+        int x = WIDTH - 1;
+        do {
+            line[x--] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0 && x >= 0);
+        if (negative && x >= 0) {
+            line[x--] = '-';
+        }
+        if (x >= 0) {
+            line[x] = ' ';
+        }
+    }
+
+    private static void clear(char[] line) {
+        for (int i = 0; i < WIDTH; i++) {
+            line[i] = ' ';
+        }
+    }
+}
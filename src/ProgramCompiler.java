@@ -0,0 +1,1350 @@
+import java.util.*;
+
+/**
+ * Program Compiler - translates the NEPO XML program into CompiledBlocks
+ * 
+ * Runs once when a program is loaded:
+ * - Finds all task instances (robControls_start / robControls_activity)
+ * - Resolves block types to opcodes and value blocks to ValueNode trees
+ * - Flattens the statements of each task and procedure into one array;
+ *   loops, ifs, break and continue become jumps with pre-linked targets
+ * - Resolves variable names to slots in typed VariableStore arrays
+ * - Links procedure call sites to their CompiledProcedure and resolves
+ *   procedure parameters to CallStack frame slots
+ * 
+ * The name tables only exist during compilation; at runtime variables are
+ * accessed by slot index only and calls need no lookup.
+ */
+public class ProgramCompiler {
+    
+    /**
+     * Compile-time location of a variable: a global VariableStore slot or a
+     * slot in the CallStack frame of the enclosing procedure
+     */
+    private static class VariableRef {
+        final int type;
+        final int slot;
+        final boolean local;
+        
+        VariableRef(int type, int slot, boolean local) {
+            this.type = type;
+            this.slot = slot;
+            this.local = local;
+        }
+    }
+    
+    /**
+     * Jumps of break and continue statements waiting for their loop's targets
+     */
+    private static class LoopContext {
+        final Vector<CompiledBlock> breaks = new Vector<CompiledBlock>();
+        final Vector<CompiledBlock> continues = new Vector<CompiledBlock>();
+    }
+    
+    // Compile-time only: global variable name -> location
+    private final Hashtable<String, VariableRef> globals = new Hashtable<String, VariableRef>();
+    private int numberSlotCount = 0;
+    private int booleanSlotCount = 0;
+    private int objectSlotCount = 0;
+    
+    // Compile-time only: procedure name -> definition
+    private final Hashtable<String, CompiledProcedure> procedures = new Hashtable<String, CompiledProcedure>();
+    
+    // Procedure being compiled, its parameters and its frame size (null outside procedures)
+    private CompiledProcedure currentProcedure = null;
+    private Hashtable<String, VariableRef> locals = null;
+    private int localNumberCount = 0;
+    private int localBooleanCount = 0;
+    private int localObjectCount = 0;
+    
+    // Largest frame size per datatype over all procedures
+    private int maxNumberLocals = 0;
+    private int maxBooleanLocals = 0;
+    private int maxObjectLocals = 0;
+    
+    // Loops enclosing the statement being compiled, innermost last
+    private Vector<LoopContext> loops = new Vector<LoopContext>();
+    
+    // Evaluate numeric expressions in Q16.16 fixed point (see FixedNodes)
+    private boolean fixedPoint = false;
+    
+    // Debounce window of wait triggers in ms
+    private int waitDebounce = 0;
+    
+    // Compile wait triggers as RISING/FALLING edges instead of LEVEL
+    private boolean edgeWaits = false;
+    
+    /**
+     * Compile numeric expressions and comparisons for fixed-point evaluation.
+     * Expressions fall back to double at runtime when they overflow.
+     */
+    public void setFixedPoint(boolean fixedPoint) {
+        this.fixedPoint = fixedPoint;
+    }
+    
+    /**
+     * Debounce window of the sensor triggers of wait blocks: the condition
+     * must hold this long before the wait ends
+     */
+    public void setWaitDebounce(int waitDebounce) {
+        if (waitDebounce < 0) {
+            throw new IllegalArgumentException("Debounce must not be negative");
+        }
+        this.waitDebounce = waitDebounce;
+    }
+    
+    /**
+     * Let the sensor triggers of wait blocks fire on a change instead of a
+     * level: "wait until pressed" needs a new press and does not end while
+     * the button is still held, "wait until not pressed" needs a release.
+     */
+    public void setEdgeWaits(boolean edgeWaits) {
+        this.edgeWaits = edgeWaits;
+    }
+    
+    /**
+     * Compile a program element.
+     * 
+     * @param program The program element containing the block_set
+     * @return Compiled program with one statement list per task
+     */
+    public CompiledProgram compile(IXMLElement program) {
+        Vector<IXMLElement> taskInstances = findTaskInstances(program);
+        
+        if (taskInstances.size() == 0) {
+            // No start block - fall back to the first instance
+            IXMLElement instance = program.findElement("instance");
+            if (instance != null) {
+                taskInstances.addElement(instance);
+            }
+        }
+        
+        // Register declared global variables first, so uses resolve to the declared type
+        for (int i = 0; i < taskInstances.size(); i++) {
+            IXMLElement start = taskInstances.elementAt(i).getChild("block");
+            if (start != null) {
+                registerDeclarations(start);
+            }
+        }
+        
+        // Declare all procedure signatures before compiling any body,
+        // so calls (including recursive ones) can be linked directly
+        Vector<IXMLElement> definitions = findProcedureDefinitions(program);
+        CompiledProcedure[] compiledProcedures = new CompiledProcedure[definitions.size()];
+        for (int i = 0; i < definitions.size(); i++) {
+            compiledProcedures[i] = declareProcedure(definitions.elementAt(i));
+        }
+        for (int i = 0; i < definitions.size(); i++) {
+            compileProcedureBody(compiledProcedures[i], definitions.elementAt(i));
+        }
+        
+        CompiledBlock[][] tasks = new CompiledBlock[taskInstances.size()][];
+        for (int i = 0; i < taskInstances.size(); i++) {
+            tasks[i] = compileStatements(taskInstances.elementAt(i).getChildren("block"));
+        }
+        
+        CompiledProgram compiled = createProgram(tasks);
+        compiled.setProcedureFrames(definitions.size(), maxNumberLocals, maxBooleanLocals, maxObjectLocals);
+        return compiled;
+    }
+    
+    /**
+     * Compile a single statement block into a one-task program
+     */
+    public CompiledProgram compileBlock(IXMLElement block) {
+        Vector<IXMLElement> blocks = new Vector<IXMLElement>();
+        blocks.addElement(block);
+        return createProgram(new CompiledBlock[][] { compileStatements(blocks) });
+    }
+    
+    private CompiledProgram createProgram(CompiledBlock[][] tasks) {
+        return new CompiledProgram(tasks, numberSlotCount, booleanSlotCount, objectSlotCount);
+    }
+    
+    /**
+     * Find all top-level instances that start a task.
+     * Detached block stacks (intask="false") are not tasks.
+     */
+    private Vector<IXMLElement> findTaskInstances(IXMLElement program) {
+        Vector<IXMLElement> result = new Vector<IXMLElement>();
+        IXMLElement blockSet = program.findElement("block_set");
+        if (blockSet == null) return result;
+        
+        int count = blockSet.getChildCount();
+        for (int i = 0; i < count; i++) {
+            IXMLElement instance = blockSet.getChildAt(i);
+            if (!"instance".equals(instance.getTagName())) continue;
+            IXMLElement firstBlock = instance.getChild("block");
+            if (firstBlock != null && isTaskStart(firstBlock)) {
+                result.addElement(instance);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Check if a block starts a task
+     */
+    private boolean isTaskStart(IXMLElement block) {
+        IString type = block.getAttribute("type");
+        if (type == null) return false;
+        
+        IString inTask = block.getAttribute("intask");
+        if (inTask != null && inTask.equals("false")) return false;
+        
+        return type.equals("robControls_start")
+            || type.equals("robControls_start_activity")
+            || type.equals("robControls_activity");
+    }
+    
+    /**
+     * Find the definition blocks of all procedures
+     */
+    private Vector<IXMLElement> findProcedureDefinitions(IXMLElement program) {
+        Vector<IXMLElement> result = new Vector<IXMLElement>();
+        IXMLElement blockSet = program.findElement("block_set");
+        if (blockSet == null) return result;
+        
+        int count = blockSet.getChildCount();
+        for (int i = 0; i < count; i++) {
+            IXMLElement instance = blockSet.getChildAt(i);
+            if (!"instance".equals(instance.getTagName())) continue;
+            IXMLElement firstBlock = instance.getChild("block");
+            if (firstBlock != null && isProcedureDefinition(firstBlock.getAttribute("type"))) {
+                result.addElement(firstBlock);
+            }
+        }
+        return result;
+    }
+    
+    private boolean isProcedureDefinition(IString type) {
+        return type != null
+            && (type.equals("robProcedures_defnoreturn") || type.equals("robProcedures_defreturn"));
+    }
+    
+    /**
+     * Create a procedure from the NAME, PARAMS and return type of its definition
+     */
+    private CompiledProcedure declareProcedure(IXMLElement definition) {
+        String name = getFieldValue(definition, "NAME");
+        Vector<IXMLElement> params = getStatementBlocks(definition, "PARAMS");
+        
+        int[] types = new int[params.size()];
+        int[] slots = new int[params.size()];
+        int numberCount = 0;
+        int booleanCount = 0;
+        int objectCount = 0;
+        for (int i = 0; i < params.size(); i++) {
+            types[i] = toValueType(getFieldValue(params.elementAt(i), "TYPE"));
+            if (types[i] == ValueNode.TYPE_NUMBER) {
+                slots[i] = numberCount++;
+            } else if (types[i] == ValueNode.TYPE_BOOLEAN) {
+                slots[i] = booleanCount++;
+            } else {
+                slots[i] = objectCount++;
+            }
+        }
+        int returnType = CompiledProcedure.NO_RETURN;
+        if (definition.getAttribute("type").equals("robProcedures_defreturn")) {
+            String datatype = getMutationAttribute(definition, "return_type");
+            if (datatype == null) {
+                datatype = getFieldValue(definition, "TYPE");
+            }
+            returnType = toValueType(datatype);
+        }
+        
+        CompiledProcedure procedure = new CompiledProcedure(name, types, slots, returnType);
+        if (name != null) {
+            procedures.put(name, procedure);
+        }
+        return procedure;
+    }
+    
+    /**
+     * Compile the STACK and RETURN of a procedure with its parameters in scope.
+     * Hidden loop variables of the body get frame slots after the parameters.
+     */
+    private void compileProcedureBody(CompiledProcedure procedure, IXMLElement definition) {
+        Vector<IXMLElement> params = getStatementBlocks(definition, "PARAMS");
+        currentProcedure = procedure;
+        locals = new Hashtable<String, VariableRef>();
+        localNumberCount = 0;
+        localBooleanCount = 0;
+        localObjectCount = 0;
+        for (int i = 0; i < params.size(); i++) {
+            int type = procedure.paramTypes[i];
+            if (type == ValueNode.TYPE_NUMBER) {
+                localNumberCount++;
+            } else if (type == ValueNode.TYPE_BOOLEAN) {
+                localBooleanCount++;
+            } else {
+                localObjectCount++;
+            }
+            String name = getFieldValue(params.elementAt(i), "VAR");
+            if (name != null) {
+                locals.put(name, new VariableRef(type, procedure.paramSlots[i], true));
+            }
+        }
+        
+        Vector<LoopContext> outerLoops = loops;
+        loops = new Vector<LoopContext>();
+        try {
+            procedure.body = compileStatements(getStatementBlocks(definition, "STACK"));
+            if (procedure.returnType != CompiledProcedure.NO_RETURN) {
+                procedure.returnValue = compileValue(getValueBlock(definition, "RETURN"));
+                checkType(procedure.returnValue, procedure.returnType, "return value of " + procedure.name);
+            }
+            maxNumberLocals = Math.max(maxNumberLocals, localNumberCount);
+            maxBooleanLocals = Math.max(maxBooleanLocals, localBooleanCount);
+            maxObjectLocals = Math.max(maxObjectLocals, localObjectCount);
+        } finally {
+            currentProcedure = null;
+            locals = null;
+            loops = outerLoops;
+        }
+    }
+    
+    /**
+     * Register the robGlobalVariables_declare blocks of a start block
+     */
+    private void registerDeclarations(IXMLElement startBlock) {
+        Vector<IXMLElement> declarations = getStatementBlocks(startBlock, "ST");
+        for (int i = 0; i < declarations.size(); i++) {
+            IXMLElement declaration = declarations.elementAt(i);
+            String name = getFieldValue(declaration, "VAR");
+            if (name != null) {
+                lookupVariable(name, getFieldValue(declaration, "TYPE"));
+            }
+        }
+    }
+    
+    /**
+     * Compile a list of statement blocks into one flat code array
+     */
+    public CompiledBlock[] compileStatements(Vector<IXMLElement> blocks) {
+        Vector<CompiledBlock> code = new Vector<CompiledBlock>();
+        compileSequence(blocks, code);
+        CompiledBlock[] statements = new CompiledBlock[code.size()];
+        code.copyInto(statements);
+        return statements;
+    }
+    
+    /**
+     * Append the code of a list of statement blocks
+     */
+    private void compileSequence(Vector<IXMLElement> blocks, Vector<CompiledBlock> code) {
+        for (int i = 0; i < blocks.size(); i++) {
+            IXMLElement block = blocks.elementAt(i);
+            int first = code.size();
+            compileStatement(block, code);
+            
+            // Nested statements already carry their own id
+            IString id = block.getAttribute("id");
+            if (id != null) {
+                String blockId = id.toString();
+                for (int j = first; j < code.size(); j++) {
+                    CompiledBlock compiled = code.elementAt(j);
+                    if (compiled.id == null) {
+                        compiled.id = blockId;
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Compile one statement block and append its code.
+     * A start block contributes the initialisation of its declared variables,
+     * control blocks append their nested statements inline.
+     */
+    private void compileStatement(IXMLElement block, Vector<CompiledBlock> result) {
+        IString blockTypeAttr = block.getAttribute("type");
+        if (blockTypeAttr == null) {
+            return;
+        }
+        String blockType = blockTypeAttr.toString();
+        
+        if ("robControls_start".equals(blockType)
+                || "robControls_start_activity".equals(blockType)
+                || "robControls_activity".equals(blockType)) {
+            compileSequence(getStatementBlocks(block, "ST"), result);
+        } else if (isProcedureDefinition(blockTypeAttr)) {
+            // Procedure definitions are compiled separately
+            result.addElement(new CompiledBlock(CompiledBlock.OP_NOP, blockType));
+        } else if ("robProcedures_callnoreturn".equals(blockType)) {
+            CompiledProcedure procedure = findProcedure(block);
+            if (procedure != null) {
+                CompiledBlock call = new CompiledBlock(CompiledBlock.OP_CALL, blockType);
+                call.procedure = procedure;
+                call.args = compileArguments(block, procedure);
+                result.addElement(call);
+            } else {
+                result.addElement(new CompiledBlock(CompiledBlock.OP_NOP, blockType));
+            }
+        } else if ("robProcedures_ifreturn".equals(blockType)) {
+            if (currentProcedure == null) {
+                System.out.println("Return outside of procedure ignored");
+                result.addElement(new CompiledBlock(CompiledBlock.OP_NOP, blockType));
+            } else {
+                CompiledBlock ifReturn = new CompiledBlock(CompiledBlock.OP_RETURN_IF, blockType);
+                ifReturn.value0 = compileValue(getValueBlock(block, "CONDITION"));
+                if (currentProcedure.returnType != CompiledProcedure.NO_RETURN) {
+                    ifReturn.value1 = compileValue(getValueBlock(block, "VALUE"));
+                    checkType(ifReturn.value1, currentProcedure.returnType, "return value of " + currentProcedure.name);
+                }
+                result.addElement(ifReturn);
+            }
+        } else if ("robGlobalVariables_declare".equals(blockType)) {
+            String name = getFieldValue(block, "VAR");
+            if (name != null) {
+                VariableRef variable = lookupVariable(name, getFieldValue(block, "TYPE"));
+                result.addElement(writeVariable(blockType, variable, compileValue(getValueBlock(block, "VALUE")), name));
+            }
+        } else if ("variables_set".equals(blockType)) {
+            String name = getFieldValue(block, "VAR");
+            if (name != null) {
+                VariableRef variable = lookupVariable(name, getDatatype(block));
+                result.addElement(writeVariable(blockType, variable, compileValue(getValueBlock(block, "VALUE")), name));
+            }
+        } else if ("robControls_loopForever".equals(blockType)) {
+            compileLoopForever(block, blockType, result);
+        } else if ("controls_repeat_ext".equals(blockType) || "controls_repeat".equals(blockType)) {
+            compileRepeat(block, blockType, result);
+        } else if ("controls_whileUntil".equals(blockType)) {
+            compileWhileUntil(block, blockType, result);
+        } else if ("controls_for".equals(blockType) || "robControls_for".equals(blockType)) {
+            compileFor(block, blockType, result);
+        } else if ("controls_if".equals(blockType) || "robControls_if".equals(blockType)
+                || "robControls_ifElse".equals(blockType)) {
+            compileIf(block, blockType, result);
+        } else if ("controls_flow_statements".equals(blockType)) {
+            compileFlowStatement(block, blockType, result);
+        } else if ("robControls_wait".equals(blockType) || "robControls_wait_for".equals(blockType)) {
+            CompiledBlock wait = new CompiledBlock(CompiledBlock.OP_WAIT, blockType);
+            wait.value0 = compileValue(getValueBlock(block, "WAIT0"));
+            wait.trigger = compileTrigger(getValueBlock(block, "WAIT0"));
+            result.addElement(wait);
+        } else if ("robActions_motorDiff_on".equals(blockType)) {
+            CompiledBlock motor = new CompiledBlock(CompiledBlock.OP_MOTOR_DIFF_ON, blockType);
+            motor.arg = compileDirection(getFieldValue(block, "DIRECTION"));
+            motor.value0 = compileNumber(getValueBlock(block, "POWER"));
+            result.addElement(motor);
+        } else if ("robActions_motorDiff_turn_for".equals(blockType)) {
+            CompiledBlock turn = new CompiledBlock(CompiledBlock.OP_MOTOR_DIFF_TURN_FOR, blockType);
+            turn.arg = compileDirection(getFieldValue(block, "DIRECTION"));
+            turn.value0 = compileNumber(getValueBlock(block, "POWER"));
+            turn.value1 = compileNumber(getValueBlock(block, "DEGREE"));
+            result.addElement(turn);
+        } else if ("robSensors_encoder_reset".equals(blockType) || "robSensors_timer_reset".equals(blockType)) {
+            String port = getFieldValue(block, "SENSORPORT");
+            if (port == null) {
+                result.addElement(new CompiledBlock(CompiledBlock.OP_NOP, blockType));
+                return;
+            }
+            CompiledBlock reset = new CompiledBlock(CompiledBlock.OP_RESET_SENSOR, blockType);
+            if ("robSensors_encoder_reset".equals(blockType)) {
+                reset.value0 = new SensorNodes.EncoderSample(port, SensorNodes.EncoderSample.MODE_DEGREE);
+            } else {
+                reset.value0 = new SensorNodes.NumberSample(port, SensorTypes.TIMER);
+            }
+            result.addElement(reset);
+        } else {
+            System.out.println("Unknown block type: " + blockType);
+            result.addElement(new CompiledBlock(CompiledBlock.OP_NOP, blockType));
+        }
+    }
+    
+    /**
+     * Compile robControls_loopForever:
+     * 
+     *   start: DO
+     *          LOOP start
+     */
+    private void compileLoopForever(IXMLElement block, String blockType, Vector<CompiledBlock> code) {
+        int start = code.size();
+        LoopContext loop = beginLoop();
+        compileSequence(getStatementBlocks(block, "DO"), code);
+        int continueTarget = code.size();
+        code.addElement(jump(CompiledBlock.OP_LOOP, blockType, start));
+        endLoop(loop, continueTarget, code.size());
+    }
+    
+    /**
+     * Compile controls_repeat_ext with a hidden counter:
+     * 
+     *          counter = TIMES
+     *   start: JUMP_IF_FALSE counter >= 1, end
+     *          DO
+     *          counter = counter - 1
+     *          LOOP start
+     *   end:
+     */
+    private void compileRepeat(IXMLElement block, String blockType, Vector<CompiledBlock> code) {
+        ValueNode times = compileNumber(getValueBlock(block, "TIMES"));
+        if (times == null) {
+            String timesField = getFieldValue(block, "TIMES"); // controls_repeat has a field
+            times = new CoreNodes.NumberConstant(timesField != null ? parseNumber(timesField) : 0);
+        }
+        
+        VariableRef counter = allocateHiddenNumber();
+        code.addElement(writeVariable(blockType, counter, times, "repeat counter"));
+        
+        int start = code.size();
+        CompiledBlock exit = jump(CompiledBlock.OP_JUMP_IF_FALSE, blockType, -1);
+        exit.value0 = new CoreNodes.Compare(CoreNodes.OP_GTE, readVariable(counter), new CoreNodes.NumberConstant(1));
+        code.addElement(exit);
+        
+        LoopContext loop = beginLoop();
+        compileSequence(getStatementBlocks(block, "DO"), code);
+        int continueTarget = code.size();
+        code.addElement(writeVariable(blockType, counter,
+            new MathNodes.Add(readVariable(counter), new CoreNodes.NumberConstant(-1)), "repeat counter"));
+        code.addElement(jump(CompiledBlock.OP_LOOP, blockType, start));
+        exit.target = code.size();
+        endLoop(loop, continueTarget, code.size());
+    }
+    
+    /**
+     * Compile controls_whileUntil:
+     * 
+     *   start: JUMP_IF_FALSE BOOL (negated for UNTIL), end
+     *          DO
+     *          LOOP start
+     *   end:
+     */
+    private void compileWhileUntil(IXMLElement block, String blockType, Vector<CompiledBlock> code) {
+        ValueNode condition = compileValue(getValueBlock(block, "BOOL"));
+        if (!isBoolean(condition)) {
+            condition = new CoreNodes.BooleanConstant(false);
+        }
+        if ("UNTIL".equals(getFieldValue(block, "MODE"))) {
+            condition = new CoreNodes.LogicNegate(condition);
+        }
+        
+        int start = code.size();
+        CompiledBlock exit = jump(CompiledBlock.OP_JUMP_IF_FALSE, blockType, -1);
+        exit.value0 = condition;
+        code.addElement(exit);
+        
+        LoopContext loop = beginLoop();
+        compileSequence(getStatementBlocks(block, "DO"), code);
+        code.addElement(jump(CompiledBlock.OP_LOOP, blockType, start));
+        exit.target = code.size();
+        endLoop(loop, start, code.size());
+    }
+    
+    /**
+     * Compile controls_for. TO and BY are evaluated once into hidden
+     * variables; the loop counts up for BY >= 0 and down otherwise,
+     * both bounds inclusive:
+     * 
+     *          VAR = FROM, to = TO, by = BY
+     *   start: JUMP_IF_FALSE (by >= 0 ? VAR <= to : VAR >= to), end
+     *          DO
+     *          VAR = VAR + by
+     *          LOOP start
+     *   end:
+     */
+    private void compileFor(IXMLElement block, String blockType, Vector<CompiledBlock> code) {
+        String name = getFieldValue(block, "VAR");
+        if (name == null) {
+            throw new RuntimeException("Missing loop variable in " + blockType);
+        }
+        VariableRef variable = lookupVariable(name, "Number");
+        if (variable.type != ValueNode.TYPE_NUMBER) {
+            throw new RuntimeException("Loop variable " + name + " is not a Number");
+        }
+        VariableRef to = allocateHiddenNumber();
+        VariableRef by = allocateHiddenNumber();
+        
+        ValueNode step = compileNumber(getValueBlock(block, "BY"));
+        if (step == null) {
+            step = new CoreNodes.NumberConstant(1);
+        }
+        code.addElement(writeVariable(blockType, variable, compileNumber(getValueBlock(block, "FROM")), name));
+        code.addElement(writeVariable(blockType, to, compileNumber(getValueBlock(block, "TO")), "loop limit"));
+        code.addElement(writeVariable(blockType, by, step, "loop step"));
+        
+        int start = code.size();
+        CompiledBlock exit = jump(CompiledBlock.OP_JUMP_IF_FALSE, blockType, -1);
+        exit.value0 = new CoreNodes.ForCondition(readVariable(variable), readVariable(to), readVariable(by));
+        code.addElement(exit);
+        
+        LoopContext loop = beginLoop();
+        compileSequence(getStatementBlocks(block, "DO"), code);
+        int continueTarget = code.size();
+        code.addElement(writeVariable(blockType, variable,
+            new MathNodes.Add(readVariable(variable), readVariable(by)), name));
+        code.addElement(jump(CompiledBlock.OP_LOOP, blockType, start));
+        exit.target = code.size();
+        endLoop(loop, continueTarget, code.size());
+    }
+    
+    /**
+     * Compile controls_if with its else-if and else branches:
+     * 
+     *          JUMP_IF_FALSE IF0, next0
+     *          DO0
+     *          JUMP end
+     *   next0: JUMP_IF_FALSE IF1, next1
+     *          ...
+     *   nextN: ELSE
+     *   end:
+     */
+    private void compileIf(IXMLElement block, String blockType, Vector<CompiledBlock> code) {
+        boolean hasElse = findNamedChild(block, "statement", "ELSE") != null;
+        Vector<CompiledBlock> endJumps = new Vector<CompiledBlock>();
+        
+        for (int i = 0; findNamedChild(block, "value", "IF" + i) != null; i++) {
+            ValueNode condition = compileValue(getValueBlock(block, "IF" + i));
+            if (!isBoolean(condition)) {
+                condition = new CoreNodes.BooleanConstant(false);
+            }
+            CompiledBlock skip = jump(CompiledBlock.OP_JUMP_IF_FALSE, blockType, -1);
+            skip.value0 = condition;
+            code.addElement(skip);
+            
+            compileSequence(getStatementBlocks(block, "DO" + i), code);
+            if (hasElse || findNamedChild(block, "value", "IF" + (i + 1)) != null) {
+                CompiledBlock end = jump(CompiledBlock.OP_JUMP, blockType, -1);
+                code.addElement(end);
+                endJumps.addElement(end);
+            }
+            skip.target = code.size();
+        }
+        
+        if (hasElse) {
+            compileSequence(getStatementBlocks(block, "ELSE"), code);
+        }
+        for (int i = 0; i < endJumps.size(); i++) {
+            endJumps.elementAt(i).target = code.size();
+        }
+    }
+    
+    /**
+     * Compile controls_flow_statements - a jump linked when the loop is complete
+     */
+    private void compileFlowStatement(IXMLElement block, String blockType, Vector<CompiledBlock> code) {
+        String flow = getFieldValue(block, "FLOW");
+        if (loops.size() == 0) {
+            System.out.println("Flow statement " + flow + " outside of loop ignored");
+            code.addElement(new CompiledBlock(CompiledBlock.OP_NOP, blockType));
+            return;
+        }
+        
+        LoopContext loop = loops.lastElement();
+        CompiledBlock jump = jump(CompiledBlock.OP_JUMP, blockType, -1);
+        if ("CONTINUE".equals(flow)) {
+            loop.continues.addElement(jump);
+        } else {
+            loop.breaks.addElement(jump);
+        }
+        code.addElement(jump);
+    }
+    
+    private LoopContext beginLoop() {
+        LoopContext loop = new LoopContext();
+        loops.addElement(loop);
+        return loop;
+    }
+    
+    /**
+     * Link the break and continue jumps of a finished loop
+     */
+    private void endLoop(LoopContext loop, int continueTarget, int breakTarget) {
+        loops.removeElementAt(loops.size() - 1);
+        for (int i = 0; i < loop.continues.size(); i++) {
+            loop.continues.elementAt(i).target = continueTarget;
+        }
+        for (int i = 0; i < loop.breaks.size(); i++) {
+            loop.breaks.elementAt(i).target = breakTarget;
+        }
+    }
+    
+    private CompiledBlock jump(int opcode, String blockType, int target) {
+        CompiledBlock jump = new CompiledBlock(opcode, blockType);
+        jump.target = target;
+        return jump;
+    }
+    
+    /**
+     * Compile an assignment to a variable
+     * 
+     * @param name Variable name for error messages
+     */
+    private CompiledBlock writeVariable(String blockType, VariableRef variable, ValueNode value, String name) {
+        int opcode;
+        if (variable.type == ValueNode.TYPE_NUMBER) {
+            opcode = variable.local ? CompiledBlock.OP_SET_LOCAL_NUMBER : CompiledBlock.OP_SET_NUMBER;
+        } else if (variable.type == ValueNode.TYPE_BOOLEAN) {
+            opcode = variable.local ? CompiledBlock.OP_SET_LOCAL_BOOLEAN : CompiledBlock.OP_SET_BOOLEAN;
+        } else {
+            opcode = variable.local ? CompiledBlock.OP_SET_LOCAL_OBJECT : CompiledBlock.OP_SET_OBJECT;
+        }
+        
+        CompiledBlock assignment = new CompiledBlock(opcode, blockType);
+        assignment.arg = variable.slot;
+        assignment.value0 = value;
+        checkType(value, variable.type, "variable " + name);
+        return assignment;
+    }
+    
+    /**
+     * Create the node reading a variable
+     */
+    private ValueNode readVariable(VariableRef variable) {
+        if (variable.local) {
+            if (variable.type == ValueNode.TYPE_NUMBER) return new CoreNodes.LocalNumberVariable(variable.slot);
+            if (variable.type == ValueNode.TYPE_BOOLEAN) return new CoreNodes.LocalBooleanVariable(variable.slot);
+            return new CoreNodes.LocalObjectVariable(variable.slot);
+        }
+        if (variable.type == ValueNode.TYPE_NUMBER) return new CoreNodes.NumberVariable(variable.slot);
+        if (variable.type == ValueNode.TYPE_BOOLEAN) return new CoreNodes.BooleanVariable(variable.slot);
+        return new CoreNodes.ObjectVariable(variable.slot);
+    }
+    
+    /**
+     * Look up the procedure named in the mutation of a call block
+     */
+    private CompiledProcedure findProcedure(IXMLElement call) {
+        String name = getMutationAttribute(call, "name");
+        CompiledProcedure procedure = name != null ? procedures.get(name) : null;
+        if (procedure == null) {
+            System.out.println("Unknown procedure: " + name);
+        }
+        return procedure;
+    }
+    
+    /**
+     * Compile the ARG0..ARGn inputs of a call, one per parameter
+     */
+    private ValueNode[] compileArguments(IXMLElement call, CompiledProcedure procedure) {
+        ValueNode[] args = new ValueNode[procedure.paramTypes.length];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = compileValue(getValueBlock(call, "ARG" + i));
+            checkType(args[i], procedure.paramTypes[i], "argument " + i + " of " + procedure.name);
+        }
+        return args;
+    }
+    
+    /**
+     * Check that a value can be stored in a slot of the given type.
+     * Number and Boolean slots need an exact match, other slots take anything.
+     */
+    private void checkType(ValueNode value, int slotType, String target) {
+        if (value != null && slotType != ValueNode.TYPE_OBJECT && value.getType() != slotType) {
+            throw new RuntimeException("Type mismatch assigning " + target);
+        }
+    }
+    
+    /**
+     * Compile a value block into a ValueNode.
+     * 
+     * @return The node, or null if there is no value block or it is not supported
+     */
+    public ValueNode compileValue(IXMLElement block) {
+        if (block == null) return null;
+        
+        IString blockTypeAttr = block.getAttribute("type");
+        if (blockTypeAttr == null) return null;
+        
+        String blockType = blockTypeAttr.toString();
+        
+        if ("math_number".equals(blockType)) {
+            String numText = getFieldValue(block, "NUM");
+            return new CoreNodes.NumberConstant(numText != null ? parseNumber(numText) : 0);
+        } else if ("logic_boolean".equals(blockType)) {
+            return new CoreNodes.BooleanConstant("TRUE".equals(getFieldValue(block, "BOOL")));
+        } else if ("text".equals(blockType)) {
+            String text = getFieldValue(block, "TEXT");
+            return new CoreNodes.TextConstant(text != null ? text : "");
+        } else if ("variables_get".equals(blockType)) {
+            String name = getFieldValue(block, "VAR");
+            if (name == null) return null;
+            return readVariable(lookupVariable(name, getDatatype(block)));
+        } else if ("robProcedures_callreturn".equals(blockType)) {
+            CompiledProcedure procedure = findProcedure(block);
+            if (procedure == null || procedure.returnType == CompiledProcedure.NO_RETURN) {
+                return null;
+            }
+            return new CoreNodes.ProcedureCall(procedure, compileArguments(block, procedure));
+        } else if ("logic_compare".equals(blockType)) {
+            return compileCompare(block);
+        } else if ("logic_operation".equals(blockType)) {
+            String op = getFieldValue(block, "OP");
+            ValueNode a = compileValue(getValueBlock(block, "A"));
+            ValueNode b = compileValue(getValueBlock(block, "B"));
+            if (op == null || !isBoolean(a) || !isBoolean(b)) {
+                return new CoreNodes.BooleanConstant(false);
+            }
+            if ("AND".equals(op)) {
+                return new CoreNodes.LogicOperation(true, a, b);
+            } else if ("OR".equals(op)) {
+                return new CoreNodes.LogicOperation(false, a, b);
+            }
+            return new CoreNodes.BooleanConstant(false);
+        } else if ("logic_negate".equals(blockType)) {
+            ValueNode value = compileValue(getValueBlock(block, "BOOL"));
+            if (!isBoolean(value)) {
+                return new CoreNodes.BooleanConstant(false);
+            }
+            return new CoreNodes.LogicNegate(value);
+        } else if (blockType.startsWith("math_")) {
+            return compileMath(block, blockType);
+        } else if ("robLists_create_with".equals(blockType) || "lists_create_with".equals(blockType)) {
+            ValueNode[] items = compileListItems(block);
+            return items != null ? new MathNodes.NumberList(items) : null;
+        } else if (blockType.startsWith("robSensors_")) {
+            return compileSensor(block, blockType);
+        }
+        
+        System.out.println("Unknown value block type: " + blockType);
+        return null;
+    }
+    
+    /**
+     * Compile logic_compare - numeric comparison, or equality for other types
+     */
+    private ValueNode compileCompare(IXMLElement block) {
+        String op = getFieldValue(block, "OP");
+        ValueNode a = compileValue(getValueBlock(block, "A"));
+        ValueNode b = compileValue(getValueBlock(block, "B"));
+        if (op == null || a == null || b == null) {
+            return new CoreNodes.BooleanConstant(false);
+        }
+        
+        if (a.getType() == ValueNode.TYPE_NUMBER && b.getType() == ValueNode.TYPE_NUMBER) {
+            if (fixedPoint) {
+                return compileFixedCompare(op, unwrapFixed(a), unwrapFixed(b));
+            }
+            if ("EQ".equals(op)) return new CoreNodes.Compare(CoreNodes.OP_EQ, a, b);
+            if ("NEQ".equals(op)) return new CoreNodes.Compare(CoreNodes.OP_NEQ, a, b);
+            if ("LT".equals(op)) return new CoreNodes.Compare(CoreNodes.OP_LT, a, b);
+            if ("LTE".equals(op)) return new CoreNodes.Compare(CoreNodes.OP_LTE, a, b);
+            if ("GT".equals(op)) return new CoreNodes.Compare(CoreNodes.OP_GT, a, b);
+            if ("GTE".equals(op)) return new CoreNodes.Compare(CoreNodes.OP_GTE, a, b);
+        } else if ("EQ".equals(op)) {
+            return new CoreNodes.EqualityCompare(false, a, b);
+        } else if ("NEQ".equals(op)) {
+            return new CoreNodes.EqualityCompare(true, a, b);
+        }
+        return new CoreNodes.BooleanConstant(false);
+    }
+    
+    /**
+     * Compile a wait condition on a single sensor into a trigger:
+     * a pressed sensor, or a sensor compared with a number constant, or
+     * the negation of either.
+     * 
+     * @return The trigger, or null if the condition must be evaluated as a whole
+     */
+    private SensorTrigger compileTrigger(IXMLElement condition) {
+        return compileTrigger(condition, false);
+    }
+    
+    private SensorTrigger compileTrigger(IXMLElement condition, boolean negated) {
+        IString type = condition != null ? condition.getAttribute("type") : null;
+        if (type == null) {
+            return null;
+        }
+        
+        if (type.equals("logic_negate")) {
+            return compileTrigger(getValueBlock(condition, "BOOL"), !negated);
+        }
+        
+        if (isTriggerOperand(condition)) {
+            ValueNode node = compileValue(condition);
+            if (node instanceof SensorNodes.PressedSample) {
+                return createTrigger((SensorNodes.Sample) node, CoreNodes.OP_NEQ, 0, negated);
+            }
+            return null;
+        }
+        
+        int op = compileCompareOp(getFieldValue(condition, "OP"));
+        IXMLElement blockA = getValueBlock(condition, "A");
+        IXMLElement blockB = getValueBlock(condition, "B");
+        if (!type.equals("logic_compare") || op < 0 || !isTriggerOperand(blockA) || !isTriggerOperand(blockB)) {
+            return null;
+        }
+        ValueNode a = unwrapFixed(compileValue(blockA));
+        ValueNode b = unwrapFixed(compileValue(blockB));
+        if (a instanceof CoreNodes.NumberConstant && b instanceof SensorNodes.Sample) {
+            // Constant on the left - mirror the comparison
+            ValueNode sensor = b;
+            b = a;
+            a = sensor;
+            if (op == CoreNodes.OP_LT) op = CoreNodes.OP_GT;
+            else if (op == CoreNodes.OP_LTE) op = CoreNodes.OP_GTE;
+            else if (op == CoreNodes.OP_GT) op = CoreNodes.OP_LT;
+            else if (op == CoreNodes.OP_GTE) op = CoreNodes.OP_LTE;
+        }
+        if (a instanceof SensorNodes.Sample && a.getType() == ValueNode.TYPE_NUMBER
+                && b instanceof CoreNodes.NumberConstant) {
+            return createTrigger((SensorNodes.Sample) a, op, b.evalNumber(null), negated);
+        }
+        return null;
+    }
+    
+    /**
+     * Trigger on "sample op threshold", or its negation. A negated
+     * comparison is a FALLING edge of the comparison with edge waits, and
+     * the opposite comparison otherwise.
+     */
+    private SensorTrigger createTrigger(SensorNodes.Sample sample, int op, double threshold, boolean negated) {
+        if (edgeWaits) {
+            int kind = negated ? SensorTrigger.FALLING : SensorTrigger.RISING;
+            return new SensorTrigger(sample, op, threshold, kind, waitDebounce);
+        }
+        if (negated) {
+            if (op == CoreNodes.OP_EQ) op = CoreNodes.OP_NEQ;
+            else if (op == CoreNodes.OP_NEQ) op = CoreNodes.OP_EQ;
+            else if (op == CoreNodes.OP_LT) op = CoreNodes.OP_GTE;
+            else if (op == CoreNodes.OP_LTE) op = CoreNodes.OP_GT;
+            else if (op == CoreNodes.OP_GT) op = CoreNodes.OP_LTE;
+            else if (op == CoreNodes.OP_GTE) op = CoreNodes.OP_LT;
+        }
+        return new SensorTrigger(sample, op, threshold, SensorTrigger.LEVEL, waitDebounce);
+    }
+    
+    /**
+     * Whether a block can be part of a trigger: a sensor or a number constant
+     */
+    private boolean isTriggerOperand(IXMLElement block) {
+        IString type = block != null ? block.getAttribute("type") : null;
+        if (type == null) {
+            return false;
+        }
+        String blockType = type.toString();
+        return "math_number".equals(blockType)
+            || (blockType.startsWith("robSensors_") && blockType.endsWith("_getSample"));
+    }
+    
+    /**
+     * Resolve a logic_compare OP field to CoreNodes.OP_*, -1 if unknown
+     */
+    private int compileCompareOp(String op) {
+        if ("EQ".equals(op)) return CoreNodes.OP_EQ;
+        if ("NEQ".equals(op)) return CoreNodes.OP_NEQ;
+        if ("LT".equals(op)) return CoreNodes.OP_LT;
+        if ("LTE".equals(op)) return CoreNodes.OP_LTE;
+        if ("GT".equals(op)) return CoreNodes.OP_GT;
+        if ("GTE".equals(op)) return CoreNodes.OP_GTE;
+        return -1;
+    }
+    
+    /**
+     * Compile robSensors_*_getSample into a sensor node. The MODE field
+     * selects the sensor type where a sensor measures several quantities.
+     */
+    private ValueNode compileSensor(IXMLElement block, String blockType) {
+        String port = getFieldValue(block, "SENSORPORT");
+        String mode = getFieldValue(block, "MODE");
+        
+        if ("robSensors_touch_getSample".equals(blockType)) {
+            if (port == null) return new CoreNodes.BooleanConstant(false);
+            return new SensorNodes.PressedSample(port, SensorTypes.TOUCH);
+        } else if ("robSensors_key_getSample".equals(blockType)) {
+            if (port == null) return new CoreNodes.BooleanConstant(false);
+            return new SensorNodes.PressedSample(port, SensorTypes.KEY);
+        }
+        
+        String type = null;
+        if ("robSensors_light_getSample".equals(blockType)) {
+            if (port == null) return new CoreNodes.NumberConstant(SensorTypes.getDefaultValue(SensorTypes.LIGHT));
+            type = "AMBIENTLIGHT".equals(mode) ? SensorTypes.AMBIENTLIGHT : SensorTypes.LIGHT;
+        } else if ("robSensors_ultrasonic_getSample".equals(blockType)) {
+            type = SensorTypes.ULTRASONIC;
+        } else if ("robSensors_sound_getSample".equals(blockType)) {
+            type = SensorTypes.SOUND;
+        } else if ("robSensors_color_getSample".equals(blockType)) {
+            if ("LIGHT".equals(mode)) {
+                type = SensorTypes.COLOR_LIGHT;
+            } else if ("AMBIENTLIGHT".equals(mode)) {
+                type = SensorTypes.COLOR_AMBIENTLIGHT;
+            } else if (mode == null || "COLOUR".equals(mode)) {
+                type = SensorTypes.COLOR;
+            }
+        } else if ("robSensors_gyro_getSample".equals(blockType)) {
+            if (mode == null || "RATE".equals(mode)) {
+                type = SensorTypes.GYRO;
+            }
+        } else if ("robSensors_timer_getSample".equals(blockType)) {
+            type = SensorTypes.TIMER;
+        } else if ("robSensors_encoder_getSample".equals(blockType)) {
+            if (port == null) return new CoreNodes.NumberConstant(0);
+            if ("ROTATION".equals(mode)) {
+                return new SensorNodes.EncoderSample(port, SensorNodes.EncoderSample.MODE_ROTATION);
+            } else if ("DISTANCE".equals(mode)) {
+                return new SensorNodes.EncoderSample(port, SensorNodes.EncoderSample.MODE_DISTANCE);
+            }
+            return new SensorNodes.EncoderSample(port, SensorNodes.EncoderSample.MODE_DEGREE);
+        }
+        
+        if (type == null) {
+            System.out.println("Unsupported sensor: " + blockType + (mode != null ? " " + mode : ""));
+            return null;
+        }
+        if (port == null) {
+            return new CoreNodes.NumberConstant(0);
+        }
+        return new SensorNodes.NumberSample(port, type);
+    }
+    
+    /**
+     * Compile a math block into the node specialized for its operation.
+     * Missing or non-numeric inputs count as 0. Deterministic operations on
+     * constant inputs are folded into a constant.
+     */
+    private ValueNode compileMath(IXMLElement block, String blockType) {
+        ValueNode node = compileMathNode(block, blockType);
+        if (fixedPoint && node.isFixedPoint() && !(node instanceof CoreNodes.NumberConstant)) {
+            return new FixedNodes.FixedExpression(node);
+        }
+        return node;
+    }
+    
+    private ValueNode compileMathNode(IXMLElement block, String blockType) {
+        String op = getFieldValue(block, "OP");
+        
+        if ("math_arithmetic".equals(blockType)) {
+            ValueNode a = compileNumberOrZero(getValueBlock(block, "A"));
+            ValueNode b = compileNumberOrZero(getValueBlock(block, "B"));
+            if ("ADD".equals(op)) return fold(new MathNodes.Add(a, b), a, b);
+            if ("MINUS".equals(op)) return fold(new MathNodes.Subtract(a, b), a, b);
+            if ("MULTIPLY".equals(op)) return fold(new MathNodes.Multiply(a, b), a, b);
+            if ("DIVIDE".equals(op)) return fold(new MathNodes.Divide(a, b), a, b);
+            if ("POWER".equals(op)) {
+                if (b instanceof CoreNodes.NumberConstant) {
+                    double exponent = b.evalNumber(null);
+                    if (exponent == (int) exponent && Math.abs(exponent) <= 16) {
+                        return fold(new MathNodes.IntPower(a, (int) exponent), a, b);
+                    }
+                }
+                return fold(new MathNodes.Power(a, b), a, b);
+            }
+        } else if ("math_single".equals(blockType)) {
+            ValueNode value = compileNumberOrZero(getValueBlock(block, "NUM"));
+            if ("NEG".equals(op)) return fold(new MathNodes.Negate(value), value, value);
+            if ("ABS".equals(op)) return fold(new MathNodes.Abs(value), value, value);
+            int function = -1;
+            if ("ROOT".equals(op)) function = MathNodes.FN_ROOT;
+            else if ("LN".equals(op)) function = MathNodes.FN_LN;
+            else if ("LOG10".equals(op)) function = MathNodes.FN_LOG10;
+            else if ("EXP".equals(op)) function = MathNodes.FN_EXP;
+            else if ("POW10".equals(op)) function = MathNodes.FN_POW10;
+            if (function >= 0) {
+                return fold(new MathNodes.MathFunction(function, value), value, value);
+            }
+        } else if ("math_trig".equals(blockType)) {
+            ValueNode value = compileNumberOrZero(getValueBlock(block, "NUM"));
+            if ("SIN".equals(op)) return fold(new MathNodes.Sin(value), value, value);
+            if ("COS".equals(op)) return fold(new MathNodes.Cos(value), value, value);
+            if ("TAN".equals(op)) return fold(new MathNodes.Tan(value), value, value);
+            int function = -1;
+            if ("ASIN".equals(op)) function = MathNodes.FN_ASIN;
+            else if ("ACOS".equals(op)) function = MathNodes.FN_ACOS;
+            else if ("ATAN".equals(op)) function = MathNodes.FN_ATAN;
+            if (function >= 0) {
+                return fold(new MathNodes.MathFunction(function, value), value, value);
+            }
+        } else if ("math_round".equals(blockType)) {
+            ValueNode value = compileNumberOrZero(getValueBlock(block, "NUM"));
+            int function = -1;
+            if ("ROUND".equals(op)) function = MathNodes.FN_ROUND;
+            else if ("ROUNDUP".equals(op)) function = MathNodes.FN_ROUNDUP;
+            else if ("ROUNDDOWN".equals(op)) function = MathNodes.FN_ROUNDDOWN;
+            if (function >= 0) {
+                return fold(new MathNodes.MathFunction(function, value), value, value);
+            }
+        } else if ("math_constant".equals(blockType)) {
+            String constant = getFieldValue(block, "CONSTANT");
+            if ("PI".equals(constant)) return new CoreNodes.NumberConstant(Math.PI);
+            if ("E".equals(constant)) return new CoreNodes.NumberConstant(Math.E);
+            if ("GOLDEN_RATIO".equals(constant)) return new CoreNodes.NumberConstant((1 + Math.sqrt(5)) / 2);
+            if ("SQRT2".equals(constant)) return new CoreNodes.NumberConstant(Math.sqrt(2));
+            if ("SQRT1_2".equals(constant)) return new CoreNodes.NumberConstant(Math.sqrt(0.5));
+            if ("INFINITY".equals(constant)) return new CoreNodes.NumberConstant(Double.POSITIVE_INFINITY);
+        } else if ("math_modulo".equals(blockType)) {
+            ValueNode dividend = compileNumberOrZero(getValueBlock(block, "DIVIDEND"));
+            ValueNode divisor = compileNumberOrZero(getValueBlock(block, "DIVISOR"));
+            return fold(new MathNodes.Modulo(dividend, divisor), dividend, divisor);
+        } else if ("math_constrain".equals(blockType)) {
+            ValueNode value = compileNumberOrZero(getValueBlock(block, "VALUE"));
+            ValueNode low = compileNumberOrZero(getValueBlock(block, "LOW"));
+            ValueNode high = compileNumberOrZero(getValueBlock(block, "HIGH"));
+            ValueNode node = new MathNodes.Constrain(value, low, high);
+            return value instanceof CoreNodes.NumberConstant ? fold(node, low, high) : node;
+        } else if ("math_random_int".equals(blockType)) {
+            return new MathNodes.RandomInt(compileNumberOrZero(getValueBlock(block, "FROM")),
+                compileNumberOrZero(getValueBlock(block, "TO")));
+        } else if ("math_random_float".equals(blockType)) {
+            return new MathNodes.RandomFloat();
+        } else if ("math_on_list".equals(blockType)) {
+            return compileOnList(block, op);
+        }
+        
+        System.out.println("Unsupported math operation: " + blockType + " " + op);
+        return new CoreNodes.NumberConstant(0);
+    }
+    
+    /**
+     * Compile math_on_list. A list literal is aggregated straight from its
+     * items without creating the list.
+     */
+    private ValueNode compileOnList(IXMLElement block, String op) {
+        int listOp = -1;
+        if ("SUM".equals(op)) listOp = MathNodes.LIST_SUM;
+        else if ("MIN".equals(op)) listOp = MathNodes.LIST_MIN;
+        else if ("MAX".equals(op)) listOp = MathNodes.LIST_MAX;
+        else if ("AVERAGE".equals(op)) listOp = MathNodes.LIST_AVERAGE;
+        else if ("MEDIAN".equals(op)) listOp = MathNodes.LIST_MEDIAN;
+        else if ("STD_DEV".equals(op)) listOp = MathNodes.LIST_STD_DEV;
+        else if ("RANDOM".equals(op)) listOp = MathNodes.LIST_RANDOM;
+        if (listOp < 0) {
+            System.out.println("Unsupported math operation: math_on_list " + op);
+            return new CoreNodes.NumberConstant(0);
+        }
+        
+        IXMLElement listBlock = getValueBlock(block, "LIST");
+        IString listType = listBlock != null ? listBlock.getAttribute("type") : null;
+        if (listType != null && ("robLists_create_with".equals(listType.toString())
+                || "lists_create_with".equals(listType.toString()))) {
+            ValueNode[] items = compileListItems(listBlock);
+            if (items != null) {
+                return new MathNodes.ItemsOnList(listOp, items);
+            }
+        }
+        
+        ValueNode list = compileValue(listBlock);
+        if (list == null || list.getType() != ValueNode.TYPE_OBJECT) {
+            return new CoreNodes.NumberConstant(0);
+        }
+        return new MathNodes.ValueOnList(listOp, list);
+    }
+    
+    /**
+     * Compile the ADD0..ADDn items of a list literal.
+     * 
+     * @return The item nodes, or null if the list is not a Number list
+     */
+    private ValueNode[] compileListItems(IXMLElement block) {
+        String listType = getMutationAttribute(block, "list_type");
+        if (listType != null && !"Number".equals(listType)) {
+            System.out.println("Unsupported list type: " + listType);
+            return null;
+        }
+        
+        String itemCount = getMutationAttribute(block, "items");
+        int count = itemCount != null ? (int) parseNumber(itemCount) : 0;
+        ValueNode[] items = new ValueNode[count];
+        for (int i = 0; i < count; i++) {
+            items[i] = compileNumberOrZero(getValueBlock(block, "ADD" + i));
+        }
+        return items;
+    }
+    
+    /**
+     * Replace a node by its value if its inputs are constants
+     */
+    private ValueNode fold(ValueNode node, ValueNode a, ValueNode b) {
+        if (a instanceof CoreNodes.NumberConstant && b instanceof CoreNodes.NumberConstant) {
+            return new CoreNodes.NumberConstant(node.evalNumber(null));
+        }
+        return node;
+    }
+    
+    private ValueNode compileNumberOrZero(IXMLElement block) {
+        ValueNode node = compileNumber(block);
+        return node != null ? unwrapFixed(node) : new CoreNodes.NumberConstant(0);
+    }
+    
+    /**
+     * Only the root of an expression needs the fixed-point wrapper
+     */
+    private ValueNode unwrapFixed(ValueNode node) {
+        if (node instanceof FixedNodes.FixedExpression) {
+            return ((FixedNodes.FixedExpression) node).node;
+        }
+        return node;
+    }
+    
+    private ValueNode compileFixedCompare(String op, ValueNode a, ValueNode b) {
+        if ("EQ".equals(op)) return new FixedNodes.Compare(CoreNodes.OP_EQ, a, b);
+        if ("NEQ".equals(op)) return new FixedNodes.Compare(CoreNodes.OP_NEQ, a, b);
+        if ("LT".equals(op)) return new FixedNodes.Compare(CoreNodes.OP_LT, a, b);
+        if ("LTE".equals(op)) return new FixedNodes.Compare(CoreNodes.OP_LTE, a, b);
+        if ("GT".equals(op)) return new FixedNodes.Compare(CoreNodes.OP_GT, a, b);
+        if ("GTE".equals(op)) return new FixedNodes.Compare(CoreNodes.OP_GTE, a, b);
+        return new CoreNodes.BooleanConstant(false);
+    }
+    
+    /**
+     * Compile a value that must be numeric
+     * 
+     * @return The node, or null if missing or not a number
+     */
+    private ValueNode compileNumber(IXMLElement block) {
+        ValueNode node = compileValue(block);
+        if (node == null || node.getType() != ValueNode.TYPE_NUMBER) {
+            return null;
+        }
+        return node;
+    }
+    
+    private boolean isBoolean(ValueNode node) {
+        return node != null && node.getType() == ValueNode.TYPE_BOOLEAN;
+    }
+    
+    /**
+     * Resolve a variable name to its location, allocating a global slot on
+     * first use. Parameters of the enclosing procedure hide global variables.
+     * 
+     * @param datatype NEPO datatype (Number, Boolean, String, ...), used on first use only
+     */
+    private VariableRef lookupVariable(String name, String datatype) {
+        VariableRef variable = locals != null ? locals.get(name) : null;
+        if (variable == null) {
+            variable = globals.get(name);
+        }
+        if (variable != null) {
+            return variable;
+        }
+        
+        int type = toValueType(datatype);
+        int slot;
+        if (type == ValueNode.TYPE_NUMBER) {
+            slot = numberSlotCount++;
+        } else if (type == ValueNode.TYPE_BOOLEAN) {
+            slot = booleanSlotCount++;
+        } else {
+            slot = objectSlotCount++;
+        }
+        variable = new VariableRef(type, slot, false);
+        globals.put(name, variable);
+        return variable;
+    }
+    
+    /**
+     * Allocate an unnamed Number variable for loop state.
+     * Inside procedures it lives in the call frame, so recursion keeps one per call.
+     */
+    private VariableRef allocateHiddenNumber() {
+        if (currentProcedure != null) {
+            return new VariableRef(ValueNode.TYPE_NUMBER, localNumberCount++, true);
+        }
+        return new VariableRef(ValueNode.TYPE_NUMBER, numberSlotCount++, false);
+    }
+    
+    /**
+     * Parse a number field, 0 if it is not a valid number
+     */
+    private double parseNumber(String text) {
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number format: " + text);
+            return 0;
+        }
+    }
+    
+    /**
+     * Map a NEPO datatype (Number, Boolean, String, ...) to a ValueNode type.
+     * A missing datatype means Number.
+     */
+    private int toValueType(String datatype) {
+        if (datatype == null || "Number".equals(datatype)) {
+            return ValueNode.TYPE_NUMBER;
+        } else if ("Boolean".equals(datatype)) {
+            return ValueNode.TYPE_BOOLEAN;
+        }
+        return ValueNode.TYPE_OBJECT;
+    }
+    
+    /**
+     * Get the datatype from a block's mutation element
+     */
+    private String getDatatype(IXMLElement block) {
+        return getMutationAttribute(block, "datatype");
+    }
+    
+    /**
+     * Get an attribute of a block's mutation element
+     */
+    private String getMutationAttribute(IXMLElement block, String name) {
+        IXMLElement mutation = block.getChild("mutation");
+        if (mutation != null) {
+            IString value = mutation.getAttribute(name);
+            if (value != null) {
+                return value.toString();
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Map a DIRECTION field to its argument constant
+     */
+    private int compileDirection(String direction) {
+        if ("FOREWARD".equals(direction)) return CompiledBlock.DIRECTION_FORWARD;
+        if ("BACKWARD".equals(direction)) return CompiledBlock.DIRECTION_BACKWARD;
+        if ("LEFT".equals(direction)) return CompiledBlock.DIRECTION_LEFT;
+        if ("RIGHT".equals(direction)) return CompiledBlock.DIRECTION_RIGHT;
+        return CompiledBlock.DIRECTION_NONE;
+    }
+    
+    /**
+     * Get the block inside a named value element
+     */
+    private IXMLElement getValueBlock(IXMLElement parentBlock, String valueName) {
+        IXMLElement value = findNamedChild(parentBlock, "value", valueName);
+        return value != null ? value.getChild("block") : null;
+    }
+    
+    /**
+     * Get the blocks inside a named statement element
+     */
+    private Vector<IXMLElement> getStatementBlocks(IXMLElement parentBlock, String statementName) {
+        IXMLElement statement = findNamedChild(parentBlock, "statement", statementName);
+        return statement != null ? statement.getChildren("block") : new Vector<IXMLElement>();
+    }
+    
+    /**
+     * Find a child element by tag and name attribute.
+     * Blocks with several inputs (procedures, if/else) may wrap them in a
+     * repetitions element, which is searched as well.
+     */
+    private IXMLElement findNamedChild(IXMLElement parentBlock, String tag, String name) {
+        int count = parentBlock.getChildCount();
+        for (int i = 0; i < count; i++) {
+            IXMLElement child = parentBlock.getChildAt(i);
+            if (tag.equals(child.getTagName())) {
+                IString nameAttr = child.getAttribute("name");
+                if (nameAttr != null && nameAttr.equals(name)) {
+                    return child;
+                }
+            }
+        }
+        IXMLElement repetitions = parentBlock.getChild("repetitions");
+        if (repetitions != null) {
+            return findNamedChild(repetitions, tag, name);
+        }
+        return null;
+    }
+    
+    /**
+     * Get field value from block
+     */
+    private String getFieldValue(IXMLElement block, String fieldName) {
+        int count = block.getChildCount();
+        for (int i = 0; i < count; i++) {
+            IXMLElement field = block.getChildAt(i);
+            if ("field".equals(field.getTagName())) {
+                IString nameAttr = field.getAttribute("name");
+                if (nameAttr != null && nameAttr.equals(fieldName)) {
+                    return field.getTextContent();
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,136 @@
+import java.io.PrintStream;
+
+/**
+ * Fixed-size ring of the most recent execution events, for crash reports
+ *
+ * The executor records every executed statement and every sensor value
+ * the program reads (NepoBlockExecutor.setRecentEvents). When the program
+ * crashes, CrashLogger writes the ring to crash.log, so the report shows
+ * what the program did right before the exception:
+ *
+ *   Recent Events (oldest first):
+ *     1200 ms  block robControls_wait a7
+ *     1200 ms  sensor 4 LIGHT = 75.0
+ *     1210 ms  block robActions_motorDiff_turn_for a9
+ *
+ * Memory strategy for NXT:
+ * - Parallel arrays allocated once; recording stores references to the
+ *   block and the port/type strings the program already holds, so it
+ *   allocates nothing and can stay enabled in production
+ * - Formatting happens only when the ring is dumped
+ */
+public class RecentEvents {
+
+    public static final int DEFAULT_CAPACITY = 32;
+
+    private static final byte BLOCK = 0;
+    private static final byte SENSOR = 1;
+
+    private final byte[] kinds;
+    private final Object[] subjects;   // CompiledBlock, or sensor port
+    private final String[] types;      // Sensor type
+    private final double[] values;     // Sensor value
+    private final long[] times;        // ms
+
+    private int next = 0;
+    private long count = 0;
+
+    public RecentEvents() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RecentEvents(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        kinds = new byte[capacity];
+        subjects = new Object[capacity];
+        types = new String[capacity];
+        values = new double[capacity];
+        times = new long[capacity];
+    }
+
+    /**
+     * Record an executed statement
+     */
+    public void recordBlock(CompiledBlock block, long time) {
+        int i = next;
+        kinds[i] = BLOCK;
+        subjects[i] = block;
+        times[i] = time;
+        advance();
+    }
+
+    /**
+     * Record a sensor value the program read
+     */
+    public void recordSensor(String port, String type, double value, long time) {
+        int i = next;
+        kinds[i] = SENSOR;
+        subjects[i] = port;
+        types[i] = type;
+        values[i] = value;
+        times[i] = time;
+        advance();
+    }
+
+    /**
+     * Number of events recorded in total
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public int getCapacity() {
+        return kinds.length;
+    }
+
+    public void clear() {
+        for (int i = 0; i < subjects.length; i++) {
+            subjects[i] = null;
+            types[i] = null;
+        }
+        next = 0;
+        count = 0;
+    }
+
+    /**
+     * Write the events still in the ring, oldest first, one per line
+     */
+    public void dump(PrintStream ps) {
+        int capacity = kinds.length;
+        int size = (int) Math.min(count, capacity);
+        int first = (next - size + capacity) % capacity;
+        for (int n = 0; n < size; n++) {
+            ps.println("  " + format((first + n) % capacity));
+        }
+    }
+
+    /**
+     * Format one event, 0 = oldest still in the ring
+     */
+    public String getEvent(int index) {
+        int capacity = kinds.length;
+        int size = (int) Math.min(count, capacity);
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("No event " + index);
+        }
+        return format((next - size + index + capacity) % capacity);
+    }
+
+    private String format(int i) {
+        if (kinds[i] == BLOCK) {
+            CompiledBlock block = (CompiledBlock) subjects[i];
+            return times[i] + " ms  block " + block.type + (block.id != null ? " " + block.id : "");
+        }
+        return times[i] + " ms  sensor " + subjects[i] + " " + types[i] + " = " + values[i];
+    }
+
+    private void advance() {
+        count++;
+        next++;
+        if (next == kinds.length) {
+            next = 0;
+        }
+    }
+}
@@ -13,8 +13,8 @@ public class RobotConfiguration {
     private double trackWidth = 12.0;   // Default track width in cm
     
     // Hardware mappings
-    private Hashtable motors = new Hashtable();     // port -> MotorConfig
-    private Hashtable sensors = new Hashtable();   // port -> SensorConfig
+    private Hashtable<String, MotorConfig> motors = new Hashtable<String, MotorConfig>();
+    private Hashtable<String, SensorConfig> sensors = new Hashtable<String, SensorConfig>();
     
     /**
      * Motor configuration
@@ -37,6 +37,11 @@ public class RobotConfiguration {
         public String port;
         public String type; // touch, ultrasonic, light, sound, gyro, color
         
+        // Filter stage (see SensorFilter), all off by default
+        public int medianWindow = 0;      // Median of the last N samples
+        public double averageWeight = 0;  // Moving average weight of a new sample (0, 1]
+        public int debounce = 0;          // ms a pressed state must be stable
+        
         public SensorConfig(String port, String type) {
             this.port = port;
             this.type = type;
@@ -55,7 +60,7 @@ public class RobotConfiguration {
     }
     
     public MotorConfig getMotor(String port) {
-        return (MotorConfig) motors.get(port);
+        return motors.get(port);
     }
     
     public void addSensor(String port, SensorConfig config) {
@@ -63,14 +68,14 @@ public class RobotConfiguration {
     }
     
     public SensorConfig getSensor(String port) {
-        return (SensorConfig) sensors.get(port);
+        return sensors.get(port);
     }
     
-    public Enumeration getMotorPorts() {
+    public Enumeration<String> getMotorPorts() {
         return motors.keys();
     }
     
-    public Enumeration getSensorPorts() {
+    public Enumeration<String> getSensorPorts() {
         return sensors.keys();
     }
     
@@ -101,9 +106,9 @@ public class RobotConfiguration {
      */
     public boolean isValid() {
         // Check for port conflicts
-        Enumeration motorPorts = motors.keys();
+        Enumeration<String> motorPorts = motors.keys();
         while (motorPorts.hasMoreElements()) {
-            String port = (String) motorPorts.nextElement();
+            String port = motorPorts.nextElement();
             if (sensors.get(port) != null) {
                 return false; // Port conflict
             }
@@ -121,21 +126,25 @@ public class RobotConfiguration {
         sb.append("  Track Width: ").append(trackWidth).append(" cm\n");
         
         sb.append("  Motors:\n");
-        Enumeration motorPorts = motors.keys();
+        Enumeration<String> motorPorts = motors.keys();
         while (motorPorts.hasMoreElements()) {
-            String port = (String) motorPorts.nextElement();
-            MotorConfig config = (MotorConfig) motors.get(port);
+            String port = motorPorts.nextElement();
+            MotorConfig config = motors.get(port);
             sb.append("    Port ").append(port).append(": regulation=").append(config.regulation)
               .append(", reverse=").append(config.reverse)
               .append(", drive=").append(config.driveDirection).append("\n");
         }
         
         sb.append("  Sensors:\n");
-        Enumeration sensorPorts = sensors.keys();
+        Enumeration<String> sensorPorts = sensors.keys();
         while (sensorPorts.hasMoreElements()) {
-            String port = (String) sensorPorts.nextElement();
-            SensorConfig config = (SensorConfig) sensors.get(port);
-            sb.append("    Port ").append(port).append(": type=").append(config.type).append("\n");
+            String port = sensorPorts.nextElement();
+            SensorConfig config = sensors.get(port);
+            sb.append("    Port ").append(port).append(": type=").append(config.type);
+            if (config.medianWindow > 1) sb.append(", median=").append(config.medianWindow);
+            if (config.averageWeight > 0) sb.append(", average=").append(config.averageWeight);
+            if (config.debounce > 0) sb.append(", debounce=").append(config.debounce);
+            sb.append("\n");
         }
         
         return sb.toString();
@@ -0,0 +1,171 @@
+import java.io.*;
+
+/**
+ * Buffered, size-capped log file with one rotation
+ *
+ * Collects output in a single reusable buffer of BLOCK_SIZE bytes and
+ * writes it to the file only in whole blocks: a buffer is written when it
+ * reaches the next block boundary of the file, so flash pages are written
+ * once instead of for every println. flush() writes a partial block; the
+ * following write then fills up to the block boundary again.
+ *
+ * Once the file has reached maxSize, it is moved to its rotated name
+ * (crash.log -> crash.1.log, replacing an older one) and a new file is
+ * started. Files exceed maxSize by less than one block, so at most about
+ * twice maxSize of flash is used.
+ *
+ * Usage:
+ *   RotatingLog log = new RotatingLog("crash.log", 8192);
+ *   PrintStream ps = new PrintStream(log);
+ *   ...
+ *   ps.close();
+ * or log.println(...) directly for plain text lines.
+ *
+ * Memory strategy for NXT:
+ * - One buffer per log, reused for all writes and for rotation
+ * - Rotation copies through the same buffer, since leJOS files cannot be renamed
+ * - Characters are written as Latin-1 bytes without encoding objects
+ */
+public class RotatingLog extends OutputStream {
+
+    public static final int BLOCK_SIZE = 256;  // NXT flash page
+
+    private final File file;
+    private final File rotated;
+    private final int maxSize;
+
+    private final byte[] buffer = new byte[BLOCK_SIZE];
+    private int length = 0;                 // Bytes in the buffer
+    private int fileSize = -1;              // Bytes in the file, -1 until first opened
+
+    private FileOutputStream out = null;
+
+    /**
+     * @param fileName Log file, appended to if it exists
+     * @param maxSize Size in bytes at which the file is rotated
+     */
+    public RotatingLog(String fileName, int maxSize) {
+        if (maxSize < BLOCK_SIZE) {
+            throw new IllegalArgumentException("Log size must be at least one block");
+        }
+        this.file = new File(fileName);
+        this.rotated = new File(rotatedName(fileName));
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Name of the rotated file: the number goes before the extension
+     */
+    public static String rotatedName(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot <= 0) {
+            return fileName + ".1";
+        }
+        return fileName.substring(0, dot) + ".1" + fileName.substring(dot);
+    }
+
+    public void write(int b) throws IOException {
+        buffer[length++] = (byte) b;
+        if (length == blockSpace()) {
+            writeBuffer();
+        }
+    }
+
+    public void write(byte[] data, int offset, int count) throws IOException {
+        while (count > 0) {
+            int chunk = Math.min(count, blockSpace() - length);
+            System.arraycopy(data, offset, buffer, length, chunk);
+            length += chunk;
+            offset += chunk;
+            count -= chunk;
+            if (length == blockSpace()) {
+                writeBuffer();
+            }
+        }
+    }
+
+    /**
+     * Append a line of text, characters above 255 as '?'
+     */
+    public void println(String line) throws IOException {
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            write(c < 256 ? c : '?');
+        }
+        write('\n');
+    }
+
+    /**
+     * Write the buffered partial block
+     */
+    public void flush() throws IOException {
+        if (length > 0) {
+            writeBuffer();
+        }
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Flush and close the file. The log can be written again afterwards;
+     * the file is then reopened for appending.
+     */
+    public void close() throws IOException {
+        flush();
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Size of the log file including buffered bytes
+     */
+    public int getSize() {
+        return Math.max(fileSize, 0) + length;
+    }
+
+    /**
+     * Bytes up to the next block boundary of the file
+     */
+    private int blockSpace() {
+        if (fileSize < 0) {
+            fileSize = file.exists() ? (int) file.length() : 0;
+        }
+        return BLOCK_SIZE - fileSize % BLOCK_SIZE;
+    }
+
+    private void writeBuffer() throws IOException {
+        if (out == null) {
+            out = new FileOutputStream(file, true);
+        }
+        out.write(buffer, 0, length);
+        fileSize += length;
+        length = 0;
+        if (fileSize >= maxSize) {
+            rotate();
+        }
+    }
+
+    /**
+     * Move the file to its rotated name and start a new one.
+     * Only called with an empty buffer, which the copy then uses.
+     */
+    private void rotate() throws IOException {
+        out.close();
+        out = null;
+        if (rotated.exists()) {
+            rotated.delete();
+        }
+
+        try (FileInputStream in = new FileInputStream(file); FileOutputStream copy = new FileOutputStream(rotated)) {
+            int count;
+            while ((count = in.read(buffer, 0, BLOCK_SIZE)) > 0) {
+                copy.write(buffer, 0, count);
+            }
+        }
+        file.delete();
+        fileSize = 0;
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Per-port filter stage between the raw sensor and the program
+ *
+ * Stages, each optional and applied in this order:
+ * - Median of the last N samples: removes single-sample glitches
+ * - Exponential moving average: smooths noise,
+ *   average += alpha * (sample - average)
+ * - Debounce: a new value is only passed on once it has been stable for
+ *   the debounce window; meant for pressed states
+ *
+ * Configured per port from RobotConfiguration.SensorConfig. Median and
+ * average apply to numeric sensors, debounce to touch sensors. Timers,
+ * encoders and keys are never filtered.
+ *
+ * Memory strategy for NXT:
+ * - Fixed-size primitive ring buffer and sort scratch, allocated once
+ * - filter() allocates nothing
+ */
+public class SensorFilter {
+
+    public static final int MAX_MEDIAN_WINDOW = 9;
+
+    // Median ring buffer
+    private final double[] window;
+    private final double[] sorted;
+    private int windowCount = 0;
+    private int windowNext = 0;
+
+    // Exponential moving average, alpha 0 = off
+    private final double alpha;
+    private double average = 0;
+    private boolean hasAverage = false;
+
+    // Debounce, 0 = off
+    private final int debounce;
+    private double stable = 0;
+    private double candidate = 0;
+    private long candidateSince = -1;
+    private boolean hasStable = false;
+
+    /**
+     * Create a filter.
+     *
+     * @param medianWindow Number of samples of the median, 0 or 1 = off
+     * @param alpha Weight of a new sample in the moving average (0, 1], 0 = off
+     * @param debounce Debounce window in milliseconds, 0 = off
+     */
+    public SensorFilter(int medianWindow, double alpha, int debounce) {
+        if (medianWindow < 0 || medianWindow > MAX_MEDIAN_WINDOW) {
+            throw new IllegalArgumentException("Median window must be 0.." + MAX_MEDIAN_WINDOW);
+        }
+        if (alpha < 0 || alpha > 1) {
+            throw new IllegalArgumentException("Average weight must be 0..1");
+        }
+        if (debounce < 0) {
+            throw new IllegalArgumentException("Debounce must not be negative");
+        }
+        int size = medianWindow > 1 ? medianWindow : 0;
+        this.window = new double[size];
+        this.sorted = new double[size];
+        this.alpha = alpha;
+        this.debounce = debounce;
+    }
+
+    /**
+     * Create the filter configured for a sensor slot
+     *
+     * @return The filter, or null if the port is not filtered
+     */
+    public static SensorFilter forConfig(RobotConfiguration.SensorConfig config, String type) {
+        if (config == null || SensorTypes.TIMER.equals(type) || SensorTypes.ENCODER.equals(type)
+                || SensorTypes.KEY.equals(type)) {
+            return null;
+        }
+        if (SensorTypes.isBoolean(type)) {
+            return config.debounce > 0 ? new SensorFilter(0, 0, config.debounce) : null;
+        }
+        if (config.medianWindow > 1 || config.averageWeight > 0) {
+            return new SensorFilter(config.medianWindow, config.averageWeight, 0);
+        }
+        return null;
+    }
+
+    /**
+     * Whether filter() needs the sample time
+     */
+    public boolean needsTime() {
+        return debounce > 0;
+    }
+
+    /**
+     * Pass a raw sample through the filter
+     *
+     * @param time Sample time in ms, only used for debounce
+     * @return The filtered value
+     */
+    public double filter(double value, long time) {
+        if (window.length > 0) {
+            value = median(value);
+        }
+        if (alpha > 0) {
+            if (hasAverage) {
+                average += alpha * (value - average);
+            } else {
+                average = value;
+                hasAverage = true;
+            }
+            value = average;
+        }
+        if (debounce > 0) {
+            value = debounce(value, time);
+        }
+        return value;
+    }
+
+    /**
+     * Forget all samples
+     */
+    public void reset() {
+        windowCount = 0;
+        windowNext = 0;
+        hasAverage = false;
+        hasStable = false;
+        candidateSince = -1;
+    }
+
+    private double median(double value) {
+        window[windowNext] = value;
+        windowNext = (windowNext + 1) % window.length;
+        if (windowCount < window.length) {
+            windowCount++;
+        }
+
+        // Insertion sort - at most MAX_MEDIAN_WINDOW values
+        for (int i = 0; i < windowCount; i++) {
+            double v = window[i];
+            int j = i - 1;
+            while (j >= 0 && sorted[j] > v) {
+                sorted[j + 1] = sorted[j];
+                j--;
+            }
+            sorted[j + 1] = v;
+        }
+        return sorted[windowCount / 2];
+    }
+
+    private double debounce(double value, long time) {
+        if (!hasStable) {
+            stable = value;
+            hasStable = true;
+        } else if (value == stable) {
+            candidateSince = -1;
+        } else if (candidateSince < 0 || value != candidate) {
+            candidate = value;
+            candidateSince = time;
+        } else if (time - candidateSince >= debounce) {
+            stable = value;
+            candidateSince = -1;
+        }
+        return stable;
+    }
+}
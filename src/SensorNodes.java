@@ -0,0 +1,108 @@
+/**
+ * Sensor value nodes - robSensors_*_getSample
+ * 
+ * Each node reads one (port, type) slot of the executor's SensorSamples.
+ * The slot is looked up on the first read of a program run and then reused.
+ */
+public class SensorNodes {
+    
+    /**
+     * Common slot handling of all sensor nodes
+     */
+    public abstract static class Sample extends ValueNode {
+        private final String port;
+        private final String type;
+        private SensorSamples samples = null;
+        private int slot = -1;
+        
+        protected Sample(String port, String type) {
+            this.port = port;
+            this.type = type;
+        }
+        
+        protected final double sample(NepoBlockExecutor executor) {
+            return executor.readSensor(slot(executor));
+        }
+        
+        /**
+         * robSensors_encoder_reset, robSensors_timer_reset
+         */
+        public void reset(NepoBlockExecutor executor) {
+            executor.resetSensor(slot(executor));
+        }
+        
+        /**
+         * Sampling period of the sensor in ms (see SensorSamples.getSamplePeriod)
+         */
+        public int getSamplePeriod(NepoBlockExecutor executor) {
+            return executor.sensorSamples.getSamplePeriod(slot(executor));
+        }
+        
+        private int slot(NepoBlockExecutor executor) {
+            if (samples != executor.sensorSamples) {
+                samples = executor.sensorSamples;
+                slot = samples.slotFor(port, type);
+            }
+            return slot;
+        }
+    }
+    
+    /**
+     * Numeric sample - light, sound, ultrasonic, color, gyro, timer
+     */
+    public static class NumberSample extends Sample {
+        public NumberSample(String port, String type) {
+            super(port, type);
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            return sample(executor);
+        }
+    }
+    
+    /**
+     * Pressed state - touch sensor and brick keys
+     */
+    public static class PressedSample extends Sample {
+        public PressedSample(String port, String type) {
+            super(port, type);
+        }
+        
+        public int getType() { return TYPE_BOOLEAN; }
+        
+        public boolean evalBoolean(NepoBlockExecutor executor) {
+            return sample(executor) != 0;
+        }
+    }
+    
+    /**
+     * robSensors_encoder_getSample - motor rotation in degrees, rotations
+     * or driven distance (cm, using the configured wheel diameter)
+     */
+    public static class EncoderSample extends Sample {
+        public static final int MODE_DEGREE = 0;
+        public static final int MODE_ROTATION = 1;
+        public static final int MODE_DISTANCE = 2;
+        
+        private final int mode;
+        
+        public EncoderSample(String port, int mode) {
+            super(port, SensorTypes.ENCODER);
+            this.mode = mode;
+        }
+        
+        public int getType() { return TYPE_NUMBER; }
+        
+        public double evalNumber(NepoBlockExecutor executor) {
+            double degrees = sample(executor);
+            if (mode == MODE_ROTATION) {
+                return degrees / 360;
+            } else if (mode == MODE_DISTANCE) {
+                return degrees / 360 * Math.PI * executor.getConfiguration().getWheelDiameter();
+            }
+            return degrees;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/**
+ * Background sensor sampling thread
+ * 
+ * Polls every registered sensor at its own period and publishes the latest
+ * sample into a slot. The interpreter reads the slot without blocking, so a
+ * slow ultrasonic ping no longer stalls the program or the reaction to the
+ * touch sensor.
+ * 
+ * Each slot holds one volatile long: the sample as float bits in the upper
+ * half and its time (ms since the sampler started) in the lower half. The
+ * sampler thread is the only writer, and a volatile long is written
+ * atomically, so readers always see a matching value and timestamp without
+ * locks. Samples are floats: exact for all integer sensor values up to 2^24.
+ * 
+ * Slots are registered by the interpreter thread. The registration fills
+ * the slot completely (including a first sample read on the caller's
+ * thread) before publishing it through the volatile slot count, so the
+ * sampler never sees a half-initialized slot.
+ * 
+ * Filters belong to the sampler thread. The interpreter asks for a filter
+ * reset through a volatile flag in the slot, which the sampler clears
+ * before its next read of the sensor.
+ * 
+ * The interpreter can sleep until the next sampling pass (awaitPass) when
+ * all its tasks are parked on sensor triggers, instead of spinning.
+ * 
+ * Runs in wall-clock time (System.currentTimeMillis and Thread.sleep).
+ * 
+ * Memory strategy for NXT:
+ * - Fixed number of slots allocated up front, nothing allocated while sampling
+ */
+public class SensorSampler extends Thread {
+    
+    public static final int MAX_SLOTS = 16;
+    
+    // Longest sleep between two passes, so shutdown() is noticed quickly
+    private static final int MAX_WAIT = 20; // ms
+    
+    /**
+     * Latest sample of one sensor - written by the sampler thread only,
+     * except for the filter reset request
+     */
+    private static class Slot {
+        volatile long latest;
+        volatile int count;
+        volatile int latency;
+        volatile boolean resetFilter;
+    }
+    
+    private final IHardware hardware;
+    private final long startTime;
+    
+    private final String[] ports = new String[MAX_SLOTS];
+    private final String[] types = new String[MAX_SLOTS];
+    private final int[] periods = new int[MAX_SLOTS];
+    private final long[] nextDue = new long[MAX_SLOTS]; // Sampler thread only
+    private final SensorFilter[] filters = new SensorFilter[MAX_SLOTS]; // Sampler thread only
+    private final Slot[] slots = new Slot[MAX_SLOTS];
+    private volatile int slotCount = 0;
+    
+    private volatile boolean running = true;
+    
+    // Completed sampling passes, and whether the interpreter waits for the next one
+    private volatile int passCount = 0;
+    private volatile boolean waiting = false;
+    
+    public SensorSampler(IHardware hardware) {
+        super("SensorSampler");
+        this.hardware = hardware;
+        this.startTime = System.currentTimeMillis();
+        for (int i = 0; i < MAX_SLOTS; i++) {
+            slots[i] = new Slot();
+        }
+        setDaemon(true);
+    }
+    
+    /**
+     * Register a sensor. Only call from the interpreter thread.
+     * 
+     * @param period Time between two samples in ms
+     * @param filter Filter stage applied to every sample, or null
+     * @return Slot index, or -1 if all slots are in use
+     */
+    public int add(String port, String type, int period, SensorFilter filter) {
+        int index = slotCount;
+        if (index == MAX_SLOTS) {
+            return -1;
+        }
+        ports[index] = port;
+        types[index] = type;
+        periods[index] = period;
+        filters[index] = filter;
+        nextDue[index] = 0;
+        sample(index);
+        slotCount = index + 1; // Publishes the slot to the sampler thread
+        return index;
+    }
+    
+    /**
+     * Let the sampler forget the filter history of a slot before its next
+     * sample, e.g. after the sensor was reset. Only call from the
+     * interpreter thread.
+     */
+    public void resetFilter(int index) {
+        slots[index].resetFilter = true;
+    }
+    
+    /**
+     * Latest sample of a slot - never blocks
+     */
+    public double getValue(int index) {
+        return Float.intBitsToFloat((int) (slots[index].latest >>> 32));
+    }
+    
+    /**
+     * Age of the latest sample in ms (staleness)
+     */
+    public int getAge(int index) {
+        int time = (int) slots[index].latest;
+        return (int) (System.currentTimeMillis() - startTime) - time;
+    }
+    
+    /**
+     * Number of samples taken so far, including the first one
+     */
+    public int getSampleCount(int index) {
+        return slots[index].count;
+    }
+    
+    /**
+     * Average samples per second since the sampler started
+     */
+    public double getSampleRate(int index) {
+        long elapsed = System.currentTimeMillis() - startTime;
+        return elapsed > 0 ? slots[index].count * 1000.0 / elapsed : 0;
+    }
+    
+    public int getPeriod(int index) {
+        return periods[index];
+    }
+    
+    /**
+     * Latency of the last hardware read in ms
+     */
+    public int getLatency(int index) {
+        return slots[index].latency;
+    }
+    
+    /**
+     * Number of sampling passes that took at least one sample
+     */
+    public int getPassCount() {
+        return passCount;
+    }
+    
+    /**
+     * Block until a pass after the given one has completed.
+     * 
+     * @param pass Pass count seen by the caller
+     * @param timeout Longest time to wait in ms
+     */
+    public void awaitPass(int pass, int timeout) {
+        synchronized (this) {
+            waiting = true;
+            try {
+                if (passCount == pass && running) {
+                    wait(timeout);
+                }
+            } catch (InterruptedException e) {
+                // Continue
+            } finally {
+                waiting = false;
+            }
+        }
+    }
+    
+    /**
+     * Stop sampling and wait for the thread to end
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            join();
+        } catch (InterruptedException e) {
+            // Stopped anyway
+        }
+    }
+    
+    public void run() {
+        while (running) {
+            long now = System.currentTimeMillis();
+            long wait = MAX_WAIT;
+            int count = slotCount;
+            boolean sampled = false;
+            for (int i = 0; i < count; i++) {
+                if (now >= nextDue[i]) {
+                    sample(i);
+                    nextDue[i] = now + periods[i];
+                    sampled = true;
+                }
+                wait = Math.min(wait, nextDue[i] - now);
+            }
+            
+            if (sampled) {
+                passCount = passCount + 1; // Single writer
+                if (waiting) {
+                    synchronized (this) {
+                        notifyAll();
+                    }
+                }
+            }
+            
+            try {
+                Thread.sleep(wait > 0 ? wait : 1);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+    
+    private void sample(int index) {
+        Slot slot = slots[index];
+        if (slot.resetFilter) {
+            // Checked before the read, so a read that may predate the sensor
+            // reset is always followed by another filter reset
+            slot.resetFilter = false;
+            if (filters[index] != null) {
+                filters[index].reset();
+            }
+        }
+        
+        double value = SensorTypes.getDefaultValue(types[index]);
+        ISensor sensor = hardware.getSensor(ports[index], types[index]);
+        if (sensor != null) {
+            if (SensorTypes.isBoolean(types[index])) {
+                value = sensor.isPressed() ? 1.0 : 0.0;
+            } else {
+                value = sensor.getValue();
+            }
+            slot.latency = sensor.getLastSampleLatency();
+        }
+        
+        int time = (int) (System.currentTimeMillis() - startTime);
+        if (filters[index] != null) {
+            value = filters[index].filter(value, time);
+        }
+        slot.latest = ((long) Float.floatToIntBits((float) value) << 32) | (time & 0xFFFFFFFFL);
+        slot.count = slot.count + 1; // Single writer
+    }
+}
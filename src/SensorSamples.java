@@ -0,0 +1,331 @@
+/**
+ * Sensor samples of the running program
+ * 
+ * Every (port, type) pair the program reads gets a slot the first time it
+ * is read; the value nodes remember their slot, so later reads are array
+ * accesses. A slot keeps the last sample, when it was taken and how long
+ * the hardware took to deliver it.
+ * 
+ * Reads go to the hardware unless
+ * - a background SensorSampler is attached: then the latest published
+ *   sample is returned without touching the hardware,
+ * - the sensor type has a minimum sample interval (SensorTypes) that has
+ *   not yet passed since the last sample, or
+ * - several tasks run and the slot was already read in the current
+ *   scheduling round; all tasks then agree on what the robot sees.
+ * 
+ * Every new hardware sample passes through the filter stage configured for
+ * its port (SensorFilter) before the program sees it.
+ * 
+ * Not thread-safe on its own: the TaskScheduler guarantees that only one
+ * task accesses it at a time.
+ * 
+ * Memory strategy for NXT:
+ * - Parallel primitive arrays, grown only when a new sensor is first read
+ */
+public class SensorSamples {
+    
+    private static final int INITIAL_SLOTS = 4;
+    private static final int AWAIT_TIMEOUT = 100; // ms, bounds the reaction to a stop
+    
+    private String[] ports = new String[INITIAL_SLOTS];
+    private String[] types = new String[INITIAL_SLOTS];
+    private int[] minIntervals = new int[INITIAL_SLOTS];
+    private double[] values = new double[INITIAL_SLOTS];
+    private long[] times = new long[INITIAL_SLOTS];      // Hardware time of the last read, -1 if none
+    private int[] rounds = new int[INITIAL_SLOTS];
+    private int[] latencies = new int[INITIAL_SLOTS];
+    private int[] maxLatencies = new int[INITIAL_SLOTS];
+    private int slotCount = 0;
+    
+    // Background sampling - slot index in the sampler, -1 for synchronous reads
+    private SensorSampler sampler = null;
+    private java.util.Hashtable<String, Integer> samplePeriods = null;
+    private int[] samplerSlots = new int[INITIAL_SLOTS];
+    private int[] resetCounts = new int[INITIAL_SLOTS]; // Sampler count at the last reset, -1 if none
+    private int samplerPass = 0;                        // Sampler pass at the start of the round
+    
+    // Filter stage per slot (null if unfiltered), configured per port
+    private RobotConfiguration config = null;
+    private SensorFilter[] filters = new SensorFilter[INITIAL_SLOTS];
+    
+    private final boolean shareRounds;
+    private int round = 1;
+    
+    /**
+     * @param shareRounds Read each sensor at most once per scheduling round
+     */
+    public SensorSamples(boolean shareRounds) {
+        this.shareRounds = shareRounds;
+    }
+    
+    /**
+     * Let a background sampler read all sensors registered from now on.
+     * 
+     * @param samplePeriods Sampling period in ms per port, or null for the
+     *                      defaults of the sensor types
+     */
+    public void setSampler(SensorSampler sampler, java.util.Hashtable<String, Integer> samplePeriods) {
+        this.sampler = sampler;
+        this.samplePeriods = samplePeriods;
+    }
+    
+    /**
+     * Filter the sensors registered from now on as configured for their
+     * ports (see SensorFilter)
+     */
+    public void setConfiguration(RobotConfiguration config) {
+        this.config = config;
+    }
+    
+    /**
+     * Sleep until the background sampler has published new samples, because
+     * every task waits for a sensor. Returns at once without a sampler: the
+     * interpreter thread has to read the sensors itself.
+     */
+    public void awaitSamples() {
+        if (sampler != null) {
+            sampler.awaitPass(samplerPass, AWAIT_TIMEOUT);
+        }
+    }
+    
+    /**
+     * Get the slot for a sensor, allocating one on first use
+     */
+    public int slotFor(String port, String type) {
+        for (int i = 0; i < slotCount; i++) {
+            if (ports[i].equals(port) && types[i].equals(type)) {
+                return i;
+            }
+        }
+        if (slotCount == ports.length) {
+            grow();
+        }
+        ports[slotCount] = port;
+        types[slotCount] = type;
+        minIntervals[slotCount] = SensorTypes.getMinSampleInterval(type);
+        times[slotCount] = -1;
+        rounds[slotCount] = 0;
+        samplerSlots[slotCount] = -1;
+        resetCounts[slotCount] = -1;
+        filters[slotCount] = config != null ? SensorFilter.forConfig(config.getSensor(port), type) : null;
+        if (sampler != null && SensorTypes.isBackgroundSampled(type)) {
+            // The sampler filters every sample it takes, with a filter of its
+            // own: after a reset this thread reads and filters the sensor too
+            SensorFilter samplerFilter = config != null ? SensorFilter.forConfig(config.getSensor(port), type) : null;
+            samplerSlots[slotCount] = sampler.add(port, type, getSamplePeriod(port, type), samplerFilter);
+        }
+        return slotCount++;
+    }
+    
+    /**
+     * Start a new scheduling round - shared values become stale
+     */
+    public void nextRound() {
+        round++;
+        if (sampler != null) {
+            samplerPass = sampler.getPassCount();
+        }
+    }
+    
+    /**
+     * Get the current value of a sensor, reading the hardware if needed.
+     * Pressed states are reported as 1.0 (pressed) or 0.0.
+     */
+    public double sample(int slot, IHardware hardware) {
+        if (shareRounds && rounds[slot] == round) {
+            return values[slot];
+        }
+        
+        int samplerSlot = samplerSlots[slot];
+        if (samplerSlot >= 0 && resetCounts[slot] < 0) {
+            double value = sampler.getValue(samplerSlot);
+            values[slot] = value;
+            rounds[slot] = round;
+            return value;
+        }
+        if (samplerSlot >= 0 && sampler.getSampleCount(samplerSlot) > resetCounts[slot] + 1) {
+            // The sampler has taken a complete sample since the reset
+            resetCounts[slot] = -1;
+            return sample(slot, hardware);
+        }
+        
+        long now = 0;
+        int minInterval = minIntervals[slot];
+        if (minInterval > 0) {
+            now = hardware.currentTimeMillis();
+            if (times[slot] >= 0 && now - times[slot] < minInterval) {
+                return values[slot];
+            }
+        }
+        
+        double value = SensorTypes.getDefaultValue(types[slot]);
+        ISensor sensor = hardware.getSensor(ports[slot], types[slot]);
+        if (sensor != null) {
+            if (SensorTypes.isBoolean(types[slot])) {
+                value = sensor.isPressed() ? 1.0 : 0.0;
+            } else {
+                value = sensor.getValue();
+            }
+            int latency = sensor.getLastSampleLatency();
+            latencies[slot] = latency;
+            if (latency > maxLatencies[slot]) {
+                maxLatencies[slot] = latency;
+            }
+        }
+        
+        SensorFilter filter = filters[slot];
+        if (filter != null) {
+            if (filter.needsTime() && minInterval == 0) {
+                now = hardware.currentTimeMillis();
+            }
+            value = filter.filter(value, now);
+        }
+        
+        values[slot] = value;
+        rounds[slot] = round;
+        if (minInterval > 0) {
+            times[slot] = now;
+        }
+        return value;
+    }
+    
+    /**
+     * Reset a sensor (encoder, timer) and forget its last sample and its
+     * filter history
+     */
+    public void reset(int slot, IHardware hardware) {
+        ISensor sensor = hardware.getSensor(ports[slot], types[slot]);
+        if (sensor != null) {
+            sensor.reset();
+        }
+        times[slot] = -1;
+        rounds[slot] = 0;
+        if (filters[slot] != null) {
+            filters[slot].reset();
+        }
+        if (samplerSlots[slot] >= 0) {
+            // Samples published so far may predate the reset - read
+            // synchronously until the sampler has caught up
+            sampler.resetFilter(samplerSlots[slot]);
+            resetCounts[slot] = sampler.getSampleCount(samplerSlots[slot]);
+        }
+    }
+    
+    public int getSlotCount() {
+        return slotCount;
+    }
+    
+    public String getPort(int slot) {
+        return ports[slot];
+    }
+    
+    public String getType(int slot) {
+        return types[slot];
+    }
+    
+    /**
+     * Value the program read last, without touching the hardware
+     */
+    public double getLastValue(int slot) {
+        return values[slot];
+    }
+    
+    public int getMinSampleInterval(int slot) {
+        return minIntervals[slot];
+    }
+    
+    /**
+     * Latency of the last hardware read in milliseconds
+     */
+    public int getLatency(int slot) {
+        if (samplerSlots[slot] >= 0) {
+            return sampler.getLatency(samplerSlots[slot]);
+        }
+        return latencies[slot];
+    }
+    
+    /**
+     * Whether the slot is read by the background sampler
+     */
+    public boolean isBackgroundSampled(int slot) {
+        return samplerSlots[slot] >= 0;
+    }
+    
+    /**
+     * Background samples per second, 0 for synchronous reads
+     */
+    public double getSampleRate(int slot) {
+        return samplerSlots[slot] >= 0 ? sampler.getSampleRate(samplerSlots[slot]) : 0;
+    }
+    
+    /**
+     * Age in ms of the sample the program currently sees, 0 for synchronous
+     * reads since they go to the hardware
+     */
+    public int getStaleness(int slot) {
+        return samplerSlots[slot] >= 0 ? sampler.getAge(samplerSlots[slot]) : 0;
+    }
+    
+    /**
+     * Sampling period of a sensor in ms: configured for its port, or the
+     * default of its type. The background sampler reads it this often, and
+     * without a sampler a parked wait sleeps this long between reads.
+     */
+    public int getSamplePeriod(int slot) {
+        return getSamplePeriod(ports[slot], types[slot]);
+    }
+    
+    private int getSamplePeriod(String port, String type) {
+        int period = SensorTypes.getSamplePeriod(type);
+        Integer configured = samplePeriods != null ? samplePeriods.get(port) : null;
+        if (configured != null) {
+            period = Math.max(configured.intValue(), SensorTypes.getMinSampleInterval(type));
+        }
+        return period;
+    }
+    
+    /**
+     * Largest latency of a hardware read in milliseconds
+     */
+    public int getMaxLatency(int slot) {
+        return maxLatencies[slot];
+    }
+    
+    private void grow() {
+        int size = ports.length * 2;
+        String[] newPorts = new String[size];
+        String[] newTypes = new String[size];
+        int[] newMinIntervals = new int[size];
+        double[] newValues = new double[size];
+        long[] newTimes = new long[size];
+        int[] newRounds = new int[size];
+        int[] newLatencies = new int[size];
+        int[] newMaxLatencies = new int[size];
+        int[] newSamplerSlots = new int[size];
+        int[] newResetCounts = new int[size];
+        SensorFilter[] newFilters = new SensorFilter[size];
+        System.arraycopy(ports, 0, newPorts, 0, slotCount);
+        System.arraycopy(types, 0, newTypes, 0, slotCount);
+        System.arraycopy(minIntervals, 0, newMinIntervals, 0, slotCount);
+        System.arraycopy(values, 0, newValues, 0, slotCount);
+        System.arraycopy(times, 0, newTimes, 0, slotCount);
+        System.arraycopy(rounds, 0, newRounds, 0, slotCount);
+        System.arraycopy(latencies, 0, newLatencies, 0, slotCount);
+        System.arraycopy(maxLatencies, 0, newMaxLatencies, 0, slotCount);
+        System.arraycopy(samplerSlots, 0, newSamplerSlots, 0, slotCount);
+        System.arraycopy(resetCounts, 0, newResetCounts, 0, slotCount);
+        System.arraycopy(filters, 0, newFilters, 0, slotCount);
+        ports = newPorts;
+        types = newTypes;
+        minIntervals = newMinIntervals;
+        values = newValues;
+        times = newTimes;
+        rounds = newRounds;
+        latencies = newLatencies;
+        maxLatencies = newMaxLatencies;
+        samplerSlots = newSamplerSlots;
+        resetCounts = newResetCounts;
+        filters = newFilters;
+    }
+}
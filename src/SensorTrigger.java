@@ -0,0 +1,134 @@
+/**
+ * Threshold and edge subscription on one sensor
+ *
+ * A trigger compares the samples of a sensor node against a constant
+ * threshold and fires on:
+ * - LEVEL:   the comparison holds ("light < 50", "touch pressed")
+ * - RISING:  the comparison becomes true, e.g. crossing a value upwards
+ * - FALLING: the comparison becomes false
+ *
+ * With a debounce window the comparison must hold (LEVEL) or stay changed
+ * (RISING, FALLING) for that many milliseconds before the trigger fires,
+ * so single-sample glitches are ignored.
+ *
+ * ProgramCompiler builds a trigger for wait blocks whose condition is a
+ * single sensor comparison, LEVEL by default and an edge with
+ * ProgramCompiler.setEdgeWaits. The waiting task is parked on the trigger:
+ * only the sensor is sampled until it fires instead of re-evaluating the
+ * whole condition tree, and the scheduler sleeps while every task is
+ * parked - until the next background sampling pass, or for the sampling
+ * period of the sensor without a sampler.
+ *
+ * The trigger itself holds no state, so compiled code can be shared between
+ * tasks. The state of a subscription lives in the parked NepoTask.
+ */
+public class SensorTrigger {
+
+    // Kinds
+    public static final int LEVEL = 0;
+    public static final int RISING = 1;
+    public static final int FALLING = 2;
+
+    private final SensorNodes.Sample sensor;
+    private final int op;              // CoreNodes.OP_*, sample on the left
+    private final double threshold;
+    private final int kind;
+    private final int debounce;        // ms
+
+    /**
+     * Create a trigger on a numeric or pressed sensor.
+     * Pressed samples compare as 1 (pressed) or 0.
+     *
+     * @param op Comparison CoreNodes.OP_* with the sample on the left
+     * @param debounce Debounce window in milliseconds, 0 to fire at once
+     */
+    public SensorTrigger(SensorNodes.Sample sensor, int op, double threshold, int kind, int debounce) {
+        if (debounce < 0) {
+            throw new IllegalArgumentException("Debounce must not be negative");
+        }
+        this.sensor = sensor;
+        this.op = op;
+        this.threshold = threshold;
+        this.kind = kind;
+        this.debounce = debounce;
+    }
+
+    /**
+     * Create a trigger on the pressed state of a touch sensor or key
+     */
+    public static SensorTrigger pressed(SensorNodes.Sample sensor, int kind, int debounce) {
+        return new SensorTrigger(sensor, CoreNodes.OP_NEQ, 0, kind, debounce);
+    }
+
+    public int getKind() {
+        return kind;
+    }
+
+    public int getDebounce() {
+        return debounce;
+    }
+
+    /**
+     * How long the sensor may go unsampled while a task is parked on the
+     * trigger, in milliseconds
+     */
+    public int getSamplePeriod(NepoBlockExecutor executor) {
+        return sensor.getSamplePeriod(executor);
+    }
+
+    /**
+     * Start a subscription for a task with the current sample.
+     *
+     * @return true if the trigger fires at once (LEVEL without debounce
+     *         when the comparison already holds)
+     */
+    public boolean arm(NepoTask task, NepoBlockExecutor executor) {
+        boolean holds = holds(executor);
+        task.triggerPrevious = kind == FALLING ? !holds : holds;
+        task.triggerSince = -1;
+        if (kind == LEVEL) {
+            task.triggerPrevious = false;
+            return update(task, holds, executor);
+        }
+        return false;
+    }
+
+    /**
+     * Take a new sample for a task's subscription
+     *
+     * @return true if the trigger fired
+     */
+    public boolean poll(NepoTask task, NepoBlockExecutor executor) {
+        return update(task, holds(executor), executor);
+    }
+
+    private boolean update(NepoTask task, boolean holds, NepoBlockExecutor executor) {
+        boolean active = kind == FALLING ? !holds : holds;
+        if (!active) {
+            task.triggerSince = -1;
+        } else if (task.triggerSince < 0 && (kind == LEVEL || !task.triggerPrevious)) {
+            task.triggerSince = executor.currentTimeMillis();
+        }
+        task.triggerPrevious = active;
+
+        if (task.triggerSince < 0) {
+            return false;
+        }
+        return debounce == 0 || executor.currentTimeMillis() - task.triggerSince >= debounce;
+    }
+
+    private boolean holds(NepoBlockExecutor executor) {
+        double value = sensor.getType() == ValueNode.TYPE_BOOLEAN
+            ? (sensor.evalBoolean(executor) ? 1 : 0)
+            : sensor.evalNumber(executor);
+        switch (op) {
+            case CoreNodes.OP_EQ: return value == threshold;
+            case CoreNodes.OP_NEQ: return value != threshold;
+            case CoreNodes.OP_LT: return value < threshold;
+            case CoreNodes.OP_LTE: return value <= threshold;
+            case CoreNodes.OP_GT: return value > threshold;
+            case CoreNodes.OP_GTE: return value >= threshold;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Sensor types of the ISensor sampling contract
+ * 
+ * Every sensor delivers one primitive sample through ISensor.getValue():
+ * 
+ *   Type                 Port          Sample
+ *   TOUCH                1-4           1 pressed, 0 released
+ *   KEY                  ENTER, LEFT,  1 pressed, 0 released
+ *                        RIGHT, ESCAPE
+ *   LIGHT                1-4           reflected light 0..100 (floodlight on)
+ *   AMBIENTLIGHT         1-4           ambient light 0..100 (floodlight off)
+ *   SOUND                1-4           loudness 0..100
+ *   ULTRASONIC           1-4           distance in cm, 255 if there is no echo
+ *   COLOR                1-4           color id (leJOS Color constants)
+ *   COLOR_LIGHT          1-4           reflected light 0..100 of a color sensor
+ *   COLOR_AMBIENTLIGHT   1-4           ambient light 0..100 of a color sensor
+ *   GYRO                 1-4           rotation rate in degrees/second
+ *   ENCODER              A-C           motor rotation in degrees since reset
+ *   TIMER                1-5           milliseconds since reset
+ * 
+ * Minimum sample interval: sampling a sensor more often than this returns
+ * the same measurement, so the executor reuses the previous sample instead
+ * of reading the hardware again. Analog sensors (touch, light, sound, gyro),
+ * the color sensor, motor encoders, buttons and timers are refreshed by the
+ * firmware in the background and cost a memory read only, so they have no
+ * minimum. The ultrasonic sensor measures one echo about every 30 ms and is
+ * read over slow I2C.
+ * 
+ * Sample period: how often the background SensorSampler polls a type
+ * unless a period is configured for the port. Touch sensors and keys are
+ * polled fastest since programs react to them; timers are never sampled in
+ * the background because a copy could only be older than the clock.
+ */
+public class SensorTypes {
+    
+    public static final String TOUCH = "TOUCH";
+    public static final String KEY = "KEY";
+    public static final String LIGHT = "LIGHT";
+    public static final String AMBIENTLIGHT = "AMBIENTLIGHT";
+    public static final String SOUND = "SOUND";
+    public static final String ULTRASONIC = "ULTRASONIC";
+    public static final String COLOR = "COLOR";
+    public static final String COLOR_LIGHT = "COLOR_LIGHT";
+    public static final String COLOR_AMBIENTLIGHT = "COLOR_AMBIENTLIGHT";
+    public static final String GYRO = "GYRO";
+    public static final String ENCODER = "ENCODER";
+    public static final String TIMER = "TIMER";
+    
+    public static final int ULTRASONIC_MIN_INTERVAL = 30; // ms
+    
+    public static final int PRESSED_SAMPLE_PERIOD = 5;    // ms, touch and keys
+    public static final int DEFAULT_SAMPLE_PERIOD = 10;   // ms
+    
+    /**
+     * Get the minimum time between two hardware reads of a sensor type
+     * 
+     * @return Interval in milliseconds, 0 if every read may go to the hardware
+     */
+    public static int getMinSampleInterval(String type) {
+        if (ULTRASONIC.equals(type)) {
+            return ULTRASONIC_MIN_INTERVAL;
+        }
+        return 0;
+    }
+    
+    /**
+     * Get the default background sampling period of a sensor type
+     * 
+     * @return Period in milliseconds, never below the minimum sample interval
+     */
+    public static int getSamplePeriod(String type) {
+        if (isBoolean(type)) {
+            return PRESSED_SAMPLE_PERIOD;
+        }
+        return Math.max(DEFAULT_SAMPLE_PERIOD, getMinSampleInterval(type));
+    }
+    
+    /**
+     * Whether the type may be sampled by the background SensorSampler
+     */
+    public static boolean isBackgroundSampled(String type) {
+        return !TIMER.equals(type);
+    }
+    
+    /**
+     * Map a sensor type of RobotConfiguration.SensorConfig (touch, light, ...)
+     * 
+     * @return The sensor type, or null for unknown types
+     */
+    public static String fromConfigType(String configType) {
+        if ("touch".equals(configType)) return TOUCH;
+        if ("light".equals(configType)) return LIGHT;
+        if ("ultrasonic".equals(configType)) return ULTRASONIC;
+        if ("sound".equals(configType)) return SOUND;
+        if ("color".equals(configType)) return COLOR;
+        if ("gyro".equals(configType)) return GYRO;
+        return null;
+    }
+    
+    /**
+     * Whether the sample is a pressed state (read with ISensor.isPressed)
+     */
+    public static boolean isBoolean(String type) {
+        return TOUCH.equals(type) || KEY.equals(type);
+    }
+    
+    /**
+     * Value used when the hardware has no sensor of the type on the port
+     */
+    public static double getDefaultValue(String type) {
+        if (LIGHT.equals(type)) {
+            return 50; // Mid-range, so light thresholds do not trigger
+        }
+        return 0;
+    }
+}
@@ -9,8 +9,18 @@
  * - Single buffer approach eliminates recursive copying
  * - Lazy evaluation of string operations
  * - No artificial size limits - handles any buffer size
+ * - Empty slices share the EMPTY instance
+ * 
+ * Where even a 12 byte object per slice is too much, e.g. for the regions
+ * of every parsed element, a slice is kept as a packed long handle of
+ * offset and length (slice, sliceOffset, sliceLength) next to a reference
+ * to the buffer it belongs to.
  */
 public class ShallowString implements IString {
+    public static final int FOOTPRINT = 12; // 3 int fields * 4 bytes each
+    
+    public static final ShallowString EMPTY = new ShallowString("", 0, 0);
+    
     private final String parentBuffer;
     private final int offset;
     private final int length;
@@ -27,6 +37,25 @@ public class ShallowString implements IString {
         this.length = fullString.length();
     }
     
+    /**
+     * Packed slice handle: offset in the high, length in the low 32 bits
+     */
+    public static long slice(int offset, int length) {
+        return ((long) offset << 32) | (length & 0xFFFFFFFFL);
+    }
+    
+    public static int sliceOffset(long slice) {
+        return (int) (slice >>> 32);
+    }
+    
+    public static int sliceLength(long slice) {
+        return (int) slice;
+    }
+    
+    public static int sliceEnd(long slice) {
+        return sliceOffset(slice) + sliceLength(slice);
+    }
+    
     public int length() {
         return length;
     }
@@ -46,6 +75,9 @@ public class ShallowString implements IString {
         if (start < 0 || end > length || start > end) {
             throw new StringIndexOutOfBoundsException();
         }
+        if (start == end) {
+            return EMPTY;
+        }
         return new ShallowString(parentBuffer, offset + start, end - start);
     }
     
@@ -142,6 +174,9 @@ public class ShallowString implements IString {
         if (start == 0 && end == length) {
             return this;
         }
+        if (start == end) {
+            return EMPTY;
+        }
         
         return new ShallowString(parentBuffer, offset + start, end - start);
     }
@@ -162,6 +197,6 @@ public class ShallowString implements IString {
      * Memory footprint: just 12 bytes vs full String copy
      */
     public int getMemoryFootprint() {
-        return 12; // 3 int fields * 4 bytes each
+        return FOOTPRINT;
     }
 }
@@ -4,18 +4,24 @@ import java.util.*;
  * ShallowXMLElement - lazy materialization of XML elements
  * 
  * Memory strategy for NXT's 64KB RAM constraint:
- * - Store only pointers to XML buffer regions (24 bytes base)
- * - Materialize attributes/children on first access
+ * - Store only slice handles into the XML buffer: offset and length packed
+ *   in a long (see ShallowString.slice), so parsing an element creates no
+ *   string objects for its regions
+ * - All elements of a parsed document share one buffer reference
+ * - Materialize attributes/children on first access, or the whole subtree
+ *   in one pass (parseSubtree) where everything will be accessed anyway
  * - Minimize object creation until actually needed
  * - No size restrictions - handles any XML complexity
  * 
  * Achieves 76% memory reduction vs traditional XML parsing
  */
 public class ShallowXMLElement implements IXMLElement {
-    // Core shallow data - always present (24 bytes total)
-    private final IString allContent;    // Full element including tags
-    private final IString openTag;       // <tag attr="val">
-    private final IString innerContent;  // Content between open/close tags
+    // Core shallow data - always present. When parsed, both buffers are the
+    // document buffer shared by all elements.
+    private final IString openSource;    // Buffer holding the opening tag
+    private final IString innerSource;   // Buffer holding the inner content
+    private final long openTag;          // Slice: <tag attr="val">
+    private long innerContent;           // Slice: content between open/close tags
     
     // Lazy materialized data - created on demand
     private String tagName = null;             // Extracted from openTag
@@ -27,10 +33,46 @@ public class ShallowXMLElement implements IXMLElement {
     private boolean attributesParsed = false;
     private boolean childrenParsed = false;
     
+    // Accounts for materialized memory, null if not tracked
+    private final MemoryBudget budget;
+    
+    // Counts parsing work, null if not counted
+    private final ParseStats stats;
+    
+    /**
+     * Element from its opening tag and inner content. Only these two are
+     * kept; allContent is not needed once they are split off.
+     */
     public ShallowXMLElement(IString allContent, IString openTag, IString innerContent) {
-        this.allContent = allContent;
+        this(openTag, ShallowString.slice(0, openTag.length()),
+            innerContent, ShallowString.slice(0, innerContent.length()), null, null, null);
+    }
+    
+    /**
+     * Element whose opening tag and inner content are slices of one buffer
+     * 
+     * @param tagName Tag name if already extracted, otherwise null
+     */
+    ShallowXMLElement(IString source, long openTag, long innerContent, String tagName,
+            MemoryBudget budget, ParseStats stats) {
+        this(source, openTag, source, innerContent, tagName, budget, stats);
+    }
+    
+    private ShallowXMLElement(IString openSource, long openTag, IString innerSource, long innerContent,
+            String tagName, MemoryBudget budget, ParseStats stats) {
+        this.openSource = openSource;
         this.openTag = openTag;
+        this.innerSource = innerSource;
         this.innerContent = innerContent;
+        this.tagName = tagName;
+        this.budget = budget;
+        this.stats = stats;
+        if (budget != null) {
+            budget.materialize(getMemoryFootprint());
+        }
+        if (stats != null) {
+            stats.elements++;
+        }
     }
     
     /**
@@ -38,7 +80,8 @@ public class ShallowXMLElement implements IXMLElement {
      */
     public String getTagName() {
         if (tagName == null) {
-            tagName = ShallowXMLElement.extractTagName(openTag);
+            tagName = ShallowXMLElement.extractTagName(openSource,
+                ShallowString.sliceOffset(openTag), ShallowString.sliceEnd(openTag));
         }
         return tagName;
     }
@@ -131,15 +174,68 @@ public class ShallowXMLElement implements IXMLElement {
         return new Vector<IXMLElement>();
     }
 
+    /**
+     * Number of child elements - lazy parsing of children
+     */
+    public int getChildCount() {
+        if (!childrenParsed) {
+            parseChildren();
+        }
+        return children != null ? children.size() : 0;
+    }
+    
+    /**
+     * Child element by position, without copying the children
+     */
+    public IXMLElement getChildAt(int index) {
+        if (!childrenParsed) {
+            parseChildren();
+        }
+        if (children == null) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return children.elementAt(index);
+    }
+    
+    /**
+     * Visit the children with the tag name (all if null) until the visitor returns false
+     */
+    public int forEachChild(String tagName, IChildVisitor visitor) {
+        if (!childrenParsed) {
+            parseChildren();
+        }
+        int visited = 0;
+        if (children != null) {
+            for (int i = 0; i < children.size(); i++) {
+                IXMLElement child = children.elementAt(i);
+                if (tagName == null || tagName.equals(child.getTagName())) {
+                    visited++;
+                    if (!visitor.visitChild(child)) {
+                        break;
+                    }
+                }
+            }
+        }
+        return visited;
+    }
+
     /**
      * Get text content - lazy extraction
      */
     public String getTextContent() {
         if (textContent == null) {
+            int start = ShallowString.sliceOffset(innerContent);
+            int end = ShallowString.sliceEnd(innerContent);
             // Check if content contains child elements
-            if (innerContent.indexOf('<') == -1) {
-                // Pure text content
-                textContent = innerContent.trim().toString();
+            if (indexOf(innerSource, '<', start, end) == -1) {
+                // Pure text content, trimmed
+                while (start < end && innerSource.charAt(start) <= ' ') {
+                    start++;
+                }
+                while (end > start && innerSource.charAt(end - 1) <= ' ') {
+                    end--;
+                }
+                textContent = innerSource.substring(start, end).toString();
             } else {
                 // Has child elements, no direct text
                 textContent = "";
@@ -158,52 +254,58 @@ public class ShallowXMLElement implements IXMLElement {
         attributesParsed = true;
         
         // Find space after tag name
-        int spacePos = openTag.indexOf(' ');
-        int closePos = openTag.indexOf('>');
+        int start = ShallowString.sliceOffset(openTag);
+        int end = ShallowString.sliceEnd(openTag);
+        int spacePos = indexOf(openSource, ' ', start, end);
+        int closePos = indexOf(openSource, '>', start, end);
         
         if (spacePos == -1 || spacePos >= closePos - 1) {
             return; // No attributes
         }
         
-        // Extract attribute string: ' attr1="val1" attr2="val2"'
-        IString attrString = openTag.substring(spacePos + 1, closePos);
-
-        // Simple attribute parsing (handles basic cases)
+        // Simple attribute parsing (handles basic cases) of
+        // ' attr1="val1" attr2="val2"'
         attributes = new Hashtable<String, IString>();
-        parseAttributeString(attrString);
+        parseAttributeString(spacePos + 1, closePos);
+        if (budget != null) {
+            budget.materialize(MemoryBudget.ATTRIBUTES_BYTES);
+        }
+        if (stats != null) {
+            stats.attributeTables++;
+        }
     }
     
     /**
-     * Parse attribute string into hashtable
+     * Parse the attributes between pos and end of the opening tag into the hashtable
      */
-    private void parseAttributeString(IString attrString) {
-        int pos = 0;
-        while (pos < attrString.length()) {
+    private void parseAttributeString(int pos, int end) {
+        IString attrString = openSource;
+        while (pos < end) {
             // Skip whitespace
-            while (pos < attrString.length() && attrString.charAt(pos) <= ' ') {
+            while (pos < end && attrString.charAt(pos) <= ' ') {
                 pos++;
             }
-            if (pos >= attrString.length()) break;
+            if (pos >= end) break;
             
             // Find attribute name
             int nameStart = pos;
-            while (pos < attrString.length() && attrString.charAt(pos) != '=') {
+            while (pos < end && attrString.charAt(pos) != '=') {
                 pos++;
             }
-            if (pos >= attrString.length()) break;
+            if (pos >= end) break;
             
             String attrName = attrString.substring(nameStart, pos).trim().toString();
             pos++; // Skip '='
             
             // Skip whitespace and quote
-            while (pos < attrString.length() && (attrString.charAt(pos) <= ' ' || attrString.charAt(pos) == '"')) {
+            while (pos < end && (attrString.charAt(pos) <= ' ' || attrString.charAt(pos) == '"')) {
                 pos++;
             }
-            if (pos >= attrString.length()) break;
+            if (pos >= end) break;
             
             // Find attribute value
             int valueStart = pos;
-            while (pos < attrString.length() && attrString.charAt(pos) != '"') {
+            while (pos < end && attrString.charAt(pos) != '"') {
                 pos++;
             }
             
@@ -223,46 +325,150 @@ public class ShallowXMLElement implements IXMLElement {
         
         childrenParsed = true;
         
-        if (innerContent.length() == 0 || innerContent.indexOf('<') == -1) {
+        int start = ShallowString.sliceOffset(innerContent);
+        int end = ShallowString.sliceEnd(innerContent);
+        if (start == end || indexOf(innerSource, '<', start, end) == -1) {
             return; // No child elements
         }
         
+        // The scan that found this element's closing tag already passed
+        // over its content
+        if (stats != null) {
+            stats.rescans++;
+            stats.scannedChars += end - start;
+        }
         children = new Vector();
-        parseChildElements(innerContent);
+        parseChildElements(start, end);
+        if (budget != null) {
+            budget.materialize(children.size() * MemoryBudget.CHILD_BYTES);
+        }
     }
     
     /**
-     * Parse child elements from content string
+     * Parse attributes and children of all descendants in one pass over the
+     * inner content, keeping open elements on a stack, so every character
+     * is scanned once. Children already parsed lazily are parsed the same way.
+     * 
+     * The inner content may extend past this element's closing tag, as for
+     * a root element whose end is not known yet; it is cut at the closing tag.
+     * Expects well-formed XML: stray closing tags are ignored and elements
+     * left open end with the content.
      */
-    private void parseChildElements(IString content) {
-        int pos = 0;
+    void parseSubtree() {
+        if (!attributesParsed) {
+            parseAttributes();
+        }
+        if (childrenParsed) {
+            if (children != null) {
+                for (int i = 0; i < children.size(); i++) {
+                    ((ShallowXMLElement) children.elementAt(i)).parseSubtree();
+                }
+            }
+            return;
+        }
+        childrenParsed = true;
+        
+        IString content = innerSource;
+        int start = ShallowString.sliceOffset(innerContent);
+        int end = ShallowString.sliceEnd(innerContent);
+        Vector<ShallowXMLElement> open = new Vector<ShallowXMLElement>();
+        int pos = start;
+        
+        while (pos < end) {
+            int tagStart = indexOf(content, '<', pos, end);
+            if (tagStart == -1) break;
+            int tagEnd = indexOf(content, '>', tagStart, end);
+            if (tagEnd == -1) break;
+            pos = tagEnd + 1;
+            char next = content.charAt(tagStart + 1);
+            
+            if (next == '/') {
+                // Closing tag of the innermost open element, or of this one
+                ShallowXMLElement element = open.isEmpty() ? this : open.lastElement();
+                String name = element.getTagName();
+                if (tagEnd - tagStart - 2 == name.length() && matches(content, tagStart + 2, tagEnd, name)) {
+                    int innerStart = ShallowString.sliceOffset(element.innerContent);
+                    element.innerContent = ShallowString.slice(innerStart, tagStart - innerStart);
+                    if (element == this) {
+                        pos = end;
+                        break;
+                    }
+                    open.removeElementAt(open.size() - 1);
+                }
+            } else if (next != '!' && next != '?') {
+                ShallowXMLElement child = new ShallowXMLElement(content,
+                    ShallowString.slice(tagStart, tagEnd + 1 - tagStart),
+                    ShallowString.slice(tagEnd + 1, 0),
+                    ShallowXMLElement.extractTagName(content, tagStart, tagEnd + 1),
+                    budget, stats);
+                child.parseAttributes();
+                child.childrenParsed = true;
+                (open.isEmpty() ? this : open.lastElement()).addChild(child);
+                if (content.charAt(tagEnd - 1) != '/') {
+                    open.addElement(child);
+                }
+            }
+        }
+        if (stats != null) {
+            stats.scannedChars += pos - start;
+        }
         
-        while (pos < content.length()) {
+        // Elements left open end with the content
+        for (int i = 0; i < open.size(); i++) {
+            ShallowXMLElement element = open.elementAt(i);
+            int innerStart = ShallowString.sliceOffset(element.innerContent);
+            element.innerContent = ShallowString.slice(innerStart, end - innerStart);
+        }
+    }
+    
+    private void addChild(ShallowXMLElement child) {
+        if (children == null) {
+            children = new Vector<IXMLElement>();
+        }
+        children.addElement(child);
+        if (budget != null) {
+            budget.materialize(MemoryBudget.CHILD_BYTES);
+        }
+    }
+    
+    /**
+     * Parse child elements between pos and end of the inner content.
+     * Children get slices of the same buffer; only their tag names are
+     * created as strings.
+     */
+    private void parseChildElements(int pos, int end) {
+        IString content = innerSource;
+        
+        while (pos < end) {
             // Find next opening tag
-            int tagStart = content.indexOf('<', pos);
+            int tagStart = indexOf(content, '<', pos, end);
             if (tagStart == -1) break;
             
             pos = tagStart;
 
             // Skip if it's a closing tag
-            if (pos + 1 < content.length() && content.charAt(pos + 1) == '/') {
+            if (pos + 1 < end && content.charAt(pos + 1) == '/') {
                 pos += 2;
                 continue;
             }
             
             // Find end of opening tag
-            int tagEnd = content.indexOf('>', pos);
+            int tagEnd = indexOf(content, '>', pos, end);
             if (tagEnd == -1) break;
 
-            IString openTagContent = content.substring(pos, tagEnd + 1);
+            long openTagContent = ShallowString.slice(pos, tagEnd + 1 - pos);
+            String tagName = ShallowXMLElement.extractTagName(content, pos, tagEnd + 1);
 
             // Check if self-closing
-            if (openTagContent.charAt(openTagContent.length() - 2) == '/') {
+            if (content.charAt(tagEnd - 1) == '/') {
                 // Self-closing tag
                 ShallowXMLElement child = new ShallowXMLElement(
+                    content,
                     openTagContent,
-                    openTagContent,
-                    new ShallowString("", 0, 0)
+                    ShallowString.slice(tagEnd + 1, 0),
+                    tagName,
+                    budget,
+                    stats
                 );
                 children.addElement(child);
                 pos = tagEnd + 1;
@@ -270,22 +476,20 @@ public class ShallowXMLElement implements IXMLElement {
             }
             
             // Find matching closing tag using proper nesting
-            String tagName = ShallowXMLElement.extractTagName(openTagContent);
-            int closeTagStart = ShallowXMLElement.findMatchingClosingTag(content, tagName, tagEnd + 1);
+            int closeTagStart = ShallowXMLElement.findMatchingClosingTag(content, tagName, tagEnd + 1, end);
             
             if (closeTagStart == -1) {
                 pos = tagEnd + 1;
                 continue;
             }
             
-            String closeTagPattern = "</" + tagName + ">";
-            int closeTagEnd = closeTagStart + closeTagPattern.length();
+            // Closing tag is "</" + tagName + ">"
+            int closeTagEnd = closeTagStart + tagName.length() + 3;
             
             // Create child element
-            IString childAll = content.substring(pos, closeTagEnd);
-            IString childInner = content.substring(tagEnd + 1, closeTagStart);
+            long childInner = ShallowString.slice(tagEnd + 1, closeTagStart - tagEnd - 1);
 
-            ShallowXMLElement child = new ShallowXMLElement(childAll, openTagContent, childInner);
+            ShallowXMLElement child = new ShallowXMLElement(content, openTagContent, childInner, tagName, budget, stats);
             children.addElement(child);
             
             pos = closeTagEnd;
@@ -302,54 +506,56 @@ public class ShallowXMLElement implements IXMLElement {
      * @return The position of the matching closing tag, or -1 if not found
      */
     public static int findMatchingClosingTag(IString content, String tagName, int startPos) {
-        if (content == null || tagName == null || startPos < 0 || startPos >= content.length()) {
+        if (content == null || tagName == null) {
+            return -1;
+        }
+        return findMatchingClosingTag(content, tagName, startPos, content.length());
+    }
+    
+    /**
+     * Find the matching closing tag between startPos and end of the content.
+     * Compares tag names in place, without building tag patterns.
+     */
+    static int findMatchingClosingTag(IString content, String tagName, int startPos, int end) {
+        if (startPos < 0 || startPos >= end) {
             return -1;
         }
         
-        String openPattern = "<" + tagName;
-        String closePattern = "</" + tagName + ">";
-        
+        int nameLength = tagName.length();
         int depth = 1; // We're already inside one tag
         int pos = startPos;
         
-        while (pos < content.length() && depth > 0) {
-            int nextOpen = content.indexOf(openPattern, pos);
-            int nextClose = content.indexOf(closePattern, pos);
-            
-            // If no closing tag found, return -1
-            if (nextClose == -1) {
+        while (pos < end) {
+            int tagStart = indexOf(content, '<', pos, end);
+            if (tagStart == -1) {
                 return -1;
             }
             
-            // If there's an opening tag before the closing tag, increase depth
-            if (nextOpen != -1 && nextOpen < nextClose) {
-                // Make sure it's actually an opening tag (not just a substring)
-                char charAfterTag = (nextOpen + openPattern.length() < content.length()) 
-                    ? content.charAt(nextOpen + openPattern.length()) : ' ';
-                if (charAfterTag == ' ' || charAfterTag == '>' || charAfterTag == '/') {
-                    // Check if this is a self-closing tag by looking for "/>" pattern
-                    boolean isSelfClosing = false;
-                    int tagEnd = content.indexOf('>', nextOpen);
-                    if (tagEnd != -1 && tagEnd > 0 && content.charAt(tagEnd - 1) == '/') {
-                        isSelfClosing = true;
+            if (tagStart + 1 < end && content.charAt(tagStart + 1) == '/') {
+                // Closing tag: </tagName>
+                int nameEnd = tagStart + 2 + nameLength;
+                if (matches(content, tagStart + 2, end, tagName)
+                        && nameEnd < end && content.charAt(nameEnd) == '>') {
+                    depth--;
+                    if (depth == 0) {
+                        return tagStart;
                     }
-                    
+                    pos = nameEnd + 1;
+                    continue;
+                }
+            } else if (matches(content, tagStart + 1, end, tagName)) {
+                // Make sure it's actually an opening tag (not just a prefix of another name)
+                int nameEnd = tagStart + 1 + nameLength;
+                char charAfterTag = nameEnd < end ? content.charAt(nameEnd) : ' ';
+                if (charAfterTag == ' ' || charAfterTag == '>' || charAfterTag == '/') {
                     // Only increment depth for non-self-closing tags
-                    if (!isSelfClosing) {
+                    int tagEnd = indexOf(content, '>', tagStart, end);
+                    if (tagEnd == -1 || content.charAt(tagEnd - 1) != '/') {
                         depth++;
                     }
-                    pos = nextOpen + openPattern.length();
-                } else {
-                    pos = nextOpen + 1;
-                }
-            } else {
-                // Found a closing tag
-                depth--;
-                if (depth == 0) {
-                    return nextClose;
                 }
-                pos = nextClose + closePattern.length();
             }
+            pos = tagStart + 1;
         }
         
         return -1; // No matching closing tag found
@@ -363,29 +569,62 @@ public class ShallowXMLElement implements IXMLElement {
      * @return The tag name without brackets and attributes, or "unknown" if parsing fails
      */
     public static String extractTagName(IString openTag) {
-        if (openTag == null || openTag.length() < 2) {
+        if (openTag == null) {
+            return "unknown";
+        }
+        return extractTagName(openTag, 0, openTag.length());
+    }
+    
+    /**
+     * Extract the tag name of the opening tag between start and end of the buffer
+     */
+    static String extractTagName(IString source, int start, int end) {
+        if (end - start < 2) {
             return "unknown";
         }
         
-        int spacePos = openTag.indexOf(' ');
-        int closePos = openTag.indexOf('>');
-        int slashPos = openTag.indexOf('/');
+        int spacePos = indexOf(source, ' ', start, end);
+        int closePos = indexOf(source, '>', start, end);
+        int slashPos = indexOf(source, '/', start, end);
         
         // Find the end position for tag name extraction
         int endPos = closePos;
         if (spacePos != -1 && spacePos < closePos) {
             endPos = spacePos;
         }
-        if (slashPos != -1 && slashPos < endPos && slashPos > 0) {
+        if (slashPos != -1 && slashPos < endPos && slashPos > start) {
             endPos = slashPos;
         }
         
-        if (endPos > 1) {
-            return openTag.substring(1, endPos).toString();
+        if (endPos > start + 1) {
+            return source.substring(start + 1, endPos).toString();
         }
         return "unknown";
     }
     
+    /**
+     * Position of c between from and end of the buffer, or -1
+     */
+    private static int indexOf(IString source, char c, int from, int end) {
+        int pos = source.indexOf(c, from);
+        return pos < end ? pos : -1;
+    }
+    
+    /**
+     * Whether the buffer holds name at pos, before end
+     */
+    private static boolean matches(IString source, int pos, int end, String name) {
+        if (pos + name.length() > end) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (source.charAt(pos + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
     /**
      * Find element by tag name recursively within this element's tree.
      * Uses the static utility implementation from IXMLElement interface.
@@ -406,13 +645,10 @@ public class ShallowXMLElement implements IXMLElement {
      * Memory footprint estimation
      */
     public int getMemoryFootprint() {
-        int size = 48; // Base object + 3 ShallowString references
-        size += allContent.getMemoryFootprint();
-        size += openTag.getMemoryFootprint();
-        size += innerContent.getMemoryFootprint();
+        int size = MemoryBudget.ELEMENT_BASE_BYTES;
         
-        if (attributes != null) size += 48; // Estimate for attributes
-        if (children != null) size += children.size() * 32;
+        if (attributes != null) size += MemoryBudget.ATTRIBUTES_BYTES;
+        if (children != null) size += children.size() * MemoryBudget.CHILD_BYTES;
 
         return size;
     }
@@ -11,9 +11,59 @@ import java.io.*;
  * - Single XML buffer: eliminates recursive string copying  
  * - Lazy materialization: attributes/children loaded on demand
  * - No artificial limits: handles any file size, fails gracefully on OutOfMemoryError
+ * - Optional MemoryBudget: refuses files that would not fit before reading them
+ * 
+ * Parse policies (setParsePolicy):
+ * - LAZY: elements parse their attributes and children on first access.
+ *   Least work for documents that are only partly read, but each element's
+ *   content is scanned again for every nesting level above it.
+ * - EAGER: the whole tree is built in one pass over the document, every
+ *   character scanned once. Expects well-formed XML.
+ * - EAGER_FOR_PROGRAM_SUBTREE: lazy, except that the program element,
+ *   which the compiler reads completely, is built in one pass.
+ * getStats() counts elements, rescans and scanned characters to compare them.
  */
 public class ShallowXMLParser implements IXMLParser {
 
+    public static final int LAZY = 0;
+    public static final int EAGER = 1;
+    public static final int EAGER_FOR_PROGRAM_SUBTREE = 2;
+
+    private MemoryBudget budget = null;
+    private int policy = LAZY;
+    private final ParseStats stats = new ParseStats();
+
+    /**
+     * Check files against the budget before loading them and account
+     * for the elements they materialize. null (default) for no checks.
+     */
+    public void setMemoryBudget(MemoryBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * How much of a document is parsed up front: LAZY (default), EAGER or
+     * EAGER_FOR_PROGRAM_SUBTREE
+     */
+    public void setParsePolicy(int policy) {
+        if (policy < LAZY || policy > EAGER_FOR_PROGRAM_SUBTREE) {
+            throw new IllegalArgumentException("Unknown parse policy " + policy);
+        }
+        this.policy = policy;
+    }
+
+    public int getParsePolicy() {
+        return policy;
+    }
+
+    /**
+     * Work counters of all documents parsed so far, including lazy
+     * parsing while the elements are read
+     */
+    public ParseStats getStats() {
+        return stats;
+    }
+
     /**
      * Parse XML from file using ShallowString approach
      * Memory usage: ~16KB for 8KB XML file (vs 70KB+ with old approach)
@@ -21,6 +71,13 @@ public class ShallowXMLParser implements IXMLParser {
     public IXMLElement parseFile(String filename) {
         FileInputStream fis = null;
         try {
+            if (budget != null && budget.checkFile(filename) == MemoryBudget.REFUSE) {
+                System.out.println("Program too large: needs " + budget.getEstimate()
+                    + " bytes, " + budget.getLimit() + " free");
+                System.out.println("File: " + filename);
+                return null;
+            }
+            
             File file = new File(filename);
             fis = new FileInputStream(file);
             
@@ -66,7 +123,15 @@ public class ShallowXMLParser implements IXMLParser {
                 }
             }
             
-            return parseElement(content);
+            stats.documentLength += content.length();
+            IXMLElement root = parseElement(content);
+            if (root != null && policy == EAGER_FOR_PROGRAM_SUBTREE) {
+                IXMLElement program = "program".equals(root.getTagName()) ? root : root.findElement("program");
+                if (program != null) {
+                    ((ShallowXMLElement) program).parseSubtree();
+                }
+            }
+            return root;
 
         } catch (Exception e) {
             System.out.println("Parse error: " + e.getMessage());
@@ -75,9 +140,10 @@ public class ShallowXMLParser implements IXMLParser {
     }
     
     /**
-     * Parse single XML element from ShallowString
+     * Parse single XML element from ShallowString. The element and its
+     * descendants keep slices of the content, no copies.
      */
-    private static IXMLElement parseElement(IString content) {
+    private IXMLElement parseElement(IString content) {
         if (content.length() == 0 || content.charAt(0) != '<') {
             return null;
         }
@@ -88,43 +154,35 @@ public class ShallowXMLParser implements IXMLParser {
             return null;
         }
         
-        IString openTag = content.substring(0, openTagEnd + 1);
+        long openTag = ShallowString.slice(0, openTagEnd + 1);
+        String tagName = ShallowXMLElement.extractTagName(content, 0, openTagEnd + 1);
 
         // Check if self-closing
-        if (openTag.charAt(openTag.length() - 2) == '/') {
-            return new ShallowXMLElement(
-                content.substring(0, openTagEnd + 1),
-                openTag,
-                new ShallowString("", 0, 0)
-            );
+        if (content.charAt(openTagEnd - 1) == '/') {
+            return new ShallowXMLElement(content, openTag, ShallowString.slice(openTagEnd + 1, 0), tagName,
+                budget, stats);
         }
         
-        // Extract tag name for finding closing tag
-        String tagName = ShallowXMLElement.extractTagName(openTag);
-        String closeTagPattern = "</" + tagName + ">";
+        if (policy == EAGER) {
+            // The one pass finds the closing tag on the way
+            ShallowXMLElement root = new ShallowXMLElement(content, openTag,
+                ShallowString.slice(openTagEnd + 1, content.length() - openTagEnd - 1), tagName, budget, stats);
+            root.parseSubtree();
+            return root;
+        }
         
         // Find matching closing tag using proper nesting
         int closeTagStart = ShallowXMLElement.findMatchingClosingTag(content, tagName, openTagEnd + 1);
+        stats.scannedChars += (closeTagStart != -1 ? closeTagStart : content.length()) - openTagEnd - 1;
         if (closeTagStart == -1) {
             // Treat as self-closing if no closing tag found
-            return new ShallowXMLElement(
-                content.substring(0, openTagEnd + 1),
-                openTag,
-                new ShallowString("", 0, 0)
-            );
+            return new ShallowXMLElement(content, openTag, ShallowString.slice(openTagEnd + 1, 0), tagName,
+                budget, stats);
         }
         
-        int closeTagEnd = closeTagStart + closeTagPattern.length();
-        
         // Create element with shallow references
-        IString allContent = content.substring(0, closeTagEnd);
-        IString innerContent = content.substring(openTagEnd + 1, closeTagStart);
+        long innerContent = ShallowString.slice(openTagEnd + 1, closeTagStart - openTagEnd - 1);
 
-        return new ShallowXMLElement(allContent, openTag, innerContent);
+        return new ShallowXMLElement(content, openTag, innerContent, tagName, budget, stats);
     }
-    
-
-    
-
-    
 }
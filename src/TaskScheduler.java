@@ -0,0 +1,101 @@
+import java.util.*;
+
+/**
+ * Round-robin scheduler for NEPO tasks on a single thread
+ * 
+ * Every task is an explicit continuation (NepoTask). The scheduler gives each
+ * unfinished task a bounded time slice of statements in turn. Tasks also
+ * yield early at waits and loop boundaries, so a task busy-waiting for a
+ * sensor never starves the others.
+ * 
+ * Memory strategy for NXT:
+ * - No threads and no per-task Java stack
+ * - Single statement counter as the time slice, so scheduling is cheap
+ *   and fully deterministic
+ * 
+ * A task parked on a sensor trigger or waiting for its motors to stop only
+ * polls when its turn comes. When every task is parked, the scheduler lets
+ * the executor sleep (NepoBlockExecutor.idle) instead of spinning.
+ */
+public class TaskScheduler {
+    
+    public static final int DEFAULT_SLICE_STEPS = 32;
+    
+    private final Vector<NepoTask> tasks = new Vector<NepoTask>();
+    private final SensorSamples samples;
+    private int sliceSteps = DEFAULT_SLICE_STEPS;
+    
+    /**
+     * Create a scheduler.
+     * 
+     * @param samples Sensor samples to advance after each full round, or null
+     */
+    public TaskScheduler(SensorSamples samples) {
+        this.samples = samples;
+    }
+    
+    /**
+     * Register a task. Must be called before run().
+     */
+    public void addTask(NepoTask task) {
+        tasks.addElement(task);
+    }
+    
+    /**
+     * Get the number of registered tasks
+     */
+    public int getTaskCount() {
+        return tasks.size();
+    }
+    
+    /**
+     * Get a registered task
+     */
+    public NepoTask getTask(int index) {
+        return tasks.elementAt(index);
+    }
+    
+    /**
+     * Set the maximum number of statements a task may run before it must yield
+     */
+    public void setSliceSteps(int sliceSteps) {
+        if (sliceSteps <= 0) {
+            throw new IllegalArgumentException("Slice must be positive");
+        }
+        this.sliceSteps = sliceSteps;
+    }
+    
+    /**
+     * Run all tasks until every task has finished or the executor stops.
+     */
+    public void run(NepoBlockExecutor executor) {
+        int active = tasks.size();
+        
+        while (active > 0 && executor.isRunning()) {
+            active = 0;
+            int parked = 0;
+            int interval = Integer.MAX_VALUE;
+            for (int i = 0; i < tasks.size(); i++) {
+                NepoTask task = tasks.elementAt(i);
+                if (task.isFinished()) continue;
+                
+                executor.runSlice(task, sliceSteps);
+                if (!task.isFinished()) {
+                    active++;
+                    if (task.isParked() || task.isWaitingForMotion()) {
+                        parked++;
+                        interval = Math.min(interval, executor.getPollInterval(task));
+                    }
+                }
+                if (!executor.isRunning()) break;
+            }
+            
+            if (active > 0 && parked == active && executor.isRunning()) {
+                executor.idle(interval);
+            }
+            if (samples != null) {
+                samples.nextRound();
+            }
+        }
+    }
+}
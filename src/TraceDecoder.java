@@ -0,0 +1,220 @@
+import java.io.*;
+import java.util.Vector;
+
+/**
+ * PC-side decoder for ExecutionTrace files
+ *
+ * Renders every hardware call in the text format of MockHardware's log,
+ * which is the format of the integration test golden files, so a trace
+ * recorded on the brick can be compared with a golden file directly.
+ * Block enter/exit records are skipped unless requested; they are
+ * rendered as "[Block] enter <type> <id>" and "[Block] exit <type> <id> <us>us".
+ *
+ * Usage:
+ *   java TraceDecoder trace.bin [--blocks]
+ */
+public class TraceDecoder {
+
+    private final DataInputStream in;
+    private final boolean blocks;
+
+    private final Vector<String> strings = new Vector<String>();
+    private final StringBuffer pending = new StringBuffer();  // String continued in the next record
+
+    /**
+     * @param blocks Render block enter/exit records as well
+     */
+    public TraceDecoder(InputStream in, boolean blocks) {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        this.blocks = blocks;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: java TraceDecoder <trace file> [--blocks]");
+            System.exit(2);
+        }
+        boolean blocks = args.length > 1 && "--blocks".equals(args[1]);
+        try (FileInputStream fis = new FileInputStream(args[0])) {
+            TraceDecoder decoder = new TraceDecoder(fis, blocks);
+            String line;
+            while ((line = decoder.nextLine()) != null) {
+                System.out.println(line);
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading trace: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Decode a whole trace
+     */
+    public static Vector<String> decode(InputStream in, boolean blocks) throws IOException {
+        TraceDecoder decoder = new TraceDecoder(in, blocks);
+        Vector<String> lines = new Vector<String>();
+        String line;
+        while ((line = decoder.nextLine()) != null) {
+            lines.addElement(line);
+        }
+        return lines;
+    }
+
+    /**
+     * Read records up to the next one that renders as a line
+     *
+     * @return The line, or null at the end of the trace
+     * @throws IOException If reading fails or the data is not a trace
+     */
+    public String nextLine() throws IOException {
+        byte[] record = new byte[ExecutionTrace.RECORD_SIZE];
+        while (true) {
+            try {
+                in.readFully(record);
+            } catch (EOFException e) {
+                return null;
+            }
+            String line = render(record);
+            if (line != null) {
+                return line;
+            }
+        }
+    }
+
+    private String render(byte[] record) throws IOException {
+        int kind = record[0];
+        int op = record[1] & 0xFF;
+        int a = getShort(record, 2);
+        int b = getInt(record, 4);
+        long value = ((long) getInt(record, 12) << 32) | (getInt(record, 16) & 0xFFFFFFFFL);
+
+        switch (kind) {
+            case ExecutionTrace.KIND_HEADER:
+                if (value != ExecutionTrace.MAGIC || b != ExecutionTrace.VERSION) {
+                    throw new IOException("Not an execution trace (version " + ExecutionTrace.VERSION + ")");
+                }
+                return null;
+            case ExecutionTrace.KIND_STRING:
+                defineString(record, op, a);
+                return null;
+            case ExecutionTrace.KIND_HARDWARE:
+                return renderHardware(op, a, b, value);
+            case ExecutionTrace.KIND_MOTOR:
+                return renderMotor(op, "Motor " + string(a) + ".", b, value);
+            case ExecutionTrace.KIND_SENSOR:
+                return renderSensor(op, "Sensor " + string(a) + " (" + string(b) + ").", string(b), value);
+            case ExecutionTrace.KIND_BLOCK_ENTER:
+                return blocks ? "[Block] enter " + string(a) + " " + blockId(b) : null;
+            case ExecutionTrace.KIND_BLOCK_EXIT:
+                return blocks ? "[Block] exit " + string(a) + " " + blockId(b) + " " + value / 1000 + "us" : null;
+            default:
+                throw new IOException("Unknown record kind " + kind);
+        }
+    }
+
+    private String renderHardware(int op, int a, int b, long value) throws IOException {
+        switch (op) {
+            case ExecutionTrace.OP_CLEAR_DISPLAY:
+                return "clearDisplay()";
+            case ExecutionTrace.OP_DISPLAY_TEXT:
+                return "displayText('" + string(a) + "', " + b + ", " + value + ")";
+            case ExecutionTrace.OP_REFRESH_DISPLAY:
+                return "refreshDisplay()";
+            case ExecutionTrace.OP_GET_MOTOR:
+                return "getMotor('" + string(a) + "')";
+            case ExecutionTrace.OP_GET_SENSOR:
+                return "getSensor('" + string(a) + "', '" + string(b) + "')";
+            case ExecutionTrace.OP_PLAY_TONE:
+                return "playTone(" + b + ", " + value + ")";
+            case ExecutionTrace.OP_WAIT_FOR_BUTTON:
+                return "waitForButtonPress()";
+            case ExecutionTrace.OP_GET_BUTTON:
+                return "getButtonPress() -> " + value;
+            case ExecutionTrace.OP_DELAY:
+                return "delay(" + b + ")";
+            default:
+                throw new IOException("Unknown hardware call " + op);
+        }
+    }
+
+    private String renderMotor(int op, String motor, int b, long value) throws IOException {
+        switch (op) {
+            case ExecutionTrace.OP_SET_SPEED:
+                return motor + "setSpeed(" + b + ")";
+            case ExecutionTrace.OP_ROTATE:
+                return motor + "rotate(" + b + ")";
+            case ExecutionTrace.OP_ROTATE_IMMEDIATE:
+                return motor + "rotate(" + b + ", " + (value != 0) + ")";
+            case ExecutionTrace.OP_IS_MOVING:
+                return motor + "isMoving() -> " + (value != 0);
+            case ExecutionTrace.OP_WAIT_COMPLETE:
+                return motor + "waitComplete()";
+            case ExecutionTrace.OP_FORWARD:
+                return motor + "forward()";
+            case ExecutionTrace.OP_BACKWARD:
+                return motor + "backward()";
+            case ExecutionTrace.OP_STOP:
+                return motor + "stop()";
+            case ExecutionTrace.OP_STOP_IMMEDIATE:
+                return motor + "stop(" + (value != 0) + ")";
+            case ExecutionTrace.OP_FLT:
+                return motor + "flt(" + (value != 0) + ")";
+            case ExecutionTrace.OP_GET_SPEED:
+                return motor + "getSpeed() -> " + value;
+            case ExecutionTrace.OP_GET_TACHO_COUNT:
+                return motor + "getTachoCount() -> " + value;
+            default:
+                throw new IOException("Unknown motor call " + op);
+        }
+    }
+
+    private String renderSensor(int op, String sensor, String type, long value) throws IOException {
+        switch (op) {
+            case ExecutionTrace.OP_GET_TYPE:
+                return sensor + "getType() -> '" + type + "'";
+            case ExecutionTrace.OP_IS_PRESSED:
+                return sensor + "isPressed() -> " + (value != 0);
+            case ExecutionTrace.OP_GET_DISTANCE:
+                return sensor + "getDistance() -> " + Double.longBitsToDouble(value);
+            case ExecutionTrace.OP_GET_VALUE:
+                return sensor + "getValue() -> " + Double.longBitsToDouble(value);
+            case ExecutionTrace.OP_RESET:
+                return sensor + "reset()";
+            default:
+                throw new IOException("Unknown sensor call " + op);
+        }
+    }
+
+    private void defineString(byte[] record, int op, int index) {
+        int length = op & ~ExecutionTrace.STRING_MORE;
+        for (int i = 0; i < length; i++) {
+            pending.append((char) (record[4 + i] & 0xFF));
+        }
+        if ((op & ExecutionTrace.STRING_MORE) != 0) {
+            return;
+        }
+        while (strings.size() <= index) {
+            strings.addElement(null);
+        }
+        strings.setElementAt(pending.toString(), index);
+        pending.setLength(0);
+    }
+
+    private String string(int index) {
+        String s = index < strings.size() ? strings.elementAt(index) : null;
+        return s != null ? s : "?";
+    }
+
+    private String blockId(int index) {
+        return index == ExecutionTrace.STRING_UNKNOWN ? "-" : string(index);
+    }
+
+    private static int getShort(byte[] record, int pos) {
+        return ((record[pos] & 0xFF) << 8) | (record[pos + 1] & 0xFF);
+    }
+
+    private static int getInt(byte[] record, int pos) {
+        return ((record[pos] & 0xFF) << 24) | ((record[pos + 1] & 0xFF) << 16)
+            | ((record[pos + 2] & 0xFF) << 8) | (record[pos + 3] & 0xFF);
+    }
+}
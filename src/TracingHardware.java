@@ -0,0 +1,236 @@
+import java.util.Vector;
+
+/**
+ * Hardware decorator that records every call into an ExecutionTrace
+ *
+ * Forwards all calls to the wrapped hardware unchanged and records the
+ * call with its arguments and result, so a trace shows exactly what the
+ * program did with the robot - on the brick as well as with MockHardware.
+ * Timing stays that of the wrapped hardware.
+ *
+ * Memory strategy for NXT:
+ * - One wrapper per motor and sensor object, created on first access
+ * - Port and type strings are interned in the trace once per wrapper,
+ *   so recording a call allocates nothing
+ */
+public class TracingHardware implements IHardware {
+
+    private final IHardware hardware;
+    private final ExecutionTrace trace;
+
+    // Wrappers, looked up by the wrapped object
+    private final Vector<TracingMotor> motors = new Vector<TracingMotor>();
+    private final Vector<TracingSensor> sensors = new Vector<TracingSensor>();
+
+    public TracingHardware(IHardware hardware, ExecutionTrace trace) {
+        this.hardware = hardware;
+        this.trace = trace;
+    }
+
+    public ExecutionTrace getTrace() {
+        return trace;
+    }
+
+    public void clearDisplay() {
+        trace.record(ExecutionTrace.KIND_HARDWARE, ExecutionTrace.OP_CLEAR_DISPLAY, 0, 0, 0L);
+        hardware.clearDisplay();
+    }
+
+    public void displayText(String text, int x, int y) {
+        trace.record(ExecutionTrace.KIND_HARDWARE, ExecutionTrace.OP_DISPLAY_TEXT, trace.intern(text), x, (long) y);
+        hardware.displayText(text, x, y);
+    }
+
+    public void refreshDisplay() {
+        trace.record(ExecutionTrace.KIND_HARDWARE, ExecutionTrace.OP_REFRESH_DISPLAY, 0, 0, 0L);
+        hardware.refreshDisplay();
+    }
+
+    public IMotor getMotor(String port) {
+        trace.record(ExecutionTrace.KIND_HARDWARE, ExecutionTrace.OP_GET_MOTOR, trace.intern(port), 0, 0L);
+        IMotor motor = hardware.getMotor(port);
+        if (motor == null) {
+            return null;
+        }
+        synchronized (motors) {
+            for (int i = 0; i < motors.size(); i++) {
+                TracingMotor wrapper = motors.elementAt(i);
+                if (wrapper.motor == motor) {
+                    return wrapper;
+                }
+            }
+            TracingMotor wrapper = new TracingMotor(motor, trace.intern(port));
+            motors.addElement(wrapper);
+            return wrapper;
+        }
+    }
+
+    public ISensor getSensor(String port, String type) {
+        trace.record(ExecutionTrace.KIND_HARDWARE, ExecutionTrace.OP_GET_SENSOR,
+            trace.intern(port), trace.intern(type), 0L);
+        ISensor sensor = hardware.getSensor(port, type);
+        if (sensor == null) {
+            return null;
+        }
+        synchronized (sensors) {
+            for (int i = 0; i < sensors.size(); i++) {
+                TracingSensor wrapper = sensors.elementAt(i);
+                if (wrapper.sensor == sensor) {
+                    return wrapper;
+                }
+            }
+            TracingSensor wrapper = new TracingSensor(sensor, trace.intern(port), trace.intern(type));
+            sensors.addElement(wrapper);
+            return wrapper;
+        }
+    }
+
+    public void playTone(int frequency, int duration) {
+        trace.record(ExecutionTrace.KIND_HARDWARE, ExecutionTrace.OP_PLAY_TONE, 0, frequency, (long) duration);
+        hardware.playTone(frequency, duration);
+    }
+
+    public void waitForButtonPress() {
+        trace.record(ExecutionTrace.KIND_HARDWARE, ExecutionTrace.OP_WAIT_FOR_BUTTON, 0, 0, 0L);
+        hardware.waitForButtonPress();
+    }
+
+    public int getButtonPress() {
+        int button = hardware.getButtonPress();
+        trace.record(ExecutionTrace.KIND_HARDWARE, ExecutionTrace.OP_GET_BUTTON, 0, 0, (long) button);
+        return button;
+    }
+
+    public void delay(int milliseconds) {
+        trace.record(ExecutionTrace.KIND_HARDWARE, ExecutionTrace.OP_DELAY, 0, milliseconds, 0L);
+        hardware.delay(milliseconds);
+    }
+
+    public long currentTimeMillis() {
+        return hardware.currentTimeMillis();
+    }
+
+    /**
+     * Motor wrapper - records commands and queried state
+     */
+    private class TracingMotor implements IMotor {
+        final IMotor motor;
+        private final int port;
+
+        TracingMotor(IMotor motor, int port) {
+            this.motor = motor;
+            this.port = port;
+        }
+
+        public void setSpeed(int speed) {
+            trace.record(ExecutionTrace.KIND_MOTOR, ExecutionTrace.OP_SET_SPEED, port, speed, 0L);
+            motor.setSpeed(speed);
+        }
+
+        public void rotate(int degrees) {
+            trace.record(ExecutionTrace.KIND_MOTOR, ExecutionTrace.OP_ROTATE, port, degrees, 0L);
+            motor.rotate(degrees);
+        }
+
+        public void rotate(int degrees, boolean immediateReturn) {
+            trace.record(ExecutionTrace.KIND_MOTOR, ExecutionTrace.OP_ROTATE_IMMEDIATE, port, degrees, immediateReturn);
+            motor.rotate(degrees, immediateReturn);
+        }
+
+        public boolean isMoving() {
+            boolean moving = motor.isMoving();
+            trace.record(ExecutionTrace.KIND_MOTOR, ExecutionTrace.OP_IS_MOVING, port, 0, moving);
+            return moving;
+        }
+
+        public void waitComplete() {
+            trace.record(ExecutionTrace.KIND_MOTOR, ExecutionTrace.OP_WAIT_COMPLETE, port, 0, 0L);
+            motor.waitComplete();
+        }
+
+        public void forward() {
+            trace.record(ExecutionTrace.KIND_MOTOR, ExecutionTrace.OP_FORWARD, port, 0, 0L);
+            motor.forward();
+        }
+
+        public void backward() {
+            trace.record(ExecutionTrace.KIND_MOTOR, ExecutionTrace.OP_BACKWARD, port, 0, 0L);
+            motor.backward();
+        }
+
+        public void stop() {
+            trace.record(ExecutionTrace.KIND_MOTOR, ExecutionTrace.OP_STOP, port, 0, 0L);
+            motor.stop();
+        }
+
+        public void stop(boolean immediateReturn) {
+            trace.record(ExecutionTrace.KIND_MOTOR, ExecutionTrace.OP_STOP_IMMEDIATE, port, 0, immediateReturn);
+            motor.stop(immediateReturn);
+        }
+
+        public void flt(boolean immediateReturn) {
+            trace.record(ExecutionTrace.KIND_MOTOR, ExecutionTrace.OP_FLT, port, 0, immediateReturn);
+            motor.flt(immediateReturn);
+        }
+
+        public int getSpeed() {
+            int speed = motor.getSpeed();
+            trace.record(ExecutionTrace.KIND_MOTOR, ExecutionTrace.OP_GET_SPEED, port, 0, (long) speed);
+            return speed;
+        }
+
+        public int getTachoCount() {
+            int count = motor.getTachoCount();
+            trace.record(ExecutionTrace.KIND_MOTOR, ExecutionTrace.OP_GET_TACHO_COUNT, port, 0, (long) count);
+            return count;
+        }
+    }
+
+    /**
+     * Sensor wrapper - records samples and resets
+     */
+    private class TracingSensor implements ISensor {
+        final ISensor sensor;
+        private final int port;
+        private final int type;
+
+        TracingSensor(ISensor sensor, int port, int type) {
+            this.sensor = sensor;
+            this.port = port;
+            this.type = type;
+        }
+
+        public String getType() {
+            String result = sensor.getType();
+            trace.record(ExecutionTrace.KIND_SENSOR, ExecutionTrace.OP_GET_TYPE, port, type, 0L);
+            return result;
+        }
+
+        public boolean isPressed() {
+            boolean pressed = sensor.isPressed();
+            trace.record(ExecutionTrace.KIND_SENSOR, ExecutionTrace.OP_IS_PRESSED, port, type, pressed);
+            return pressed;
+        }
+
+        public double getDistance() {
+            double distance = sensor.getDistance();
+            trace.record(ExecutionTrace.KIND_SENSOR, ExecutionTrace.OP_GET_DISTANCE, port, type, distance);
+            return distance;
+        }
+
+        public double getValue() {
+            double value = sensor.getValue();
+            trace.record(ExecutionTrace.KIND_SENSOR, ExecutionTrace.OP_GET_VALUE, port, type, value);
+            return value;
+        }
+
+        public void reset() {
+            trace.record(ExecutionTrace.KIND_SENSOR, ExecutionTrace.OP_RESET, port, type, 0L);
+            sensor.reset();
+        }
+
+        public int getLastSampleLatency() {
+            return sensor.getLastSampleLatency();
+        }
+    }
+}
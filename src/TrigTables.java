@@ -0,0 +1,103 @@
+/**
+ * Trigonometry in degrees backed by lookup tables
+ * 
+ * The NXT has no FPU, so Math.sin and friends run as slow soft-float
+ * series. NEPO trig blocks work in degrees, which maps directly onto a
+ * one-degree sine table (quarter wave, 0..90) and an arctangent table over
+ * [0, 1]; values in between are linearly interpolated. All other functions
+ * are derived from these two tables using symmetries.
+ * 
+ * Accuracy (measured by BenchmarkTrig): about 4e-5 absolute for sin/cos,
+ * about 0.0012 degrees for atan/asin/acos. Whole degrees are exact.
+ * 
+ * Memory strategy for NXT:
+ * - float tables, 156 entries in total (~0.6KB)
+ * - Built once when the class is loaded
+ */
+public class TrigTables {
+    
+    private static final int ATAN_STEPS = 64;
+    
+    private static final float[] SIN = new float[91];                // sin(i degrees)
+    private static final float[] ATAN = new float[ATAN_STEPS + 1];   // atan(i / ATAN_STEPS) in degrees
+    
+    static {
+        for (int i = 0; i <= 90; i++) {
+            SIN[i] = (float) Math.sin(Math.toRadians(i));
+        }
+        for (int i = 0; i <= ATAN_STEPS; i++) {
+            ATAN[i] = (float) Math.toDegrees(Math.atan((double) i / ATAN_STEPS));
+        }
+    }
+    
+    /**
+     * Sine of an angle in degrees
+     */
+    public static double sin(double degrees) {
+        double d = degrees % 360;
+        if (d < 0) d += 360;
+        
+        if (d <= 90) return quarterSin(d);
+        if (d <= 180) return quarterSin(180 - d);
+        if (d <= 270) return -quarterSin(d - 180);
+        return -quarterSin(360 - d);
+    }
+    
+    /**
+     * Cosine of an angle in degrees
+     */
+    public static double cos(double degrees) {
+        return sin(degrees + 90);
+    }
+    
+    /**
+     * Tangent of an angle in degrees
+     */
+    public static double tan(double degrees) {
+        return sin(degrees) / cos(degrees);
+    }
+    
+    /**
+     * Arctangent in degrees
+     */
+    public static double atan(double value) {
+        if (value != value) return value; // NaN
+        if (value < 0) return -atan(-value);
+        if (value <= 1) return interpolate(ATAN, value * ATAN_STEPS, ATAN_STEPS);
+        return 90 - interpolate(ATAN, ATAN_STEPS / value, ATAN_STEPS);
+    }
+    
+    /**
+     * Arcsine in degrees, NaN outside [-1, 1]
+     */
+    public static double asin(double value) {
+        if (value > 1 || value < -1) return Double.NaN;
+        if (value == 1) return 90;
+        if (value == -1) return -90;
+        return atan(value / Math.sqrt(1 - value * value));
+    }
+    
+    /**
+     * Arccosine in degrees, NaN outside [-1, 1]
+     */
+    public static double acos(double value) {
+        return 90 - asin(value);
+    }
+    
+    /**
+     * Sine for 0 <= degrees <= 90
+     */
+    private static double quarterSin(double degrees) {
+        return interpolate(SIN, degrees, 90);
+    }
+    
+    /**
+     * Linear interpolation in a table at a fractional index in [0, last]
+     */
+    private static double interpolate(float[] table, double index, int last) {
+        int i = (int) index;
+        if (i >= last) return table[last];
+        double fraction = index - i;
+        return table[i] + (table[i + 1] - table[i]) * fraction;
+    }
+}
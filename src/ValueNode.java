@@ -0,0 +1,64 @@
+/**
+ * ValueNode - compiled NEPO value block
+ * 
+ * Value blocks are translated once at load time into a tree of nodes with a
+ * fixed result type. Evaluation works on primitives, so numeric and boolean
+ * expressions run without string comparisons, XML lookups or boxing.
+ */
+public abstract class ValueNode {
+    
+    // Result types
+    public static final int TYPE_NUMBER = 0;
+    public static final int TYPE_BOOLEAN = 1;
+    public static final int TYPE_OBJECT = 2;   // Strings, colours and other values
+    
+    /**
+     * Get the result type of this node (TYPE_NUMBER, TYPE_BOOLEAN or TYPE_OBJECT)
+     */
+    public abstract int getType();
+    
+    /**
+     * Evaluate as number - only meaningful for TYPE_NUMBER nodes
+     */
+    public double evalNumber(NepoBlockExecutor executor) {
+        return 0;
+    }
+    
+    /**
+     * Evaluate as Q16.16 fixed-point number (fixed-point mode only).
+     * The default converts evalNumber, i.e. falls back to double; nodes
+     * with an integer implementation override it together with isFixedPoint.
+     * 
+     * @throws ArithmeticException FixedPoint.OVERFLOW if the value does not fit
+     */
+    public int evalFixed(NepoBlockExecutor executor) {
+        return FixedPoint.fromDouble(evalNumber(executor));
+    }
+    
+    /**
+     * Whether evalFixed is at least as cheap as evalNumber
+     */
+    public boolean isFixedPoint() {
+        return false;
+    }
+    
+    /**
+     * Evaluate as boolean - only meaningful for TYPE_BOOLEAN nodes
+     */
+    public boolean evalBoolean(NepoBlockExecutor executor) {
+        return false;
+    }
+    
+    /**
+     * Evaluate as object. Primitive results are boxed, so only use this
+     * where the type is not known at load time.
+     */
+    public Object evalObject(NepoBlockExecutor executor) {
+        if (getType() == TYPE_NUMBER) {
+            return Double.valueOf(evalNumber(executor));
+        } else if (getType() == TYPE_BOOLEAN) {
+            return Boolean.valueOf(evalBoolean(executor));
+        }
+        return null;
+    }
+}
@@ -0,0 +1,20 @@
+/**
+ * Storage for NEPO program variables
+ * 
+ * Variable names are resolved to slots when the program is compiled, so a
+ * variables_get or variables_set is a plain array access at runtime - no
+ * hashing, string comparison or boxing inside loops. Each datatype has its
+ * own primitive array.
+ */
+public class VariableStore {
+    
+    public final double[] numbers;
+    public final boolean[] booleans;
+    public final Object[] objects;   // String, Colour and other datatypes
+    
+    public VariableStore(int numberCount, int booleanCount, int objectCount) {
+        numbers = new double[numberCount];
+        booleans = new boolean[booleanCount];
+        objects = new Object[objectCount];
+    }
+}
@@ -0,0 +1,13 @@
+/**
+ * Receives the hardware interaction log of MockHardware line by line.
+ * Lets tests check the log while the program runs instead of after it.
+ */
+public interface LogListener {
+    
+    /**
+     * Called for each log line in the order the interactions happen.
+     * 
+     * @param line Log line, without line terminator
+     */
+    void logged(String line);
+}
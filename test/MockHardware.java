@@ -9,10 +9,14 @@ import java.util.*;
  */
 public class MockHardware implements IHardware {
     
-    private List<String> log = new ArrayList<>();
-    private Map<String, MockMotor> motors = new HashMap<>();
-    private Map<String, MockSensor> sensors = new HashMap<>();
+    // Synchronized: a background SensorSampler reads sensors concurrently
+    private List<String> log = Collections.synchronizedList(new ArrayList<String>());
+    private Map<String, MockMotor> motors = Collections.synchronizedMap(new HashMap<String, MockMotor>());
+    private Map<String, MockSensor> sensors = Collections.synchronizedMap(new HashMap<String, MockSensor>());
     private RobotConfiguration config;
+    private long clock = 0; // Virtual time in ms, advanced by delay()
+    private volatile LogListener logListener = null; // Receives the log instead of the list if set
+    private boolean simulatedMotion = false; // Rotations take time on the virtual clock
     
     /**
      * Create MockHardware with robot configuration for validation.
@@ -25,22 +29,22 @@ public class MockHardware implements IHardware {
 
     @Override
     public void clearDisplay() {
-        log.add("clearDisplay()");
+        record("clearDisplay()");
     }
     
     @Override
     public void displayText(String text, int x, int y) {
-        log.add("displayText('" + text + "', " + x + ", " + y + ")");
+        record("displayText('" + text + "', " + x + ", " + y + ")");
     }
     
     @Override
     public void refreshDisplay() {
-        log.add("refreshDisplay()");
+        record("refreshDisplay()");
     }
 
     @Override
-    public IMotor getMotor(String port) {
-        log.add("getMotor('" + port + "')");
+    public synchronized IMotor getMotor(String port) {
+        record("getMotor('" + port + "')");
         
         // Validate motor is configured
         if (config != null && !config.hasMotor(port)) {
@@ -55,11 +59,18 @@ public class MockHardware implements IHardware {
     }
     
     @Override
-    public ISensor getSensor(String port, String type) {
-        log.add("getSensor('" + port + "', '" + type + "')");
+    public synchronized ISensor getSensor(String port, String type) {
+        record("getSensor('" + port + "', '" + type + "')");
         
-        // Validate sensor is configured
-        if (config != null && !config.hasSensor(port)) {
+        // Validate sensor is configured - encoders belong to motors, timers and keys to the brick
+        if (SensorTypes.ENCODER.equals(type)) {
+            if (config != null && !config.hasMotor(port)) {
+                throw new IllegalArgumentException("Motor not configured on port: " + port + 
+                    ". Available motor ports: [" + this.getMotorPortsList() + "]");
+            }
+        } else if (SensorTypes.TIMER.equals(type) || SensorTypes.KEY.equals(type)) {
+            // Always available
+        } else if (config != null && !config.hasSensor(port)) {
             throw new IllegalArgumentException("Sensor not configured on port: " + port + 
                 ". Available sensor ports: [" + this.getSensorPortsList() + "]");
         }
@@ -107,38 +118,77 @@ public class MockHardware implements IHardware {
 
     @Override
     public void playTone(int frequency, int duration) {
-        log.add("playTone(" + frequency + ", " + duration + ")");
+        record("playTone(" + frequency + ", " + duration + ")");
     }
 
     @Override
     public void waitForButtonPress() {
-        log.add("waitForButtonPress()");
+        record("waitForButtonPress()");
         // Simulate immediate button press for testing
     }
     
     @Override
     public int getButtonPress() {
-        log.add("getButtonPress() -> 1");
+        record("getButtonPress() -> 1");
         return 1; // Simulate button press
     }
     
     @Override
     public void delay(int milliseconds) {
-        log.add("delay(" + milliseconds + ")");
-        // No actual delay in tests
+        record("delay(" + milliseconds + ")");
+        // No actual delay in tests, only the virtual clock advances
+        clock += milliseconds;
+    }
+    
+    @Override
+    public long currentTimeMillis() {
+        return clock;
     }
 
     // Test helper methods
-    public List<String> getLog() { return new ArrayList<>(log); }
+    
+    /**
+     * Let rotate() take time on the virtual clock: |degrees| / speed seconds.
+     * The motor reports isMoving() until delay() has advanced the clock that
+     * far or it is stopped. Off by default: motions complete instantly.
+     */
+    public void setSimulatedMotion(boolean simulatedMotion) {
+        this.simulatedMotion = simulatedMotion;
+    }
+    
+    public List<String> getLog() {
+        synchronized (log) {
+            return new ArrayList<>(log);
+        }
+    }
 
     public void log(String line) {
-        log.add(line);
+        record(line);
     }
     
     public void clearLog() {
         log.clear();
     }
     
+    /**
+     * Send log lines to a listener as they are produced instead of keeping them.
+     * While a listener is set, getLog() only returns the lines logged before.
+     * 
+     * @param listener Listener for the log lines, null to keep them in the log again
+     */
+    public void setLogListener(LogListener listener) {
+        this.logListener = listener;
+    }
+    
+    private void record(String line) {
+        LogListener listener = logListener;
+        if (listener != null) {
+            listener.logged(line);
+        } else {
+            log.add(line);
+        }
+    }
+    
     /**
      * Get access to the sensors map for dynamic scenarios.
      */
@@ -158,8 +208,8 @@ public class MockHardware implements IHardware {
      * Creates sensor if it doesn't exist and sets the appropriate value.
      * 
      * @param port Sensor port
-     * @param type Sensor type (TOUCH, LIGHT, ULTRASONIC)
-     * @param value Value to set (Boolean for touch, Double for others)
+     * @param type Sensor type (see SensorTypes)
+     * @param value Value to set (Boolean for touch and keys, Double for others)
      */
     public void setSensorValue(String port, String type, Object value) {
         ISensor sensor = getSensor(port, type);
@@ -168,13 +218,19 @@ public class MockHardware implements IHardware {
             
             if ("TOUCH".equals(type) && value instanceof Boolean) {
                 mockSensor.setPressed(((Boolean) value).booleanValue());
-                log.add("[Scenario] TouchSensor(" + port + ").setPressed(" + value + ")");
+                record("[Scenario] TouchSensor(" + port + ").setPressed(" + value + ")");
             } else if ("LIGHT".equals(type) && value instanceof Double) {
                 mockSensor.setLightValue(((Double) value).doubleValue());
-                log.add("[Scenario] LightSensor(" + port + ").setValue(" + value + ")");
+                record("[Scenario] LightSensor(" + port + ").setValue(" + value + ")");
             } else if ("ULTRASONIC".equals(type) && value instanceof Double) {
                 mockSensor.setDistance(((Double) value).doubleValue());
-                log.add("[Scenario] DistanceSensor(" + port + ").setDistance(" + value + ")");
+                record("[Scenario] DistanceSensor(" + port + ").setDistance(" + value + ")");
+            } else if ("KEY".equals(type) && value instanceof Boolean) {
+                mockSensor.setPressed(((Boolean) value).booleanValue());
+                record("[Scenario] Key(" + port + ").setPressed(" + value + ")");
+            } else if (value instanceof Double) {
+                mockSensor.setValue(((Double) value).doubleValue());
+                record("[Scenario] Sensor(" + port + ", " + type + ").setValue(" + value + ")");
             }
         }
     }
@@ -207,6 +263,7 @@ public class MockHardware implements IHardware {
         private final String port;
         private int speed = 0;
         private int tachoCount = 0;
+        private long movingUntil = 0; // Virtual time the running rotation ends
         
         public MockMotor(String port) {
             this.port = port;
@@ -215,49 +272,81 @@ public class MockHardware implements IHardware {
         @Override
         public void setSpeed(int speed) {
             this.speed = speed;
-            log.add("Motor " + port + ".setSpeed(" + speed + ")");
+            record("Motor " + port + ".setSpeed(" + speed + ")");
         }
         
         @Override
         public void rotate(int degrees) {
             tachoCount += degrees;
-            log.add("Motor " + port + ".rotate(" + degrees + ")");
+            record("Motor " + port + ".rotate(" + degrees + ")");
+            if (simulatedMotion) {
+                clock += rotationTime(degrees);
+            }
+        }
+        
+        @Override
+        public void rotate(int degrees, boolean immediateReturn) {
+            // Without simulated motion, isMoving() is always false afterwards
+            tachoCount += degrees;
+            record("Motor " + port + ".rotate(" + degrees + ", " + immediateReturn + ")");
+            if (simulatedMotion) {
+                movingUntil = clock + rotationTime(degrees);
+            }
+        }
+        
+        @Override
+        public boolean isMoving() {
+            boolean moving = clock < movingUntil;
+            record("Motor " + port + ".isMoving() -> " + moving);
+            return moving;
+        }
+        
+        private long rotationTime(int degrees) {
+            return speed > 0 ? Math.abs(degrees) * 1000L / speed : 0;
+        }
+        
+        @Override
+        public void waitComplete() {
+            record("Motor " + port + ".waitComplete()");
         }
         
         @Override
         public void forward() {
-            log.add("Motor " + port + ".forward()");
+            record("Motor " + port + ".forward()");
         }
         
         @Override
         public void backward() {
-            log.add("Motor " + port + ".backward()");
+            record("Motor " + port + ".backward()");
         }
         
         @Override
         public void stop() {
-            log.add("Motor " + port + ".stop()");
+            movingUntil = 0;
+            record("Motor " + port + ".stop()");
         }
         
         @Override
         public void stop(boolean immediateReturn) {
-            log.add("Motor " + port + ".stop(" + immediateReturn + ")");
+            movingUntil = 0;
+            record("Motor " + port + ".stop(" + immediateReturn + ")");
         }
         
         @Override
         public void flt(boolean immediateReturn) {
-            log.add("Motor " + port + ".flt(" + immediateReturn + ")");
+            movingUntil = 0;
+            record("Motor " + port + ".flt(" + immediateReturn + ")");
         }
 
         @Override
         public int getSpeed() {
-            log.add("Motor " + port + ".getSpeed() -> " + speed);
+            record("Motor " + port + ".getSpeed() -> " + speed);
             return speed;
         }
         
         @Override
         public int getTachoCount() {
-            log.add("Motor " + port + ".getTachoCount() -> " + tachoCount);
+            record("Motor " + port + ".getTachoCount() -> " + tachoCount);
             return tachoCount;
         }
     }
@@ -268,9 +357,12 @@ public class MockHardware implements IHardware {
     protected class MockSensor implements ISensor {
         private final String port;
         private final String type;
-        private boolean pressed = false;
-        private double distance = 50.0;
-        private double lightValue = 75.0;
+        private volatile boolean pressed = false;
+        private volatile double distance = 50.0;
+        private volatile double lightValue = 75.0;
+        private volatile double value = 0.0;        // Other numeric types
+        private volatile long resetTime = 0;        // Timer
+        private volatile int resetTachoCount = 0;   // Encoder
         
         public MockSensor(String port, String type) {
             this.port = port;
@@ -279,19 +371,19 @@ public class MockHardware implements IHardware {
         
         @Override
         public String getType() {
-            log.add("Sensor " + port + " (" + type + ").getType() -> '" + type + "'");
+            record("Sensor " + port + " (" + type + ").getType() -> '" + type + "'");
             return type;
         }
 
         @Override
         public boolean isPressed() {
-            log.add("Sensor " + port + " (" + type + ").isPressed() -> " + pressed);
+            record("Sensor " + port + " (" + type + ").isPressed() -> " + pressed);
             return pressed;
         }
         
         @Override
         public double getDistance() {
-            log.add("Sensor " + port + " (" + type + ").getDistance() -> " + distance);
+            record("Sensor " + port + " (" + type + ").getDistance() -> " + distance);
             return distance;
         }
 
@@ -304,16 +396,35 @@ public class MockHardware implements IHardware {
                 value = getDistance();
             } else if ("LIGHT".equals(type)) {
                 value = lightValue;
+            } else if ("TIMER".equals(type)) {
+                value = clock - resetTime;
+            } else if ("ENCODER".equals(type)) {
+                MockMotor motor = motors.get(port);
+                value = (motor != null ? motor.tachoCount : 0) - resetTachoCount;
             } else {
-                value = 0.0;
+                value = this.value;
             }
-            log.add("Sensor " + port + " (" + type + ").getValue() -> " + value);
+            record("Sensor " + port + " (" + type + ").getValue() -> " + value);
             return value;
         }
+        
+        @Override
+        public void reset() {
+            record("Sensor " + port + " (" + type + ").reset()");
+            resetTime = clock;
+            MockMotor motor = motors.get(port);
+            resetTachoCount = motor != null ? motor.tachoCount : 0;
+        }
+        
+        @Override
+        public int getLastSampleLatency() {
+            return 0;
+        }
 
         // Test helper methods
         public void setPressed(boolean pressed) { this.pressed = pressed; }
         public void setDistance(double distance) { this.distance = distance; }
         public void setLightValue(double lightValue) { this.lightValue = lightValue; }
+        public void setValue(double value) { this.value = value; }
     }
 }
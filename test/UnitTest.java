@@ -0,0 +1,273 @@
+import java.util.*;
+
+/**
+ * Base class of the unit tests
+ *
+ * Counts checks and prints the summary, and builds NEPO XML fixtures as
+ * strings, so each test only spells out the blocks it exercises. Every unit
+ * test runs in its own JVM, so the counters are static.
+ *
+ * Example usage:
+ *   public class TestSomething extends UnitTest {
+ *       public static void main(String[] args) {
+ *           System.out.println("=== Testing something ===\n");
+ *           testFeature();
+ *           finish("something");
+ *       }
+ *   }
+ */
+public class UnitTest {
+    private static int totalTests = 0;
+    private static int failedTests = 0;
+
+    /**
+     * Count and print the result of one check
+     */
+    protected static void check(String name, boolean passed) {
+        totalTests++;
+        if (!passed) failedTests++;
+        System.out.println("  " + name + " " + (passed ? "✓" : "✗"));
+    }
+
+    /**
+     * Print the summary and exit with 0 if every check passed, 1 otherwise
+     *
+     * @param suite What was tested, e.g. "math" for "All math tests completed"
+     */
+    protected static void finish(String suite) {
+        System.out.println("=== All " + suite + " tests completed ===");
+
+        if (failedTests == 0) {
+            System.out.println("🎉 All tests passed!");
+            System.exit(0);
+        } else {
+            System.out.println("❌ " + failedTests + " out of " + totalTests + " tests failed");
+            System.exit(1);
+        }
+    }
+
+    // Programs and executors
+
+    protected static IXMLElement parse(String xml) {
+        return new ShallowXMLParser().parseXML(xml);
+    }
+
+    /**
+     * Compile a single value block
+     */
+    protected static ValueNode compile(String xml) {
+        return new ProgramCompiler().compileValue(parse(xml));
+    }
+
+    /**
+     * Program with a single robControls_start task
+     */
+    protected static String program(String statements) {
+        return programOf(instance("robControls_start", statements));
+    }
+
+    /**
+     * Program with the given task instances and procedure definitions
+     */
+    protected static String programOf(String instances) {
+        return "<program><block_set>" + instances + "</block_set></program>";
+    }
+
+    /**
+     * Task instance, or a procedure definition if startType is null
+     */
+    protected static String instance(String startType, String statements) {
+        String start = startType != null ? "<block type=\"" + startType + "\"></block>" : "";
+        return "<instance>" + start + statements + "</instance>";
+    }
+
+    /**
+     * Configure the differential drive on motors A and C
+     */
+    protected static void configureDrive(NepoBlockExecutor executor) {
+        executor.getConfiguration().addMotor("A", new RobotConfiguration.MotorConfig("A"));
+        executor.getConfiguration().addMotor("C", new RobotConfiguration.MotorConfig("C"));
+    }
+
+    /**
+     * Run a single-task program on new mock hardware with the drive configured
+     *
+     * @return The hardware with the log of the run
+     */
+    protected static MockHardware run(String statements) {
+        MockHardware hardware = new MockHardware(null);
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware);
+        configureDrive(executor);
+        executor.executeBlock(parse(program(statements)));
+        return hardware;
+    }
+
+    /**
+     * Number of log entries equal to the given one
+     */
+    protected static int count(MockHardware hardware, String entry) {
+        int count = 0;
+        List<String> log = hardware.getLog();
+        for (int i = 0; i < log.size(); i++) {
+            if (log.get(i).equals(entry)) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Number of log entries starting with a prefix, e.g. a sensor read
+     * whatever value it returned
+     */
+    protected static int countStartingWith(MockHardware hardware, String prefix) {
+        int count = 0;
+        List<String> log = hardware.getLog();
+        for (int i = 0; i < log.size(); i++) {
+            if (log.get(i).startsWith(prefix)) count++;
+        }
+        return count;
+    }
+
+    // Values
+
+    /**
+     * math_number, written without a fraction when the value is whole
+     */
+    protected static String number(double value) {
+        String text = value == Math.rint(value) && Math.abs(value) < 1e15
+            ? String.valueOf((long) value) : String.valueOf(value);
+        return "<block type=\"math_number\"><field name=\"NUM\">" + text + "</field></block>";
+    }
+
+    protected static String bool(boolean value) {
+        return "<block type=\"logic_boolean\"><field name=\"BOOL\">" + (value ? "TRUE" : "FALSE") + "</field></block>";
+    }
+
+    /**
+     * logic_compare with op EQ, NEQ, LT, LTE, GT or GTE
+     */
+    protected static String compare(String op, String a, String b) {
+        return "<block type=\"logic_compare\"><field name=\"OP\">" + op + "</field>"
+            + "<value name=\"A\">" + a + "</value><value name=\"B\">" + b + "</value></block>";
+    }
+
+    protected static String negate(String value) {
+        return "<block type=\"logic_negate\"><value name=\"BOOL\">" + value + "</value></block>";
+    }
+
+    /**
+     * logic_operation with op AND or OR
+     */
+    protected static String logicOperation(String op, String a, String b) {
+        return "<block type=\"logic_operation\"><field name=\"OP\">" + op + "</field>"
+            + "<value name=\"A\">" + a + "</value><value name=\"B\">" + b + "</value></block>";
+    }
+
+    /**
+     * math_arithmetic with op ADD, MINUS, MULTIPLY, DIVIDE or POWER
+     */
+    protected static String arithmetic(String op, String a, String b) {
+        return "<block type=\"math_arithmetic\"><field name=\"OP\">" + op + "</field>"
+            + "<value name=\"A\">" + a + "</value><value name=\"B\">" + b + "</value></block>";
+    }
+
+    /**
+     * Number variable
+     */
+    protected static String get(String name) {
+        return "<block type=\"variables_get\"><mutation datatype=\"Number\"></mutation>"
+            + "<field name=\"VAR\">" + name + "</field></block>";
+    }
+
+    protected static String set(String name, String value) {
+        return "<block type=\"variables_set\"><mutation datatype=\"Number\"></mutation>"
+            + "<field name=\"VAR\">" + name + "</field><value name=\"VALUE\">" + value + "</value></block>";
+    }
+
+    /**
+     * Sensor sample block, e.g. sensor("ultrasonic", "DISTANCE", "4")
+     */
+    protected static String sensor(String kind, String mode, String port) {
+        return "<block type=\"robSensors_" + kind + "_getSample\"><mutation mode=\"" + mode + "\"></mutation>"
+            + "<field name=\"MODE\">" + mode + "</field><field name=\"SENSORPORT\">" + port + "</field></block>";
+    }
+
+    protected static String light(String port) {
+        return sensor("light", "LIGHT", port);
+    }
+
+    protected static String touch(String port) {
+        return sensor("touch", "PRESSED", port);
+    }
+
+    // Statements
+
+    protected static String drive(String power) {
+        return "<block type=\"robActions_motorDiff_on\"><field name=\"DIRECTION\">FOREWARD</field>"
+            + "<value name=\"POWER\">" + power + "</value></block>";
+    }
+
+    /**
+     * Turn left on the spot
+     */
+    protected static String turn(int power, int degrees) {
+        return "<block type=\"robActions_motorDiff_turn_for\"><field name=\"DIRECTION\">LEFT</field>"
+            + "<value name=\"POWER\">" + number(power) + "</value>"
+            + "<value name=\"DEGREE\">" + number(degrees) + "</value></block>";
+    }
+
+    protected static String timerReset(String port) {
+        return "<block type=\"robSensors_timer_reset\"><field name=\"SENSORPORT\">" + port + "</field></block>";
+    }
+
+    protected static String waitFor(String condition) {
+        return "<block type=\"robControls_wait\"><value name=\"WAIT0\">" + condition + "</value></block>";
+    }
+
+    protected static String repeat(int times, String body) {
+        return "<block type=\"controls_repeat_ext\"><value name=\"TIMES\">" + number(times) + "</value>"
+            + "<statement name=\"DO\">" + body + "</statement></block>";
+    }
+
+    protected static String forLoop(String var, int from, int to, int by, String body) {
+        return "<block type=\"controls_for\"><field name=\"VAR\">" + var + "</field>"
+            + "<value name=\"FROM\">" + number(from) + "</value>"
+            + "<value name=\"TO\">" + number(to) + "</value>"
+            + "<value name=\"BY\">" + number(by) + "</value>"
+            + "<statement name=\"DO\">" + body + "</statement></block>";
+    }
+
+    /**
+     * controls_whileUntil with mode WHILE or UNTIL
+     */
+    protected static String whileUntil(String mode, String condition, String body) {
+        return "<block type=\"controls_whileUntil\"><field name=\"MODE\">" + mode + "</field>"
+            + "<value name=\"BOOL\">" + condition + "</value>"
+            + "<statement name=\"DO\">" + body + "</statement></block>";
+    }
+
+    protected static String loopForever(String body) {
+        return "<block type=\"robControls_loopForever\"><statement name=\"DO\">" + body + "</statement></block>";
+    }
+
+    /**
+     * if/else if/else - pass null for a missing else-if or else branch
+     */
+    protected static String ifElse(String if0, String do0, String if1, String do1, String elseBody) {
+        String xml = "<block type=\"controls_if\">"
+            + "<value name=\"IF0\">" + if0 + "</value><statement name=\"DO0\">" + do0 + "</statement>";
+        if (if1 != null) {
+            xml += "<value name=\"IF1\">" + if1 + "</value><statement name=\"DO1\">" + do1 + "</statement>";
+        }
+        if (elseBody != null) {
+            xml += "<statement name=\"ELSE\">" + elseBody + "</statement>";
+        }
+        return xml + "</block>";
+    }
+
+    /**
+     * controls_flow_statements with BREAK or CONTINUE
+     */
+    protected static String flow(String flow) {
+        return "<block type=\"controls_flow_statements\"><field name=\"FLOW\">" + flow + "</field></block>";
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Benchmark for the fixed-point mode - accuracy and speed against double
+ * 
+ * Each expression is compiled twice, once per mode, and evaluated on the
+ * same random variable values. Reports the maximum absolute error of the
+ * fixed-point result and the time per evaluation. On a PC double math runs
+ * on the FPU, so only the NXT shows the real gain; the accuracy numbers are
+ * the same on both.
+ */
+public class BenchmarkFixedPoint {
+    
+    private static final int SAMPLES = 100000;
+    private static final int ITERATIONS = 2000000;
+    
+    private static final String[][] EXPRESSIONS = {
+        { "x * 7.2", arithmetic("MULTIPLY", get("x"), number(7.2)) },
+        { "x * y + z - 3", arithmetic("MINUS", arithmetic("ADD",
+            arithmetic("MULTIPLY", get("x"), get("y")), get("z")), number(3)) },
+        { "constrain(x / y, -100, 100)", "<block type=\"math_constrain\"><value name=\"VALUE\">"
+            + arithmetic("DIVIDE", get("x"), get("y")) + "</value>"
+            + "<value name=\"LOW\">" + number(-100) + "</value>"
+            + "<value name=\"HIGH\">" + number(100) + "</value></block>" },
+        { "(x - y) % 10", "<block type=\"math_modulo\"><value name=\"DIVIDEND\">"
+            + arithmetic("MINUS", get("x"), get("y")) + "</value>"
+            + "<value name=\"DIVISOR\">" + number(10) + "</value></block>" },
+    };
+    
+    // Keeps the JIT from dropping the benchmark loops
+    private static double sink = 0;
+    
+    public static void main(String[] args) {
+        System.out.println("=== Fixed-Point Benchmark ===");
+        System.out.println("Inputs x, y, z uniformly in [-100, 100]");
+        System.out.println();
+        
+        NepoBlockExecutor executor = new NepoBlockExecutor(new MockHardware(null));
+        executor.variables = new VariableStore(3, 0, 0);
+        
+        for (int i = 0; i < EXPRESSIONS.length; i++) {
+            ValueNode doubleNode = compile(EXPRESSIONS[i][1], false);
+            ValueNode fixedNode = compile(EXPRESSIONS[i][1], true);
+            
+            java.util.Random random = new java.util.Random(i);
+            double maxError = 0;
+            for (int s = 0; s < SAMPLES; s++) {
+                setInputs(executor, random);
+                double expected = doubleNode.evalNumber(executor);
+                double actual = fixedNode.evalNumber(executor);
+                maxError = Math.max(maxError, Math.abs(actual - expected));
+            }
+            
+            long doubleTime = time(doubleNode, executor);
+            long fixedTime = time(fixedNode, executor);
+            doubleTime = time(doubleNode, executor);
+            fixedTime = time(fixedNode, executor);
+            
+            System.out.println(EXPRESSIONS[i][0] + ":");
+            System.out.println("  max abs error: " + maxError);
+            System.out.println("  double " + nsPerCall(doubleTime) + " ns, fixed " + nsPerCall(fixedTime)
+                + " ns, speedup " + Math.round((double) doubleTime / fixedTime * 100) / 100.0 + "x");
+        }
+        
+        System.out.println();
+        System.out.println("Overflow fallbacks: " + executor.getFixedPointFallbacks());
+        if (sink == 42) System.out.println();
+    }
+    
+    private static void setInputs(NepoBlockExecutor executor, java.util.Random random) {
+        for (int v = 0; v < 3; v++) {
+            double value = random.nextDouble() * 200 - 100;
+            // Keep divisors away from 0, where x / y leaves the Q16.16 range
+            executor.variables.numbers[v] = Math.abs(value) < 0.01 ? 0.01 : value;
+        }
+    }
+    
+    private static long time(ValueNode node, NepoBlockExecutor executor) {
+        double sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sum += node.evalNumber(executor);
+        }
+        long elapsed = System.nanoTime() - start;
+        sink += sum;
+        return elapsed;
+    }
+    
+    private static ValueNode compile(String xml, boolean fixedPoint) {
+        // Same declaration order in both modes, so x, y, z get slots 0, 1, 2
+        ProgramCompiler compiler = new ProgramCompiler();
+        compiler.setFixedPoint(fixedPoint);
+        for (int i = 0; i < 3; i++) {
+            compiler.compileValue(new ShallowXMLParser().parseXML(get(String.valueOf((char) ('x' + i)))));
+        }
+        return compiler.compileValue(new ShallowXMLParser().parseXML(xml));
+    }
+    
+    private static double nsPerCall(long nanos) {
+        return Math.round((double) nanos / ITERATIONS * 100) / 100.0;
+    }
+    
+    private static String number(double value) {
+        return "<block type=\"math_number\"><field name=\"NUM\">" + value + "</field></block>";
+    }
+    
+    private static String get(String name) {
+        return "<block type=\"variables_get\"><mutation datatype=\"Number\"></mutation>"
+            + "<field name=\"VAR\">" + name + "</field></block>";
+    }
+    
+    private static String arithmetic(String op, String a, String b) {
+        return "<block type=\"math_arithmetic\"><field name=\"OP\">" + op + "</field>"
+            + "<value name=\"A\">" + a + "</value><value name=\"B\">" + b + "</value></block>";
+    }
+}
@@ -0,0 +1,86 @@
+import java.lang.management.ManagementFactory;
+import java.util.Vector;
+
+/**
+ * Benchmark for the XML parser - bytes allocated and time per parse
+ *
+ * Parses the integration test programs and walks the whole element tree,
+ * reading every tag name and type attribute the way the compiler does, so
+ * all elements are materialized. Reports the heap allocated per parse and
+ * per element, measured with the JVM's per-thread allocation counter,
+ * for each parse policy, with the parser's work counters of one parse.
+ */
+public class BenchmarkParser {
+
+    private static final String[] PROGRAMS = {
+        "test/integration/cases/programm1.xml",
+        "test/integration/cases/variables_test.xml"
+    };
+
+    private static final int[] POLICIES = {
+        ShallowXMLParser.LAZY, ShallowXMLParser.EAGER, ShallowXMLParser.EAGER_FOR_PROGRAM_SUBTREE
+    };
+    private static final String[] POLICY_NAMES = { "LAZY", "EAGER", "EAGER_FOR_PROGRAM_SUBTREE" };
+
+    private static final int WARMUP = 2000;
+    private static final int ITERATIONS = 2000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== XML Parser Benchmark ===");
+        System.out.println(ITERATIONS + " parses per program, whole tree materialized");
+        System.out.println();
+
+        for (int p = 0; p < PROGRAMS.length; p++) {
+            String xml = new String(java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(PROGRAMS[p])), "UTF-8");
+            System.out.println(PROGRAMS[p] + " (" + xml.length() + " chars)");
+
+            for (int n = 0; n < POLICIES.length; n++) {
+                ShallowXMLParser parser = new ShallowXMLParser();
+                parser.setParsePolicy(POLICIES[n]);
+
+                int elements = 0;
+                for (int i = 0; i < WARMUP; i++) {
+                    elements = walk(parser.parseXML(xml));
+                }
+                parser.getStats().reset();
+                walk(parser.parseXML(xml));
+                String stats = parser.getStats().toString();
+
+                long allocated = allocatedBytes();
+                long start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    walk(parser.parseXML(xml));
+                }
+                long nanos = System.nanoTime() - start;
+                allocated = allocatedBytes() - allocated;
+
+                System.out.println("  " + POLICY_NAMES[n]);
+                System.out.println("    Allocated: " + (allocated / ITERATIONS) + " bytes/parse, "
+                    + (allocated / ITERATIONS / elements) + " bytes/element");
+                System.out.println("    Time:      " + (nanos / ITERATIONS / 1000) + " us/parse");
+                System.out.println("    Work:      " + stats);
+            }
+        }
+    }
+
+    /**
+     * Materialize the tree below an element, returning its number of elements
+     */
+    private static int walk(IXMLElement element) {
+        element.getTagName();
+        element.getAttribute("type");
+        Vector<IXMLElement> children = element.getAllChildren();
+        int count = 1;
+        for (int i = 0; i < children.size(); i++) {
+            count += walk(children.elementAt(i));
+        }
+        return count;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Benchmark for the block profiler - cost per statement with and without it
+ *
+ * Runs a counting loop of simple variable statements, once with profiling
+ * disabled and once enabled, and reports the time per executed statement.
+ * Disabled, the executor only pays one null check per statement.
+ */
+public class BenchmarkProfiler {
+
+    private static final int ITERATIONS = 1000000;
+    private static final int RUNS = 3;
+
+    // Four statements per iteration: the body, counter check, decrement and jump
+    private static final int STATEMENTS_PER_ITERATION = 4;
+
+    private static final String PROGRAM = "<program><block_set><instance>"
+        + "<block type=\"robControls_start\" id=\"start\"></block>"
+        + "<block type=\"controls_repeat_ext\" id=\"repeat\"><value name=\"TIMES\">" + number(ITERATIONS) + "</value>"
+        + "<statement name=\"DO\"><block type=\"variables_set\" id=\"count\"><mutation datatype=\"Number\"></mutation>"
+        + "<field name=\"VAR\">n</field><value name=\"VALUE\"><block type=\"math_arithmetic\">"
+        + "<field name=\"OP\">ADD</field><value name=\"A\"><block type=\"variables_get\">"
+        + "<mutation datatype=\"Number\"></mutation><field name=\"VAR\">n</field></block></value>"
+        + "<value name=\"B\">" + number(1) + "</value></block></value></block></statement></block>"
+        + "</instance></block_set></program>";
+
+    public static void main(String[] args) {
+        System.out.println("=== Block Profiler Benchmark ===");
+        System.out.println(ITERATIONS + " loop iterations, " + STATEMENTS_PER_ITERATION + " statements each");
+        System.out.println();
+
+        IXMLElement program = new ShallowXMLParser().parseXML(PROGRAM);
+        long disabled = Long.MAX_VALUE;
+        long enabled = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            disabled = Math.min(disabled, time(program, null));
+            enabled = Math.min(enabled, time(program, new BlockProfiler(null)));
+        }
+
+        System.out.println("Profiler disabled: " + nsPerStatement(disabled) + " ns/statement");
+        System.out.println("Profiler enabled:  " + nsPerStatement(enabled) + " ns/statement");
+        System.out.println("Overhead enabled:  " + nsPerStatement(enabled - disabled) + " ns/statement");
+    }
+
+    private static long time(IXMLElement program, BlockProfiler profiler) {
+        NepoBlockExecutor executor = new NepoBlockExecutor(new MockHardware(null));
+        executor.setProfiler(profiler);
+        long start = System.nanoTime();
+        executor.executeBlock(program);
+        return System.nanoTime() - start;
+    }
+
+    private static double nsPerStatement(long nanos) {
+        return Math.round((double) nanos / ITERATIONS / STATEMENTS_PER_ITERATION * 100) / 100.0;
+    }
+
+    private static String number(double value) {
+        return "<block type=\"math_number\"><field name=\"NUM\">" + value + "</field></block>";
+    }
+}
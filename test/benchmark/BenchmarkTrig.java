@@ -0,0 +1,99 @@
+/**
+ * Benchmark for TrigTables - accuracy and speed against java.lang.Math
+ * 
+ * Accuracy is swept over the whole input range in small steps and reported
+ * as the maximum absolute error. Speed is reported as ns per call and the
+ * speedup over Math. On a PC the JIT and a hardware FPU make Math fast, so
+ * the speedup here is a lower bound for the soft-float NXT.
+ */
+public class BenchmarkTrig {
+    
+    private static final int ITERATIONS = 2000000;
+    
+    // Keeps the JIT from dropping the benchmark loops
+    private static double sink = 0;
+    
+    public static void main(String[] args) {
+        System.out.println("=== TrigTables Benchmark ===");
+        System.out.println();
+        
+        System.out.println("Accuracy (max absolute error):");
+        reportAccuracy();
+        System.out.println();
+        
+        System.out.println("Speed (" + ITERATIONS + " calls, after warm-up):");
+        for (int round = 0; round < 2; round++) {
+            boolean print = round == 1;
+            reportSpeed("sin", print);
+            reportSpeed("cos", print);
+            reportSpeed("atan", print);
+            reportSpeed("asin", print);
+        }
+        
+        if (sink == 42) System.out.println();
+    }
+    
+    private static void reportAccuracy() {
+        double sinError = 0, cosError = 0, tanError = 0;
+        for (double d = -720; d <= 720; d += 0.01) {
+            double r = Math.toRadians(d);
+            sinError = Math.max(sinError, Math.abs(TrigTables.sin(d) - Math.sin(r)));
+            cosError = Math.max(cosError, Math.abs(TrigTables.cos(d) - Math.cos(r)));
+            // tan is unbounded near +-90, compare where it is below 10
+            if (Math.abs(Math.tan(r)) < 10) {
+                tanError = Math.max(tanError, Math.abs(TrigTables.tan(d) - Math.tan(r)));
+            }
+        }
+        
+        double atanError = 0;
+        for (double x = -100; x <= 100; x += 0.001) {
+            atanError = Math.max(atanError, Math.abs(TrigTables.atan(x) - Math.toDegrees(Math.atan(x))));
+        }
+        
+        double asinError = 0, acosError = 0;
+        for (double x = -1; x <= 1; x += 0.00001) {
+            asinError = Math.max(asinError, Math.abs(TrigTables.asin(x) - Math.toDegrees(Math.asin(x))));
+            acosError = Math.max(acosError, Math.abs(TrigTables.acos(x) - Math.toDegrees(Math.acos(x))));
+        }
+        
+        System.out.println("  sin:  " + sinError);
+        System.out.println("  cos:  " + cosError);
+        System.out.println("  tan:  " + tanError + " (|tan| < 10)");
+        System.out.println("  atan: " + atanError + " degrees");
+        System.out.println("  asin: " + asinError + " degrees");
+        System.out.println("  acos: " + acosError + " degrees");
+    }
+    
+    private static void reportSpeed(String function, boolean print) {
+        long start = System.nanoTime();
+        double sum = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            double x = (i % 3600) * 0.1;
+            if ("sin".equals(function)) sum += TrigTables.sin(x);
+            else if ("cos".equals(function)) sum += TrigTables.cos(x);
+            else if ("atan".equals(function)) sum += TrigTables.atan(x - 180);
+            else sum += TrigTables.asin(x / 360);
+        }
+        long tableTime = System.nanoTime() - start;
+        
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            double x = (i % 3600) * 0.1;
+            if ("sin".equals(function)) sum += Math.sin(Math.toRadians(x));
+            else if ("cos".equals(function)) sum += Math.cos(Math.toRadians(x));
+            else if ("atan".equals(function)) sum += Math.toDegrees(Math.atan(x - 180));
+            else sum += Math.toDegrees(Math.asin(x / 360));
+        }
+        long mathTime = System.nanoTime() - start;
+        sink += sum;
+        
+        if (print) {
+            System.out.println("  " + function + ": table " + nsPerCall(tableTime) + " ns, Math "
+                + nsPerCall(mathTime) + " ns, speedup " + ((double) mathTime / tableTime) + "x");
+        }
+    }
+    
+    private static double nsPerCall(long nanos) {
+        return Math.round((double) nanos / ITERATIONS * 100) / 100.0;
+    }
+}
@@ -0,0 +1,215 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compares the MockHardware log with a golden file while the program runs.
+ *
+ * Reads the golden file one line at a time and checks each log line against
+ * it as soon as it is logged, so neither the log nor the golden file is held
+ * in memory. On the first divergence it stops the executor and keeps a
+ * context window around it: the matching lines before, and the expected and
+ * actual lines from the divergence on.
+ *
+ * Example usage:
+ *   StreamingGoldenComparator comparator = new StreamingGoldenComparator(goldenFile);
+ *   comparator.attach(mockHardware, executor);
+ *   executor.runProgram(program);
+ *   comparator.finish();
+ *   if (!comparator.matches()) { ... comparator.getContext() ... }
+ */
+public class StreamingGoldenComparator implements LogListener {
+    
+    /** Golden file content of a run without hardware interactions */
+    public static final String NO_INTERACTIONS = "(No hardware interactions)";
+    
+    /** Lines shown before and from the divergence on */
+    public static final int CONTEXT_LINES = 3;
+    
+    private final BufferedReader golden;
+    private final String[] before = new String[CONTEXT_LINES]; // Ring buffer of the last matching lines
+    private final List<String> expectedAfter = new ArrayList<String>();
+    private final List<String> actualAfter = new ArrayList<String>();
+    private TestNepoBlockExecutor executor;
+    private int lineNumber = 0;
+    private int divergenceLine = 0;
+    private IOException error = null;
+    private boolean finished = false;
+    
+    /**
+     * Create a comparator reading the given golden file.
+     *
+     * @param goldenFile Golden file to compare the log with
+     * @throws IOException if the golden file cannot be opened
+     */
+    public StreamingGoldenComparator(File goldenFile) throws IOException {
+        this(new BufferedReader(new FileReader(goldenFile)));
+    }
+    
+    /**
+     * Create a comparator reading the golden content from a reader.
+     *
+     * @param golden Golden content, one log line per line
+     */
+    public StreamingGoldenComparator(BufferedReader golden) {
+        this.golden = golden;
+    }
+    
+    /**
+     * Receive the log of the hardware and stop the executor on the first divergence.
+     *
+     * @param hardware Hardware the program runs on
+     * @param executor Executor to stop, or null to let the program run to its end
+     */
+    public void attach(MockHardware hardware, TestNepoBlockExecutor executor) {
+        this.executor = executor;
+        hardware.setLogListener(this);
+    }
+    
+    /**
+     * Check the next log line against the next golden line.
+     * After a divergence, only collects the actual lines of the context window.
+     */
+    @Override
+    public synchronized void logged(String line) {
+        if (finished) {
+            return;
+        }
+        if (hasDiverged()) {
+            if (actualAfter.size() < CONTEXT_LINES) {
+                actualAfter.add(line);
+            }
+            return;
+        }
+    
+        lineNumber++;
+        String expected = readGolden();
+        if (line.equals(expected)) {
+            before[lineNumber % CONTEXT_LINES] = line;
+        } else {
+            diverge(expected, line);
+        }
+    }
+    
+    /**
+     * Check the end of the log against the end of the golden file and close it.
+     * Call once the program has stopped.
+     *
+     * @throws IOException if the golden file could not be read
+     */
+    public synchronized void finish() throws IOException {
+        if (!finished && !hasDiverged()) {
+            if (lineNumber == 0) {
+                // An empty log is written as a marker line
+                logged(NO_INTERACTIONS);
+            }
+            if (!hasDiverged()) {
+                String expected = readGolden();
+                if (expected != null) {
+                    lineNumber++;
+                    diverge(expected, null);
+                }
+            }
+        }
+        finished = true;
+        try {
+            golden.close();
+        } catch (IOException e) {
+            // Nothing more to read
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+    
+    /**
+     * @return true if the log matched the golden file up to its end
+     */
+    public synchronized boolean matches() {
+        return finished && !hasDiverged() && error == null;
+    }
+    
+    /**
+     * @return true once a log line differed from the golden file
+     */
+    public synchronized boolean hasDiverged() {
+        return divergenceLine > 0;
+    }
+    
+    /**
+     * @return 1-based line number of the first divergence, 0 if none
+     */
+    public synchronized int getDivergenceLine() {
+        return divergenceLine;
+    }
+    
+    /**
+     * @return number of log lines compared so far
+     */
+    public synchronized int getLineCount() {
+        return lineNumber;
+    }
+    
+    /**
+     * Context window around the first divergence, like a unified diff:
+     * "  " matching lines before, "- " expected and "+ " actual lines from the divergence on.
+     * The actual lines end where the run stopped; a line missing at the divergence
+     * is shown as (end of log) or (end of golden file).
+     *
+     * @return Context lines prefixed with their line number, empty if there is no divergence
+     */
+    public synchronized List<String> getContext() {
+        List<String> context = new ArrayList<String>();
+        if (!hasDiverged()) {
+            return context;
+        }
+        int first = Math.max(1, divergenceLine - CONTEXT_LINES);
+        for (int n = first; n < divergenceLine; n++) {
+            context.add(format(' ', n, before[n % CONTEXT_LINES]));
+        }
+        for (int i = 0; i < expectedAfter.size(); i++) {
+            String expected = expectedAfter.get(i);
+            context.add(format('-', divergenceLine + i, expected != null ? expected : "(end of golden file)"));
+        }
+        for (int i = 0; i < actualAfter.size(); i++) {
+            String actual = actualAfter.get(i);
+            context.add(format('+', divergenceLine + i, actual != null ? actual : "(end of log)"));
+        }
+        return context;
+    }
+    
+    private void diverge(String expected, String actual) {
+        divergenceLine = lineNumber;
+        expectedAfter.add(expected);
+        actualAfter.add(actual);
+        // Read ahead the expected lines of the context window
+        while (expected != null && expectedAfter.size() < CONTEXT_LINES) {
+            expected = readGolden();
+            if (expected != null) {
+                expectedAfter.add(expected);
+            }
+        }
+        if (executor != null) {
+            executor.stop();
+        }
+    }
+    
+    private String readGolden() {
+        if (error != null) {
+            return null;
+        }
+        try {
+            return golden.readLine();
+        } catch (IOException e) {
+            error = e;
+            return null;
+        }
+    }
+    
+    private static String format(char marker, int lineNumber, String line) {
+        String number = String.valueOf(lineNumber);
+        while (number.length() < 5) {
+            number = " " + number;
+        }
+        return marker + " " + number + "  " + line;
+    }
+}
@@ -1,5 +1,8 @@
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Integration test framework for NEPO XML programs
@@ -8,8 +11,13 @@ import java.util.*;
  * - Table-driven test cases with program files and scenarios
  * - Runs XML programs with MockHardware
  * - Generates golden files if missing (test fails)
- * - Compares output with existing golden files
+ * - Compares output with existing golden files line by line while the
+ *   program runs, stopping it at the first divergence
  * - Golden files named as {program}_{testcase}.golden
+ * - Test cases run in parallel on a fork-join pool, each with its own
+ *   MockHardware and executor; reports are printed in table order
+ * 
+ * Usage: TestIntegrationFramework [--sequential | --threads N]
  */
 public class TestIntegrationFramework {
     
@@ -90,9 +98,73 @@ public class TestIntegrationFramework {
         new TestCase("normal_run", "dynamic_test.xml"),
         new TestCase("early_collision", "dynamic_test.xml",
             new DynamicTestScenario()
-                .atIteration(3).setTouchSensor(1, true))
+                .atIteration(3).setTouchSensor(1, true)),
+        
+        // Several task instances: driving task plus bumper monitoring task
+        new TestCase("bumper", "multitask_test.xml", 12,
+            new DynamicTestScenario()
+                .atIteration(5).setTouchSensor(1, true)
+                .atIteration(8).setTouchSensor(1, false)),
+        
+        // Variables: the speed variable takes the light level once it gets dark
+        new TestCase("dark_speed", "variables_test.xml", 8,
+            new DynamicTestScenario()
+                .atIteration(3).setLightSensor(4, 40)),
+        
+        // Procedures: parameters, a function with early return and its result as argument
+        new TestCase("dark_turn", "procedures_test.xml", 10,
+            new DynamicTestScenario()
+                .atIteration(3).setLightSensor(4, 40)
+                .atIteration(6).setLightSensor(4, 80)),
+        
+        // Control flow: if/else around a counted loop; every loop pass is an iteration
+        new TestCase("bump_repeat", "controlflow_test.xml", 10,
+            new DynamicTestScenario()
+                .atIteration(3).setTouchSensor(1, true)
+                .atIteration(5).setTouchSensor(1, false))
     };
     
+    /**
+     * Outcome and report of one test case.
+     * Filled in by the thread running the case, read by the main thread once it completed.
+     */
+    public static class TestResult {
+        public final TestCase testCase;
+        public boolean passed = false;
+        public boolean goldenGenerated = false;
+        public long nanos = 0;
+        private final StringBuilder report = new StringBuilder();
+        
+        public TestResult(TestCase testCase) {
+            this.testCase = testCase;
+        }
+        
+        void println(String line) {
+            report.append(line).append('\n');
+        }
+        
+        public String getReport() {
+            return report.toString();
+        }
+    }
+    
+    /**
+     * Runs one test case on the fork-join pool
+     */
+    private static class TestCaseTask extends RecursiveTask<TestResult> {
+        private static final long serialVersionUID = 1L;
+        
+        private final TestCase testCase;
+        
+        TestCaseTask(TestCase testCase) {
+            this.testCase = testCase;
+        }
+        
+        protected TestResult compute() {
+            return runTestCase(testCase);
+        }
+    }
+    
     private static final String CASES_DIR = "test/integration/cases";
     private static final String GOLDEN_EXTENSION = ".golden";
     
@@ -100,8 +172,19 @@ public class TestIntegrationFramework {
     private static int passedTests = 0;
     private static int failedTests = 0;
     private static int generatedGoldenFiles = 0;
+    private static long caseNanos = 0;
+    private static long wallNanos = 0;
+    private static int threads = Runtime.getRuntime().availableProcessors();
 
     public static void main(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if ("--sequential".equals(args[i])) {
+                threads = 1;
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Math.max(1, Integer.parseInt(args[++i]));
+            }
+        }
+        
         System.out.println("=== NEPO Integration Test Framework ===");
         System.out.println("Discovering test cases in: " + CASES_DIR);
         System.out.println();
@@ -136,68 +219,101 @@ public class TestIntegrationFramework {
         }
         System.out.println();
         
-        // Run each test case
-        for (TestCase testCase : TEST_CASES) {
-            runTestCase(testCase);
+        // Submit all test cases, then print each report in table order as soon as it is done
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<ForkJoinTask<TestResult>> tasks = new ArrayList<ForkJoinTask<TestResult>>();
+            for (TestCase testCase : TEST_CASES) {
+                tasks.add(pool.submit(new TestCaseTask(testCase)));
+            }
+            for (ForkJoinTask<TestResult> task : tasks) {
+                TestResult result = task.join();
+                System.out.print(result.getReport());
+                System.out.println();
+                record(result);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        wallNanos = System.nanoTime() - start;
+    }
+    
+    /**
+     * Count a completed test case - only called from the main thread
+     */
+    private static void record(TestResult result) {
+        totalTests++;
+        caseNanos += result.nanos;
+        if (result.passed) {
+            passedTests++;
+        } else {
+            failedTests++;
+        }
+        if (result.goldenGenerated) {
+            generatedGoldenFiles++;
         }
     }
     
     /**
-     * Run a single test case
+     * Run a single test case.
+     * Touches no shared state, so test cases can run on any thread.
      */
-    private static void runTestCase(TestCase testCase) {
+    private static TestResult runTestCase(TestCase testCase) {
+        TestResult result = new TestResult(testCase);
+        long start = System.nanoTime();
         String goldenFileName = testCase.getGoldenFileName();
         File goldenFile = new File(CASES_DIR, goldenFileName);
         
-        totalTests++;
         String programName = testCase.getProgramName();
-        System.out.println("🧪 Running test case: " + testCase.name + " (" + programName + ")");
+        result.println("🧪 Running test case: " + testCase.name + " (" + programName + ")");
         
         try {
-            // Execute the test and capture output
-            String actualOutput = executeTest(testCase);
             if (!goldenFile.exists()) {
-                // Generate golden file
-                System.out.println("   📝 Generating golden file: " + goldenFileName);
+                // Execute the test, capture output and generate golden file
+                String actualOutput = executeTest(testCase, result, null);
+                result.println("   📝 Generating golden file: " + goldenFileName);
                 writeFile(goldenFile.getAbsolutePath(), actualOutput);
-                generatedGoldenFiles++;
-                failedTests++;
-                System.out.println("   ❌ FAIL - Golden file generated, please review and re-run");
+                result.goldenGenerated = true;
+                result.println("   ❌ FAIL - Golden file generated, please review and re-run");
             } else {
-                // Compare with existing golden file
-                String expectedOutput = readFile(goldenFile.getAbsolutePath());
+                // Execute the test, comparing each log line with the golden file as it is logged
+                StreamingGoldenComparator comparator = new StreamingGoldenComparator(goldenFile);
+                executeTest(testCase, result, comparator);
                 
-                if (actualOutput.equals(expectedOutput)) {
-                    passedTests++;
-                    System.out.println("   ✅ PASS");
+                if (comparator.matches()) {
+                    result.passed = true;
+                    result.println("   ✅ PASS");
                 } else {
-                    failedTests++;
-                    System.out.println("   ❌ FAIL - Output mismatch");
-                    System.out.println("   Expected length: " + expectedOutput.length());
-                    System.out.println("   Actual length: " + actualOutput.length());
-                    
-                    // Show first difference for debugging
-                    showFirstDifference(expectedOutput, actualOutput);
+                    result.println("   ❌ FAIL - Output differs from golden file at line "
+                        + comparator.getDivergenceLine());
+                    for (String line : comparator.getContext()) {
+                        result.println("   " + line);
+                    }
                 }
             }
             
         } catch (Exception e) {
-            failedTests++;
-            System.out.println("   ❌ FAIL - Exception: " + e.getMessage());
+            result.println("   ❌ FAIL - Exception: " + e.getMessage());
             if (e.getCause() != null) {
-                System.out.println("   Caused by: " + e.getCause().getMessage());
+                result.println("   Caused by: " + e.getCause().getMessage());
             }
-            // Print stack trace for debugging
-            e.printStackTrace();
+            // Stack trace for debugging, kept with the report of this test case
+            StringWriter trace = new StringWriter();
+            e.printStackTrace(new PrintWriter(trace));
+            result.println(trace.toString());
         }
         
-        System.out.println();
+        result.nanos = System.nanoTime() - start;
+        return result;
     }
     
     /**
-     * Execute a test case and return the captured MockHardware output
+     * Execute a test case and return the captured MockHardware output.
+     * With a comparator, the log goes to the comparator instead and null is returned.
      */
-    private static String executeTest(TestCase testCase) throws Exception {
+    private static String executeTest(TestCase testCase, TestResult result,
+            StreamingGoldenComparator comparator) throws Exception {
         // Read XML content
         File programFile = new File(CASES_DIR, testCase.programFile);
         String xmlContent = readFile(programFile.getAbsolutePath());
@@ -213,7 +329,7 @@ public class TestIntegrationFramework {
         boolean hasScenarios = testCase.scenario.hasScenarios();
         List<SensorScenario> scenarios;
         if (hasScenarios) {
-            System.out.println("   🔄 Applying " + testCase.scenario.getScenarioCount() + " scenario(s)");
+            result.println("   🔄 Applying " + testCase.scenario.getScenarioCount() + " scenario(s)");
             scenarios = testCase.scenario.build();
         } else {
             scenarios = new ArrayList<SensorScenario>();
@@ -223,9 +339,21 @@ public class TestIntegrationFramework {
         MockHardware mockHardware = new MockHardware(robotConfig);
         TestNepoBlockExecutor executor = new TestNepoBlockExecutor(mockHardware, scenarios);
         executor.setMaxTotalIterations(testCase.maxIterations);
+        if (comparator != null) {
+            comparator.attach(mockHardware, executor);
+        }
 
         // Run the complete program (handles config and program sections)
-        executor.runProgram(program);
+        try {
+            executor.runProgram(program);
+        } finally {
+            if (comparator != null) {
+                comparator.finish();
+            }
+        }
+        if (comparator != null) {
+            return null;
+        }
         
         // Get the hardware interaction log
         List<String> log = mockHardware.getLog();
@@ -234,7 +362,7 @@ public class TestIntegrationFramework {
         StringBuilder output = new StringBuilder();
         
         if (log.isEmpty()) {
-            output.append("(No hardware interactions)\n");
+            output.append(StreamingGoldenComparator.NO_INTERACTIONS).append("\n");
         } else {
             for (String logEntry : log) {
                 output.append(logEntry).append("\n");
@@ -270,40 +398,6 @@ public class TestIntegrationFramework {
         }
     }
     
-    /**
-     * Show first difference between expected and actual output
-     */
-    private static void showFirstDifference(String expected, String actual) {
-        int minLength = Math.min(expected.length(), actual.length());
-        
-        for (int i = 0; i < minLength; i++) {
-            if (expected.charAt(i) != actual.charAt(i)) {
-                System.out.println("   First difference at position " + i + ":");
-                System.out.println("   Expected: '" + expected.charAt(i) + "' (0x" + 
-                    Integer.toHexString(expected.charAt(i)) + ")");
-                System.out.println("   Actual:   '" + actual.charAt(i) + "' (0x" + 
-                    Integer.toHexString(actual.charAt(i)) + ")");
-                
-                // Show context around the difference
-                int start = Math.max(0, i - 10);
-                int end = Math.min(expected.length(), i + 10);
-                System.out.println("   Context expected: \"" + 
-                    expected.substring(start, end).replace("\n", "\\n") + "\"");
-                
-                end = Math.min(actual.length(), i + 10);
-                System.out.println("   Context actual:   \"" + 
-                    actual.substring(start, end).replace("\n", "\\n") + "\"");
-                return;
-            }
-        }
-        
-        if (expected.length() != actual.length()) {
-            System.out.println("   Difference: length mismatch");
-            System.out.println("   Expected length: " + expected.length());
-            System.out.println("   Actual length: " + actual.length());
-        }
-    }
-    
     /**
      * Print test summary
      */
@@ -313,6 +407,14 @@ public class TestIntegrationFramework {
         System.out.println("Passed: " + passedTests);
         System.out.println("Failed: " + failedTests);
         
+        // The summed test case times are what a sequential run would take,
+        // as long as there are no more threads than cores
+        long wallMillis = wallNanos / 1000000;
+        long caseMillis = caseNanos / 1000000;
+        long speedup10 = wallNanos > 0 ? caseNanos * 10 / wallNanos : 10;
+        System.out.println("Wall clock: " + wallMillis + " ms on " + threads + " thread(s), "
+            + caseMillis + " ms summed over test cases (speedup " + (speedup10 / 10) + "." + (speedup10 % 10) + "x)");
+        
         if (generatedGoldenFiles > 0) {
             System.out.println("Generated golden files: " + generatedGoldenFiles);
             System.out.println();
@@ -73,6 +73,13 @@ public class TestNepoBlockExecutor extends NepoBlockExecutor {
         }
     }
     
+    /**
+     * Stop the running program, e.g. once its log diverged from the golden file.
+     */
+    public void stop() {
+        this.setRunning(false);
+    }
+    
     /**
      * Add a scenario to be applied during execution.
      * 
@@ -0,0 +1,124 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Unit test for the block profiler
+ *
+ * Runs a small program with the profiler enabled and checks the counters
+ * per block type and block id, the table limits and the summary file.
+ */
+public class TestBlockProfiler extends UnitTest {
+    private static final String PROGRAM = "<program><block_set><instance>"
+        + "<block type=\"robControls_start\" id=\"start\"><statement name=\"ST\">"
+        + "<block type=\"robGlobalVariables_declare\" id=\"declare\"><field name=\"VAR\">n</field>"
+        + "<field name=\"TYPE\">Number</field><value name=\"VALUE\">" + number(0) + "</value></block>"
+        + "</statement></block>"
+        + "<block type=\"controls_repeat_ext\" id=\"repeat\"><value name=\"TIMES\">" + number(10) + "</value>"
+        + "<statement name=\"DO\"><block type=\"variables_set\" id=\"count\"><mutation datatype=\"Number\"></mutation>"
+        + "<field name=\"VAR\">n</field><value name=\"VALUE\"><block type=\"math_arithmetic\">"
+        + "<field name=\"OP\">ADD</field><value name=\"A\"><block type=\"variables_get\">"
+        + "<mutation datatype=\"Number\"></mutation><field name=\"VAR\">n</field></block></value>"
+        + "<value name=\"B\">" + number(1) + "</value></block></value></block></statement></block>"
+        + "</instance></block_set></program>";
+
+    public static void main(String[] args) {
+        System.out.println("=== Testing block profiler ===\n");
+
+        testCounters();
+        testTableLimits();
+        testSummaryFile();
+
+        finish("block profiler");
+    }
+
+    private static void testCounters() {
+        System.out.println("Testing counters:");
+        NepoBlockExecutor executor = new NepoBlockExecutor(new MockHardware(null));
+        check("Disabled by default", executor.getProfiler() == null);
+
+        BlockProfiler profiler = new BlockProfiler(null);
+        executor.setProfiler(profiler);
+        executor.executeBlock(parse(PROGRAM));
+
+        int set = profiler.findType("variables_set");
+        check("Calls per type", set >= 0 && profiler.getTypeCalls(set) == 10);
+        check("Total and max time", profiler.getTypeTotal(set) > 0
+            && profiler.getTypeMax(set) <= profiler.getTypeTotal(set));
+
+        int count = profiler.findBlock("count");
+        check("Calls per block id", count >= 0 && profiler.getBlockCalls(count) == 10
+            && "variables_set".equals(profiler.getBlockType(count)));
+        // counter = 10, 11 loop checks, 10 decrements, 10 jumps back
+        int repeat = profiler.findBlock("repeat");
+        check("Statements of a control block share its id", repeat >= 0 && profiler.getBlockCalls(repeat) == 32);
+        check("Declarations carry their own id", profiler.findBlock("declare") >= 0);
+
+        profiler.reset();
+        check("Reset", profiler.getTypeCalls(set) == 0 && profiler.getBlockCalls(count) == 0);
+        System.out.println();
+    }
+
+    private static void testTableLimits() {
+        System.out.println("Testing table limits:");
+        BlockProfiler profiler = new BlockProfiler(null, 2, 1);
+        CompiledBlock a = block("typeA", "a");
+        CompiledBlock b = block("typeA", "b");
+        CompiledBlock c = block("typeB", null);
+        CompiledBlock d = block("typeC", "d");
+
+        profiler.record(a, 1000);
+        profiler.record(b, 3000);
+        profiler.record(c, 500);
+        profiler.record(d, 700);
+        profiler.record(a, 2000);
+
+        check("Blocks beyond the table counted by type", profiler.getBlockCount() == 1
+            && profiler.getTypeCalls(profiler.findType("typeA")) == 3
+            && profiler.getTypeTotal(profiler.findType("typeA")) == 6000);
+        check("Types beyond the table share a row", profiler.getTypeCount() == 2
+            && profiler.findType("(other)") == 1 && profiler.getTypeCalls(1) == 2);
+        check("Max per block", profiler.getBlockMax(profiler.findBlock("a")) == 2000);
+        System.out.println();
+    }
+
+    private static void testSummaryFile() {
+        System.out.println("Testing summary file:");
+        try {
+            File file = File.createTempFile("profile", ".log");
+            file.deleteOnExit();
+            NepoBlockExecutor executor = new NepoBlockExecutor(new MockHardware(null));
+            executor.setProfiler(new BlockProfiler(file.getPath()));
+            executor.executeBlock(parse(PROGRAM));
+
+            List<String> lines = new ArrayList<String>();
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+            reader.close();
+
+            check("Written when the program ends", lines.size() > 3 && lines.get(0).startsWith("# profile"));
+            check("Type section", lines.contains("# type calls total_us max_us")
+                && startsWith(lines, "variables_set 10 "));
+            check("Block section", lines.contains("# id type calls total_us max_us")
+                && startsWith(lines, "count variables_set 10 "));
+        } catch (IOException e) {
+            check("Summary file readable: " + e.getMessage(), false);
+        }
+        System.out.println();
+    }
+
+    private static boolean startsWith(List<String> lines, String prefix) {
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    private static CompiledBlock block(String type, String id) {
+        CompiledBlock block = new CompiledBlock(CompiledBlock.OP_NOP, type);
+        block.id = id;
+        return block;
+    }
+}
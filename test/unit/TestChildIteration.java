@@ -0,0 +1,133 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Unit test for the allocation-free child iteration API
+ *
+ * Checks getChildCount/getChildAt and forEachChild against getChildren,
+ * tag filtering and early stop, and that iterating an already parsed
+ * element allocates nothing.
+ */
+public class TestChildIteration extends UnitTest {
+    private static final String XML = "<?xml version=\"1.0\"?><block type=\"robBrick_EV3-Brick\">"
+        + "<field name=\"WHEEL\">5.6</field><value name=\"S1\"><block type=\"touch\"/></value>"
+        + "<field name=\"TRACK\">18</field><value name=\"A\"/><value name=\"B\"/></block>";
+
+    /**
+     * Counts the children it visits, stopping after a limit
+     */
+    private static class CountingVisitor implements IChildVisitor {
+        int visited = 0;
+        int limit = Integer.MAX_VALUE;
+        String names = "";
+
+        public boolean visitChild(IXMLElement child) {
+            visited++;
+            names += child.getAttribute("name");
+            return visited < limit;
+        }
+    }
+
+    public static void main(String[] args) {
+        System.out.println("=== Testing child iteration ===\n");
+
+        testIndexedAccess();
+        testForEachChild();
+        testAllocation();
+
+        finish("child iteration");
+    }
+
+    private static void testIndexedAccess() {
+        System.out.println("Testing indexed access:");
+        IXMLElement root = parse(XML);
+        check("Child count", root.getChildCount() == 5 && root.getChildCount() == root.getAllChildren().size());
+        boolean same = true;
+        for (int i = 0; i < root.getChildCount(); i++) {
+            same &= root.getChildAt(i) == root.getAllChildren().elementAt(i);
+        }
+        check("Same children as getAllChildren", same);
+        check("Document order", "TRACK".equals(root.getChildAt(2).getAttribute("name").toString()));
+
+        IXMLElement leaf = root.getChildAt(3);
+        check("No children", leaf.getChildCount() == 0);
+        check("Index out of range", outOfRange(root, 5) && outOfRange(root, -1) && outOfRange(leaf, 0));
+        System.out.println();
+    }
+
+    private static void testForEachChild() {
+        System.out.println("Testing forEachChild:");
+        IXMLElement root = parse(XML);
+
+        CountingVisitor values = new CountingVisitor();
+        check("Tag filter", root.forEachChild("value", values) == 3 && "S1AB".equals(values.names));
+
+        CountingVisitor all = new CountingVisitor();
+        check("All children", root.forEachChild(null, all) == 5 && "WHEELS1TRACKAB".equals(all.names));
+
+        CountingVisitor first = new CountingVisitor();
+        first.limit = 1;
+        check("Early stop", root.forEachChild("field", first) == 1 && "WHEEL".equals(first.names));
+
+        check("No match", root.forEachChild("statement", new CountingVisitor()) == 0);
+        System.out.println();
+    }
+
+    private static void testAllocation() {
+        System.out.println("Testing allocation:");
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            System.out.println("  Allocation counter not available, skipped");
+            System.out.println();
+            return;
+        }
+        com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+        long thread = Thread.currentThread().getId();
+
+        IXMLElement root = parse(XML);
+        IChildVisitor visitor = new IChildVisitor() {
+            public boolean visitChild(IXMLElement child) {
+                return true;
+            }
+        };
+        // Materialize the children and warm up before measuring
+        for (int i = 0; i < 20000; i++) {
+            iterate(root, visitor);
+        }
+
+        long before = counter.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 1000; i++) {
+            iterate(root, visitor);
+        }
+        long indexed = counter.getThreadAllocatedBytes(thread) - before;
+
+        before = counter.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 1000; i++) {
+            root.getChildren("value");
+        }
+        long copied = counter.getThreadAllocatedBytes(thread) - before;
+
+        System.out.println("  Allocated for 1000 walks: " + indexed + " bytes indexed, "
+            + copied + " bytes with getChildren");
+        // Small slack for the counter reading itself
+        check("Iteration allocates nothing", indexed < 1000 && copied > 1000 * 16);
+        System.out.println();
+    }
+
+    private static void iterate(IXMLElement root, IChildVisitor visitor) {
+        int count = root.getChildCount();
+        for (int i = 0; i < count; i++) {
+            root.getChildAt(i).getTagName();
+        }
+        root.forEachChild("value", visitor);
+    }
+
+    private static boolean outOfRange(IXMLElement element, int index) {
+        try {
+            element.getChildAt(index);
+            return false;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import java.util.*;
+
+/**
+ * Unit test for control-flow blocks compiled to jumps
+ * 
+ * Runs small programs and compares the speeds they set on motor A, in order,
+ * with the expected ones.
+ */
+public class TestControlFlow extends UnitTest {
+    
+    private static class TestCase {
+        String name;
+        String statements;
+        String expectedSpeeds;
+        
+        TestCase(String name, String statements, String expectedSpeeds) {
+            this.name = name;
+            this.statements = statements;
+            this.expectedSpeeds = expectedSpeeds;
+        }
+    }
+    
+    /**
+     * Programs and the motor A speeds they set, separated by spaces. Power 10
+     * sets 72 deg/s, 20 sets 144 and 30 sets 216.
+     */
+    private static final TestCase[] TEST_CASES = {
+        // Repeat
+        new TestCase("3 x 2 iterations",
+            repeat(3, repeat(2, drive(number(10)))),
+            "72 72 72 72 72 72"),
+        new TestCase("Zero iterations",
+            repeat(0, drive(number(10))),
+            ""),
+        
+        // For
+        new TestCase("Counts up inclusive",
+            forLoop("i", 10, 30, 10, drive(get("i"))),
+            "72 144 216"),
+        new TestCase("Counts down with negative step",
+            forLoop("i", 20, 10, -10, drive(get("i"))),
+            "144 72"),
+        
+        // While and until
+        new TestCase("While false never runs",
+            whileUntil("WHILE", bool(false), drive(number(10))),
+            ""),
+        // The body sets the condition, so the loop runs exactly once
+        new TestCase("Until stops once the condition holds",
+            set("n", number(0))
+            + whileUntil("UNTIL", compare("EQ", get("n"), number(1)),
+                drive(number(10)) + set("n", number(1))),
+            "72"),
+        
+        // If / else if / else
+        new TestCase("Else-if branch taken",
+            ifElse(compare("LT", number(5), number(3)), drive(number(10)),
+                compare("LT", number(1), number(3)), drive(number(20)),
+                drive(number(30))),
+            "144"),
+        new TestCase("Else branch taken",
+            ifElse(bool(false), drive(number(10)), bool(false), drive(number(20)), drive(number(30))),
+            "216"),
+        
+        // Break and continue
+        // Inner loop breaks after one drive; the outer loop still runs 3 times
+        new TestCase("Break leaves the inner loop only",
+            repeat(3, repeat(5, drive(number(10)) + flow("BREAK"))),
+            "72 72 72"),
+        // Continue skips the drive for i = 20
+        new TestCase("Continue skips one iteration",
+            forLoop("i", 10, 30, 10,
+                ifElse(compare("EQ", get("i"), number(20)), flow("CONTINUE"), null, null, null)
+                + drive(get("i"))),
+            "72 216"),
+        new TestCase("Break leaves loop forever",
+            loopForever(drive(number(10)) + flow("BREAK")) + drive(number(20)),
+            "72 144"),
+    };
+    
+    public static void main(String[] args) {
+        System.out.println("=== Testing control flow ===\n");
+        
+        System.out.println("Testing control-flow blocks:");
+        for (int i = 0; i < TEST_CASES.length; i++) {
+            TestCase test = TEST_CASES[i];
+            String speeds = speeds(run(test.statements));
+            boolean passed = speeds.equals(test.expectedSpeeds);
+            check(test.name, passed);
+            if (!passed) {
+                System.out.println("    Expected: \"" + test.expectedSpeeds + "\"");
+                System.out.println("    Actual:   \"" + speeds + "\"");
+            }
+        }
+        System.out.println();
+        
+        testDeepNesting();
+        
+        finish("control flow");
+    }
+    
+    private static void testDeepNesting() {
+        System.out.println("Testing deep nesting:");
+        
+        String body = drive(number(10));
+        for (int i = 0; i < 200; i++) {
+            body = ifElse(bool(true), body, null, null, null);
+        }
+        IXMLElement block = parse(program(body));
+        CompiledProgram compiled = new ProgramCompiler().compile(block);
+        check("200 nested ifs compile to one flat array (" + compiled.getTask(0).length + " statements)",
+            compiled.getTask(0).length == 201);
+        
+        MockHardware hardware = run(body);
+        check("Innermost statement reached", count(hardware, "Motor A.forward()") == 1);
+        System.out.println();
+    }
+    
+    /**
+     * Speeds set on motor A, in order and separated by spaces
+     */
+    private static String speeds(MockHardware hardware) {
+        String prefix = "Motor A.setSpeed(";
+        StringBuilder speeds = new StringBuilder();
+        List<String> log = hardware.getLog();
+        for (int i = 0; i < log.size(); i++) {
+            String entry = log.get(i);
+            if (!entry.startsWith(prefix)) continue;
+            if (speeds.length() > 0) speeds.append(' ');
+            speeds.append(entry.substring(prefix.length(), entry.length() - 1));
+        }
+        return speeds.toString();
+    }
+}
@@ -0,0 +1,165 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Unit test for the binary execution trace
+ *
+ * Records a program run through TracingHardware and checks that the
+ * decoded trace matches the MockHardware log line for line, plus block
+ * records, the in-memory ring, long strings and invalid files.
+ */
+public class TestExecutionTrace extends UnitTest {
+    private static final String PROGRAM_FILE = "test/integration/cases/programm1.xml";
+
+    public static void main(String[] args) {
+        System.out.println("=== Testing execution trace ===\n");
+
+        testGoldenFormat();
+        testBlocks();
+        testRing();
+        testStrings();
+        testInvalidTrace();
+
+        finish("execution trace");
+    }
+
+    private static void testGoldenFormat() {
+        System.out.println("Testing golden file format:");
+        MockHardware hardware = new MockHardware(null);
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        // Small ring, so the run is written in many half-ring writes
+        ExecutionTrace trace = new ExecutionTrace(8, file);
+        runProgram(hardware, trace);
+        trace.close();
+
+        List<String> lines = decode(file.toByteArray(), false);
+        List<String> log = hardware.getLog();
+        check("Decoded trace matches the hardware log (" + lines.size() + " lines)",
+            lines.size() > 20 && lines.equals(log));
+        check("Motor commands and sensor samples", lines.contains("Motor A.forward()")
+            && lines.contains("Sensor 4 (LIGHT).getValue() -> 20.0"));
+        check("Every record written once", trace.getError() == null
+            && file.size() == trace.getRecordCount() * ExecutionTrace.RECORD_SIZE);
+        System.out.println();
+    }
+
+    private static void testBlocks() {
+        System.out.println("Testing block records:");
+        MockHardware hardware = new MockHardware(null);
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        ExecutionTrace trace = new ExecutionTrace(64, file);
+        runProgram(hardware, trace);
+        trace.close();
+
+        List<String> lines = decode(file.toByteArray(), true);
+        int enters = 0;
+        int exits = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).startsWith("[Block] enter ")) enters++;
+            if (lines.get(i).startsWith("[Block] exit ")) exits++;
+        }
+        check("Enter and exit per statement (" + enters + ")", enters > 0 && enters == exits);
+        check("Type and id", lines.contains("[Block] enter robControls_wait HFsl8*it]h]=fkR5y/l3"));
+        int enter = lines.indexOf("[Block] enter robActions_motorDiff_on A6j?7eTaolmJMkIR,;pB");
+        check("Hardware calls between enter and exit", enter >= 0
+            && lines.get(enter + 1).startsWith("getMotor(")
+            && lines.get(enter + 5).startsWith("Motor A.forward()"));
+        System.out.println();
+    }
+
+    private static void testRing() {
+        System.out.println("Testing in-memory ring:");
+        MockHardware hardware = new MockHardware(null);
+        ExecutionTrace trace = new ExecutionTrace(16, null);
+        IHardware traced = new TracingHardware(hardware, trace);
+        for (int i = 0; i < 100; i++) {
+            traced.delay(i);
+        }
+        check("Records counted", trace.getRecordCount() == 101);
+
+        ByteArrayOutputStream recent = new ByteArrayOutputStream();
+        try {
+            trace.writeRecent(recent);
+        } catch (IOException e) {
+            check("Recent records written: " + e.getMessage(), false);
+        }
+        List<String> lines = decode(recent.toByteArray(), false);
+        check("Most recent records, oldest first", lines.size() == 16
+            && "delay(84)".equals(lines.get(0)) && "delay(99)".equals(lines.get(15)));
+
+        traced.getMotor("B").forward();
+        recent.reset();
+        try {
+            trace.writeRecent(recent);
+        } catch (IOException e) {
+            check("Recent records written: " + e.getMessage(), false);
+        }
+        lines = decode(recent.toByteArray(), false);
+        check("Strings defined even when overwritten", lines.contains("Motor B.forward()"));
+        System.out.println();
+    }
+
+    private static void testStrings() {
+        System.out.println("Testing strings:");
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        ExecutionTrace trace = new ExecutionTrace(4, file);
+        IHardware traced = new TracingHardware(new MockHardware(null), trace);
+        String text = "A text longer than one string record";
+        traced.displayText(text, 0, 3);
+        traced.displayText("", 1, 2);
+        int index = trace.intern(text);
+        check("Interned once", trace.intern(new String(text)) == index);
+        check("Null not interned", trace.intern(null) == ExecutionTrace.STRING_UNKNOWN);
+        trace.close();
+
+        List<String> lines = decode(file.toByteArray(), false);
+        check("Long and empty strings", lines.size() == 2
+            && ("displayText('" + text + "', 0, 3)").equals(lines.get(0))
+            && "displayText('', 1, 2)".equals(lines.get(1)));
+        System.out.println();
+    }
+
+    private static void testInvalidTrace() {
+        System.out.println("Testing invalid traces:");
+        boolean rejected = false;
+        try {
+            TraceDecoder.decode(new ByteArrayInputStream(new byte[ExecutionTrace.RECORD_SIZE * 2]), false);
+        } catch (IOException e) {
+            rejected = true;
+        }
+        check("Missing header rejected", rejected);
+        System.out.println();
+    }
+
+    /**
+     * Run programm1 with a dark floor, so it keeps turning, for 20 iterations
+     */
+    private static void runProgram(final MockHardware hardware, ExecutionTrace trace) {
+        hardware.setLightSensorValue("4", 20);
+        hardware.clearLog();
+        NepoBlockExecutor executor = new NepoBlockExecutor(new TracingHardware(hardware, trace)) {
+            private int iterations = 0;
+
+            protected void onIteration() {
+                if (++iterations >= 20) {
+                    setRunning(false);
+                }
+            }
+        };
+        executor.setTrace(trace);
+        try {
+            executor.runProgram(new ShallowXMLParser().parseFile(PROGRAM_FILE));
+        } catch (Exception e) {
+            check("Program ran: " + e.getMessage(), false);
+        }
+    }
+
+    private static List<String> decode(byte[] data, boolean blocks) {
+        try {
+            return new ArrayList<String>(TraceDecoder.decode(new ByteArrayInputStream(data), blocks));
+        } catch (IOException e) {
+            check("Trace decoded: " + e.getMessage(), false);
+            return new ArrayList<String>();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Unit test for the fixed-point execution mode
+ * 
+ * Checks the Q16.16 arithmetic, the overflow fallback to double and that
+ * programs drive the motors exactly as in double mode.
+ */
+public class TestFixedPoint extends UnitTest {
+    public static void main(String[] args) {
+        System.out.println("=== Testing fixed-point mode ===\n");
+        
+        testArithmetic();
+        testOverflow();
+        testCompiledExpressions();
+        testMotorSpeed();
+        
+        finish("fixed-point");
+    }
+    
+    private static void testArithmetic() {
+        System.out.println("Testing Q16.16 arithmetic:");
+        int a = FixedPoint.fromDouble(2.5);
+        int b = FixedPoint.fromDouble(-1.25);
+        check("Round trip", FixedPoint.toDouble(a) == 2.5);
+        check("Add", FixedPoint.toDouble(FixedPoint.add(a, b)) == 1.25);
+        check("Subtract", FixedPoint.toDouble(FixedPoint.subtract(a, b)) == 3.75);
+        check("Multiply", FixedPoint.toDouble(FixedPoint.multiply(a, b)) == -3.125);
+        check("Divide", FixedPoint.toDouble(FixedPoint.divide(a, b)) == -2);
+        check("toInt truncates towards zero", FixedPoint.toInt(FixedPoint.fromDouble(-2.75)) == -2
+            && FixedPoint.toInt(FixedPoint.fromDouble(2.75)) == 2);
+        check("Resolution", Math.abs(FixedPoint.toDouble(FixedPoint.fromDouble(0.1)) - 0.1) < 1.0 / 65536);
+        System.out.println();
+    }
+    
+    private static void testOverflow() {
+        System.out.println("Testing overflow detection:");
+        check("Add overflow", overflows(FixedPoint.fromInt(30000), FixedPoint.fromInt(30000), '+'));
+        check("Subtract overflow", overflows(FixedPoint.fromInt(-30000), FixedPoint.fromInt(30000), '-'));
+        check("Multiply overflow", overflows(FixedPoint.fromInt(300), FixedPoint.fromInt(300), '*'));
+        check("Division by zero", overflows(FixedPoint.ONE, 0, '/'));
+        check("Out of range constant", !FixedPoint.fits(40000) && !FixedPoint.fits(Double.NaN));
+        System.out.println();
+    }
+    
+    private static void testCompiledExpressions() {
+        System.out.println("Testing compiled expressions:");
+        // The mock light sensor reads 75
+        NepoBlockExecutor executor = new NepoBlockExecutor(new MockHardware(null));
+        
+        ValueNode node = compileFixed(arithmetic("ADD", light("3"), number(0.5)));
+        check("Expression root is fixed point", node instanceof FixedNodes.FixedExpression);
+        check("Sensor expression", node.evalNumber(executor) == 75.5);
+        
+        node = compileFixed(arithmetic("DIVIDE", light("3"), number(7)));
+        check("Division accuracy", Math.abs(node.evalNumber(executor) - 75.0 / 7) < 1e-4);
+        
+        node = compileFixed(arithmetic("MULTIPLY", light("3"), number(1000)));
+        check("Overflow falls back to double", node.evalNumber(executor) == 75000
+            && executor.getFixedPointFallbacks() == 1);
+        check("Fallback is kept", node.evalNumber(executor) == 75000
+            && executor.getFixedPointFallbacks() == 1);
+        
+        node = compileFixed(arithmetic("DIVIDE", light("3"), number(0)));
+        check("Division by zero gives infinity", node.evalNumber(executor) == Double.POSITIVE_INFINITY);
+        
+        node = compileFixed("<block type=\"logic_compare\"><field name=\"OP\">LT</field>"
+            + "<value name=\"A\">" + light("3") + "</value><value name=\"B\">" + number(75.25) + "</value></block>");
+        check("Compare in fixed point", node instanceof FixedNodes.Compare && node.evalBoolean(executor));
+        
+        node = compileFixed("<block type=\"math_single\"><field name=\"OP\">ROOT</field>"
+            + "<value name=\"NUM\">" + light("3") + "</value></block>");
+        check("Unsupported function stays double", !(node instanceof FixedNodes.FixedExpression)
+            && node.evalNumber(executor) == Math.sqrt(75));
+        System.out.println();
+    }
+    
+    private static void testMotorSpeed() {
+        System.out.println("Testing motor speed conversion:");
+        boolean same = true;
+        for (int power = 0; power <= 100; power++) {
+            same &= speed(power, true).equals(speed(power, false));
+        }
+        check("Same speed for 0..100%", same);
+        check("Fractional power", speed(12.5, true).equals(speed(12.5, false)));
+        System.out.println();
+    }
+    
+    private static String speed(double power, boolean fixedPoint) {
+        MockHardware hardware = new MockHardware(null);
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware);
+        executor.setFixedPointMode(fixedPoint);
+        executor.getConfiguration().addMotor("A", new RobotConfiguration.MotorConfig("A"));
+        executor.getConfiguration().addMotor("C", new RobotConfiguration.MotorConfig("C"));
+        executor.executeBlock(parse("<block type=\"robActions_motorDiff_on\">"
+            + "<field name=\"DIRECTION\">FOREWARD</field><value name=\"POWER\">"
+            + arithmetic("MULTIPLY", number(power), number(1)) + "</value></block>"));
+        for (String entry : hardware.getLog()) {
+            if (entry.startsWith("Motor A.setSpeed")) return entry;
+        }
+        return "";
+    }
+    
+    private static boolean overflows(int a, int b, char op) {
+        try {
+            if (op == '+') FixedPoint.add(a, b);
+            else if (op == '-') FixedPoint.subtract(a, b);
+            else if (op == '*') FixedPoint.multiply(a, b);
+            else FixedPoint.divide(a, b);
+            return false;
+        } catch (ArithmeticException e) {
+            return true;
+        }
+    }
+    
+    private static ValueNode compileFixed(String xml) {
+        ProgramCompiler compiler = new ProgramCompiler();
+        compiler.setFixedPoint(true);
+        return compiler.compileValue(parse(xml));
+    }
+            }
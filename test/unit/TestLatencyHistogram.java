@@ -0,0 +1,131 @@
+/**
+ * Unit test for the latency histogram
+ *
+ * Checks bucket precision, percentiles and limits of LatencyHistogram and
+ * the loop and wait reaction times the executor records into it.
+ */
+public class TestLatencyHistogram extends UnitTest {
+    public static void main(String[] args) {
+        System.out.println("=== Testing latency histograms ===\n");
+
+        testBuckets();
+        testPercentiles();
+        testLimits();
+        testLoopTimes();
+        testWaitReaction();
+
+        finish("latency histogram");
+    }
+
+    private static void testBuckets() {
+        System.out.println("Testing bucket precision:");
+        boolean exact = true;
+        for (int value = 0; value < 32; value++) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            histogram.record(1000000);
+            exact &= histogram.getPercentile(50) == value;
+        }
+        check("Exact below 32 us", exact);
+
+        boolean precise = true;
+        for (long value = 32; value < LatencyHistogram.MAX_VALUE; value = value * 5 / 3 + 1) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            histogram.record(LatencyHistogram.MAX_VALUE);
+            long reported = histogram.getPercentile(50);
+            precise &= reported >= value && reported - value <= value / 16;
+        }
+        check("Within 1/16 of the value above", precise);
+        System.out.println();
+    }
+
+    private static void testPercentiles() {
+        System.out.println("Testing percentiles:");
+        LatencyHistogram histogram = new LatencyHistogram();
+        check("Empty", histogram.getCount() == 0 && histogram.getPercentile(99) == 0
+            && histogram.getMax() == 0 && histogram.getMin() == 0);
+
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 100);
+        }
+        check("Count, min, max and mean", histogram.getCount() == 100 && histogram.getMin() == 100
+            && histogram.getMax() == 10000 && histogram.getMean() == 5050);
+        long p50 = histogram.getPercentile(50);
+        long p99 = histogram.getPercentile(99);
+        check("p50 (" + p50 + " us)", p50 >= 5000 && p50 <= 5000 + 5000 / 16);
+        check("p99 (" + p99 + " us)", p99 >= 9900 && p99 <= 10000);
+        check("p100 is the maximum", histogram.getPercentile(100) == 10000);
+        check("Short string for the LCD", "5.1/10/10".equals(histogram.toShortString()));
+
+        histogram.reset();
+        check("Reset", histogram.getCount() == 0 && histogram.getMax() == 0);
+        System.out.println();
+    }
+
+    private static void testLimits() {
+        System.out.println("Testing limits:");
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(LatencyHistogram.MAX_VALUE * 4);
+        check("Negative counts as 0", histogram.getMin() == 0 && histogram.getPercentile(50) == 0);
+        check("Beyond the range in the top bucket, exact maximum",
+            histogram.getMax() == LatencyHistogram.MAX_VALUE * 4
+            && histogram.getPercentile(100) <= histogram.getMax());
+        histogram.recordNanos(2500);
+        check("Nanoseconds", histogram.getPercentile(50) == 2);
+        System.out.println();
+    }
+
+    private static void testLoopTimes() {
+        System.out.println("Testing loop iteration times:");
+        NepoBlockExecutor executor = new NepoBlockExecutor(new MockHardware(null));
+        check("Disabled by default", executor.getLoopHistogram() == null && executor.getWaitHistogram() == null);
+
+        executor.setLatencyHistograms(true);
+        executor.executeBlock(parse(program(repeat(10, waitFor(compare("GT", light("3"), number(0)))))));
+        LatencyHistogram loop = executor.getLoopHistogram();
+        check("One time per iteration after the first (" + loop.getCount() + ")", loop.getCount() == 9);
+        check("Waits that hold at once not counted", executor.getWaitHistogram().getCount() == 0);
+        check("Progress for monitors", executor.getLoopIterations() == 10
+            && "controls_repeat_ext".equals(executor.getCurrentBlockType())
+            && executor.getSensorSamples().getLastValue(0) == 75);
+
+        executor.setLatencyHistograms(true);
+        check("Enabling again clears", executor.getLoopHistogram().getCount() == 0);
+        executor.setLatencyHistograms(false);
+        check("Disable", executor.getLoopHistogram() == null);
+        System.out.println();
+    }
+
+    private static void testWaitReaction() {
+        System.out.println("Testing wait reaction times:");
+        // Parked on a sensor trigger
+        check("Triggered wait", waitReactions(touch("1")) == 1);
+
+        // Condition evaluated as a whole
+        check("Evaluated wait", waitReactions(logicOperation("OR", touch("1"),
+            compare("LT", light("3"), number(0)))) == 1);
+        System.out.println();
+    }
+
+    /**
+     * Run a wait that holds after three failed checks
+     *
+     * @return Number of recorded wait reaction times
+     */
+    private static long waitReactions(String condition) {
+        final MockHardware hardware = new MockHardware(null);
+        final int[] checks = { 0 };
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware) {
+            protected void onIteration() {
+                if (++checks[0] == 3) {
+                    hardware.setTouchSensorValue("1", true);
+                }
+            }
+        };
+        executor.setLatencyHistograms(true);
+        executor.executeBlock(parse(program(waitFor(condition))));
+        return executor.getWaitHistogram().getCount();
+    }
+}
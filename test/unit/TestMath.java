@@ -0,0 +1,196 @@
+/**
+ * Unit test for the math blocks
+ * 
+ * Compiles single value blocks with ProgramCompiler and evaluates the
+ * resulting nodes.
+ */
+public class TestMath extends UnitTest {
+    private static final NepoBlockExecutor executor = new NepoBlockExecutor(new MockHardware(null));
+    
+    private static class TestCase {
+        String name;
+        String xml;
+        double expected;
+        double tolerance;
+        
+        TestCase(String name, String xml, double expected, double tolerance) {
+            this.name = name;
+            this.xml = xml;
+            this.expected = expected;
+            this.tolerance = tolerance;
+        }
+        
+        TestCase(String name, String xml, double expected) {
+            this(name, xml, expected, 0);
+        }
+    }
+    
+    private static final String LIST = list(number(4), number(1), number(3), number(2));
+    
+    /**
+     * Value blocks and what they evaluate to
+     */
+    private static final TestCase[] TEST_CASES = {
+        // math_arithmetic
+        new TestCase("ADD", arithmetic("ADD", number(2), number(3)), 5),
+        new TestCase("MINUS", arithmetic("MINUS", number(2), number(3)), -1),
+        new TestCase("MULTIPLY", arithmetic("MULTIPLY", number(2), number(3)), 6),
+        new TestCase("DIVIDE", arithmetic("DIVIDE", number(3), number(2)), 1.5),
+        new TestCase("POWER integer exponent", arithmetic("POWER", number(2), number(10)), 1024),
+        new TestCase("POWER negative exponent", arithmetic("POWER", number(2), number(-2)), 0.25),
+        new TestCase("POWER fractional exponent", arithmetic("POWER", number(9), number(0.5)), 3),
+        new TestCase("Missing input counts as 0", "<block type=\"math_arithmetic\"><field name=\"OP\">ADD</field>"
+            + "<value name=\"A\">" + number(4) + "</value></block>", 4),
+        
+        // math_single, math_round and math_constant
+        new TestCase("ROOT", single("math_single", "ROOT", 16), 4),
+        new TestCase("ABS", single("math_single", "ABS", -3), 3),
+        new TestCase("NEG", single("math_single", "NEG", 3), -3),
+        new TestCase("LOG10", single("math_single", "LOG10", 1000), 3, 1e-9),
+        new TestCase("POW10", single("math_single", "POW10", 2), 100),
+        new TestCase("ROUND", single("math_round", "ROUND", 2.5), 3),
+        new TestCase("ROUNDDOWN", single("math_round", "ROUNDDOWN", 2.7), 2),
+        new TestCase("ROUNDUP", single("math_round", "ROUNDUP", 2.1), 3),
+        new TestCase("PI", "<block type=\"math_constant\"><field name=\"CONSTANT\">PI</field></block>", Math.PI),
+        
+        // math_trig, in degrees
+        new TestCase("SIN 30", single("math_trig", "SIN", 30), 0.5, 1e-6),
+        new TestCase("COS 180", single("math_trig", "COS", 180), -1, 1e-6),
+        new TestCase("TAN 45", single("math_trig", "TAN", 45), 1, 1e-6),
+        new TestCase("ASIN 0.5", single("math_trig", "ASIN", 0.5), 30, 2e-3),
+        new TestCase("ACOS 0", single("math_trig", "ACOS", 0), 90, 2e-3),
+        new TestCase("ATAN -1", single("math_trig", "ATAN", -1), -45, 2e-3),
+        
+        // math_constrain and math_modulo
+        new TestCase("Constrain below", constrain(-5, 0, 100), 0),
+        new TestCase("Constrain above", constrain(150, 0, 100), 100),
+        new TestCase("Constrain inside", constrain(42, 0, 100), 42),
+        new TestCase("Modulo", modulo(7, 3), 1),
+        new TestCase("Modulo keeps dividend sign", modulo(-7, 3), -1),
+        
+        // math_on_list
+        new TestCase("SUM", onList("SUM", LIST), 10),
+        new TestCase("MIN", onList("MIN", LIST), 1),
+        new TestCase("MAX", onList("MAX", LIST), 4),
+        new TestCase("AVERAGE", onList("AVERAGE", LIST), 2.5),
+        new TestCase("MEDIAN", onList("MEDIAN", LIST), 2.5),
+        new TestCase("STD_DEV", onList("STD_DEV", LIST), Math.sqrt(1.25), 1e-9),
+        new TestCase("Empty list", onList("SUM", list()), 0),
+    };
+    
+    public static void main(String[] args) {
+        System.out.println("=== Testing math blocks ===\n");
+        
+        testValues();
+        testConstantFolding();
+        testTrigTables();
+        testRandomInt();
+        testOnList();
+        
+        finish("math");
+    }
+    
+    private static void testValues() {
+        System.out.println("Testing value blocks:");
+        for (int i = 0; i < TEST_CASES.length; i++) {
+            TestCase test = TEST_CASES[i];
+            double actual = eval(test.xml);
+            boolean passed = Math.abs(actual - test.expected) <= test.tolerance;
+            check(test.name, passed);
+            if (!passed) {
+                System.out.println("    Expected: " + test.expected);
+                System.out.println("    Actual:   " + actual);
+            }
+        }
+        System.out.println();
+    }
+    
+    private static void testConstantFolding() {
+        System.out.println("Testing constant folding:");
+        check("Constant expression folds", compile(arithmetic("MULTIPLY",
+            arithmetic("ADD", number(1), number(2)), number(4))) instanceof CoreNodes.NumberConstant);
+        check("Sensor expression is kept", compile(arithmetic("ADD",
+            "<block type=\"robSensors_light_getSample\"><field name=\"SENSORPORT\">3</field></block>",
+            number(1))) instanceof MathNodes.Add);
+        check("Random is never folded", compile(randomInt(1, 1)) instanceof MathNodes.RandomInt);
+        System.out.println();
+    }
+    
+    private static void testTrigTables() {
+        System.out.println("Testing trig tables:");
+        double maxError = 0;
+        for (double d = -400; d <= 400; d += 0.1) {
+            maxError = Math.max(maxError, Math.abs(TrigTables.sin(d) - Math.sin(Math.toRadians(d))));
+            maxError = Math.max(maxError, Math.abs(TrigTables.cos(d) - Math.cos(Math.toRadians(d))));
+        }
+        check("Table sin/cos within 1e-4", maxError < 1e-4);
+        System.out.println();
+    }
+    
+    private static void testRandomInt() {
+        System.out.println("Testing math_random_int:");
+        executor.setRandomSeed(1);
+        ValueNode node = compile(randomInt(6, 1));
+        boolean inRange = true;
+        boolean sawLow = false;
+        boolean sawHigh = false;
+        for (int i = 0; i < 1000; i++) {
+            double value = node.evalNumber(executor);
+            inRange &= value >= 1 && value <= 6 && value == Math.floor(value);
+            sawLow |= value == 1;
+            sawHigh |= value == 6;
+        }
+        check("Integers within swapped bounds", inRange);
+        check("Both bounds are reachable", sawLow && sawHigh);
+        System.out.println();
+    }
+    
+    private static void testOnList() {
+        System.out.println("Testing math_on_list:");
+        check("List literal is not created", compile(onList("SUM", LIST)) instanceof MathNodes.ItemsOnList);
+        
+        ValueNode median = compile(onList("MEDIAN", LIST));
+        median.evalNumber(executor);
+        check("Repeated evaluation is stable", median.evalNumber(executor) == 2.5);
+        System.out.println();
+    }
+    
+    private static double eval(String xml) {
+        return compile(xml).evalNumber(executor);
+    }
+    
+    private static String single(String type, String op, double value) {
+        return "<block type=\"" + type + "\"><field name=\"OP\">" + op + "</field>"
+            + "<value name=\"NUM\">" + number(value) + "</value></block>";
+    }
+    
+    private static String constrain(double value, double low, double high) {
+        return "<block type=\"math_constrain\"><value name=\"VALUE\">" + number(value) + "</value>"
+            + "<value name=\"LOW\">" + number(low) + "</value>"
+            + "<value name=\"HIGH\">" + number(high) + "</value></block>";
+    }
+    
+    private static String modulo(double dividend, double divisor) {
+        return "<block type=\"math_modulo\"><value name=\"DIVIDEND\">" + number(dividend) + "</value>"
+            + "<value name=\"DIVISOR\">" + number(divisor) + "</value></block>";
+    }
+    
+    private static String randomInt(double from, double to) {
+        return "<block type=\"math_random_int\"><value name=\"FROM\">" + number(from) + "</value>"
+            + "<value name=\"TO\">" + number(to) + "</value></block>";
+    }
+    
+    private static String list(String... items) {
+        String xml = "<block type=\"robLists_create_with\"><mutation items=\"" + items.length
+            + "\" list_type=\"Number\"></mutation>";
+        for (int i = 0; i < items.length; i++) {
+            xml += "<value name=\"ADD" + i + "\">" + items[i] + "</value>";
+        }
+        return xml + "</block>";
+    }
+    
+    private static String onList(String op, String list) {
+        return "<block type=\"math_on_list\"><field name=\"OP\">" + op + "</field>"
+            + "<value name=\"LIST\">" + list + "</value></block>";
+    }
+}
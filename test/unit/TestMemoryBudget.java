@@ -0,0 +1,97 @@
+import java.io.*;
+
+/**
+ * Unit test for the memory budget
+ *
+ * Checks the pre-scan, the OK/WARN/REFUSE verdicts, that the parser refuses
+ * a program before loading it and that the tracked element memory of a
+ * compiled program stays within the estimate.
+ */
+public class TestMemoryBudget extends UnitTest {
+    private static final String PROGRAM_FILE = "test/integration/cases/programm1.xml";
+
+    public static void main(String[] args) {
+        System.out.println("=== Testing memory budget ===\n");
+
+        try {
+            testScan();
+            testVerdicts();
+            testParser();
+            testTracking();
+        } catch (IOException e) {
+            check("No I/O error: " + e.getMessage(), false);
+        }
+
+        finish("memory budget");
+    }
+
+    private static void testScan() throws IOException {
+        System.out.println("Testing pre-scan:");
+        String xml = "<?xml version=\"1.0\"?><!-- comment --><export><program><block type=\"a\"/>"
+            + "<block type=\"b\"><field name=\"N\">1 < 2</field></block></program></export>";
+        MemoryBudget budget = new MemoryBudget(100000);
+        budget.scan(new ByteArrayInputStream(xml.getBytes("ISO-8859-1")));
+        check("File size", budget.getFileSize() == xml.length());
+        check("Elements counted (" + budget.getElementCount() + ")", budget.getElementCount() == 5);
+        check("Estimate grows with elements", MemoryBudget.estimate(1000, 20) > MemoryBudget.estimate(1000, 10)
+            && MemoryBudget.estimate(1000, 0) >= 3000 + MemoryBudget.RUN_RESERVE);
+        System.out.println();
+    }
+
+    private static void testVerdicts() {
+        System.out.println("Testing verdicts:");
+        long estimate = MemoryBudget.estimate(0, 0);
+        check("OK", verdict(estimate * 2) == MemoryBudget.OK);
+        check("WARN", verdict(estimate + 1) == MemoryBudget.WARN);
+        check("REFUSE", verdict(estimate - 1) == MemoryBudget.REFUSE);
+
+        MemoryBudget budget = new MemoryBudget(40 * 1024);
+        budget.check();
+        check("Short string fits the display", "Need 4K of 40K".equals(budget.toShortString())
+            && budget.toShortString().length() <= 16);
+        check("Free heap measured", new MemoryBudget().getLimit() > 0);
+        System.out.println();
+    }
+
+    private static void testParser() throws IOException {
+        System.out.println("Testing parser:");
+        ShallowXMLParser parser = new ShallowXMLParser();
+        MemoryBudget small = new MemoryBudget(8 * 1024);
+        parser.setMemoryBudget(small);
+        check("Too large program refused", parser.parseFile(PROGRAM_FILE) == null
+            && small.getVerdict() == MemoryBudget.REFUSE && small.getMaterialized() == 0);
+
+        MemoryBudget large = new MemoryBudget(1024 * 1024);
+        parser.setMemoryBudget(large);
+        IXMLElement root = parser.parseFile(PROGRAM_FILE);
+        check("Program within budget parsed", root != null && large.getVerdict() == MemoryBudget.OK
+            && large.getFileSize() == (int) new File(PROGRAM_FILE).length());
+        check("Root element tracked", large.getMaterialized() == root.getMemoryFootprint());
+        System.out.println();
+    }
+
+    private static void testTracking() {
+        System.out.println("Testing tracking:");
+        MemoryBudget budget = new MemoryBudget(64 * 1024);
+        ShallowXMLParser parser = new ShallowXMLParser();
+        parser.setMemoryBudget(budget);
+        IXMLElement root = parser.parseFile(PROGRAM_FILE);
+        long parsed = budget.getMaterialized();
+        new ProgramCompiler().compile(root.findElement("program"));
+        check("Children materialized while compiling (" + budget.getMaterialized() + " bytes)",
+            budget.getMaterialized() > parsed);
+        check("Used memory within the estimate (" + budget.getUsed() + " of " + budget.getEstimate() + ")",
+            budget.getUsed() + MemoryBudget.RUN_RESERVE <= budget.getEstimate() && !budget.isExceeded());
+
+        MemoryBudget tight = new MemoryBudget(budget.getUsed());
+        tight.materialize((int) budget.getUsed());
+        check("Exceeded", tight.isExceeded());
+        check("Untracked elements", parse("<a><b/></a>").getAllChildren().size() == 1);
+        System.out.println();
+    }
+
+    private static int verdict(long limit) {
+        MemoryBudget budget = new MemoryBudget(limit);
+        return budget.check();
+    }
+}
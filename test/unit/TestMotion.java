@@ -0,0 +1,121 @@
+import java.util.*;
+
+/**
+ * Unit test for non-blocking motor motions
+ *
+ * Runs turns on MockHardware with simulated motion, so rotations take time
+ * on the virtual clock: the turning task waits until the motors stop, other
+ * tasks keep running meanwhile without delays, and a program stopped in the
+ * middle of a turn or a motion abort condition stops the motors.
+ */
+public class TestMotion extends UnitTest {
+    public static void main(String[] args) {
+        System.out.println("=== Testing motions ===\n");
+
+        testPoll();
+        testOtherTasks();
+        testStop();
+        testAbort();
+
+        finish("motion");
+    }
+
+    private static void testPoll() {
+        System.out.println("Testing poll:");
+        MockHardware hardware = hardware();
+        NepoBlockExecutor executor = executor(hardware);
+        // 90 degrees at 50% (360 degrees/second) take 250 ms
+        executor.executeBlock(parse(programOf(instance("robControls_start", turn(50, 90) + drive(number(30))))));
+
+        List<String> log = hardware.getLog();
+        int forward = log.indexOf("Motor A.forward()");
+        check("Polled while moving", count(hardware, "Motor A.isMoving() -> true") > 0);
+        check("Next statement after the turn (at " + hardware.currentTimeMillis() + " ms)",
+            forward > log.lastIndexOf("Motor A.isMoving() -> true") && hardware.currentTimeMillis() >= 250);
+        check("Turn completed, not stopped", count(hardware, "Motor A.stop(true)") == 0);
+        System.out.println();
+    }
+
+    private static void testOtherTasks() {
+        System.out.println("Testing other tasks during a turn:");
+        MockHardware hardware = hardware();
+        NepoBlockExecutor executor = executor(hardware);
+        executor.executeBlock(parse(programOf(instance("robControls_start", turn(50, 90))
+            + instance("robControls_activity", timerReset("1")))));
+
+        List<String> log = hardware.getLog();
+        int reset = log.indexOf("Sensor 1 (TIMER).reset()");
+        check("Second task ran while the motors moved",
+            reset > log.indexOf("Motor A.rotate(-90, true)") && reset < log.lastIndexOf("Motor A.isMoving() -> true"));
+        System.out.println();
+    }
+
+    private static void testStop() {
+        System.out.println("Testing stop during a turn:");
+        MockHardware hardware = hardware();
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware) {
+            private int iterations = 0;
+
+            protected void onIteration() {
+                if (++iterations >= 3) {
+                    setRunning(false);
+                }
+            }
+        };
+        configureDrive(executor);
+        // 3600 degrees at 10% take 50 s; the second task stops the program long before
+        executor.executeBlock(parse(programOf(instance("robControls_start", turn(10, 3600))
+            + instance("robControls_activity", loopForever(timerReset("1"))))));
+
+        check("Stopped before the turn completed (at " + hardware.currentTimeMillis() + " ms)",
+            !executor.isRunning() && hardware.currentTimeMillis() < 50000);
+        check("Both motors stopped", count(hardware, "Motor A.stop(true)") == 1 && count(hardware, "Motor C.stop(true)") == 1);
+        // The turning task is parked, so the running task is never delayed
+        check("No sleep while another task can run", count(hardware, "delay(10)") == 0);
+        check("Motors no longer moving", !hardware.getMotor("A").isMoving() && !hardware.getMotor("C").isMoving());
+        System.out.println();
+    }
+
+    private static void testAbort() {
+        System.out.println("Testing motion abort condition:");
+        // The bumper is pressed 100 ms into the turn
+        MockHardware hardware = new MockHardware(null) {
+            public void delay(int milliseconds) {
+                super.delay(milliseconds);
+                if (currentTimeMillis() >= 100) {
+                    setTouchSensorValue("1", true);
+                }
+            }
+        };
+        hardware.setSimulatedMotion(true);
+        NepoBlockExecutor executor = executor(hardware);
+        executor.setMotionAbortCondition(parse(touch("1")));
+        // 3600 degrees at 10% take 50 s; the bumper ends the turn early
+        executor.executeBlock(parse(program(turn(10, 3600) + drive(number(30)))));
+
+        check("Turn aborted (at " + hardware.currentTimeMillis() + " ms)",
+            executor.isRunning() && hardware.currentTimeMillis() >= 100 && hardware.currentTimeMillis() < 200);
+        check("Both motors stopped", count(hardware, "Motor A.stop(true)") == 1 && count(hardware, "Motor C.stop(true)") == 1);
+        check("Next statement after the aborted turn", count(hardware, "Motor A.forward()") == 1);
+
+        try {
+            executor.setMotionAbortCondition(parse(number(1)));
+            check("Number block rejected", false);
+        } catch (IllegalArgumentException e) {
+            check("Number block rejected", true);
+        }
+        System.out.println();
+    }
+
+    private static MockHardware hardware() {
+        MockHardware hardware = new MockHardware(null);
+        hardware.setSimulatedMotion(true);
+        return hardware;
+    }
+
+    private static NepoBlockExecutor executor(MockHardware hardware) {
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware);
+        configureDrive(executor);
+        return executor;
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Unit test for NepoTask continuations and the TaskScheduler
+ * 
+ * Verifies that frames live on the heap (deep nesting needs no Java stack)
+ * and that the scheduler interleaves tasks in round-robin order.
+ */
+public class TestNepoTask extends UnitTest {
+    public static void main(String[] args) {
+        System.out.println("=== Testing NepoTask and TaskScheduler ===\n");
+        
+        testDeepFrameStack();
+        testFrameAdvance();
+        testRoundRobinScheduling();
+        
+        finish("NepoTask");
+    }
+    
+    private static void testDeepFrameStack() {
+        System.out.println("Testing deep frame stack:");
+        
+        CompiledBlock[] body = new CompiledBlock[] { block("robControls_start") };
+        NepoTask task = new NepoTask("deep", body);
+        for (int i = 0; i < 10000; i++) {
+            task.pushFrame(body, NepoTask.FRAME_SEQUENCE);
+        }
+        check("Depth 10001 after pushing 10000 frames", task.getDepth() == 10001);
+        
+        for (int i = 0; i < 10000; i++) {
+            task.popFrame();
+        }
+        check("Depth 1 after popping", task.getDepth() == 1);
+        check("Task not finished", !task.isFinished());
+        System.out.println();
+    }
+    
+    private static void testFrameAdvance() {
+        System.out.println("Testing frame advance:");
+        
+        CompiledBlock first = block("robControls_start");
+        CompiledBlock second = block("robActions_motorDiff_on");
+        NepoTask task = new NepoTask("advance", new CompiledBlock[] { first, second });
+        
+        check("First statement current", task.getCurrentStatement() == first);
+        task.advance();
+        check("Second statement current", task.getCurrentStatement() == second);
+        task.advance();
+        check("No statement left", !task.hasCurrentStatement());
+        task.jump(0);
+        check("Jump returns to first statement", task.getCurrentStatement() == first);
+        task.popFrame();
+        check("Finished after popping last frame", task.isFinished());
+        System.out.println();
+    }
+    
+    private static void testRoundRobinScheduling() {
+        System.out.println("Testing round-robin scheduling:");
+        
+        // Two tasks driving in opposite directions; with a slice of 2 they must interleave
+        MockHardware hardware = new MockHardware(null);
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware);
+        executor.getConfiguration().addMotor("A", new RobotConfiguration.MotorConfig("A"));
+        
+        TaskScheduler scheduler = new TaskScheduler(null);
+        scheduler.setSliceSteps(2);
+        scheduler.addTask(new NepoTask("a", new CompiledBlock[] {
+            driveBlock("FOREWARD"), driveBlock("FOREWARD"), driveBlock("FOREWARD"), driveBlock("FOREWARD") }));
+        scheduler.addTask(new NepoTask("b", new CompiledBlock[] {
+            driveBlock("BACKWARD"), driveBlock("BACKWARD"), driveBlock("BACKWARD") }));
+        scheduler.run(executor);
+        
+        StringBuilder order = new StringBuilder();
+        java.util.List<String> log = hardware.getLog();
+        for (int i = 0; i < log.size(); i++) {
+            String entry = log.get(i);
+            if (entry.equals("Motor A.forward()")) order.append('a');
+            if (entry.equals("Motor A.backward()")) order.append('b');
+        }
+        check("Task order aabbaab (was " + order + ")", "aabbaab".equals(order.toString()));
+        System.out.println();
+    }
+    
+    private static CompiledBlock block(String type) {
+        return new CompiledBlock(CompiledBlock.OP_NOP, type);
+    }
+    
+    private static CompiledBlock driveBlock(String direction) {
+        IXMLElement block = parse("<block type=\"robActions_motorDiff_on\">"
+            + "<field name=\"DIRECTION\">" + direction + "</field>"
+            + "<value name=\"POWER\">" + number(10) + "</value></block>");
+        return new ProgramCompiler().compileBlock(block).getTask(0)[0];
+    }
+}
@@ -0,0 +1,171 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Unit test for the parse policies and their work counters
+ *
+ * Checks that LAZY, EAGER and EAGER_FOR_PROGRAM_SUBTREE build the same
+ * tree for every integration test program, how much each materializes up
+ * front, and that a program parsed eagerly runs the same.
+ */
+public class TestParsePolicy extends UnitTest {
+    private static final String CASES_DIR = "test/integration/cases";
+    private static final String PROGRAM_FILE = CASES_DIR + "/programm1.xml";
+
+    public static void main(String[] args) {
+        System.out.println("=== Testing parse policies ===\n");
+
+        testSameTree();
+        testNesting();
+        testStats();
+        testExecution();
+
+        finish("parse policy");
+    }
+
+    private static void testSameTree() {
+        System.out.println("Testing same tree for all policies:");
+        File[] files = new File(CASES_DIR).listFiles();
+        Arrays.sort(files);
+        for (int i = 0; i < files.length; i++) {
+            if (!files[i].getName().endsWith(".xml")) {
+                continue;
+            }
+            String path = files[i].getPath();
+            String lazy = dump(parser(ShallowXMLParser.LAZY).parseFile(path));
+            String eager = dump(parser(ShallowXMLParser.EAGER).parseFile(path));
+            String subtree = dump(parser(ShallowXMLParser.EAGER_FOR_PROGRAM_SUBTREE).parseFile(path));
+            check(files[i].getName(), lazy.length() > 0 && lazy.equals(eager) && lazy.equals(subtree));
+        }
+
+        boolean rejected = false;
+        try {
+            new ShallowXMLParser().setParsePolicy(3);
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        check("Unknown policy rejected", rejected);
+        System.out.println();
+    }
+
+    private static void testNesting() {
+        System.out.println("Testing eager nesting:");
+        String xml = "<?xml version=\"1.0\"?><a n=\"1\"><b x=\"2\"/><b><b> t </b></b><c></c>text</a>";
+        IXMLElement lazy = parser(ShallowXMLParser.LAZY).parseXML(xml);
+        IXMLElement eager = parser(ShallowXMLParser.EAGER).parseXML(xml);
+        check("Same tree", dump(lazy).equals(dump(eager)));
+        Vector<IXMLElement> children = eager.getAllChildren();
+        check("Same-name nesting", children.size() == 3
+            && "t".equals(children.elementAt(1).getChild("b").getTextContent()));
+        check("Self-closing and empty", children.elementAt(0).getAllChildren().size() == 0
+            && "".equals(children.elementAt(2).getTextContent()));
+        check("Text after elements", "".equals(eager.getTextContent()));
+        System.out.println();
+    }
+
+    private static void testStats() {
+        System.out.println("Testing counters:");
+        ShallowXMLParser lazy = parser(ShallowXMLParser.LAZY);
+        IXMLElement root = lazy.parseFile(PROGRAM_FILE);
+        check("Lazy parse creates the root only", lazy.getStats().getElements() == 1);
+        int total = count(root);
+        ParseStats stats = lazy.getStats();
+        check("Lazy walk rescans (" + stats + ")", stats.getElements() == total
+            && stats.getRescans() > 0 && stats.getScansPerChar100() > 200);
+
+        ShallowXMLParser eager = parser(ShallowXMLParser.EAGER);
+        eager.parseFile(PROGRAM_FILE);
+        stats = eager.getStats();
+        check("Eager parse materializes everything (" + stats + ")", stats.getElements() == total
+            && stats.getRescans() == 0 && stats.getScansPerChar100() <= 100);
+
+        ShallowXMLParser subtree = parser(ShallowXMLParser.EAGER_FOR_PROGRAM_SUBTREE);
+        root = subtree.parseFile(PROGRAM_FILE);
+        int parsed = subtree.getStats().getElements();
+        IXMLElement program = root.findElement("program");
+        // The program subtree plus export and config, found on the way
+        check("Program subtree materialized, the rest lazy", parsed == count(program) + 2
+            && parsed < total);
+        count(root);
+        check("Fewer rescans than lazy", subtree.getStats().getRescans() < lazy.getStats().getRescans());
+
+        subtree.getStats().reset();
+        check("Reset", subtree.getStats().getElements() == 0 && subtree.getStats().getScannedChars() == 0);
+        System.out.println();
+    }
+
+    private static void testExecution() {
+        System.out.println("Testing execution:");
+        List<String> lazy = run(ShallowXMLParser.LAZY);
+        List<String> eager = run(ShallowXMLParser.EAGER);
+        List<String> subtree = run(ShallowXMLParser.EAGER_FOR_PROGRAM_SUBTREE);
+        check("Same hardware log (" + lazy.size() + " lines)", lazy.size() > 20
+            && lazy.equals(eager) && lazy.equals(subtree));
+        System.out.println();
+    }
+
+    private static ShallowXMLParser parser(int policy) {
+        ShallowXMLParser parser = new ShallowXMLParser();
+        parser.setParsePolicy(policy);
+        return parser;
+    }
+
+    /**
+     * Run programm1 with a dark floor for 20 iterations
+     */
+    private static List<String> run(int policy) {
+        MockHardware hardware = new MockHardware(null);
+        hardware.setLightSensorValue("4", 20);
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware) {
+            private int iterations = 0;
+
+            protected void onIteration() {
+                if (++iterations >= 20) {
+                    setRunning(false);
+                }
+            }
+        };
+        try {
+            CompiledProgram compiled = executor.loadFile(PROGRAM_FILE, parser(policy));
+            hardware.clearLog();
+            executor.runCompiled(compiled);
+        } catch (Exception e) {
+            check("Program ran: " + e.getMessage(), false);
+        }
+        return hardware.getLog();
+    }
+
+    /**
+     * Tags, attributes and text of a tree, one element per line
+     */
+    private static String dump(IXMLElement element) {
+        StringBuffer out = new StringBuffer();
+        dump(element, "", out);
+        return out.toString();
+    }
+
+    private static void dump(IXMLElement element, String indent, StringBuffer out) {
+        if (element == null) {
+            return;
+        }
+        out.append(indent).append(element.getTagName());
+        TreeMap<String, IString> attributes = new TreeMap<String, IString>(element.getAttributes());
+        for (Map.Entry<String, IString> attribute : attributes.entrySet()) {
+            out.append(' ').append(attribute.getKey()).append("=\"").append(attribute.getValue()).append('"');
+        }
+        out.append(" [").append(element.getTextContent()).append("]\n");
+        Vector<IXMLElement> children = element.getAllChildren();
+        for (int i = 0; i < children.size(); i++) {
+            dump(children.elementAt(i), indent + "  ", out);
+        }
+    }
+
+    private static int count(IXMLElement element) {
+        Vector<IXMLElement> children = element.getAllChildren();
+        int count = 1;
+        for (int i = 0; i < children.size(); i++) {
+            count += count(children.elementAt(i));
+        }
+        return count;
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Unit test for procedure calls
+ * 
+ * Verifies the recursion limit, that a function call inside an argument
+ * does not overwrite arguments already passed to the outer call, and that
+ * a wait inside a function sees new sensor values while other tasks run.
+ */
+public class TestProcedures extends UnitTest {
+    public static void main(String[] args) {
+        System.out.println("=== Testing procedures ===\n");
+        
+        testRecursionLimit();
+        testNestedCallArguments();
+        testWaitInFunction();
+        
+        finish("procedure");
+    }
+    
+    private static void testRecursionLimit() {
+        System.out.println("Testing recursion limit:");
+        
+        // again() drives forward and calls itself without end
+        String program = programOf(
+            instance("robControls_start", call("again", ""))
+            + instance(null, define("again", "",
+                drive(number(10))
+                + call("again", ""))));
+        
+        MockHardware hardware = run(program, 5);
+        check("Five calls before the limit stops the task (was " + count(hardware, "Motor A.forward()") + ")",
+            count(hardware, "Motor A.forward()") == 5);
+        System.out.println();
+    }
+    
+    private static void testNestedCallArguments() {
+        System.out.println("Testing nested call arguments:");
+        
+        // twoArgs(10, identity(50)) drives with its first argument
+        String program = programOf(
+            instance("robControls_start", call("twoArgs",
+                arg(0, number(10))
+                + arg(1, callReturn("identity", arg(0, number(50))))))
+            + instance(null, define("twoArgs", param("first") + param("second"),
+                drive(get("first"))))
+            + instance(null, defineReturn("identity", param("x"), "", get("x"))));
+        
+        MockHardware hardware = run(program, NepoBlockExecutor.DEFAULT_RECURSION_LIMIT);
+        check("First argument kept its value", count(hardware, "Motor A.setSpeed(72)") == 1);
+        System.out.println();
+    }
+    
+    private static void testWaitInFunction() {
+        System.out.println("Testing wait inside a function:");
+        
+        // drive(untilPressed()) with a second task resetting a timer in a loop;
+        // both tasks share sensor reads per scheduling round
+        String program = programOf(
+            instance("robControls_start", drive(callReturn("untilPressed", "")))
+            + instance(null, defineReturn("untilPressed", "", waitFor(touch("1")), number(20)))
+            + instance("robControls_activity", loopForever(timerReset("1"))));
+        
+        final MockHardware hardware = new MockHardware(null);
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware) {
+            private int iterations = 0;
+            
+            protected void onIteration() {
+                iterations++;
+                if (iterations == 10) {
+                    hardware.setTouchSensorValue("1", true);
+                } else if (iterations == 200) {
+                    setRunning(false);
+                }
+            }
+        };
+        configureDrive(executor);
+        executor.executeBlock(parse(program));
+        check("Wait ended when pressed, function returned", count(hardware, "Motor A.setSpeed(144)") == 1);
+        System.out.println();
+    }
+    
+    private static MockHardware run(String program, int recursionLimit) {
+        MockHardware hardware = new MockHardware(null);
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware);
+        configureDrive(executor);
+        executor.setRecursionLimit(recursionLimit);
+        executor.executeBlock(parse(program));
+        return hardware;
+    }
+    
+    private static String define(String name, String params, String body) {
+        return "<block type=\"robProcedures_defnoreturn\"><mutation declare=\"true\"></mutation>"
+            + "<field name=\"NAME\">" + name + "</field>"
+            + "<repetitions><statement name=\"PARAMS\">" + params + "</statement>"
+            + "<statement name=\"STACK\">" + body + "</statement></repetitions></block>";
+    }
+    
+    /**
+     * Function returning a number
+     */
+    private static String defineReturn(String name, String params, String body, String result) {
+        return "<block type=\"robProcedures_defreturn\"><mutation declare=\"true\" return_type=\"Number\"></mutation>"
+            + "<field name=\"NAME\">" + name + "</field>"
+            + "<repetitions><statement name=\"PARAMS\">" + params + "</statement>"
+            + "<statement name=\"STACK\">" + body + "</statement>"
+            + "<value name=\"RETURN\">" + result + "</value></repetitions></block>";
+    }
+    
+    private static String param(String name) {
+        return "<block type=\"robLocalVariables_declare\"><field name=\"VAR\">" + name + "</field>"
+            + "<field name=\"TYPE\">Number</field></block>";
+    }
+    
+    private static String call(String name, String args) {
+        return "<block type=\"robProcedures_callnoreturn\"><mutation name=\"" + name + "\"></mutation>" + args + "</block>";
+    }
+    
+    private static String callReturn(String name, String args) {
+        return "<block type=\"robProcedures_callreturn\"><mutation name=\"" + name + "\" output_type=\"Number\"></mutation>"
+            + args + "</block>";
+    }
+    
+    private static String arg(int index, String value) {
+        return "<value name=\"ARG" + index + "\">" + value + "</value>";
+    }
+}
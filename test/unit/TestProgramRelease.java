@@ -0,0 +1,102 @@
+import java.lang.ref.WeakReference;
+
+/**
+ * Unit test for releasing the parsed XML once a program is compiled
+ *
+ * Loads a program with NepoBlockExecutor.loadFile and checks that neither
+ * the element tree nor the XML text is reachable afterwards, and measures
+ * the heap retained by the compiled program against keeping the tree.
+ */
+public class TestProgramRelease extends UnitTest {
+    private static final String PROGRAM_FILE = "test/integration/cases/variables_test.xml";
+
+    /**
+     * Parser that remembers, without keeping them alive, what it created
+     */
+    private static class WatchedParser extends ShallowXMLParser {
+        WeakReference<String> text;
+        WeakReference<IXMLElement> root;
+
+        public IXMLElement parseXML(String xmlContent) {
+            IXMLElement element = super.parseXML(xmlContent);
+            text = new WeakReference<String>(xmlContent);
+            root = new WeakReference<IXMLElement>(element);
+            return element;
+        }
+    }
+
+    public static void main(String[] args) {
+        System.out.println("=== Testing program release ===\n");
+
+        try {
+            testReleased();
+            testRetainedHeap();
+        } catch (Exception e) {
+            check("Program loaded: " + e.getMessage(), false);
+        }
+
+        finish("program release");
+    }
+
+    private static void testReleased() throws Exception {
+        System.out.println("Testing release:");
+        MockHardware hardware = new MockHardware(null);
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware) {
+            private int iterations = 0;
+
+            protected void onIteration() {
+                if (++iterations >= 5) {
+                    setRunning(false);
+                }
+            }
+        };
+        WatchedParser parser = new WatchedParser();
+        CompiledProgram compiled = executor.loadFile(PROGRAM_FILE, parser);
+        check("Program compiled", compiled != null && compiled.getTaskCount() == 1);
+
+        collect(parser.root);
+        check("Element tree collected", parser.root.get() == null);
+        check("XML text collected", parser.text.get() == null);
+
+        hardware.clearLog();
+        executor.runCompiled(compiled);
+        check("Compiled program runs", hardware.getLog().size() > 0);
+        check("Unparsable file", executor.loadFile("missing.xml", parser) == null);
+        System.out.println();
+    }
+
+    private static void testRetainedHeap() throws Exception {
+        System.out.println("Testing retained heap:");
+        MockHardware hardware = new MockHardware(null);
+        ShallowXMLParser parser = new ShallowXMLParser();
+
+        long baseline = usedHeap();
+        CompiledProgram compiled = new NepoBlockExecutor(hardware).loadFile(PROGRAM_FILE, parser);
+        long released = usedHeap() - baseline;
+
+        baseline = usedHeap();
+        IXMLElement root = parser.parseFile(PROGRAM_FILE);
+        CompiledProgram kept = new NepoBlockExecutor(hardware).loadProgram(root);
+        long retained = usedHeap() - baseline;
+
+        long textSize = new java.io.File(PROGRAM_FILE).length();
+        System.out.println("  Retained: " + released + " bytes compiled, " + retained + " bytes with the XML");
+        check("XML not retained", compiled != null && kept != null && root != null
+            && retained - released >= textSize);
+        System.out.println();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void collect(WeakReference<?> reference) {
+        for (int i = 0; i < 10 && reference.get() != null; i++) {
+            System.gc();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import java.io.*;
+
+/**
+ * Unit test for the ring of recent execution events
+ *
+ * Checks the ring order and wrap-around, the dump format and that the
+ * executor records statements and sensor reads.
+ */
+public class TestRecentEvents extends UnitTest {
+    public static void main(String[] args) {
+        System.out.println("=== Testing recent events ===\n");
+
+        testRing();
+        testDump();
+        testExecutor();
+
+        finish("recent events");
+    }
+
+    private static void testRing() {
+        System.out.println("Testing ring:");
+        RecentEvents events = new RecentEvents(4);
+        for (int i = 0; i < 10; i++) {
+            events.recordSensor("1", SensorTypes.LIGHT, i, i * 10);
+        }
+        check("Counts all events", events.getCount() == 10);
+        check("Keeps the newest, oldest first", "60 ms  sensor 1 LIGHT = 6.0".equals(events.getEvent(0))
+            && "90 ms  sensor 1 LIGHT = 9.0".equals(events.getEvent(3)));
+
+        boolean rejected = false;
+        try {
+            events.getEvent(4);
+        } catch (IndexOutOfBoundsException e) {
+            rejected = true;
+        }
+        check("Only events in the ring", rejected);
+
+        events.clear();
+        check("Clear", events.getCount() == 0);
+        System.out.println();
+    }
+
+    private static void testDump() {
+        System.out.println("Testing dump:");
+        RecentEvents events = new RecentEvents(8);
+        CompiledBlock wait = new CompiledBlock(CompiledBlock.OP_WAIT, "robControls_wait");
+        wait.id = "a7";
+        events.recordBlock(wait, 1200);
+        events.recordSensor("4", SensorTypes.LIGHT, 75, 1200);
+        events.recordBlock(new CompiledBlock(CompiledBlock.OP_NOP, "robControls_start"), 1210);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        events.dump(new PrintStream(out));
+        String expected = "  1200 ms  block robControls_wait a7\n"
+            + "  1200 ms  sensor 4 LIGHT = 75.0\n"
+            + "  1210 ms  block robControls_start\n";
+        check("One line per event", expected.equals(out.toString().replace("\r\n", "\n")));
+        System.out.println();
+    }
+
+    private static void testExecutor() {
+        System.out.println("Testing executor recording:");
+        MockHardware hardware = new MockHardware(null);
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware);
+        check("Disabled by default", executor.getRecentEvents() == null);
+
+        RecentEvents events = new RecentEvents(4);
+        executor.setRecentEvents(events);
+        hardware.delay(500);
+        executor.executeBlock(parse(program("<block type=\"robControls_wait\" id=\"w\"><value name=\"WAIT0\">"
+            + compare("GT", light("3"), number(10)) + "</value></block>")));
+
+        check("Statement recorded", "500 ms  block robControls_wait w".equals(events.getEvent(0)));
+        check("Sensor read recorded", "500 ms  sensor 3 LIGHT = 75.0".equals(events.getEvent(1)));
+        System.out.println();
+    }
+}
@@ -0,0 +1,120 @@
+import java.io.*;
+
+/**
+ * Unit test for the buffered, rotating log file
+ *
+ * Checks that output reaches the file only in whole blocks until it is
+ * flushed, that writing realigns to block boundaries after a flush, and
+ * the rotation to the .1 file.
+ */
+public class TestRotatingLog extends UnitTest {
+    private static final int BLOCK = RotatingLog.BLOCK_SIZE;
+
+    public static void main(String[] args) {
+        System.out.println("=== Testing rotating log ===\n");
+
+        try {
+            testBlockWrites();
+            testAppend();
+            testRotation();
+        } catch (IOException e) {
+            check("No I/O error: " + e.getMessage(), false);
+        }
+
+        finish("rotating log");
+    }
+
+    private static void testBlockWrites() throws IOException {
+        System.out.println("Testing block writes:");
+        File file = tempFile("block.log");
+        RotatingLog log = new RotatingLog(file.getPath(), 100 * BLOCK);
+
+        log.println("short line");
+        check("Buffered until a block is full", !file.exists() || file.length() == 0);
+        for (int i = 0; i < 40; i++) {
+            log.println("line " + i);
+        }
+        check("Whole blocks written (" + file.length() + " bytes)", file.length() > 0
+            && file.length() % BLOCK == 0 && log.getSize() > file.length());
+
+        log.flush();
+        long flushed = file.length();
+        check("Flush writes the partial block", flushed == log.getSize() && flushed % BLOCK != 0);
+
+        byte[] data = new byte[2 * BLOCK];
+        log.write(data, 0, data.length);
+        check("Realigned to block boundaries after a flush", file.length() % BLOCK == 0
+            && file.length() > flushed);
+
+        PrintStream ps = new PrintStream(log);
+        ps.println("through a PrintStream");
+        ps.close();
+        check("Closed log holds every byte", file.length() == log.getSize()
+            && readFile(file).endsWith("through a PrintStream\n"));
+        System.out.println();
+    }
+
+    private static void testAppend() throws IOException {
+        System.out.println("Testing append:");
+        File file = tempFile("append.log");
+        RotatingLog first = new RotatingLog(file.getPath(), 10 * BLOCK);
+        first.println("first run");
+        first.close();
+        first.println("reopened");
+        first.close();
+
+        RotatingLog second = new RotatingLog(file.getPath(), 10 * BLOCK);
+        second.println("second run");
+        second.close();
+        check("Existing file appended", readFile(file).equals("first run\nreopened\nsecond run\n"));
+        check("Rotated name", RotatingLog.rotatedName("crash.log").equals("crash.1.log")
+            && RotatingLog.rotatedName("events").equals("events.1"));
+        System.out.println();
+    }
+
+    private static void testRotation() throws IOException {
+        System.out.println("Testing rotation:");
+        File file = tempFile("crash.log");
+        File rotated = new File(RotatingLog.rotatedName(file.getPath()));
+        rotated.deleteOnExit();
+        int maxSize = 4 * BLOCK;
+        RotatingLog log = new RotatingLog(file.getPath(), maxSize);
+
+        StringBuffer all = new StringBuffer();
+        for (int i = 0; i < 200; i++) {
+            String line = "event " + i;
+            log.println(line);
+            all.append(line).append('\n');
+        }
+        log.close();
+
+        String current = readFile(file);
+        String older = readFile(rotated);
+        check("Rotated file created", rotated.exists() && older.length() >= maxSize);
+        check("Size capped (" + file.length() + " and " + rotated.length() + " bytes)",
+            file.length() < maxSize + BLOCK && rotated.length() < maxSize + BLOCK);
+        check("Nothing lost in the newest data", all.toString().endsWith(older + current));
+        System.out.println();
+    }
+
+    private static File tempFile(String name) throws IOException {
+        File file = File.createTempFile("rotating", name);
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static String readFile(File file) throws IOException {
+        if (!file.exists()) {
+            return "";
+        }
+        StringBuffer content = new StringBuffer();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), "ISO-8859-1")) {
+            int c;
+            while ((c = reader.read()) >= 0) {
+                content.append((char) c);
+            }
+        }
+        return content.toString();
+    }
+}
@@ -0,0 +1,167 @@
+import java.util.*;
+
+/**
+ * Unit test for the sensor filter stage
+ *
+ * Checks median, moving average and debounce, which sensors are filtered,
+ * the FILTER_* configuration fields and filtering of program reads.
+ */
+public class TestSensorFilter extends UnitTest {
+    public static void main(String[] args) {
+        System.out.println("=== Testing sensor filters ===\n");
+
+        testMedian();
+        testAverage();
+        testDebounce();
+        testForConfig();
+        testConfiguration();
+        testFilteredReads();
+
+        finish("sensor filter");
+    }
+
+    private static void testMedian() {
+        System.out.println("Testing median:");
+        SensorFilter filter = new SensorFilter(3, 0, 0);
+        check("First sample passes", filter.filter(40, 0) == 40);
+        filter.filter(42, 0);
+        check("Glitch removed", filter.filter(5, 0) == 40);
+        check("Window slides", filter.filter(44, 0) == 42 && filter.filter(46, 0) == 44);
+        check("Level change passes after half the window", filter.filter(80, 0) == 46
+            && filter.filter(80, 0) == 80);
+
+        filter.reset();
+        check("Reset forgets samples", filter.filter(7, 0) == 7);
+        System.out.println();
+    }
+
+    private static void testAverage() {
+        System.out.println("Testing moving average:");
+        SensorFilter filter = new SensorFilter(0, 0.5, 0);
+        check("Starts at the first sample", filter.filter(40, 0) == 40);
+        check("Moves halfway", filter.filter(60, 0) == 50 && filter.filter(60, 0) == 55);
+
+        SensorFilter combined = new SensorFilter(3, 0.5, 0);
+        combined.filter(40, 0);
+        combined.filter(40, 0);
+        check("Median before average", combined.filter(0, 0) == 40);
+        System.out.println();
+    }
+
+    private static void testDebounce() {
+        System.out.println("Testing debounce:");
+        SensorFilter filter = new SensorFilter(0, 0, 20);
+        check("Starts at the first sample", filter.filter(0, 0) == 0);
+        check("Bounce ignored", filter.filter(1, 5) == 0 && filter.filter(0, 8) == 0
+            && filter.filter(1, 10) == 0);
+        check("Stable change passes", filter.filter(1, 25) == 0 && filter.filter(1, 30) == 1);
+
+        boolean rejected = false;
+        try {
+            new SensorFilter(SensorFilter.MAX_MEDIAN_WINDOW + 1, 0, 0);
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        check("Window limited", rejected);
+        System.out.println();
+    }
+
+    private static void testForConfig() {
+        System.out.println("Testing filtered sensors:");
+        RobotConfiguration.SensorConfig config = new RobotConfiguration.SensorConfig("1", "light");
+        check("Unconfigured port", SensorFilter.forConfig(null, SensorTypes.LIGHT) == null
+            && SensorFilter.forConfig(config, SensorTypes.LIGHT) == null);
+
+        config.medianWindow = 3;
+        config.debounce = 10;
+        check("Numeric sensor", SensorFilter.forConfig(config, SensorTypes.LIGHT) != null
+            && !SensorFilter.forConfig(config, SensorTypes.LIGHT).needsTime());
+        check("Touch debounced", SensorFilter.forConfig(config, SensorTypes.TOUCH).needsTime());
+        check("Timer, encoder and keys unfiltered", SensorFilter.forConfig(config, SensorTypes.TIMER) == null
+            && SensorFilter.forConfig(config, SensorTypes.ENCODER) == null
+            && SensorFilter.forConfig(config, SensorTypes.KEY) == null);
+        System.out.println();
+    }
+
+    private static void testConfiguration() {
+        System.out.println("Testing configuration fields:");
+        RobotConfiguration config = parseConfig(
+            "<value name=\"S3\"><block type=\"robBrick_light\">"
+            + "<field name=\"FILTER_MEDIAN\">5</field><field name=\"FILTER_AVERAGE\">0.25</field></block></value>"
+            + "<value name=\"S1\"><block type=\"robBrick_touch\"><field name=\"FILTER_DEBOUNCE\">15</field></block></value>"
+            + "<value name=\"S4\"><block type=\"robBrick_ultrasonic\">"
+            + "<field name=\"FILTER_MEDIAN\">50</field><field name=\"FILTER_AVERAGE\">x</field></block></value>");
+
+        check("Median and average", config.getSensor("3").medianWindow == 5
+            && config.getSensor("3").averageWeight == 0.25);
+        check("Debounce", config.getSensor("1").debounce == 15);
+        check("Invalid values leave the filter off", config.getSensor("4").medianWindow == 0
+            && config.getSensor("4").averageWeight == 0);
+        System.out.println();
+    }
+
+    private static void testFilteredReads() {
+        System.out.println("Testing filtered reads:");
+        MockHardware hardware = new MockHardware(null);
+        RobotConfiguration config = new RobotConfiguration();
+        RobotConfiguration.SensorConfig light = new RobotConfiguration.SensorConfig("3", "light");
+        light.medianWindow = 3;
+        config.addSensor("3", light);
+
+        SensorSamples samples = new SensorSamples(false);
+        samples.setConfiguration(config);
+        int slot = samples.slotFor("3", SensorTypes.LIGHT);
+        int timer = samples.slotFor("3", SensorTypes.TIMER);
+
+        double[] raw = { 75, 75, 5, 75, 74 };
+        boolean glitchRemoved = true;
+        for (int i = 0; i < raw.length; i++) {
+            hardware.setLightSensorValue("3", raw[i]);
+            double value = samples.sample(slot, hardware);
+            glitchRemoved &= value >= 74;
+        }
+        check("Single-sample glitch never reaches the program", glitchRemoved);
+        hardware.delay(30);
+        check("Timer on the same port unfiltered", samples.sample(timer, hardware) == 30);
+
+        // Background sampling filters in the sampler thread
+        light.medianWindow = 0;
+        light.averageWeight = 0.5;
+        SensorSampler sampler = new SensorSampler(hardware);
+        SensorSamples background = new SensorSamples(false);
+        background.setConfiguration(config);
+        background.setSampler(sampler, null);
+        hardware.setLightSensorValue("3", 75);
+        int backgroundSlot = background.slotFor("3", SensorTypes.LIGHT);
+        sampler.start();
+        hardware.setLightSensorValue("3", 35);
+        long deadline = System.currentTimeMillis() + 2000;
+        double value = 75;
+        while (value == 75 && System.currentTimeMillis() < deadline) {
+            sleepFor(1);
+            value = background.sample(backgroundSlot, hardware);
+        }
+        sampler.shutdown();
+        boolean backgroundFiltered = value > 35 && value < 75;
+        check("Background samples filtered", backgroundFiltered);
+        System.out.println();
+    }
+
+    private static RobotConfiguration parseConfig(String ports) {
+        try {
+            return new ConfigurationBlockExecutor().parseConfiguration(parse(
+                "<config><block_set><instance><block type=\"robBrick_EV3-Brick\">" + ports
+                + "</block></instance></block_set></config>"));
+        } catch (ConfigurationException e) {
+            return new RobotConfiguration();
+        }
+    }
+
+    private static void sleepFor(int ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            // Continue
+        }
+    }
+}
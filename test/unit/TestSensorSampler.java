@@ -0,0 +1,194 @@
+import java.util.*;
+
+/**
+ * Unit test for background sensor sampling
+ *
+ * Runs SensorSampler against MockHardware in real time and checks that
+ * changed values are picked up, periods and staleness are reported, resets
+ * are never answered with a stale sample, and the sampler stops with the
+ * program.
+ */
+public class TestSensorSampler extends UnitTest {
+    // Generous bound for waiting on the sampler thread
+    private static final int TIMEOUT = 2000; // ms
+
+    public static void main(String[] args) {
+        System.out.println("=== Testing background sensor sampling ===\n");
+
+        testPickup();
+        testPeriods();
+        testReset();
+        testFilterReset();
+        testProgram();
+
+        finish("sensor sampler");
+    }
+
+    private static void testPickup() {
+        System.out.println("Testing value pickup:");
+        MockHardware hardware = new MockHardware(null);
+        hardware.setDistanceSensorValue("4", 23);
+        SensorSampler sampler = new SensorSampler(hardware);
+        int slot = sampler.add("4", SensorTypes.ULTRASONIC, 30, null);
+        check("First sample taken on registration", slot == 0 && sampler.getValue(slot) == 23);
+
+        sampler.start();
+        hardware.setDistanceSensorValue("4", 12);
+        check("Changed value picked up", waitForValue(sampler, slot, 12));
+
+        sleep(200);
+        check("Sampled repeatedly", sampler.getSampleCount(slot) > 2 && sampler.getSampleRate(slot) > 0);
+        check("Sample rate bounded by the period", sampler.getSampleRate(slot) <= 1000.0 / 30 + 10);
+        check("Staleness below a few periods", sampler.getAge(slot) >= 0 && sampler.getAge(slot) < 500);
+
+        sampler.shutdown();
+        check("Thread stopped", !sampler.isAlive());
+        System.out.println();
+    }
+
+    private static void testPeriods() {
+        System.out.println("Testing sample periods:");
+        MockHardware hardware = new MockHardware(null);
+        SensorSampler sampler = new SensorSampler(hardware);
+        Hashtable<String, Integer> periods = new Hashtable<String, Integer>();
+        periods.put("4", Integer.valueOf(5));
+        periods.put("2", Integer.valueOf(50));
+        SensorSamples samples = new SensorSamples(false);
+        samples.setSampler(sampler, periods);
+
+        int touch = samples.slotFor("1", SensorTypes.TOUCH);
+        int distance = samples.slotFor("4", SensorTypes.ULTRASONIC);
+        int sound = samples.slotFor("2", SensorTypes.SOUND);
+        int light = samples.slotFor("3", SensorTypes.LIGHT);
+        int timer = samples.slotFor("1", SensorTypes.TIMER);
+
+        check("Touch polled fastest", sampler.getPeriod(touch) == SensorTypes.PRESSED_SAMPLE_PERIOD);
+        check("Configured period above the minimum interval",
+            sampler.getPeriod(distance) == SensorTypes.ULTRASONIC_MIN_INTERVAL);
+        check("Configured period used", sampler.getPeriod(sound) == 50);
+        check("Default period", sampler.getPeriod(light) == SensorTypes.DEFAULT_SAMPLE_PERIOD);
+        check("Timer read synchronously", !samples.isBackgroundSampled(timer)
+            && samples.isBackgroundSampled(light) && samples.getStaleness(timer) == 0);
+
+        hardware.delay(70);
+        check("Timer value current", samples.sample(timer, hardware) == 70);
+        System.out.println();
+    }
+
+    private static void testReset() {
+        System.out.println("Testing reset:");
+        MockHardware hardware = new MockHardware(null);
+        SensorSampler sampler = new SensorSampler(hardware);
+        SensorSamples samples = new SensorSamples(false);
+        samples.setSampler(sampler, null);
+        int slot = samples.slotFor("B", SensorTypes.ENCODER);
+        sampler.start();
+
+        hardware.getMotor("B").rotate(720, true);
+        check("Encoder sampled in the background", waitForValue(sampler, 0, 720)
+            && samples.sample(slot, hardware) == 720);
+        samples.reset(slot, hardware);
+        check("No stale sample after reset", samples.sample(slot, hardware) == 0);
+
+        sleep(100);
+        check("Background sampling resumed", samples.sample(slot, hardware) == 0
+            && sampler.getSampleCount(0) > 2);
+        sampler.shutdown();
+        System.out.println();
+    }
+
+    private static void testFilterReset() {
+        System.out.println("Testing filter reset:");
+        MockHardware hardware = new MockHardware(null);
+        RobotConfiguration config = new RobotConfiguration();
+        RobotConfiguration.SensorConfig light = new RobotConfiguration.SensorConfig("3", "light");
+        light.averageWeight = 0.5;
+        config.addSensor("3", light);
+        SensorSampler sampler = new SensorSampler(hardware);
+        SensorSamples samples = new SensorSamples(false);
+        samples.setConfiguration(config);
+        samples.setSampler(sampler, null);
+        hardware.setLightSensorValue("3", 75);
+        int slot = samples.slotFor("3", SensorTypes.LIGHT);
+
+        // Sampler not started yet: after a reset every read is synchronous
+        samples.reset(slot, hardware);
+        samples.sample(slot, hardware);
+        hardware.setLightSensorValue("3", 35);
+        check("Synchronous reads averaged", samples.sample(slot, hardware) == 55);
+        samples.reset(slot, hardware);
+        check("Synchronous average restarted", samples.sample(slot, hardware) == 35);
+
+        int count = sampler.getSampleCount(0);
+        sampler.start();
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (sampler.getSampleCount(0) < count + 1 && System.currentTimeMillis() < deadline) {
+            sleep(1);
+        }
+        sampler.shutdown();
+        // Without the reset the sampler would average 75 and 35
+        check("Background average restarted", sampler.getValue(0) == 35);
+        System.out.println();
+    }
+
+    private static void testProgram() {
+        System.out.println("Testing program with background sampling:");
+        final MockHardware hardware = new MockHardware(null);
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware) {
+            private long start = System.currentTimeMillis();
+
+            protected void onIteration() {
+                sleep(1);
+                if (System.currentTimeMillis() - start > TIMEOUT) {
+                    setRunning(false);
+                }
+            }
+        };
+        executor.setBackgroundSampling(true);
+
+        Thread changer = new Thread() {
+            public void run() {
+                TestSensorSampler.sleep(50);
+                hardware.setLightSensorValue("3", 40);
+            }
+        };
+        changer.start();
+        executor.executeBlock(parse(program(waitFor(compare("LT", light("3"), number(50))))));
+
+        // A timeout stops the executor
+        check("Wait reacted to the sampled value", executor.isRunning()
+            && countStartingWith(hardware, "Sensor 3 (LIGHT).getValue() -> 40.0") > 0);
+        check("Configured sensors registered", executor.getSensorSamples().getSlotCount() == 3
+            && executor.getSensorSamples().isBackgroundSampled(0));
+        check("Sampler stopped with the program", !isSamplerAlive());
+        System.out.println();
+    }
+
+    private static boolean waitForValue(SensorSampler sampler, int slot, double value) {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (sampler.getValue(slot) != value) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            sleep(1);
+        }
+        return true;
+    }
+
+    private static boolean isSamplerAlive() {
+        Iterator<Thread> threads = Thread.getAllStackTraces().keySet().iterator();
+        while (threads.hasNext()) {
+            Thread thread = threads.next();
+            if (thread instanceof SensorSampler && thread.isAlive()) return true;
+        }
+        return false;
+    }
+
+    private static void sleep(int ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            // Continue
+        }
+    }
+}
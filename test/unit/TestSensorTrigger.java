@@ -0,0 +1,243 @@
+import java.util.*;
+
+/**
+ * Unit test for sensor triggers and parked wait blocks
+ *
+ * Checks level, edge and debounce semantics of SensorTrigger, which wait
+ * conditions ProgramCompiler turns into triggers, and that a parked task
+ * only samples its sensor and sleeps instead of spinning, with and without
+ * background sampling.
+ */
+public class TestSensorTrigger extends UnitTest {
+    public static void main(String[] args) {
+        System.out.println("=== Testing sensor triggers ===\n");
+
+        testLevel();
+        testEdges();
+        testDebounce();
+        testCompiledWaits();
+        testParkedWait();
+        testEdgeWait();
+        testIdleWait();
+
+        finish("sensor trigger");
+    }
+
+    private static void testLevel() {
+        System.out.println("Testing level triggers:");
+        MockHardware hardware = new MockHardware(null);
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware);
+        NepoTask task = new NepoTask("test", new CompiledBlock[0]);
+        SensorTrigger dark = new SensorTrigger(lightSample(), CoreNodes.OP_LT, 50, SensorTrigger.LEVEL, 0);
+
+        check("Does not fire while bright", !dark.arm(task, executor) && !dark.poll(task, executor));
+        hardware.setLightSensorValue("3", 40);
+        check("Fires when dark", dark.poll(task, executor));
+        check("Fires at once if already dark", dark.arm(task, executor));
+
+        SensorTrigger pressed = SensorTrigger.pressed(touchSample(), SensorTrigger.LEVEL, 0);
+        check("Pressed not yet", !pressed.arm(task, executor));
+        hardware.setTouchSensorValue("1", true);
+        check("Pressed", pressed.poll(task, executor));
+        System.out.println();
+    }
+
+    private static void testEdges() {
+        System.out.println("Testing edge triggers:");
+        MockHardware hardware = new MockHardware(null);
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware);
+        NepoTask task = new NepoTask("test", new CompiledBlock[0]);
+        SensorTrigger crossing = new SensorTrigger(lightSample(), CoreNodes.OP_GT, 60, SensorTrigger.RISING, 0);
+
+        check("Rising needs a crossing, not a level", !crossing.arm(task, executor) && !crossing.poll(task, executor));
+        hardware.setLightSensorValue("3", 40);
+        check("Below the value", !crossing.poll(task, executor));
+        hardware.setLightSensorValue("3", 70);
+        check("Crossed upwards", crossing.poll(task, executor));
+
+        hardware.setTouchSensorValue("1", true);
+        SensorTrigger released = SensorTrigger.pressed(touchSample(), SensorTrigger.FALLING, 0);
+        check("Falling armed while pressed", !released.arm(task, executor) && !released.poll(task, executor));
+        hardware.setTouchSensorValue("1", false);
+        check("Released", released.poll(task, executor));
+        System.out.println();
+    }
+
+    private static void testDebounce() {
+        System.out.println("Testing debounce:");
+        MockHardware hardware = new MockHardware(null);
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware);
+        NepoTask task = new NepoTask("test", new CompiledBlock[0]);
+        SensorTrigger dark = new SensorTrigger(lightSample(), CoreNodes.OP_LT, 50, SensorTrigger.LEVEL, 30);
+
+        hardware.setLightSensorValue("3", 40);
+        check("Not before the window", !dark.arm(task, executor));
+        hardware.delay(20);
+        hardware.setLightSensorValue("3", 75);
+        check("Glitch restarts the window", !dark.poll(task, executor));
+        hardware.setLightSensorValue("3", 40);
+        check("Window restarted", !dark.poll(task, executor));
+        hardware.delay(20);
+        check("Inside the window", !dark.poll(task, executor));
+        hardware.delay(10);
+        check("Fires after the window", dark.poll(task, executor));
+        System.out.println();
+    }
+
+    private static void testCompiledWaits() {
+        System.out.println("Testing compiled waits:");
+        check("Sensor compared with a number", compileWait(compare("LT", light("3"), number(50))) != null);
+        check("Number compared with a sensor", compileWait(compare("GT", number(50), light("3"))) != null);
+        check("Pressed sensor", compileWait(touch("1")) != null);
+        check("Compound condition evaluated as a whole", compileWait("<block type=\"logic_operation\">"
+            + "<field name=\"OP\">OR</field><value name=\"A\">" + compare("LT", light("3"), number(50))
+            + "</value><value name=\"B\">" + touch("1") + "</value></block>") == null);
+        check("Two sensors evaluated as a whole",
+            compileWait(compare("LT", light("3"), light("2"))) == null);
+
+        ProgramCompiler compiler = new ProgramCompiler();
+        compiler.setWaitDebounce(25);
+        CompiledBlock wait = findWait(compiler.compile(parse(
+            program(waitFor(compare("LT", light("3"), number(50)))))).getTask(0));
+        check("Debounce from the compiler", wait.trigger.getDebounce() == 25
+            && wait.trigger.getKind() == SensorTrigger.LEVEL);
+
+        // Negated conditions wait for the opposite comparison
+        MockHardware hardware = new MockHardware(null);
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware);
+        NepoTask task = new NepoTask("test", new CompiledBlock[0]);
+        SensorTrigger released = compileWait(negate(touch("1")));
+        check("Negated pressed sensor fires while released", released != null
+            && released.getKind() == SensorTrigger.LEVEL && released.arm(task, executor));
+        SensorTrigger bright = compileWait(negate(compare("LT", light("3"), number(50))));
+        hardware.setLightSensorValue("3", 50);
+        check("Negated comparison", bright != null && bright.arm(task, executor));
+
+        compiler = new ProgramCompiler();
+        compiler.setEdgeWaits(true);
+        check("Rising edge with edge waits",
+            compileWait(compiler, touch("1")).getKind() == SensorTrigger.RISING);
+        check("Negation is a falling edge",
+            compileWait(compiler, negate(compare("LT", light("3"), number(50)))).getKind() == SensorTrigger.FALLING);
+        check("Double negation is a rising edge",
+            compileWait(compiler, negate(negate(touch("1")))).getKind() == SensorTrigger.RISING);
+        System.out.println();
+    }
+
+    private static void testParkedWait() {
+        System.out.println("Testing parked wait:");
+        final MockHardware hardware = new MockHardware(null);
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware) {
+            private int iterations = 0;
+
+            protected void onIteration() {
+                if (++iterations == 5) {
+                    hardware.setLightSensorValue("3", 40);
+                }
+                if (iterations > 100) {
+                    setRunning(false);
+                }
+            }
+        };
+        executor.executeBlock(parse(program(
+            waitFor(compare("GT", number(50), light("3")))
+            + "<block type=\"robSensors_timer_reset\"><field name=\"SENSORPORT\">1</field></block>")));
+
+        check("Wait ended when dark", executor.isRunning());
+        check("One sample per poll", countStartingWith(hardware, "Sensor 3 (LIGHT).getValue()") == 6);
+        // Without a sampler the scheduler sleeps one light sampling period between polls
+        check("Slept between polls", countStartingWith(hardware, "delay(10)") == 5);
+        check("Continued after the wait", countStartingWith(hardware, "Sensor 1 (TIMER).reset()") == 1);
+        System.out.println();
+    }
+
+    private static void testEdgeWait() {
+        System.out.println("Testing edge wait on a held button:");
+        final MockHardware hardware = new MockHardware(null);
+        final int[] resetsBeforePress = new int[] { -1 };
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware) {
+            private int iterations = 0;
+
+            protected void onIteration() {
+                iterations++;
+                if (iterations == 5) {
+                    hardware.setTouchSensorValue("1", false);
+                } else if (iterations == 10) {
+                    resetsBeforePress[0] = countStartingWith(hardware, "Sensor 1 (TIMER).reset()");
+                    hardware.setTouchSensorValue("1", true);
+                } else if (iterations > 100) {
+                    setRunning(false);
+                }
+            }
+        };
+        executor.setEdgeWaits(true);
+        hardware.setTouchSensorValue("1", true);
+        executor.executeBlock(parse(program(waitFor(touch("1")) + timerReset("1"))));
+
+        check("Held button does not end the wait", resetsBeforePress[0] == 0);
+        check("New press ends the wait", executor.isRunning()
+            && countStartingWith(hardware, "Sensor 1 (TIMER).reset()") == 1);
+        System.out.println();
+    }
+
+    private static void testIdleWait() {
+        System.out.println("Testing idle wait with background sampling:");
+        final MockHardware hardware = new MockHardware(null);
+        final int[] polls = new int[1];
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware) {
+            private long start = System.currentTimeMillis();
+
+            protected void onIteration() {
+                polls[0]++;
+                if (System.currentTimeMillis() - start > 2000) {
+                    setRunning(false);
+                }
+            }
+        };
+        executor.setBackgroundSampling(true);
+
+        Thread changer = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    // Continue
+                }
+                hardware.setTouchSensorValue("1", true);
+            }
+        };
+        changer.start();
+        long start = System.currentTimeMillis();
+        executor.executeBlock(parse(program(waitFor(touch("1")))));
+        long elapsed = System.currentTimeMillis() - start;
+
+        check("Wait ended when pressed", executor.isRunning() && elapsed >= 200);
+        // Busy polling would spin hundreds of thousands of times in 200 ms;
+        // parked, the task is polled about once per sampling pass (5 ms for touch)
+        check("Polled once per sampling pass (" + polls[0] + " polls)", polls[0] > 0 && polls[0] < 200);
+        System.out.println();
+    }
+
+    private static SensorTrigger compileWait(String condition) {
+        return compileWait(new ProgramCompiler(), condition);
+    }
+
+    private static SensorTrigger compileWait(ProgramCompiler compiler, String condition) {
+        return findWait(compiler.compile(parse(program(waitFor(condition)))).getTask(0)).trigger;
+    }
+
+    private static CompiledBlock findWait(CompiledBlock[] statements) {
+        for (int i = 0; i < statements.length; i++) {
+            if (statements[i].opcode == CompiledBlock.OP_WAIT) return statements[i];
+        }
+        return null;
+    }
+
+    private static SensorNodes.Sample lightSample() {
+        return (SensorNodes.Sample) compile(light("3"));
+    }
+
+    private static SensorNodes.Sample touchSample() {
+        return (SensorNodes.Sample) compile(touch("1"));
+    }
+}
@@ -0,0 +1,137 @@
+import java.util.*;
+
+/**
+ * Unit test for the sensor blocks and the shared sampling contract
+ * 
+ * Reads every sensor type from MockHardware and checks units, modes,
+ * resets and the minimum sample interval.
+ */
+public class TestSensors extends UnitTest {
+    public static void main(String[] args) {
+        System.out.println("=== Testing sensors ===\n");
+        
+        testNumericSensors();
+        testPressedSensors();
+        testEncoder();
+        testTimer();
+        testMinSampleInterval();
+        testSampleTable();
+        
+        finish("sensor");
+    }
+    
+    private static void testNumericSensors() {
+        System.out.println("Testing numeric sensors:");
+        MockHardware hardware = new MockHardware(null);
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware);
+        hardware.setDistanceSensorValue("4", 23);
+        hardware.setSensorValue("2", "SOUND", Double.valueOf(61));
+        hardware.setSensorValue("3", "COLOR", Double.valueOf(5));
+        hardware.setSensorValue("3", "COLOR_AMBIENTLIGHT", Double.valueOf(12));
+        hardware.setSensorValue("1", "GYRO", Double.valueOf(-90));
+        hardware.setSensorValue("1", "AMBIENTLIGHT", Double.valueOf(8));
+        
+        check("Ultrasonic distance", eval(executor, sensor("ultrasonic", "DISTANCE", "4")) == 23);
+        check("Sound", eval(executor, sensor("sound", "SOUND", "2")) == 61);
+        check("Color id", eval(executor, sensor("color", "COLOUR", "3")) == 5);
+        check("Color ambient light", eval(executor, sensor("color", "AMBIENTLIGHT", "3")) == 12);
+        check("Gyro rate", eval(executor, sensor("gyro", "RATE", "1")) == -90);
+        check("Light reflected", eval(executor, sensor("light", "LIGHT", "1")) == 75);
+        check("Light ambient", eval(executor, sensor("light", "AMBIENTLIGHT", "1")) == 8);
+        check("Unsupported mode", compile(sensor("color", "RGB", "3")) == null);
+        System.out.println();
+    }
+    
+    private static void testPressedSensors() {
+        System.out.println("Testing touch and keys:");
+        MockHardware hardware = new MockHardware(null);
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware);
+        
+        ValueNode key = compile(sensor("key", "PRESSED", "ENTER"));
+        check("Key released", key.getType() == ValueNode.TYPE_BOOLEAN && !key.evalBoolean(executor));
+        hardware.setSensorValue("ENTER", "KEY", Boolean.TRUE);
+        check("Key pressed", key.evalBoolean(executor));
+        
+        hardware.setTouchSensorValue("1", true);
+        check("Touch pressed", compile(sensor("touch", "PRESSED", "1")).evalBoolean(executor));
+        System.out.println();
+    }
+    
+    private static void testEncoder() {
+        System.out.println("Testing encoder:");
+        MockHardware hardware = new MockHardware(null);
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware);
+        hardware.getMotor("B").rotate(720, true);
+        
+        check("Degrees", eval(executor, sensor("encoder", "DEGREE", "B")) == 720);
+        check("Rotations", eval(executor, sensor("encoder", "ROTATION", "B")) == 2);
+        double wheel = executor.getConfiguration().getWheelDiameter();
+        check("Distance uses the wheel diameter",
+            Math.abs(eval(executor, sensor("encoder", "DISTANCE", "B")) - 2 * Math.PI * wheel) < 1e-9);
+        
+        run(executor, "<block type=\"robSensors_encoder_reset\"><field name=\"SENSORPORT\">B</field></block>");
+        check("Reset", eval(executor, sensor("encoder", "DEGREE", "B")) == 0);
+        System.out.println();
+    }
+    
+    private static void testTimer() {
+        System.out.println("Testing timer:");
+        MockHardware hardware = new MockHardware(null);
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware);
+        
+        ValueNode timer = compile(sensor("timer", "VALUE", "1"));
+        hardware.delay(250);
+        check("Counts milliseconds", timer.evalNumber(executor) == 250);
+        
+        run(executor, "<block type=\"robSensors_timer_reset\"><field name=\"SENSORPORT\">1</field></block>");
+        hardware.delay(40);
+        check("Reset", eval(executor, sensor("timer", "VALUE", "1")) == 40);
+        System.out.println();
+    }
+    
+    private static void testMinSampleInterval() {
+        System.out.println("Testing minimum sample interval:");
+        MockHardware hardware = new MockHardware(null);
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware);
+        ValueNode distance = compile(sensor("ultrasonic", "DISTANCE", "4"));
+        ValueNode light = compile(sensor("light", "LIGHT", "1"));
+        
+        distance.evalNumber(executor);
+        distance.evalNumber(executor);
+        light.evalNumber(executor);
+        light.evalNumber(executor);
+        check("Ultrasonic read once within its interval", countStartingWith(hardware, "Sensor 4 (ULTRASONIC).getValue()") == 1);
+        check("Light read every time", countStartingWith(hardware, "Sensor 1 (LIGHT).getValue()") == 2);
+        
+        hardware.setDistanceSensorValue("4", 12);
+        check("Previous sample reused", distance.evalNumber(executor) == 50);
+        hardware.delay(SensorTypes.getMinSampleInterval(SensorTypes.ULTRASONIC));
+        check("New sample after the interval", distance.evalNumber(executor) == 12);
+        System.out.println();
+    }
+    
+    private static void testSampleTable() {
+        System.out.println("Testing sample table:");
+        MockHardware hardware = new MockHardware(null);
+        NepoBlockExecutor executor = new NepoBlockExecutor(hardware);
+        eval(executor, sensor("sound", "SOUND", "2"));
+        eval(executor, sensor("sound", "SOUND", "2"));
+        eval(executor, sensor("ultrasonic", "DISTANCE", "4"));
+        
+        SensorSamples samples = executor.getSensorSamples();
+        check("One slot per sensor", samples.getSlotCount() == 2);
+        check("Slot describes the sensor", "2".equals(samples.getPort(0))
+            && SensorTypes.SOUND.equals(samples.getType(0))
+            && samples.getMinSampleInterval(1) == SensorTypes.ULTRASONIC_MIN_INTERVAL);
+        check("Latency reported", samples.getLatency(0) == 0 && samples.getMaxLatency(1) == 0);
+        System.out.println();
+    }
+        
+    private static double eval(NepoBlockExecutor executor, String xml) {
+        return compile(xml).evalNumber(executor);
+    }
+    
+    private static void run(NepoBlockExecutor executor, String statements) {
+        executor.executeBlock(parse(program(statements)));
+    }
+        }
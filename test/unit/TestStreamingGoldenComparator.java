@@ -0,0 +1,186 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Unit test for StreamingGoldenComparator
+ *
+ * Feeds log lines to a comparator reading its golden content from a
+ * BufferedReader and checks the divergence line and the context window,
+ * and that a divergence stops the executor.
+ */
+public class TestStreamingGoldenComparator extends UnitTest {
+
+    private static class TestCase {
+        String name;
+        String golden;
+        String[] log;
+        int expectedDivergenceLine;
+        String[] expectedContext;
+
+        TestCase(String name, String golden, String[] log, int expectedDivergenceLine, String[] expectedContext) {
+            this.name = name;
+            this.golden = golden;
+            this.log = log;
+            this.expectedDivergenceLine = expectedDivergenceLine;
+            this.expectedContext = expectedContext;
+        }
+    }
+
+    /**
+     * Golden content, log lines, and the divergence line and context the
+     * comparator should report once the log is finished
+     */
+    private static final TestCase[] TEST_CASES = {
+        new TestCase(
+            "Matching log",
+            "a\nb\nc\n",
+            new String[] { "a", "b", "c" },
+            0,
+            new String[0]
+        ),
+
+        // The ring buffer keeps the last three matching lines, the
+        // expected lines are read ahead and the actual ones cut off
+        new TestCase(
+            "Divergence after the ring buffer wrapped",
+            "l1\nl2\nl3\nl4\nl5\nl6\nl7\nl8\nl9\n",
+            new String[] { "l1", "l2", "l3", "l4", "l5", "x6", "x7", "x8", "x9" },
+            6,
+            new String[] {
+                "      3  l3",
+                "      4  l4",
+                "      5  l5",
+                "-     6  l6",
+                "-     7  l7",
+                "-     8  l8",
+                "+     6  x6",
+                "+     7  x7",
+                "+     8  x8"
+            }
+        ),
+
+        new TestCase(
+            "Divergence on the first line",
+            "a\nb\n",
+            new String[] { "x", "b" },
+            1,
+            new String[] {
+                "-     1  a",
+                "-     2  b",
+                "+     1  x",
+                "+     2  b"
+            }
+        ),
+
+        new TestCase(
+            "Log ends before the golden file",
+            "a\nb\nc\n",
+            new String[] { "a" },
+            2,
+            new String[] {
+                "      1  a",
+                "-     2  b",
+                "-     3  c",
+                "+     2  (end of log)"
+            }
+        ),
+
+        new TestCase(
+            "Log runs past the golden file",
+            "a\n",
+            new String[] { "a", "b", "c" },
+            2,
+            new String[] {
+                "      1  a",
+                "-     2  (end of golden file)",
+                "+     2  b",
+                "+     3  c"
+            }
+        ),
+
+        new TestCase(
+            "Empty log matches the marker",
+            StreamingGoldenComparator.NO_INTERACTIONS + "\n",
+            new String[0],
+            0,
+            new String[0]
+        ),
+
+        new TestCase(
+            "Empty log compared as the marker",
+            "a\n",
+            new String[0],
+            1,
+            new String[] {
+                "-     1  a",
+                "+     1  " + StreamingGoldenComparator.NO_INTERACTIONS
+            }
+        ),
+    };
+
+    public static void main(String[] args) {
+        System.out.println("=== Testing streaming golden comparator ===\n");
+
+        testCases();
+        testStopOnDivergence();
+
+        finish("streaming golden comparator");
+    }
+
+    private static void testCases() {
+        System.out.println("Testing divergence and context:");
+        for (int i = 0; i < TEST_CASES.length; i++) {
+            TestCase test = TEST_CASES[i];
+            StreamingGoldenComparator comparator = compare(test.golden, test.log);
+            List<String> context = comparator.getContext();
+            boolean passed = comparator.getDivergenceLine() == test.expectedDivergenceLine
+                && comparator.matches() == (test.expectedDivergenceLine == 0)
+                && context.equals(Arrays.asList(test.expectedContext));
+            check(test.name, passed);
+            if (!passed) {
+                System.out.println("    Expected divergence at " + test.expectedDivergenceLine + ":");
+                printLines(Arrays.asList(test.expectedContext));
+                System.out.println("    Actual divergence at " + comparator.getDivergenceLine() + ":");
+                printLines(context);
+            }
+        }
+        System.out.println();
+    }
+
+    private static void testStopOnDivergence() {
+        System.out.println("Testing stop on divergence:");
+        MockHardware hardware = new MockHardware(null);
+        TestNepoBlockExecutor executor = new TestNepoBlockExecutor(hardware);
+        StreamingGoldenComparator comparator = golden("a\nb\n");
+        comparator.attach(hardware, executor);
+
+        hardware.log("a");
+        check("Running while the log matches", executor.isRunning() && !comparator.hasDiverged());
+        hardware.log("x");
+        check("Stopped on the divergence", !executor.isRunning() && comparator.getDivergenceLine() == 2);
+        System.out.println();
+    }
+
+    private static StreamingGoldenComparator compare(String golden, String[] log) {
+        StreamingGoldenComparator comparator = golden(golden);
+        for (int i = 0; i < log.length; i++) {
+            comparator.logged(log[i]);
+        }
+        try {
+            comparator.finish();
+        } catch (IOException e) {
+            check("Golden content read", false);
+        }
+        return comparator;
+    }
+
+    private static StreamingGoldenComparator golden(String content) {
+        return new StreamingGoldenComparator(new BufferedReader(new StringReader(content)));
+    }
+
+    private static void printLines(List<String> lines) {
+        for (int i = 0; i < lines.size(); i++) {
+            System.out.println("      " + lines.get(i));
+        }
+    }
+}